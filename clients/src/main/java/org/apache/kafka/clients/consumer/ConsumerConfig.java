@@ -151,6 +151,16 @@ public class ConsumerConfig extends AbstractConfig {
             "<code>max.message.bytes</code> (topic config). See " + FETCH_MAX_BYTES_CONFIG + " for limiting the consumer request size.";
     public static final int DEFAULT_MAX_PARTITION_FETCH_BYTES = 1 * 1024 * 1024;
 
+    /**
+     * <code>max.partition.prefetch.bytes</code>
+     */
+    public static final String MAX_PARTITION_PREFETCH_BYTES_CONFIG = "max.partition.prefetch.bytes";
+    private static final String MAX_PARTITION_PREFETCH_BYTES_DOC = "The amount of fetched but not yet consumed data per-partition " +
+            "below which the consumer keeps fetching ahead of the consumed position. By default (0), a partition is only fetched " +
+            "again once all of its buffered data has been returned from <code>poll()</code>. A non-zero value lets the next fetch " +
+            "overlap with the processing of the records already returned, at the cost of buffering up to this amount plus " +
+            "one fetch response (see " + MAX_PARTITION_FETCH_BYTES_CONFIG + ") per partition.";
+
     /** <code>send.buffer.bytes</code> */
     public static final String SEND_BUFFER_CONFIG = CommonClientConfigs.SEND_BUFFER_CONFIG;
 
@@ -253,6 +263,28 @@ public class ConsumerConfig extends AbstractConfig {
             " return the LSO";
 
     public static final String DEFAULT_ISOLATION_LEVEL = IsolationLevel.READ_UNCOMMITTED.toString().toLowerCase(Locale.ROOT);
+
+    /** <code>adaptive.fetching</code> */
+    public static final String ADAPTIVE_FETCHING_CONFIG = "adaptive.fetching";
+    private static final String ADAPTIVE_FETCHING_DOC = "If true, the consumer adjusts the number of records returned by a poll and its fetch sizes to the measured" +
+            " time the application takes to process a record, taken from the interval between polls, and to the fetch latency. <code>" + MAX_POLL_RECORDS_CONFIG + "</code>," +
+            " <code>" + FETCH_MAX_BYTES_CONFIG + "</code> and <code>" + MAX_PARTITION_FETCH_BYTES_CONFIG + "</code> become upper bounds: a poll returns as many" +
+            " records as can be processed within half of <code>" + MAX_POLL_INTERVAL_MS_CONFIG + "</code>, and fetches are sized for the data processed during two" +
+            " fetch round trips, but not below 64 KB.";
+
+    /** <code>fetch.decompression.threads</code> */
+    public static final String FETCH_DECOMPRESSION_THREADS_CONFIG = "fetch.decompression.threads";
+    private static final String FETCH_DECOMPRESSION_THREADS_DOC = "The number of background threads used to decompress and validate the compressed" +
+            " record batches of fetch responses as soon as they are received, in parallel across partitions. By default (0), batches are decompressed" +
+            " by the thread calling <code>poll()</code> as the records are returned. Batches decompressed in the background are held in memory in" +
+            " decompressed form until they are consumed.";
+
+    /** <code>lazy.deserialization</code> */
+    public static final String LAZY_DESERIALIZATION_CONFIG = "lazy.deserialization";
+    private static final String LAZY_DESERIALIZATION_DOC = "If true, the key and value of each consumed record are kept as views of the fetched data and" +
+            " are only deserialized when <code>ConsumerRecord.key()</code> or <code>ConsumerRecord.value()</code> is first called. Consumers which filter" +
+            " records by topic, offset or headers then avoid the copy and deserialization cost for the records they drop. Deserialization errors are" +
+            " raised from the accessor rather than from <code>poll()</code>, and the deserializers must remain usable for as long as records are accessed.";
     
     static {
         CONFIG = new ConfigDef().define(BOOTSTRAP_SERVERS_CONFIG,
@@ -303,6 +335,12 @@ public class ConsumerConfig extends AbstractConfig {
                                         atLeast(0),
                                         Importance.HIGH,
                                         MAX_PARTITION_FETCH_BYTES_DOC)
+                                .define(MAX_PARTITION_PREFETCH_BYTES_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        MAX_PARTITION_PREFETCH_BYTES_DOC)
                                 .define(SEND_BUFFER_CONFIG,
                                         Type.INT,
                                         128 * 1024,
@@ -437,6 +475,22 @@ public class ConsumerConfig extends AbstractConfig {
                                         in(IsolationLevel.READ_COMMITTED.toString().toLowerCase(Locale.ROOT), IsolationLevel.READ_UNCOMMITTED.toString().toLowerCase(Locale.ROOT)),
                                         Importance.MEDIUM,
                                         ISOLATION_LEVEL_DOC)
+                                .define(FETCH_DECOMPRESSION_THREADS_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        FETCH_DECOMPRESSION_THREADS_DOC)
+                                .define(ADAPTIVE_FETCHING_CONFIG,
+                                        Type.BOOLEAN,
+                                        false,
+                                        Importance.LOW,
+                                        ADAPTIVE_FETCHING_DOC)
+                                .define(LAZY_DESERIALIZATION_CONFIG,
+                                        Type.BOOLEAN,
+                                        false,
+                                        Importance.LOW,
+                                        LAZY_DESERIALIZATION_DOC)
                                 // security support
                                 .define(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG,
                                         Type.STRING,
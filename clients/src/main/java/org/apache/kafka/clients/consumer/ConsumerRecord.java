@@ -232,6 +232,6 @@ public class ConsumerRecord<K, V> {
                + ", serialized key size = "  + serializedKeySize
                + ", serialized value size = " + serializedValueSize
                + ", headers = " + headers
-               + ", key = " + key + ", value = " + value + ")";
+               + ", key = " + key() + ", value = " + value() + ")";
     }
 }
@@ -26,6 +26,7 @@ import org.apache.kafka.clients.consumer.internals.ConsumerMetrics;
 import org.apache.kafka.clients.consumer.internals.ConsumerNetworkClient;
 import org.apache.kafka.clients.consumer.internals.ConsumerNetworkClient.PollCondition;
 import org.apache.kafka.clients.consumer.internals.Fetcher;
+import org.apache.kafka.clients.consumer.internals.FetcherOptions;
 import org.apache.kafka.clients.consumer.internals.NoOpConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.internals.PartitionAssignor;
 import org.apache.kafka.clients.consumer.internals.SubscriptionState;
@@ -35,6 +36,7 @@ import org.apache.kafka.common.Metric;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.internals.ClusterResourceListeners;
@@ -45,6 +47,7 @@ import org.apache.kafka.common.metrics.MetricsReporter;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.Selector;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.requests.IsolationLevel;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.serialization.Deserializer;
@@ -770,7 +773,8 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     metricsRegistry.fetcherMetrics,
                     this.time,
                     this.retryBackoffMs,
-                    isolationLevel);
+                    isolationLevel,
+                    FetcherOptions.fromConfig(config));
 
             config.logUnused();
             AppInfoParser.registerAppInfo(JMX_PREFIX, clientId, metrics);
@@ -1101,6 +1105,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
 
             // poll for new data until the timeout expires
             long start = time.milliseconds();
+            fetcher.onPollStart(start);
             long remaining = timeout;
             do {
                 Map<TopicPartition, List<ConsumerRecord<K, V>>> records = pollOnce(remaining);
@@ -1114,10 +1119,12 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     if (fetcher.sendFetches() > 0 || client.hasPendingRequests())
                         client.pollNoWakeup();
 
+                    ConsumerRecords<K, V> consumerRecords = new ConsumerRecords<>(records);
+                    fetcher.onPollReturn(consumerRecords.count(), time.milliseconds());
                     if (this.interceptors == null)
-                        return new ConsumerRecords<>(records);
+                        return consumerRecords;
                     else
-                        return this.interceptors.onConsume(new ConsumerRecords<>(records));
+                        return this.interceptors.onConsume(consumerRecords);
                 }
 
                 long elapsed = time.milliseconds() - start;
@@ -1130,6 +1137,70 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         }
     }
 
+    /**
+     * Fetch data for the topics or partitions specified using one of the subscribe/assign APIs as whole record
+     * batches. This behaves like {@link #poll(long)}, but returns the batches as they were received from the broker,
+     * without decompressing them or deserializing their records, so that byte-level pipelines such as mirroring or
+     * archiving can forward them as they are. Control batches and, in <code>read_committed</code> mode, aborted
+     * batches are not returned. Consumer interceptors are not invoked for the returned batches.
+     * <p>
+     * Since whole batches are returned, the first batch of a partition may contain records before the consumed
+     * position, for example after a {@link #seek(TopicPartition, long)}. The consumed position is moved past the
+     * last returned batch of each partition.
+     *
+     * @param timeout The time, in milliseconds, spent waiting in poll if data is not available in the buffer.
+     *            If 0, returns immediately with any batches that are available currently in the buffer, else returns
+     *            empty. Must not be negative.
+     * @return map of partition to the batches fetched since the last poll for the subscribed list of topics and
+     *         partitions
+     *
+     * @throws org.apache.kafka.clients.consumer.InvalidOffsetException if the offset for a partition or set of
+     *             partitions is undefined or out of range and no offset reset policy has been configured
+     * @throws org.apache.kafka.common.errors.WakeupException if {@link #wakeup()} is called before or while this
+     *             function is called
+     * @throws org.apache.kafka.common.errors.InterruptException if the calling thread is interrupted before or while
+     *             this function is called
+     * @throws org.apache.kafka.common.errors.AuthenticationException if authentication fails. See the exception for more details
+     * @throws org.apache.kafka.common.errors.AuthorizationException if caller lacks Read access to any of the subscribed
+     *             topics or to the configured groupId. See the exception for more details
+     * @throws org.apache.kafka.common.KafkaException for any other unrecoverable errors (e.g. invalid groupId or
+     *             session timeout, corrupt batches, or any new error cases in future versions)
+     * @throws java.lang.IllegalArgumentException if the timeout value is negative
+     * @throws java.lang.IllegalStateException if the consumer is not subscribed to any topics or manually assigned any
+     *             partitions to consume from
+     */
+    @InterfaceStability.Evolving
+    public Map<TopicPartition, List<RecordBatch>> pollBatches(long timeout) {
+        acquireAndEnsureOpen();
+        try {
+            if (timeout < 0)
+                throw new IllegalArgumentException("Timeout must not be negative");
+
+            if (this.subscriptions.hasNoSubscriptionOrUserAssignment())
+                throw new IllegalStateException("Consumer is not subscribed to any topics or assigned any partitions");
+
+            // poll for new data until the timeout expires
+            long start = time.milliseconds();
+            long remaining = timeout;
+            do {
+                Map<TopicPartition, List<RecordBatch>> batches = pollBatchesOnce(remaining);
+                if (!batches.isEmpty()) {
+                    // as in poll(), send off the next round of fetches before returning the batches
+                    if (fetcher.sendFetches() > 0 || client.hasPendingRequests())
+                        client.pollNoWakeup();
+                    return batches;
+                }
+
+                long elapsed = time.milliseconds() - start;
+                remaining = timeout - elapsed;
+            } while (remaining > 0);
+
+            return Collections.emptyMap();
+        } finally {
+            release();
+        }
+    }
+
     /**
      * Do one round of polling. In addition to checking for new data, this does any needed offset commits
      * (if auto-commit is enabled), and offset resets (if an offset reset policy is defined).
@@ -1137,6 +1208,39 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
      * @return The fetched records (may be empty)
      */
     private Map<TopicPartition, List<ConsumerRecord<K, V>>> pollOnce(long timeout) {
+        pollCoordinator(timeout);
+
+        // if data is available already, return it immediately
+        Map<TopicPartition, List<ConsumerRecord<K, V>>> records = fetcher.fetchedRecords();
+        if (!records.isEmpty())
+            return records;
+
+        if (!pollForFetches(timeout))
+            return Collections.emptyMap();
+
+        return fetcher.fetchedRecords();
+    }
+
+    /**
+     * Do one round of polling for whole record batches, see {@link #pollOnce(long)}.
+     * @param timeout The maximum time to block in the underlying call to {@link ConsumerNetworkClient#poll(long)}.
+     * @return The fetched batches (may be empty)
+     */
+    private Map<TopicPartition, List<RecordBatch>> pollBatchesOnce(long timeout) {
+        pollCoordinator(timeout);
+
+        // if data is available already, return it immediately
+        Map<TopicPartition, List<RecordBatch>> batches = fetcher.fetchedBatches();
+        if (!batches.isEmpty())
+            return batches;
+
+        if (!pollForFetches(timeout))
+            return Collections.emptyMap();
+
+        return fetcher.fetchedBatches();
+    }
+
+    private void pollCoordinator(long timeout) {
         client.maybeTriggerWakeup();
         coordinator.poll(time.milliseconds(), timeout);
 
@@ -1144,12 +1248,13 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         // don't know the offset for
         if (!subscriptions.hasAllFetchPositions())
             updateFetchPositions(this.subscriptions.missingFetchPositions());
+    }
 
-        // if data is available already, return it immediately
-        Map<TopicPartition, List<ConsumerRecord<K, V>>> records = fetcher.fetchedRecords();
-        if (!records.isEmpty())
-            return records;
-
+    /**
+     * Send any new fetches and wait for fetched data to become available.
+     * @return false if the group needs to rebalance, in which case no fetched data should be returned
+     */
+    private boolean pollForFetches(long timeout) {
         // send any new fetches (won't resend pending fetches)
         fetcher.sendFetches();
 
@@ -1167,10 +1272,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
 
         // after the long poll, we should check whether the group needs to rebalance
         // prior to returning data so that the group can stabilize faster
-        if (coordinator.needRejoin())
-            return Collections.emptyMap();
-
-        return fetcher.fetchedRecords();
+        return !coordinator.needRejoin();
     }
 
     /**
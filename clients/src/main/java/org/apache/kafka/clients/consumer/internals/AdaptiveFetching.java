@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+/**
+ * Adjusts the number of records returned by a poll and the fetch sizes of the consumer, within the configured values
+ * as upper bounds, based on the time the application takes to process a record and the latency of fetch requests.
+ * <p>
+ * The processing time of a record is the time from the return of a poll to the start of the next one, divided by
+ * the number of records returned. A poll returns as many records as can be processed within half of
+ * <code>max.poll.interval.ms</code>, leaving room for a slow poll without leaving the group.
+ * <p>
+ * Fetches are sized for the bytes processed during two fetch round trips, so that the next fetch is in flight while
+ * the data of the previous one is processed, and for at least the records of one poll. The fetch sizes are not
+ * reduced below {@link #MIN_FETCH_BYTES}, since small fetches cost more requests than they save memory.
+ * <p>
+ * Fetch latencies are recorded by whichever thread completes the fetch, so the state is guarded by this object.
+ */
+final class AdaptiveFetching {
+
+    static final int MIN_FETCH_BYTES = 64 * 1024;
+
+    // the weight of a new sample in the moving averages
+    private static final double SAMPLE_WEIGHT = 0.2;
+    // the part of the maximum poll interval which the records of one poll should take to process
+    private static final double POLL_INTERVAL_SHARE = 0.5;
+
+    private final int maxPollRecords;
+    private final int maxFetchBytes;
+    private final int maxPartitionFetchBytes;
+    private final long maxPollIntervalMs;
+
+    // averages are negative until the first sample is recorded
+    private double recordProcessingMs = -1;
+    private double bytesPerRecord = -1;
+    private double fetchLatencyMs = -1;
+
+    private long lastPollReturnMs = -1;
+    private int lastPollRecords = 0;
+
+    private int pollRecords;
+    private int fetchBytes;
+    private int partitionFetchBytes;
+
+    AdaptiveFetching(int maxPollRecords, int maxFetchBytes, int maxPartitionFetchBytes, long maxPollIntervalMs) {
+        this.maxPollRecords = maxPollRecords;
+        this.maxFetchBytes = maxFetchBytes;
+        this.maxPartitionFetchBytes = maxPartitionFetchBytes;
+        this.maxPollIntervalMs = maxPollIntervalMs;
+        this.pollRecords = maxPollRecords;
+        this.fetchBytes = maxFetchBytes;
+        this.partitionFetchBytes = maxPartitionFetchBytes;
+    }
+
+    /**
+     * The number of records to return from a poll
+     */
+    synchronized int pollRecords() {
+        return pollRecords;
+    }
+
+    /**
+     * The maximum number of bytes to fetch in a request
+     */
+    synchronized int fetchBytes() {
+        return fetchBytes;
+    }
+
+    /**
+     * The maximum number of bytes to fetch for a partition
+     */
+    synchronized int partitionFetchBytes() {
+        return partitionFetchBytes;
+    }
+
+    /**
+     * Record the start of a poll, which ends the processing of the records returned by the previous one.
+     */
+    synchronized void onPollStart(long now) {
+        if (lastPollRecords > 0) {
+            recordProcessingMs = average(recordProcessingMs, (double) (now - lastPollReturnMs) / lastPollRecords);
+            lastPollRecords = 0;
+            update();
+        }
+    }
+
+    /**
+     * Record the number of records returned by a poll, which the application processes until the next one.
+     */
+    synchronized void onPollReturn(int records, long now) {
+        lastPollRecords = records;
+        lastPollReturnMs = now;
+    }
+
+    /**
+     * Record the size of the records read from a fetched partition.
+     */
+    synchronized void onRecordsRead(int bytes, int records) {
+        if (records > 0) {
+            bytesPerRecord = average(bytesPerRecord, (double) bytes / records);
+            update();
+        }
+    }
+
+    /**
+     * Record the latency of a completed fetch request.
+     */
+    synchronized void onFetchCompleted(long latencyMs) {
+        fetchLatencyMs = average(fetchLatencyMs, latencyMs);
+        update();
+    }
+
+    private void update() {
+        if (recordProcessingMs < 0)
+            return;
+
+        // a record processed in less than a millisecond on average does not bound the records of a poll
+        double recordsWithinInterval = POLL_INTERVAL_SHARE * maxPollIntervalMs / Math.max(recordProcessingMs, 1e-3);
+        pollRecords = (int) Math.max(1, Math.min(maxPollRecords, recordsWithinInterval));
+
+        if (bytesPerRecord < 0 || fetchLatencyMs < 0)
+            return;
+
+        double bytesPerMs = bytesPerRecord / Math.max(recordProcessingMs, 1e-3);
+        double targetBytes = Math.max(pollRecords * bytesPerRecord, 2 * fetchLatencyMs * bytesPerMs);
+        fetchBytes = clamp(targetBytes, maxFetchBytes);
+        partitionFetchBytes = clamp(targetBytes, maxPartitionFetchBytes);
+    }
+
+    private static int clamp(double bytes, int max) {
+        return (int) Math.min(max, Math.max(MIN_FETCH_BYTES, bytes));
+    }
+
+    private static double average(double average, double sample) {
+        return average < 0 ? sample : average + SAMPLE_WEIGHT * (sample - average);
+    }
+}
@@ -17,6 +17,7 @@
 package org.apache.kafka.clients.consumer.internals;
 
 import org.apache.kafka.clients.ClientResponse;
+import org.apache.kafka.clients.FetchSessionHandler;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
@@ -29,6 +30,7 @@ import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.InvalidMetadataException;
 import org.apache.kafka.common.errors.InvalidTopicException;
 import org.apache.kafka.common.errors.RecordTooLargeException;
@@ -38,6 +40,8 @@ import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicAuthorizationException;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Avg;
@@ -47,6 +51,7 @@ import org.apache.kafka.common.metrics.stats.Meter;
 import org.apache.kafka.common.metrics.stats.Value;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.ControlRecordType;
 import org.apache.kafka.common.record.InvalidRecordException;
 import org.apache.kafka.common.record.Record;
@@ -62,6 +67,7 @@ import org.apache.kafka.common.requests.MetadataResponse;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.ExtendedDeserializer;
 import org.apache.kafka.common.utils.CloseableIterator;
+import org.apache.kafka.common.utils.KafkaThread;
 import org.apache.kafka.common.utils.LogContext;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
@@ -81,7 +87,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Collections.emptyList;
@@ -106,10 +120,17 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
     private final SubscriptionState subscriptions;
     private final ConcurrentLinkedQueue<CompletedFetch> completedFetches;
     private final BufferSupplier decompressionBufferSupplier = BufferSupplier.create();
+    private final ExecutorService decompressionExecutor;
 
     private final ExtendedDeserializer<K> keyDeserializer;
     private final ExtendedDeserializer<V> valueDeserializer;
     private final IsolationLevel isolationLevel;
+    private final boolean lazyDeserialization;
+    private final int prefetchBytes;
+    // tunes the records per poll and the fetch sizes, or null if they are fixed
+    private final AdaptiveFetching adaptiveFetching;
+    private final LogContext logContext;
+    private final Map<Integer, FetchSessionHandler> sessionHandlers;
 
     private PartitionRecords nextInLineRecords = null;
 
@@ -130,7 +151,31 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                    Time time,
                    long retryBackoffMs,
                    IsolationLevel isolationLevel) {
+        this(logContext, client, minBytes, maxBytes, maxWaitMs, fetchSize, maxPollRecords, checkCrcs, keyDeserializer,
+                valueDeserializer, metadata, subscriptions, metrics, metricsRegistry, time, retryBackoffMs,
+                isolationLevel, new FetcherOptions());
+    }
+
+    public Fetcher(LogContext logContext,
+                   ConsumerNetworkClient client,
+                   int minBytes,
+                   int maxBytes,
+                   int maxWaitMs,
+                   int fetchSize,
+                   int maxPollRecords,
+                   boolean checkCrcs,
+                   Deserializer<K> keyDeserializer,
+                   Deserializer<V> valueDeserializer,
+                   Metadata metadata,
+                   SubscriptionState subscriptions,
+                   Metrics metrics,
+                   FetcherMetricsRegistry metricsRegistry,
+                   Time time,
+                   long retryBackoffMs,
+                   IsolationLevel isolationLevel,
+                   FetcherOptions options) {
         this.log = logContext.logger(Fetcher.class);
+        this.logContext = logContext;
         this.time = time;
         this.client = client;
         this.metadata = metadata;
@@ -147,10 +192,46 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         this.sensors = new FetchManagerMetrics(metrics, metricsRegistry);
         this.retryBackoffMs = retryBackoffMs;
         this.isolationLevel = isolationLevel;
+        this.lazyDeserialization = options.lazyDeserialization();
+        this.prefetchBytes = options.prefetchBytes();
+        this.adaptiveFetching = options.adaptiveFetching() ?
+                new AdaptiveFetching(maxPollRecords, maxBytes, fetchSize, options.maxPollIntervalMs()) : null;
+        this.decompressionExecutor = options.decompressionThreads() > 0 ?
+                newDecompressionExecutor(options.decompressionThreads()) : null;
+        this.sessionHandlers = new HashMap<>();
+        if (this.adaptiveFetching != null)
+            registerAdaptiveFetchingMetrics(metrics, metricsRegistry);
 
         subscriptions.addListener(this);
     }
 
+    private void registerAdaptiveFetchingMetrics(Metrics metrics, FetcherMetricsRegistry metricsRegistry) {
+        metrics.addMetric(metrics.metricInstance(metricsRegistry.pollRecordsTarget), new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return adaptiveFetching.pollRecords();
+            }
+        });
+        metrics.addMetric(metrics.metricInstance(metricsRegistry.fetchMaxBytesTarget), new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return adaptiveFetching.fetchBytes();
+            }
+        });
+        metrics.addMetric(metrics.metricInstance(metricsRegistry.partitionFetchBytesTarget), new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return adaptiveFetching.partitionFetchBytes();
+            }
+        });
+    }
+
+    private static ExecutorService newDecompressionExecutor(int threads) {
+        final AtomicInteger threadIndex = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                return KafkaThread.daemon("kafka-fetch-decompression-" + threadIndex.incrementAndGet(), runnable);
+            }
+        });
+    }
+
     /**
      * Represents data about an offset returned by a broker.
      */
@@ -181,59 +262,97 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         return !completedFetches.isEmpty();
     }
 
-    private boolean matchesRequestedPartitions(FetchRequest.Builder request, FetchResponse response) {
-        Set<TopicPartition> requestedPartitions = request.fetchData().keySet();
-        Set<TopicPartition> fetchedPartitions = response.responseData().keySet();
-        return fetchedPartitions.equals(requestedPartitions);
+    /**
+     * Record the start of a poll by the application. With adaptive fetching, the time since the previous poll
+     * returned records is taken as the time the application needed to process them.
+     */
+    public void onPollStart(long now) {
+        if (adaptiveFetching != null)
+            adaptiveFetching.onPollStart(now);
+    }
+
+    /**
+     * Record the number of records returned to the application by a poll.
+     */
+    public void onPollReturn(int records, long now) {
+        if (adaptiveFetching != null)
+            adaptiveFetching.onPollReturn(records, now);
+    }
+
+    private int maxPollRecords() {
+        return adaptiveFetching == null ? maxPollRecords : adaptiveFetching.pollRecords();
+    }
+
+    private int fetchMaxBytes() {
+        return adaptiveFetching == null ? maxBytes : adaptiveFetching.fetchBytes();
+    }
+
+    private int partitionFetchBytes() {
+        return adaptiveFetching == null ? fetchSize : adaptiveFetching.partitionFetchBytes();
     }
 
     /**
      * Set-up a fetch request for any node that we have assigned partitions for which doesn't already have
-     * an in-flight fetch or pending fetch data.
+     * an in-flight fetch or pending fetch data. If prefetching is enabled, partitions with pending fetch data
+     * are fetched ahead, starting after the buffered data, while it is smaller than the prefetch budget.
      * @return number of fetches sent
      */
     public int sendFetches() {
-        Map<Node, FetchRequest.Builder> fetchRequestMap = createFetchRequests();
-        for (Map.Entry<Node, FetchRequest.Builder> fetchEntry : fetchRequestMap.entrySet()) {
-            final FetchRequest.Builder request = fetchEntry.getValue();
+        Map<Node, FetchSessionHandler.FetchRequestData> fetchRequestMap = prepareFetchRequests();
+        for (Map.Entry<Node, FetchSessionHandler.FetchRequestData> fetchEntry : fetchRequestMap.entrySet()) {
             final Node fetchTarget = fetchEntry.getKey();
-
-            log.debug("Sending {} fetch for partitions {} to broker {}", isolationLevel, request.fetchData().keySet(),
-                    fetchTarget);
+            final FetchSessionHandler.FetchRequestData data = fetchEntry.getValue();
+            final FetchRequest.Builder request = FetchRequest.Builder
+                    .forConsumer(this.maxWaitMs, this.minBytes, data.toSend(), isolationLevel)
+                    .setMaxBytes(fetchMaxBytes())
+                    .metadata(data.metadata())
+                    .toForget(data.toForget());
+
+            log.debug("Sending {} {} to broker {}", isolationLevel, data, fetchTarget);
             client.send(fetchTarget, request)
                     .addListener(new RequestFutureListener<ClientResponse>() {
                         @Override
                         public void onSuccess(ClientResponse resp) {
                             FetchResponse response = (FetchResponse) resp.responseBody();
-                            if (!matchesRequestedPartitions(request, response)) {
-                                // obviously we expect the broker to always send us valid responses, so this check
-                                // is mainly for test cases where mock fetch responses must be manually crafted.
-                                log.warn("Ignoring fetch response containing partitions {} since it does not match " +
-                                        "the requested partitions {}", response.responseData().keySet(),
-                                        request.fetchData().keySet());
+                            FetchSessionHandler handler = sessionHandlers.get(fetchTarget.id());
+                            if (handler == null) {
+                                log.error("Unable to find FetchSessionHandler for node {}. Ignoring fetch response.",
+                                        fetchTarget.id());
                                 return;
                             }
+                            // the handler verifies that the response only contains partitions of the session;
+                            // we expect the broker to always send us valid responses, so this check is mainly
+                            // for test cases where mock fetch responses must be manually crafted.
+                            if (!handler.handleResponse(response))
+                                return;
 
                             Set<TopicPartition> partitions = new HashSet<>(response.responseData().keySet());
                             FetchResponseMetricAggregator metricAggregator = new FetchResponseMetricAggregator(sensors, partitions);
 
                             for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
                                 TopicPartition partition = entry.getKey();
-                                long fetchOffset = request.fetchData().get(partition).fetchOffset;
+                                long fetchOffset = data.sessionPartitions().get(partition).fetchOffset;
                                 FetchResponse.PartitionData fetchData = entry.getValue();
 
                                 log.debug("Fetch {} at offset {} for partition {} returned fetch data {}",
                                         isolationLevel, fetchOffset, partition, fetchData);
-                                completedFetches.add(new CompletedFetch(partition, fetchOffset, fetchData, metricAggregator,
-                                        resp.requestHeader().apiVersion()));
+                                CompletedFetch completedFetch = new CompletedFetch(partition, fetchOffset, fetchData,
+                                        metricAggregator, resp.requestHeader().apiVersion());
+                                maybeDecompressAhead(completedFetch);
+                                completedFetches.add(completedFetch);
                             }
 
                             sensors.fetchLatency.record(resp.requestLatencyMs());
+                            if (adaptiveFetching != null)
+                                adaptiveFetching.onFetchCompleted(resp.requestLatencyMs());
                         }
 
                         @Override
                         public void onFailure(RuntimeException e) {
-                            log.debug("Fetch request {} to {} failed", request.fetchData(), fetchTarget, e);
+                            FetchSessionHandler handler = sessionHandlers.get(fetchTarget.id());
+                            if (handler != null)
+                                handler.handleError(e);
+                            log.debug("Fetch request {} to {} failed", data, fetchTarget, e);
                         }
                     });
         }
@@ -517,7 +636,7 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
      */
     public Map<TopicPartition, List<ConsumerRecord<K, V>>> fetchedRecords() {
         Map<TopicPartition, List<ConsumerRecord<K, V>>> fetched = new HashMap<>();
-        int recordsRemaining = maxPollRecords;
+        int recordsRemaining = maxPollRecords();
 
         try {
             while (recordsRemaining > 0) {
@@ -554,7 +673,75 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         return fetched;
     }
 
+    /**
+     * Return the fetched record batches, empty the record buffer and update the consumed position. The batches are
+     * returned as they were received from the broker, without being decompressed, so that they can be forwarded as
+     * they are. Control batches and, in <code>read_committed</code> mode, aborted batches are skipped.
+     *
+     * NOTE: since whole batches are returned, the first batch of a partition may contain records before the
+     * consumed position, for example after a seek or after records were consumed with {@link #fetchedRecords()}.
+     *
+     * @return The fetched batches per partition
+     * @throws OffsetOutOfRangeException If there is OffsetOutOfRange error in fetchResponse and
+     *         the defaultResetPolicy is NONE
+     */
+    public Map<TopicPartition, List<RecordBatch>> fetchedBatches() {
+        Map<TopicPartition, List<RecordBatch>> fetched = new HashMap<>();
+
+        try {
+            while (true) {
+                if (nextInLineRecords == null || nextInLineRecords.isFetched) {
+                    CompletedFetch completedFetch = completedFetches.peek();
+                    if (completedFetch == null) break;
+
+                    nextInLineRecords = parseCompletedFetch(completedFetch);
+                    completedFetches.poll();
+                } else {
+                    List<RecordBatch> batches = fetchBatches(nextInLineRecords);
+                    if (!batches.isEmpty()) {
+                        TopicPartition partition = nextInLineRecords.partition;
+                        List<RecordBatch> currentBatches = fetched.get(partition);
+                        if (currentBatches == null)
+                            fetched.put(partition, batches);
+                        else
+                            currentBatches.addAll(batches);
+                    }
+                }
+            }
+        } catch (KafkaException e) {
+            if (fetched.isEmpty())
+                throw e;
+        }
+        return fetched;
+    }
+
+    private List<RecordBatch> fetchBatches(PartitionRecords partitionRecords) {
+        if (isNextInLine(partitionRecords)) {
+            List<RecordBatch> batches = partitionRecords.fetchBatches();
+            updatePosition(partitionRecords);
+            return batches;
+        }
+
+        partitionRecords.drain();
+        return emptyList();
+    }
+
     private List<ConsumerRecord<K, V>> fetchRecords(PartitionRecords partitionRecords, int maxRecords) {
+        if (isNextInLine(partitionRecords)) {
+            List<ConsumerRecord<K, V>> partRecords = partitionRecords.fetchRecords(maxRecords);
+            updatePosition(partitionRecords);
+            return partRecords;
+        }
+
+        partitionRecords.drain();
+        return emptyList();
+    }
+
+    /**
+     * Check whether the partition records can be returned, that is whether the partition is still assigned and
+     * fetchable, and the records start at the consumed position.
+     */
+    private boolean isNextInLine(PartitionRecords partitionRecords) {
         if (!subscriptions.isAssigned(partitionRecords.partition)) {
             // this can happen when a rebalance happened before fetched records are returned to the consumer's poll call
             log.debug("Not returning fetched records for partition {} since it is no longer assigned",
@@ -567,18 +754,7 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 log.debug("Not returning fetched records for assigned partition {} since it is no longer fetchable",
                         partitionRecords.partition);
             } else if (partitionRecords.nextFetchOffset == position) {
-                List<ConsumerRecord<K, V>> partRecords = partitionRecords.fetchRecords(maxRecords);
-
-                long nextOffset = partitionRecords.nextFetchOffset;
-                log.trace("Returning fetched records at offset {} for assigned partition {} and update " +
-                        "position to {}", position, partitionRecords.partition, nextOffset);
-                subscriptions.position(partitionRecords.partition, nextOffset);
-
-                Long partitionLag = subscriptions.partitionLag(partitionRecords.partition, isolationLevel);
-                if (partitionLag != null)
-                    this.sensors.recordPartitionLag(partitionRecords.partition, partitionLag);
-
-                return partRecords;
+                return true;
             } else {
                 // these records aren't next in line based on the last consumed position, ignore them
                 // they must be from an obsolete request
@@ -586,9 +762,19 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                         partitionRecords.partition, partitionRecords.nextFetchOffset, position);
             }
         }
+        return false;
+    }
 
-        partitionRecords.drain();
-        return emptyList();
+    private void updatePosition(PartitionRecords partitionRecords) {
+        long position = subscriptions.position(partitionRecords.partition);
+        long nextOffset = partitionRecords.nextFetchOffset;
+        log.trace("Returning fetched records at offset {} for assigned partition {} and update " +
+                "position to {}", position, partitionRecords.partition, nextOffset);
+        subscriptions.position(partitionRecords.partition, nextOffset);
+
+        Long partitionLag = subscriptions.partitionLag(partitionRecords.partition, isolationLevel);
+        if (partitionLag != null)
+            this.sensors.recordPartitionLag(partitionRecords.partition, partitionLag);
     }
 
     /**
@@ -752,42 +938,90 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             future.complete(timestampOffsetMap);
     }
 
-    private List<TopicPartition> fetchablePartitions() {
-        Set<TopicPartition> exclude = new HashSet<>();
-        List<TopicPartition> fetchable = subscriptions.fetchablePartitions();
-        if (nextInLineRecords != null && !nextInLineRecords.isFetched) {
-            exclude.add(nextInLineRecords.partition);
-        }
-        for (CompletedFetch completedFetch : completedFetches) {
-            exclude.add(completedFetch.partition);
+    /**
+     * If a decompression thread pool is configured, start decompressing and validating the compressed batches of
+     * the completed fetch, so that the records are ready by the time the fetch is returned from poll().
+     */
+    private void maybeDecompressAhead(CompletedFetch completedFetch) {
+        if (decompressionExecutor == null || !completedFetch.hasCompressedBatches())
+            return;
+        try {
+            completedFetch.decompressedBatches = decompressionExecutor.submit(
+                    new DecompressionTask(completedFetch.partitionData.records.batches(), checkCrcs));
+        } catch (RejectedExecutionException e) {
+            // the fetcher has been closed, the batches will be decompressed when they are read
         }
-        fetchable.removeAll(exclude);
+    }
+
+    /**
+     * Get the fetchable partitions along with the offset to fetch them from. A partition with buffered data is
+     * excluded, unless prefetching is enabled and the buffered data is below the prefetch budget, in which case
+     * it is fetched from the end of the buffered data.
+     */
+    private Map<TopicPartition, Long> fetchablePartitions() {
+        Map<TopicPartition, Long> fetchable = new LinkedHashMap<>();
+        for (TopicPartition partition : subscriptions.fetchablePartitions())
+            fetchable.put(partition, subscriptions.position(partition));
+
+        Map<TopicPartition, Integer> bufferedBytes = new HashMap<>();
+        if (nextInLineRecords != null && !nextInLineRecords.isFetched)
+            maybePrefetchAfter(nextInLineRecords.completedFetch, nextInLineRecords.bytesRead, fetchable, bufferedBytes);
+        // completed fetches are queued in the order they were received, so the last one for a partition ends
+        // at the highest offset
+        for (CompletedFetch completedFetch : completedFetches)
+            maybePrefetchAfter(completedFetch, 0, fetchable, bufferedBytes);
         return fetchable;
     }
 
+    private void maybePrefetchAfter(CompletedFetch completedFetch,
+                                    int bytesConsumed,
+                                    Map<TopicPartition, Long> fetchable,
+                                    Map<TopicPartition, Integer> bufferedBytes) {
+        TopicPartition partition = completedFetch.partition;
+        if (!fetchable.containsKey(partition))
+            return;
+
+        Integer previouslyBuffered = bufferedBytes.get(partition);
+        int buffered = (previouslyBuffered == null ? 0 : previouslyBuffered) +
+                Math.max(0, completedFetch.sizeInBytes() - bytesConsumed);
+        long nextFetchOffset = completedFetch.nextFetchOffset();
+        if (buffered >= prefetchBytes || nextFetchOffset < 0) {
+            fetchable.remove(partition);
+        } else {
+            fetchable.put(partition, nextFetchOffset);
+            bufferedBytes.put(partition, buffered);
+        }
+    }
+
     /**
      * Create fetch requests for all nodes for which we have assigned partitions
      * that have no existing requests in flight.
      */
-    private Map<Node, FetchRequest.Builder> createFetchRequests() {
+    private Map<Node, FetchSessionHandler.FetchRequestData> prepareFetchRequests() {
         // create the fetch info
         Cluster cluster = metadata.fetch();
-        Map<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> fetchable = new LinkedHashMap<>();
-        for (TopicPartition partition : fetchablePartitions()) {
+        Map<Node, FetchSessionHandler.Builder> fetchable = new LinkedHashMap<>();
+        for (Map.Entry<TopicPartition, Long> entry : fetchablePartitions().entrySet()) {
+            TopicPartition partition = entry.getKey();
             Node node = cluster.leaderFor(partition);
             if (node == null) {
                 metadata.requestUpdate();
             } else if (!this.client.hasPendingRequests(node)) {
                 // if there is a leader and no in-flight requests, issue a new fetch
-                LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetch = fetchable.get(node);
-                if (fetch == null) {
-                    fetch = new LinkedHashMap<>();
-                    fetchable.put(node, fetch);
+                FetchSessionHandler.Builder builder = fetchable.get(node);
+                if (builder == null) {
+                    FetchSessionHandler handler = sessionHandlers.get(node.id());
+                    if (handler == null) {
+                        handler = new FetchSessionHandler(logContext, node.id());
+                        sessionHandlers.put(node.id(), handler);
+                    }
+                    builder = handler.newBuilder();
+                    fetchable.put(node, builder);
                 }
 
-                long position = this.subscriptions.position(partition);
-                fetch.put(partition, new FetchRequest.PartitionData(position, FetchRequest.INVALID_LOG_START_OFFSET,
-                        this.fetchSize));
+                long position = entry.getValue();
+                builder.add(partition, new FetchRequest.PartitionData(position, FetchRequest.INVALID_LOG_START_OFFSET,
+                        partitionFetchBytes()));
                 log.debug("Added {} fetch request for partition {} at offset {} to node {}", isolationLevel,
                         partition, position, node);
             } else {
@@ -796,14 +1030,9 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         }
 
         // create the fetches
-        Map<Node, FetchRequest.Builder> requests = new HashMap<>();
-        for (Map.Entry<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> entry : fetchable.entrySet()) {
-            Node node = entry.getKey();
-            FetchRequest.Builder fetch = FetchRequest.Builder.forConsumer(this.maxWaitMs, this.minBytes,
-                    entry.getValue(), isolationLevel)
-                    .setMaxBytes(this.maxBytes);
-            requests.put(node, fetch);
-        }
+        Map<Node, FetchSessionHandler.FetchRequestData> requests = new LinkedHashMap<>();
+        for (Map.Entry<Node, FetchSessionHandler.Builder> entry : fetchable.entrySet())
+            requests.put(entry.getKey(), entry.getValue().build());
         return requests;
     }
 
@@ -891,8 +1120,10 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 throw new IllegalStateException("Unexpected error code " + error.code() + " while fetching data");
             }
         } finally {
-            if (partitionRecords == null)
+            if (partitionRecords == null) {
                 completedFetch.metricAggregator.record(tp, 0, 0);
+                completedFetch.cancelDecompression();
+            }
 
             if (error != Errors.NONE)
                 // we move the partition to the end if there was an error. This way, it's more likely that partitions for
@@ -905,11 +1136,17 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
 
 
     /**
-     * Parse the record entry, deserializing the key / value fields if necessary
+     * Parse the record entry, deserializing the key / value fields if necessary. With lazy deserialization, the
+     * key and value are left as views of the fetched buffer until the application asks for them.
      */
     private ConsumerRecord<K, V> parseRecord(TopicPartition partition,
                                              RecordBatch batch,
                                              Record record) {
+        if (lazyDeserialization)
+            return new LazyConsumerRecord<>(partition, record.offset(), record.timestamp(), batch.timestampType(),
+                    record.checksumOrNull(), record.key(), record.value(), new RecordHeaders(record.headers()),
+                    this.keyDeserializer, this.valueDeserializer);
+
         try {
             long offset = record.offset();
             long timestamp = record.timestamp();
@@ -958,6 +1195,10 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         private RecordBatch currentBatch;
         private Record lastRecord;
         private CloseableIterator<Record> records;
+        // the batches decompressed and validated ahead of time, or null if they are decompressed as they are read
+        private final List<List<Record>> decompressedBatches;
+        private int batchIndex;
+        private boolean currentBatchDecompressed;
         private long nextFetchOffset;
         private boolean isFetched = false;
         private Exception cachedRecordException = null;
@@ -972,6 +1213,7 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             this.nextFetchOffset = completedFetch.fetchedOffset;
             this.abortedProducerIds = new HashSet<>();
             this.abortedTransactions = abortedTransactions(completedFetch.partitionData);
+            this.decompressedBatches = completedFetch.awaitDecompressedBatches();
         }
 
         private void drain() {
@@ -980,6 +1222,8 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                 cachedRecordException = null;
                 this.isFetched = true;
                 this.completedFetch.metricAggregator.record(partition, bytesRead, recordsRead);
+                if (adaptiveFetching != null)
+                    adaptiveFetching.onRecordsRead(bytesRead, recordsRead);
 
                 // we move the partition to the end if we received some bytes. This way, it's more likely that partitions
                 // for the same topic can remain together (allowing for more efficient serialization).
@@ -1035,7 +1279,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                     }
 
                     currentBatch = batches.next();
-                    maybeEnsureValid(currentBatch);
+                    List<Record> decompressed = decompressedBatches == null ? null : decompressedBatches.get(batchIndex++);
+                    currentBatchDecompressed = decompressed != null;
+                    // batches decompressed ahead of time have already been validated
+                    if (decompressedBatches == null)
+                        maybeEnsureValid(currentBatch);
 
                     if (isolationLevel == IsolationLevel.READ_COMMITTED && currentBatch.hasProducerId()) {
                         // remove from the aborted transaction queue all aborted transactions which have begun
@@ -1055,13 +1303,17 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
                         }
                     }
 
-                    records = currentBatch.streamingIterator(decompressionBufferSupplier);
+                    if (decompressed != null)
+                        records = closeableIterator(decompressed.iterator());
+                    else
+                        records = currentBatch.streamingIterator(decompressionBufferSupplier);
                 } else {
                     Record record = records.next();
                     // skip any records out of range
                     if (record.offset() >= nextFetchOffset) {
                         // we only do validation when the message should not be skipped.
-                        maybeEnsureValid(record);
+                        if (!currentBatchDecompressed)
+                            maybeEnsureValid(record);
 
                         // control records are not returned to the user
                         if (!currentBatch.isControlBatch()) {
@@ -1075,6 +1327,79 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             }
         }
 
+        private RecordBatch nextFetchedBatch() {
+            while (batches.hasNext()) {
+                RecordBatch batch = batches.next();
+                if (decompressedBatches != null)
+                    batchIndex++;
+                currentBatch = batch;
+                maybeEnsureValid(batch);
+
+                // skip any batches which have already been consumed
+                if (batch.nextOffset() <= nextFetchOffset)
+                    continue;
+
+                if (isolationLevel == IsolationLevel.READ_COMMITTED && batch.hasProducerId()) {
+                    consumeAbortedTransactionsUpTo(batch.lastOffset());
+
+                    long producerId = batch.producerId();
+                    if (containsAbortMarker(batch)) {
+                        abortedProducerIds.remove(producerId);
+                    } else if (isBatchAborted(batch)) {
+                        log.debug("Skipping aborted record batch from partition {} with producerId {} and " +
+                                      "offsets {} to {}",
+                                  partition, producerId, batch.baseOffset(), batch.lastOffset());
+                        nextFetchOffset = batch.nextOffset();
+                        continue;
+                    }
+                }
+
+                nextFetchOffset = batch.nextOffset();
+                // control batches are not returned to the user
+                if (!batch.isControlBatch())
+                    return batch;
+            }
+            drain();
+            return null;
+        }
+
+        private List<RecordBatch> fetchBatches() {
+            if (corruptLastRecord)
+                throw new KafkaException("Received exception when fetching the next batch from " + partition
+                                             + ". If needed, please seek past the batch to "
+                                             + "continue consumption.", cachedRecordException);
+
+            if (isFetched)
+                return Collections.emptyList();
+
+            List<RecordBatch> fetchedBatches = new ArrayList<>();
+            if (records != null) {
+                // the rest of a batch which was partially consumed as records is returned with the whole batch
+                boolean remaining = records.hasNext() || cachedRecordException != null;
+                maybeCloseRecordStream();
+                cachedRecordException = null;
+                nextFetchOffset = currentBatch.nextOffset();
+                if (remaining && !currentBatch.isControlBatch())
+                    fetchedBatches.add(currentBatch);
+            }
+
+            try {
+                RecordBatch batch;
+                while ((batch = nextFetchedBatch()) != null) {
+                    fetchedBatches.add(batch);
+                    recordsRead += batch.countOrNull() == null ? 0 : batch.countOrNull();
+                    bytesRead += batch.sizeInBytes();
+                }
+            } catch (KafkaException e) {
+                // the invalid batch is not returned and will be raised again on the next call
+                corruptLastRecord = true;
+                cachedRecordException = e;
+                if (fetchedBatches.isEmpty())
+                    throw e;
+            }
+            return fetchedBatches;
+        }
+
         private List<ConsumerRecord<K, V>> fetchRecords(int maxRecords) {
             // Error when fetching the next record before deserialization.
             if (corruptLastRecord)
@@ -1170,6 +1495,8 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         private final FetchResponse.PartitionData partitionData;
         private final FetchResponseMetricAggregator metricAggregator;
         private final short responseVersion;
+        private Long nextFetchOffset;
+        private volatile Future<List<List<Record>>> decompressedBatches;
 
         private CompletedFetch(TopicPartition partition,
                                long fetchedOffset,
@@ -1182,6 +1509,129 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
             this.metricAggregator = metricAggregator;
             this.responseVersion = responseVersion;
         }
+
+        private boolean hasCompressedBatches() {
+            if (partitionData.error != Errors.NONE || partitionData.records == null)
+                return false;
+            for (RecordBatch batch : partitionData.records.batches()) {
+                if (batch.compressionType() != CompressionType.NONE)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Wait for the batches decompressed ahead of time, if any. Returns null if the batches were not decompressed
+         * ahead of time or if that failed, in which case they are decompressed and validated as they are read so
+         * that errors are raised for the right record.
+         */
+        private List<List<Record>> awaitDecompressedBatches() {
+            Future<List<List<Record>>> future = decompressedBatches;
+            if (future == null)
+                return null;
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                throw new InterruptException(e);
+            } catch (ExecutionException | CancellationException e) {
+                return null;
+            }
+        }
+
+        private void cancelDecompression() {
+            Future<List<List<Record>>> future = decompressedBatches;
+            if (future != null)
+                future.cancel(false);
+        }
+
+        private int sizeInBytes() {
+            return partitionData.records == null ? 0 : partitionData.records.sizeInBytes();
+        }
+
+        /**
+         * The offset following the last complete batch of this fetch, which is where the consumed position ends up
+         * once all of its records have been returned, or -1 if this fetch failed or did not return any batch.
+         */
+        private long nextFetchOffset() {
+            if (nextFetchOffset == null) {
+                long offset = -1L;
+                if (partitionData.error == Errors.NONE && partitionData.records != null) {
+                    for (RecordBatch batch : partitionData.records.batches())
+                        offset = batch.nextOffset();
+                }
+                nextFetchOffset = offset;
+            }
+            return nextFetchOffset;
+        }
+    }
+
+    /**
+     * Decompresses and validates the batches of a fetch on a decompression thread. The result holds the records of
+     * each compressed batch and null for each uncompressed batch, which is read in place from the fetched buffer.
+     */
+    private static class DecompressionTask implements Callable<List<List<Record>>> {
+        // each decompression thread reuses its own buffers
+        private static final ThreadLocal<BufferSupplier> BUFFER_SUPPLIER = new ThreadLocal<BufferSupplier>() {
+            @Override
+            protected BufferSupplier initialValue() {
+                return BufferSupplier.create();
+            }
+        };
+
+        private final Iterable<? extends RecordBatch> batches;
+        private final boolean checkCrcs;
+
+        private DecompressionTask(Iterable<? extends RecordBatch> batches, boolean checkCrcs) {
+            this.batches = batches;
+            this.checkCrcs = checkCrcs;
+        }
+
+        @Override
+        public List<List<Record>> call() {
+            List<List<Record>> decompressed = new ArrayList<>();
+            for (RecordBatch batch : batches) {
+                if (checkCrcs && batch.magic() >= RecordBatch.MAGIC_VALUE_V2)
+                    batch.ensureValid();
+                if (batch.compressionType() == CompressionType.NONE) {
+                    decompressed.add(null);
+                    continue;
+                }
+
+                List<Record> records = new ArrayList<>();
+                try (CloseableIterator<Record> iterator = batch.streamingIterator(BUFFER_SUPPLIER.get())) {
+                    while (iterator.hasNext()) {
+                        Record record = iterator.next();
+                        if (checkCrcs)
+                            record.ensureValid();
+                        records.add(record);
+                    }
+                }
+                decompressed.add(records);
+            }
+            return decompressed;
+        }
+    }
+
+    private static CloseableIterator<Record> closeableIterator(final Iterator<Record> iterator) {
+        return new CloseableIterator<Record>() {
+            @Override
+            public void close() {}
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     /**
@@ -1351,6 +1801,13 @@ public class Fetcher<K, V> implements SubscriptionState.Listener, Closeable {
         if (nextInLineRecords != null)
             nextInLineRecords.drain();
         decompressionBufferSupplier.close();
+        if (decompressionExecutor != null) {
+            // cancel the tasks which have not started so that nobody waits for them
+            for (Runnable task : decompressionExecutor.shutdownNow()) {
+                if (task instanceof Future)
+                    ((Future<?>) task).cancel(false);
+            }
+        }
     }
 
 }
@@ -39,6 +39,9 @@ public class FetcherMetricsRegistry {
     public MetricNameTemplate recordsLagMax;
     public MetricNameTemplate fetchThrottleTimeAvg;
     public MetricNameTemplate fetchThrottleTimeMax;
+    public MetricNameTemplate pollRecordsTarget;
+    public MetricNameTemplate fetchMaxBytesTarget;
+    public MetricNameTemplate partitionFetchBytesTarget;
     public MetricNameTemplate topicFetchSizeAvg;
     public MetricNameTemplate topicFetchSizeMax;
     public MetricNameTemplate topicBytesConsumedRate;
@@ -97,6 +100,13 @@ public class FetcherMetricsRegistry {
         this.fetchThrottleTimeMax = new MetricNameTemplate("fetch-throttle-time-max", groupName, 
                 "The maximum throttle time in ms", tags);
 
+        this.pollRecordsTarget = new MetricNameTemplate("poll-records-target", groupName,
+                "The current maximum number of records returned by a poll with adaptive fetching", tags);
+        this.fetchMaxBytesTarget = new MetricNameTemplate("fetch-max-bytes-target", groupName,
+                "The current maximum number of bytes fetched per request with adaptive fetching", tags);
+        this.partitionFetchBytesTarget = new MetricNameTemplate("partition-fetch-bytes-target", groupName,
+                "The current maximum number of bytes fetched per partition with adaptive fetching", tags);
+
         /***** Topic level *****/
         Set<String> topicTags = new HashSet<>(tags);
         topicTags.add("topic");
@@ -144,6 +154,9 @@ public class FetcherMetricsRegistry {
             recordsLagMax,
             fetchThrottleTimeAvg,
             fetchThrottleTimeMax,
+            pollRecordsTarget,
+            fetchMaxBytesTarget,
+            partitionFetchBytesTarget,
             topicFetchSizeAvg,
             topicFetchSizeMax,
             topicBytesConsumedRate,
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+
+/**
+ * Optional behaviour of the {@link Fetcher}. Everything is disabled by default, so a fetcher created with the default
+ * options behaves like one created without them.
+ */
+public class FetcherOptions {
+
+    private boolean lazyDeserialization = false;
+    private int prefetchBytes = 0;
+    private int decompressionThreads = 0;
+    private boolean adaptiveFetching = false;
+    private int maxPollIntervalMs = 0;
+
+    /**
+     * Create the options configured for a consumer.
+     */
+    public static FetcherOptions fromConfig(ConsumerConfig config) {
+        return new FetcherOptions()
+                .lazyDeserialization(config.getBoolean(ConsumerConfig.LAZY_DESERIALIZATION_CONFIG))
+                .prefetchBytes(config.getInt(ConsumerConfig.MAX_PARTITION_PREFETCH_BYTES_CONFIG))
+                .decompressionThreads(config.getInt(ConsumerConfig.FETCH_DECOMPRESSION_THREADS_CONFIG))
+                .adaptiveFetching(config.getBoolean(ConsumerConfig.ADAPTIVE_FETCHING_CONFIG))
+                .maxPollIntervalMs(config.getInt(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG));
+    }
+
+    /**
+     * Set whether keys and values are only deserialized when the application reads them.
+     */
+    public FetcherOptions lazyDeserialization(boolean lazyDeserialization) {
+        this.lazyDeserialization = lazyDeserialization;
+        return this;
+    }
+
+    /**
+     * Set the number of bytes buffered for a partition below which the next fetch of the partition is sent, 0 to
+     * only fetch partitions without buffered data.
+     */
+    public FetcherOptions prefetchBytes(int prefetchBytes) {
+        this.prefetchBytes = prefetchBytes;
+        return this;
+    }
+
+    /**
+     * Set the number of threads decompressing fetched batches, 0 to decompress them on the polling thread.
+     */
+    public FetcherOptions decompressionThreads(int decompressionThreads) {
+        this.decompressionThreads = decompressionThreads;
+        return this;
+    }
+
+    /**
+     * Set whether the records per poll and the fetch sizes are adapted to the time the application takes to
+     * process records.
+     */
+    public FetcherOptions adaptiveFetching(boolean adaptiveFetching) {
+        this.adaptiveFetching = adaptiveFetching;
+        return this;
+    }
+
+    /**
+     * Set the maximum time between polls, which adaptive fetching keeps the processing time of a poll below.
+     */
+    public FetcherOptions maxPollIntervalMs(int maxPollIntervalMs) {
+        this.maxPollIntervalMs = maxPollIntervalMs;
+        return this;
+    }
+
+    public boolean lazyDeserialization() {
+        return lazyDeserialization;
+    }
+
+    public int prefetchBytes() {
+        return prefetchBytes;
+    }
+
+    public int decompressionThreads() {
+        return decompressionThreads;
+    }
+
+    public boolean adaptiveFetching() {
+        return adaptiveFetching;
+    }
+
+    public int maxPollIntervalMs() {
+        return maxPollIntervalMs;
+    }
+}
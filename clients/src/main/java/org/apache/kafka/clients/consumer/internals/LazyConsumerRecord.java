@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.ExtendedDeserializer;
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A consumer record which keeps its serialized key and value as views of the fetched buffer and only runs the
+ * deserializers on the first call to {@link #key()} or {@link #value()}. Records which are never looked at are
+ * neither copied nor deserialized.
+ *
+ * Like {@link ConsumerRecord}, this class is not safe for concurrent use without external synchronization.
+ */
+final class LazyConsumerRecord<K, V> extends ConsumerRecord<K, V> {
+    private final ExtendedDeserializer<K> keyDeserializer;
+    private final ExtendedDeserializer<V> valueDeserializer;
+
+    // the serialized key and value, cleared once deserialized so that the fetched buffer can be released
+    private ByteBuffer keyBytes;
+    private ByteBuffer valueBytes;
+    private K key;
+    private V value;
+
+    LazyConsumerRecord(TopicPartition partition,
+                       long offset,
+                       long timestamp,
+                       TimestampType timestampType,
+                       Long checksum,
+                       ByteBuffer keyBytes,
+                       ByteBuffer valueBytes,
+                       Headers headers,
+                       ExtendedDeserializer<K> keyDeserializer,
+                       ExtendedDeserializer<V> valueDeserializer) {
+        super(partition.topic(), partition.partition(), offset, timestamp, timestampType, checksum,
+                keyBytes == null ? NULL_SIZE : keyBytes.remaining(),
+                valueBytes == null ? NULL_SIZE : valueBytes.remaining(),
+                null, null, headers);
+        this.keyBytes = keyBytes;
+        this.valueBytes = valueBytes;
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+    }
+
+    /**
+     * The key (or null if no key is specified), deserialized on first access
+     *
+     * @throws SerializationException if the key cannot be deserialized
+     */
+    @Override
+    public K key() {
+        if (keyBytes != null) {
+            key = deserialize(keyDeserializer, keyBytes, "key");
+            keyBytes = null;
+        }
+        return key;
+    }
+
+    /**
+     * The value, deserialized on first access
+     *
+     * @throws SerializationException if the value cannot be deserialized
+     */
+    @Override
+    public V value() {
+        if (valueBytes != null) {
+            value = deserialize(valueDeserializer, valueBytes, "value");
+            valueBytes = null;
+        }
+        return value;
+    }
+
+    /**
+     * Like {@link ConsumerRecord#toString()}, but without deserializing the key or value, which may fail. A key or
+     * value which has not been deserialized yet is printed as its serialized size instead.
+     */
+    @Override
+    public String toString() {
+        return "ConsumerRecord(topic = " + topic() + ", partition = " + partition() + ", offset = " + offset()
+               + ", " + timestampType() + " = " + timestamp()
+               + ", serialized key size = "  + serializedKeySize()
+               + ", serialized value size = " + serializedValueSize()
+               + ", headers = " + headers()
+               + ", key = " + (keyBytes == null ? key : "<" + keyBytes.remaining() + " serialized bytes>")
+               + ", value = " + (valueBytes == null ? value : "<" + valueBytes.remaining() + " serialized bytes>")
+               + ")";
+    }
+
+    private <T> T deserialize(ExtendedDeserializer<T> deserializer, ByteBuffer bytes, String field) {
+        try {
+            return deserializer.deserialize(topic(), headers(), Utils.toArray(bytes));
+        } catch (RuntimeException e) {
+            throw new SerializationException("Error deserializing " + field + " for partition " + topic() + "-" +
+                    partition() + " at offset " + offset() + ".", e);
+        }
+    }
+}
@@ -28,6 +28,8 @@ import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
 import org.apache.kafka.clients.producer.internals.ProducerMetrics;
 import org.apache.kafka.clients.producer.internals.RecordAccumulator;
 import org.apache.kafka.clients.producer.internals.Sender;
+import org.apache.kafka.clients.producer.internals.StickyPartitioner;
+import org.apache.kafka.clients.producer.internals.StreamingValueWriter;
 import org.apache.kafka.clients.producer.internals.TransactionManager;
 import org.apache.kafka.clients.producer.internals.TransactionalRequestResult;
 import org.apache.kafka.common.Cluster;
@@ -36,6 +38,7 @@ import org.apache.kafka.common.Metric;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.ApiException;
 import org.apache.kafka.common.errors.AuthenticationException;
@@ -60,15 +63,19 @@ import org.apache.kafka.common.network.Selector;
 import org.apache.kafka.common.record.AbstractRecords;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.RecordValueWriter;
 import org.apache.kafka.common.serialization.ExtendedSerializer;
 import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StreamingSerializer;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.common.utils.KafkaThread;
 import org.apache.kafka.common.utils.LogContext;
 import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -384,8 +391,13 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             this.accumulator = new RecordAccumulator(logContext,
                     config.getInt(ProducerConfig.BATCH_SIZE_CONFIG),
                     this.totalMemorySize,
+                    config.getInt(ProducerConfig.BUFFER_MEMORY_MAX_POOLED_SIZE_CONFIG),
+                    config.getBoolean(ProducerConfig.BUFFER_MEMORY_DIRECT_CONFIG),
                     this.compressionType,
                     config.getLong(ProducerConfig.LINGER_MS_CONFIG),
+                    config.getLong(ProducerConfig.LINGER_MAX_MS_CONFIG),
+                    config.getInt(ProducerConfig.BATCH_MAX_SIZE_CONFIG),
+                    config.getLong(ProducerConfig.BATCHING_TARGET_LATENCY_MS_CONFIG),
                     retryBackoffMs,
                     metrics,
                     time,
@@ -791,9 +803,15 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                         " to class " + producerConfig.getClass(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG).getName() +
                         " specified in key.serializer", cce);
             }
-            byte[] serializedValue;
+            byte[] serializedValue = null;
+            RecordValueWriter valueWriter = null;
             try {
-                serializedValue = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+                // a streaming serializer writes non-null values into a reused buffer instead of into a byte array
+                if (valueSerializer instanceof StreamingSerializer && record.value() != null)
+                    valueWriter = new StreamingValueWriter<>((StreamingSerializer<V>) valueSerializer, record.topic(),
+                            record.headers(), record.value());
+                else
+                    serializedValue = valueSerializer.serialize(record.topic(), record.headers(), record.value());
             } catch (ClassCastException cce) {
                 throw new SerializationException("Can't convert value of class " + record.value().getClass().getName() +
                         " to class " + producerConfig.getClass(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG).getName() +
@@ -805,8 +823,11 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             setReadOnly(record.headers());
             Header[] headers = record.headers().toArray();
 
+            int serializedKeySize = serializedKey == null ? -1 : serializedKey.length;
+            int serializedValueSize = valueWriter != null ? valueWriter.sizeInBytes() :
+                    serializedValue == null ? -1 : serializedValue.length;
             int serializedSize = AbstractRecords.estimateSizeInBytesUpperBound(apiVersions.maxUsableProduceMagic(),
-                    compressionType, serializedKey, serializedValue, headers);
+                    compressionType, serializedKeySize, serializedValueSize, headers);
             ensureValidRecordSize(serializedSize);
             long timestamp = record.timestamp() == null ? time.milliseconds() : record.timestamp();
             log.trace("Sending record {} with callback {} to topic {} partition {}", record, callback, record.topic(), partition);
@@ -816,8 +837,28 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             if (transactionManager != null && transactionManager.isTransactional())
                 transactionManager.maybeAddPartitionToTransaction(tp);
 
-            RecordAccumulator.RecordAppendResult result = accumulator.append(tp, timestamp, serializedKey,
-                    serializedValue, headers, interceptCallback, remainingWaitMs);
+            // a sticky partitioner moves records without a key on to another partition rather than starting a new batch
+            boolean abortOnNewBatch = partitioner instanceof StickyPartitioner && record.partition() == null && serializedKey == null;
+            // a streamed value is written once, so that the retry on another partition appends the same bytes
+            ByteBuffer valueBuffer = valueWriter != null ? accumulator.writeValue(valueWriter) :
+                    Utils.wrapNullable(serializedValue);
+            RecordAccumulator.RecordAppendResult result = accumulator.append(tp, timestamp, serializedKey, valueBuffer,
+                    headers, interceptCallback, remainingWaitMs, abortOnNewBatch);
+            if (result.abortForNewBatch) {
+                int prevPartition = partition;
+                ((StickyPartitioner) partitioner).onNewBatch(record.topic(), cluster, prevPartition);
+                partition = partition(record, serializedKey, serializedValue, cluster);
+                tp = new TopicPartition(record.topic(), partition);
+                log.trace("Retrying append of record {} to topic {} partition {} instead of starting a new batch for partition {}",
+                        record, record.topic(), partition, prevPartition);
+                interceptCallback = this.interceptors == null ? callback : new InterceptorCallback<>(callback, this.interceptors, tp);
+
+                if (transactionManager != null && transactionManager.isTransactional())
+                    transactionManager.maybeAddPartitionToTransaction(tp);
+
+                result = accumulator.append(tp, timestamp, serializedKey, valueBuffer, headers, interceptCallback,
+                        remainingWaitMs, false);
+            }
             if (result.batchIsFull || result.newBatchCreated) {
                 log.trace("Waking up the sender since topic {} partition {} is either full or getting a new batch", record.topic(), partition);
                 this.sender.wakeup();
@@ -858,6 +899,75 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         }
     }
 
+    /**
+     * Asynchronously send an existing, already encoded record batch to the given partition and invoke the provided
+     * callback when the batch has been acknowledged. This is meant for byte-level pipelines such as mirroring, which
+     * can forward the batches returned by {@link KafkaConsumer#pollBatches(long)} without deserializing and
+     * re-encoding their records: the batch is neither decompressed nor compressed again. Only its header is
+     * rewritten with the producer id, epoch and sequence number of this producer (if idempotence or transactions are
+     * enabled), so it is appended to the partition with the same guarantees as the records sent with
+     * {@link #send(ProducerRecord, Callback)}.
+     * <p>
+     * The batch is sent as a batch of its own, in order with the records sent to the same partition. The returned
+     * metadata is the one of the first record of the batch. The batch keeps its compression type and timestamps,
+     * and interceptors are not invoked for it. A batch larger than <code>max.request.size</code> is rejected, and a
+     * batch rejected by the broker as too large is not split.
+     *
+     * @param partition The partition to send the batch to
+     * @param batch The record batch, which must be of magic v2 or above and not a control batch
+     * @param callback A user-supplied callback to execute when the batch has been acknowledged by the server (null
+     *        indicates no callback)
+     *
+     * @throws AuthenticationException if authentication fails. See the exception for more details
+     * @throws AuthorizationException fatal error indicating that the producer is not allowed to write
+     * @throws IllegalArgumentException if the batch is not of magic v2 or above, or is a control batch, or if
+     *         idempotence or transactions are enabled and the batch has offset gaps, e.g. because it was compacted
+     * @throws IllegalStateException if a transactional.id has been configured and no transaction has been started
+     * @throws InterruptException If the thread is interrupted while blocked
+     * @throws TimeoutException If the time taken for fetching metadata or allocating memory for the batch has surpassed <code>max.block.ms</code>.
+     * @throws KafkaException If a Kafka related error occurs that does not belong to the public API exceptions.
+     */
+    @InterfaceStability.Evolving
+    public Future<RecordMetadata> sendBatch(TopicPartition partition, RecordBatch batch, Callback callback) {
+        try {
+            // first make sure the metadata for the topic is available
+            ClusterAndWaitTime clusterAndWaitTime = waitOnMetadata(partition.topic(), partition.partition(), maxBlockTimeMs);
+            long remainingWaitMs = Math.max(0, maxBlockTimeMs - clusterAndWaitTime.waitedOnMetadataMs);
+            ensureValidRecordSize(batch.sizeInBytes());
+            log.trace("Sending existing record batch {} with callback {} to topic {} partition {}", batch, callback,
+                    partition.topic(), partition.partition());
+
+            if (transactionManager != null && transactionManager.isTransactional())
+                transactionManager.maybeAddPartitionToTransaction(partition);
+
+            RecordAccumulator.RecordAppendResult result = accumulator.appendExistingBatch(partition, batch, callback,
+                    remainingWaitMs);
+            log.trace("Waking up the sender since topic {} partition {} got an existing batch", partition.topic(),
+                    partition.partition());
+            this.sender.wakeup();
+            return result.future;
+            // handling exceptions and record the errors;
+            // for API exceptions return them in the future,
+            // for other exceptions throw directly
+        } catch (ApiException e) {
+            log.debug("Exception occurred during batch send:", e);
+            if (callback != null)
+                callback.onCompletion(null, e);
+            this.errors.record();
+            return new FutureFailure(e);
+        } catch (InterruptedException e) {
+            this.errors.record();
+            throw new InterruptException(e);
+        } catch (BufferExhaustedException e) {
+            this.errors.record();
+            this.metrics.sensor("buffer-exhausted-records").record();
+            throw e;
+        } catch (KafkaException e) {
+            this.errors.record();
+            throw e;
+        }
+    }
+
     private void setReadOnly(Headers headers) {
         if (headers instanceof RecordHeaders) {
             ((RecordHeaders) headers).setReadOnly();
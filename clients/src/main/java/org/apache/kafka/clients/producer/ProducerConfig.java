@@ -135,13 +135,46 @@ public class ProducerConfig extends AbstractConfig {
                                                     + "not all memory the producer uses is used for buffering. Some additional memory will be used for compression (if "
                                                     + "compression is enabled) as well as for maintaining in-flight requests.";
 
+    /** <code>buffer.memory.max.pooled.size</code> */
+    public static final String BUFFER_MEMORY_MAX_POOLED_SIZE_CONFIG = "buffer.memory.max.pooled.size";
+    private static final String BUFFER_MEMORY_MAX_POOLED_SIZE_DOC = "The largest buffer size which is recycled after its batch has been sent. Buffers of <code>" + BATCH_SIZE_CONFIG + "</code> "
+                                                                    + "are always recycled. If this is at least twice <code>" + BATCH_SIZE_CONFIG + "</code>, larger buffers, which are needed for records "
+                                                                    + "bigger than <code>" + BATCH_SIZE_CONFIG + "</code>, are rounded up to size classes which double from <code>" + BATCH_SIZE_CONFIG + "</code> "
+                                                                    + "up to this size and recycled too. Rounding up can leave up to half of such a buffer unused, but large records no longer "
+                                                                    + "allocate a new buffer for every batch.";
+
+    /** <code>buffer.memory.direct</code> */
+    public static final String BUFFER_MEMORY_DIRECT_CONFIG = "buffer.memory.direct";
+    private static final String BUFFER_MEMORY_DIRECT_DOC = "Whether to allocate the buffers for batches as direct (off-heap) byte buffers rather than on the heap. Direct buffers "
+                                                           + "count against <code>-XX:MaxDirectMemorySize</code> rather than the heap, so <code>" + BUFFER_MEMORY_CONFIG + "</code> should fit in it.";
+
+    /** <code>linger.max.ms</code> */
+    public static final String LINGER_MAX_MS_CONFIG = "linger.max.ms";
+
+    /** <code>batch.max.size</code> */
+    public static final String BATCH_MAX_SIZE_CONFIG = "batch.max.size";
+
+    /** <code>batching.target.latency.ms</code> */
+    public static final String BATCHING_TARGET_LATENCY_MS_CONFIG = "batching.target.latency.ms";
+
+    private static final String LINGER_MAX_MS_DOC = "Setting this above <code>" + LINGER_MS_CONFIG + "</code> enables adaptive batching: instead of using fixed values, the producer "
+                                                    + "adjusts the linger time of each partition between <code>" + LINGER_MS_CONFIG + "</code> and this bound, and the size of its new batches between "
+                                                    + "<code>" + BATCH_SIZE_CONFIG + "</code> and <code>" + BATCH_MAX_SIZE_CONFIG + "</code>. The linger time grows while batches are acknowledged "
+                                                    + "within <code>" + BATCHING_TARGET_LATENCY_MS_CONFIG + "</code> of their creation and is halved whenever one is not. New batches are sized "
+                                                    + "for the records expected to arrive while they linger and while the previous request of the partition is in flight.";
+    private static final String BATCH_MAX_SIZE_DOC = "The upper bound of the size of new batches with adaptive batching, see <code>" + LINGER_MAX_MS_CONFIG + "</code>. "
+                                                     + "Values below <code>" + BATCH_SIZE_CONFIG + "</code> leave the batch size fixed. Buffers larger than <code>" + BATCH_SIZE_CONFIG + "</code> "
+                                                     + "are only recycled up to <code>" + BUFFER_MEMORY_MAX_POOLED_SIZE_CONFIG + "</code>.";
+    private static final String BATCHING_TARGET_LATENCY_MS_DOC = "The latency from the creation of a batch to its acknowledgement which adaptive batching aims to keep "
+                                                                 + "batches within, see <code>" + LINGER_MAX_MS_CONFIG + "</code>.";
+
     /** <code>retry.backoff.ms</code> */
     public static final String RETRY_BACKOFF_MS_CONFIG = CommonClientConfigs.RETRY_BACKOFF_MS_CONFIG;
 
     /** <code>compression.type</code> */
     public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
     private static final String COMPRESSION_TYPE_DOC = "The compression type for all data generated by the producer. The default is none (i.e. no compression). Valid "
-                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, or <code>lz4</code>. "
+                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, <code>lz4</code>, or <code>zstd</code>. "
                                                        + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression).";
 
     /** <code>metrics.sample.window.ms</code> */
@@ -185,7 +218,10 @@ public class ProducerConfig extends AbstractConfig {
 
     /** <code>partitioner.class</code> */
     public static final String PARTITIONER_CLASS_CONFIG = "partitioner.class";
-    private static final String PARTITIONER_CLASS_DOC = "Partitioner class that implements the <code>org.apache.kafka.clients.producer.Partitioner</code> interface.";
+    private static final String PARTITIONER_CLASS_DOC = "Partitioner class that implements the <code>org.apache.kafka.clients.producer.Partitioner</code> interface. "
+                                                        + "The default partitioner spreads records without a key over the available partitions in a round-robin fashion. "
+                                                        + "<code>org.apache.kafka.clients.producer.internals.StickyPartitioner</code> instead sends them to one partition "
+                                                        + "until its batch is full or has been sent, which results in larger batches.";
 
     /** <code>request.timeout.ms</code> */
     public static final String REQUEST_TIMEOUT_MS_CONFIG = CommonClientConfigs.REQUEST_TIMEOUT_MS_CONFIG;
@@ -327,7 +363,36 @@ public class ProducerConfig extends AbstractConfig {
                                         null,
                                         new ConfigDef.NonEmptyString(),
                                         Importance.LOW,
-                                        TRANSACTIONAL_ID_DOC);
+                                        TRANSACTIONAL_ID_DOC)
+                                .define(BUFFER_MEMORY_MAX_POOLED_SIZE_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        BUFFER_MEMORY_MAX_POOLED_SIZE_DOC)
+                                .define(BUFFER_MEMORY_DIRECT_CONFIG,
+                                        Type.BOOLEAN,
+                                        false,
+                                        Importance.LOW,
+                                        BUFFER_MEMORY_DIRECT_DOC)
+                                .define(LINGER_MAX_MS_CONFIG,
+                                        Type.LONG,
+                                        0L,
+                                        atLeast(0L),
+                                        Importance.LOW,
+                                        LINGER_MAX_MS_DOC)
+                                .define(BATCH_MAX_SIZE_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        BATCH_MAX_SIZE_DOC)
+                                .define(BATCHING_TARGET_LATENCY_MS_CONFIG,
+                                        Type.LONG,
+                                        100L,
+                                        atLeast(1L),
+                                        Importance.LOW,
+                                        BATCHING_TARGET_LATENCY_MS_DOC);
     }
 
     @Override
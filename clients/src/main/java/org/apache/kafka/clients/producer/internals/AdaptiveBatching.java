@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Adjusts the linger time and the size of new batches of each partition within configured bounds, based on the
+ * latency of the produce requests and the rate at which records arrive.
+ * <p>
+ * The linger time follows an additive increase/multiplicative decrease scheme on the latency of each batch from its
+ * creation to its acknowledgement, which includes the time spent lingering, waiting for in-flight requests and
+ * retrying: a batch acknowledged above the target latency halves the linger time of its partition, while a batch
+ * acknowledged within it adds a millisecond. Reacting to every batch above the target keeps most batches, rather
+ * than the average one, within it. The linger time is also kept below the target minus the average request latency,
+ * which is the part of the latency lingering cannot reduce.
+ * <p>
+ * The size of new batches is the number of bytes expected to arrive while a batch lingers and while the request
+ * before it is in flight, so that batches are not closed before their linger time has passed.
+ * <p>
+ * The state of a partition is only updated by the sender thread, but it is read by the threads appending records.
+ */
+final class AdaptiveBatching {
+
+    // the weight of a new sample in the moving averages
+    private static final double SAMPLE_WEIGHT = 0.2;
+    private static final double LINGER_INCREMENT_MS = 1.0;
+
+    private final long minLingerMs;
+    private final long maxLingerMs;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyMs;
+    private final ConcurrentMap<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    AdaptiveBatching(long minLingerMs, long maxLingerMs, int minBatchSize, int maxBatchSize, long targetLatencyMs) {
+        if (maxLingerMs < minLingerMs)
+            throw new IllegalArgumentException("The maximum linger time " + maxLingerMs + " is lower than the minimum " + minLingerMs);
+        this.minLingerMs = minLingerMs;
+        this.maxLingerMs = maxLingerMs;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = Math.max(minBatchSize, maxBatchSize);
+        this.targetLatencyMs = targetLatencyMs;
+    }
+
+    /**
+     * The current linger time of the given partition
+     */
+    long lingerMs(TopicPartition tp) {
+        PartitionState state = partitions.get(tp);
+        return state == null ? minLingerMs : (long) state.lingerMs;
+    }
+
+    /**
+     * The size to allocate for a new batch of the given partition
+     */
+    int batchSize(TopicPartition tp) {
+        PartitionState state = partitions.get(tp);
+        return state == null ? minBatchSize : state.batchSize;
+    }
+
+    /**
+     * Record the arrival rate of the given partition from a batch which is drained for the first time. Existing
+     * batches passed through as a whole do not count, since they did not arrive record by record.
+     */
+    void onDrained(ProducerBatch batch, long now) {
+        if (batch.attempts() > 0 || batch.isForExistingBatch())
+            return;
+        PartitionState state = state(batch.topicPartition);
+        double bytesPerMs = (double) batch.estimatedSizeInBytes() / Math.max(1L, now - batch.createdMs);
+        state.bytesPerMs = average(state.bytesPerMs, bytesPerMs);
+        state.batchSize = batchSize(state);
+    }
+
+    /**
+     * Adjust the linger time and batch size of the given partition after one of its batches has been acknowledged.
+     *
+     * @param batch The acknowledged batch
+     * @param requestLatencyMs The latency of the produce request which sent the batch
+     * @param now The current time in milliseconds
+     */
+    void onCompleted(ProducerBatch batch, long requestLatencyMs, long now) {
+        PartitionState state = state(batch.topicPartition);
+        state.requestLatencyMs = average(state.requestLatencyMs, requestLatencyMs);
+
+        double lingerMs = state.lingerMs;
+        if (now - batch.createdMs > targetLatencyMs)
+            lingerMs = lingerMs / 2;
+        else
+            lingerMs = Math.min(lingerMs + LINGER_INCREMENT_MS, targetLatencyMs - state.requestLatencyMs);
+        state.lingerMs = Math.max(minLingerMs, Math.min(maxLingerMs, lingerMs));
+        state.batchSize = batchSize(state);
+    }
+
+    private int batchSize(PartitionState state) {
+        if (state.bytesPerMs < 0)
+            return minBatchSize;
+        double expectedBytes = state.bytesPerMs * (state.lingerMs + Math.max(0, state.requestLatencyMs));
+        return (int) Math.max(minBatchSize, Math.min(maxBatchSize, expectedBytes));
+    }
+
+    private PartitionState state(TopicPartition tp) {
+        PartitionState state = partitions.get(tp);
+        if (state == null) {
+            state = new PartitionState(minLingerMs, minBatchSize);
+            PartitionState previous = partitions.putIfAbsent(tp, state);
+            if (previous != null)
+                state = previous;
+        }
+        return state;
+    }
+
+    private static double average(double average, double sample) {
+        return average < 0 ? sample : average + SAMPLE_WEIGHT * (sample - average);
+    }
+
+    private static final class PartitionState {
+        // averages are negative until the first sample is recorded
+        private volatile double bytesPerMs = -1;
+        private volatile double requestLatencyMs = -1;
+        private volatile double lingerMs;
+        private volatile int batchSize;
+
+        PartitionState(long lingerMs, int batchSize) {
+            this.lingerMs = lingerMs;
+            this.batchSize = batchSize;
+        }
+    }
+}
@@ -19,7 +19,10 @@ package org.apache.kafka.clients.producer.internals;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -36,10 +39,15 @@ import org.apache.kafka.common.utils.Time;
  * particular it has the following properties:
  * <ol>
  * <li>There is a special "poolable size" and buffers of this size are kept in a free list and recycled
+ * <li>Optionally, larger buffers are recycled too. They are kept in free lists of size classes which double from the
+ * poolable size up to a maximum pooled size, and requests for them are rounded up to the size class
+ * <li>Buffers are allocated on the heap, or optionally as direct (off-heap) buffers
  * <li>It is fair. That is all memory is given to the longest waiting thread until it has sufficient memory. This
  * prevents starvation or deadlock when a thread asks for a large chunk of memory and needs to block until multiple
  * buffers are deallocated.
  * </ol>
+ * While no thread is waiting for memory, pooled buffers are taken from and returned to the free lists without
+ * acquiring the pool lock.
  */
 public class BufferPool {
 
@@ -47,11 +55,18 @@ public class BufferPool {
 
     private final long totalMemory;
     private final int poolableSize;
+    private final boolean directBuffers;
     private final ReentrantLock lock;
-    private final Deque<ByteBuffer> free;
+    /** The free lists of the size classes, the buffers in free[i] have a capacity of poolableSize << i */
+    private final ConcurrentLinkedDeque<ByteBuffer>[] free;
+    private final AtomicInteger[] freeCounts;
     private final Deque<Condition> waiters;
-    /** Total available memory is the sum of nonPooledAvailableMemory and the number of byte buffers in free * poolableSize.  */
+    /** The size of waiters, which can be read without holding the lock */
+    private volatile int queued;
+    /** Total available memory is the sum of nonPooledAvailableMemory and the capacity of the byte buffers in free.  */
     private long nonPooledAvailableMemory;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
     private final Metrics metrics;
     private final Time time;
     private final Sensor waitTime;
@@ -66,9 +81,41 @@ public class BufferPool {
      * @param metricGrpName logical group name for metrics
      */
     public BufferPool(long memory, int poolableSize, Metrics metrics, Time time, String metricGrpName) {
+        this(memory, poolableSize, poolableSize, false, metrics, time, metricGrpName);
+    }
+
+    /**
+     * Create a new buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The buffer size to cache in the free list rather than deallocating
+     * @param maxPooledSize The largest size class to cache in a free list, size classes double from poolableSize.
+     *                      Only buffers of exactly poolableSize are cached if this is less than twice poolableSize
+     * @param directBuffers Whether to allocate direct (off-heap) buffers rather than heap buffers
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(long memory, int poolableSize, int maxPooledSize, boolean directBuffers, Metrics metrics,
+                      Time time, String metricGrpName) {
         this.poolableSize = poolableSize;
+        this.directBuffers = directBuffers;
         this.lock = new ReentrantLock();
-        this.free = new ArrayDeque<>();
+        int sizeClasses = 1;
+        if (poolableSize > 0) {
+            long classSize = (long) poolableSize << 1;
+            while (classSize <= maxPooledSize && classSize <= memory) {
+                sizeClasses++;
+                classSize <<= 1;
+            }
+        }
+        this.free = new ConcurrentLinkedDeque[sizeClasses];
+        this.freeCounts = new AtomicInteger[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) {
+            this.free[i] = new ConcurrentLinkedDeque<>();
+            this.freeCounts[i] = new AtomicInteger(0);
+        }
         this.waiters = new ArrayDeque<>();
         this.totalMemory = memory;
         this.nonPooledAvailableMemory = memory;
@@ -86,7 +133,8 @@ public class BufferPool {
 
     /**
      * Allocate a buffer of the given size. This method blocks if there is not enough memory and the buffer pool
-     * is configured with blocking mode.
+     * is configured with blocking mode. The returned buffer has a limit of the given size, but its capacity may be
+     * larger if the size was rounded up to a size class.
      *
      * @param size The buffer size to allocate in bytes
      * @param maxTimeToBlockMs The maximum time in milliseconds to block for buffer memory to be available
@@ -102,21 +150,36 @@ public class BufferPool {
                                                + this.totalMemory
                                                + " on memory allocations.");
 
+        int sizeClass = sizeClass(size);
+        // a pooled buffer can be taken without the lock unless that would jump ahead of a waiting thread
+        if (sizeClass >= 0 && this.queued == 0) {
+            ByteBuffer buffer = pollFree(sizeClass);
+            if (buffer != null) {
+                hits.incrementAndGet();
+                return withLimit(buffer, size);
+            }
+        }
+
+        int allocationSize = sizeClass >= 0 ? classSize(sizeClass) : size;
         ByteBuffer buffer = null;
         this.lock.lock();
         try {
             // check if we have a free buffer of the right size pooled
-            if (size == poolableSize && !this.free.isEmpty())
-                return this.free.pollFirst();
+            if (sizeClass >= 0) {
+                buffer = pollFree(sizeClass);
+                if (buffer != null) {
+                    hits.incrementAndGet();
+                    return withLimit(buffer, size);
+                }
+            }
 
             // now check if the request is immediately satisfiable with the
             // memory on hand or if we need to block
-            int freeListSize = freeSize() * this.poolableSize;
-            if (this.nonPooledAvailableMemory + freeListSize >= size) {
+            freeUp(allocationSize);
+            if (this.nonPooledAvailableMemory >= allocationSize) {
                 // we have enough unallocated or pooled memory to immediately
                 // satisfy the request, but need to allocate the buffer
-                freeUp(size);
-                this.nonPooledAvailableMemory -= size;
+                this.nonPooledAvailableMemory -= allocationSize;
             } else {
                 // we are out of memory and will have to block
                 int accumulated = 0;
@@ -124,9 +187,31 @@ public class BufferPool {
                 try {
                     long remainingTimeToBlockNs = TimeUnit.MILLISECONDS.toNanos(maxTimeToBlockMs);
                     this.waiters.addLast(moreMemory);
+                    this.queued = this.waiters.size();
                     // loop over and over until we have a buffer or have reserved
                     // enough memory to allocate one
-                    while (accumulated < size) {
+                    while (true) {
+                        // only the longest waiting thread takes memory. Buffers may have been returned to the free
+                        // lists without the lock before we were queued, so check before waiting the first time
+                        if (this.waiters.peekFirst() == moreMemory) {
+                            // check if we can satisfy this request from the free list,
+                            // otherwise allocate memory
+                            if (accumulated == 0 && sizeClass >= 0)
+                                buffer = pollFree(sizeClass);
+                            if (buffer != null) {
+                                accumulated = allocationSize;
+                            } else {
+                                // we'll need to allocate memory, but we may only get
+                                // part of what we need on this iteration
+                                freeUp(allocationSize - accumulated);
+                                int got = (int) Math.min(allocationSize - accumulated, this.nonPooledAvailableMemory);
+                                this.nonPooledAvailableMemory -= got;
+                                accumulated += got;
+                            }
+                        }
+                        if (accumulated >= allocationSize)
+                            break;
+
                         long startWaitNs = time.nanoseconds();
                         long timeNs;
                         boolean waitingTimeElapsed;
@@ -143,21 +228,6 @@ public class BufferPool {
                         }
 
                         remainingTimeToBlockNs -= timeNs;
-
-                        // check if we can satisfy this request from the free list,
-                        // otherwise allocate memory
-                        if (accumulated == 0 && size == this.poolableSize && !this.free.isEmpty()) {
-                            // just grab a buffer from the free list
-                            buffer = this.free.pollFirst();
-                            accumulated = size;
-                        } else {
-                            // we'll need to allocate memory, but we may only get
-                            // part of what we need on this iteration
-                            freeUp(size - accumulated);
-                            int got = (int) Math.min(size - accumulated, this.nonPooledAvailableMemory);
-                            this.nonPooledAvailableMemory -= got;
-                            accumulated += got;
-                        }
                     }
                     // Don't reclaim memory on throwable since nothing was thrown
                     accumulated = 0;
@@ -165,13 +235,14 @@ public class BufferPool {
                     // When this loop was not able to successfully terminate don't loose available memory
                     this.nonPooledAvailableMemory += accumulated;
                     this.waiters.remove(moreMemory);
+                    this.queued = this.waiters.size();
                 }
             }
         } finally {
             // signal any additional waiters if there is more memory left
             // over for them
             try {
-                if (!(this.nonPooledAvailableMemory == 0 && this.free.isEmpty()) && !this.waiters.isEmpty())
+                if (!(this.nonPooledAvailableMemory == 0 && freeListsEmpty()) && !this.waiters.isEmpty())
                     this.waiters.peekFirst().signal();
             } finally {
                 // Another finally... otherwise find bugs complains
@@ -179,10 +250,18 @@ public class BufferPool {
             }
         }
 
-        if (buffer == null)
-            return safeAllocateByteBuffer(size);
-        else
-            return buffer;
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return withLimit(safeAllocateByteBuffer(allocationSize), size);
+        } else {
+            hits.incrementAndGet();
+            return withLimit(buffer, size);
+        }
+    }
+
+    private static ByteBuffer withLimit(ByteBuffer buffer, int size) {
+        buffer.limit(size);
+        return buffer;
     }
 
     /**
@@ -211,35 +290,81 @@ public class BufferPool {
 
     // Protected for testing.
     protected ByteBuffer allocateByteBuffer(int size) {
-        return ByteBuffer.allocate(size);
+        return directBuffers ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Get the size class of a buffer of the given size, or -1 if buffers of this size are not pooled. Only buffers of
+     * exactly the poolable size are pooled in the first size class, larger buffers are rounded up to the next one.
+     */
+    private int sizeClass(int size) {
+        if (size == this.poolableSize)
+            return 0;
+        if (size < this.poolableSize)
+            return -1;
+        for (int i = 1; i < this.free.length; i++) {
+            if (size <= classSize(i))
+                return i;
+        }
+        return -1;
+    }
+
+    private int classSize(int sizeClass) {
+        return this.poolableSize << sizeClass;
+    }
+
+    private ByteBuffer pollFree(int sizeClass) {
+        ByteBuffer buffer = this.free[sizeClass].pollFirst();
+        if (buffer != null)
+            this.freeCounts[sizeClass].decrementAndGet();
+        return buffer;
+    }
+
+    private boolean freeListsEmpty() {
+        for (ConcurrentLinkedDeque<ByteBuffer> freeList : this.free) {
+            if (!freeList.isEmpty())
+                return false;
+        }
+        return true;
     }
 
     /**
      * Attempt to ensure we have at least the requested number of bytes of memory for allocation by deallocating pooled
-     * buffers (if needed)
+     * buffers (if needed), starting with the largest size class
      */
     private void freeUp(int size) {
-        while (!this.free.isEmpty() && this.nonPooledAvailableMemory < size)
-            this.nonPooledAvailableMemory += this.free.pollLast().capacity();
+        for (int i = this.free.length - 1; i >= 0 && this.nonPooledAvailableMemory < size; i--) {
+            ByteBuffer buffer;
+            while (this.nonPooledAvailableMemory < size && (buffer = this.free[i].pollLast()) != null) {
+                this.freeCounts[i].decrementAndGet();
+                this.nonPooledAvailableMemory += buffer.capacity();
+            }
+        }
     }
 
     /**
-     * Return buffers to the pool. If they are of the poolable size add them to the free list, otherwise just mark the
-     * memory as free.
+     * Return buffers to the pool. If they are of a pooled size add them to the free list of their size class,
+     * otherwise just mark the memory as free.
      *
      * @param buffer The buffer to return
      * @param size The size of the buffer to mark as deallocated, note that this may be smaller than buffer.capacity
      *             since the buffer may re-allocate itself during in-place compression
      */
     public void deallocate(ByteBuffer buffer, int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass >= 0 && size == classSize(sizeClass) && size == buffer.capacity()) {
+            buffer.clear();
+            this.free[sizeClass].add(buffer);
+            this.freeCounts[sizeClass].incrementAndGet();
+            // a thread which queued itself before the buffer was added must be woken up to take it
+            if (this.queued == 0)
+                return;
+        }
+
         lock.lock();
         try {
-            if (size == this.poolableSize && size == buffer.capacity()) {
-                buffer.clear();
-                this.free.add(buffer);
-            } else {
+            if (sizeClass < 0 || size != classSize(sizeClass) || size != buffer.capacity())
                 this.nonPooledAvailableMemory += size;
-            }
             Condition moreMem = this.waiters.peekFirst();
             if (moreMem != null)
                 moreMem.signal();
@@ -253,12 +378,15 @@ public class BufferPool {
     }
 
     /**
-     * the total free memory both unallocated and in the free list
+     * the total free memory both unallocated and in the free lists
      */
     public long availableMemory() {
         lock.lock();
         try {
-            return this.nonPooledAvailableMemory + freeSize() * (long) this.poolableSize;
+            long available = this.nonPooledAvailableMemory + freeSize() * (long) this.poolableSize;
+            for (int i = 1; i < this.free.length; i++)
+                available += this.freeCounts[i].get() * (long) classSize(i);
+            return available;
         } finally {
             lock.unlock();
         }
@@ -266,7 +394,7 @@ public class BufferPool {
 
     // Protected for testing.
     protected int freeSize() {
-        return this.free.size();
+        return this.freeCounts[0].get();
     }
 
     /**
@@ -293,6 +421,20 @@ public class BufferPool {
         }
     }
 
+    /**
+     * The number of allocations which were served by a recycled buffer
+     */
+    public long hits() {
+        return this.hits.get();
+    }
+
+    /**
+     * The number of allocations which had to allocate a new buffer
+     */
+    public long misses() {
+        return this.misses.get();
+    }
+
     /**
      * The buffer size that will be retained in the free list after use
      */
@@ -32,6 +32,7 @@ import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.ProduceResponse;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,8 +42,10 @@ import java.util.ArrayList;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.apache.kafka.common.record.RecordBatch.MAGIC_VALUE_V2;
 import static org.apache.kafka.common.record.RecordBatch.NO_TIMESTAMP;
@@ -50,7 +53,8 @@ import static org.apache.kafka.common.record.RecordBatch.NO_TIMESTAMP;
 /**
  * A batch of records that is or will be sent.
  *
- * This class is not thread safe and external synchronization must be used when modifying it
+ * This class is not thread safe and external synchronization must be used when modifying it. The only exception is
+ * {@link ReservedAppend#write()}, which writes a record that was reserved while holding the external lock.
  */
 public final class ProducerBatch {
 
@@ -58,6 +62,11 @@ public final class ProducerBatch {
 
     private enum FinalState { ABORTED, FAILED, SUCCEEDED }
 
+    // the number of times to yield while waiting for reserved records to be written before parking
+    private static final int PENDING_WRITES_MAX_SPINS = 64;
+    // parking is bounded in case the unpark of another waiting thread is missed
+    private static final long PENDING_WRITES_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     final long createdMs;
     final TopicPartition topicPartition;
     final ProduceRequestResult produceFuture;
@@ -67,6 +76,10 @@ public final class ProducerBatch {
     private final AtomicInteger attempts = new AtomicInteger(0);
     private final boolean isSplitBatch;
     private final AtomicReference<FinalState> finalState = new AtomicReference<>(null);
+    // the number of reserved records which have not been written to the buffer yet
+    private final AtomicInteger pendingWrites = new AtomicInteger(0);
+    // the thread parked in awaitPendingWrites(), which the last pending write unparks
+    private volatile Thread pendingWritesWaiter;
 
     int recordCount;
     int maxRecordSize;
@@ -101,23 +114,115 @@ public final class ProducerBatch {
      * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
      */
     public FutureRecordMetadata tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers, Callback callback, long now) {
-        if (!recordsBuilder.hasRoomFor(timestamp, key, value, headers)) {
+        return tryAppend(timestamp, key, Utils.wrapNullable(value), headers, callback, now);
+    }
+
+    /**
+     * Append the record to the current record set and return the relative offset within that record set. The
+     * remaining bytes of the value buffer are the value of the record.
+     *
+     * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
+     */
+    FutureRecordMetadata tryAppend(long timestamp, byte[] key, ByteBuffer value, Header[] headers, Callback callback,
+                                   long now) {
+        int keySize = key == null ? -1 : key.length;
+        int valueSize = value == null ? -1 : value.remaining();
+        if (!recordsBuilder.hasRoomFor(timestamp, keySize, valueSize, headers))
             return null;
-        } else {
-            Long checksum = this.recordsBuilder.append(timestamp, key, value, headers);
-            this.maxRecordSize = Math.max(this.maxRecordSize, AbstractRecords.estimateSizeInBytesUpperBound(magic(),
-                    recordsBuilder.compressionType(), key, value, headers));
-            this.lastAppendTime = now;
-            FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, this.recordCount,
-                                                                   timestamp, checksum,
-                                                                   key == null ? -1 : key.length,
-                                                                   value == null ? -1 : value.length);
-            // we have to keep every future returned to the users in case the batch needs to be
-            // split to several new batches and resent.
-            thunks.add(new Thunk(callback, future));
-            this.recordCount++;
-            return future;
+        Long checksum = this.recordsBuilder.append(timestamp, Utils.wrapNullable(key), value, headers);
+        return recordAppended(timestamp, checksum, keySize, valueSize, headers, callback, now);
+    }
+
+    /**
+     * Check whether records can be appended with {@link #tryReserve(long, byte[], ByteBuffer, Header[], Callback, long)}.
+     */
+    boolean supportsReservedAppends() {
+        return recordsBuilder.supportsReservedAppends();
+    }
+
+    /**
+     * Reserve room for the record in the current record set without writing it. The caller must write the record
+     * with {@link ReservedAppend#write()}, which does not need external synchronization, so that records for the
+     * same partition can be copied into the batch in parallel. The batch waits for pending writes before it is
+     * closed or aborted.
+     *
+     * @return The reserved append or null if there isn't sufficient room.
+     */
+    ReservedAppend tryReserve(long timestamp, byte[] key, ByteBuffer value, Header[] headers, Callback callback,
+                              long now) {
+        int keySize = key == null ? -1 : key.length;
+        int valueSize = value == null ? -1 : value.remaining();
+        if (!recordsBuilder.hasRoomFor(timestamp, keySize, valueSize, headers))
+            return null;
+
+        MemoryRecordsBuilder.ReservedRecord record = recordsBuilder.reserve(timestamp, Utils.wrapNullable(key),
+                value, headers);
+        if (record == null)
+            return null;
+        pendingWrites.incrementAndGet();
+        FutureRecordMetadata future = recordAppended(timestamp, null, keySize, valueSize, headers, callback, now);
+        return new ReservedAppend(record, future);
+    }
+
+    /**
+     * Account for the existing record batch passed through by the records builder of this batch as a single append,
+     * see {@link MemoryRecordsBuilder#forExistingBatch(ByteBuffer)}. The record count is the number of records in the
+     * batch, which is what the broker advances the sequence number by: it assigns consecutive offsets to the records
+     * even if records were removed from the batch by compaction.
+     *
+     * @return The RecordSend corresponding to the whole batch, which completes with the offset of its first record
+     */
+    FutureRecordMetadata appendExistingBatch(Callback callback, long now) {
+        if (!recordsBuilder.isForExistingBatch() || !thunks.isEmpty())
+            throw new IllegalStateException("Only a batch created for an existing record batch can take it as a whole");
+
+        MemoryRecordsBuilder.RecordsInfo info = recordsBuilder.info();
+        this.maxRecordSize = recordsBuilder.estimatedSizeInBytes();
+        this.lastAppendTime = now;
+        FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, 0, info.maxTimestamp, null, -1, -1);
+        thunks.add(new Thunk(callback, future));
+        this.recordCount = recordsBuilder.numRecords();
+        return future;
+    }
+
+    /**
+     * Check whether this batch passes through an existing record batch, in which case it cannot be split.
+     */
+    boolean isForExistingBatch() {
+        return recordsBuilder.isForExistingBatch();
+    }
+
+    private FutureRecordMetadata recordAppended(long timestamp, Long checksum, int keySize, int valueSize,
+                                                Header[] headers, Callback callback, long now) {
+        this.maxRecordSize = Math.max(this.maxRecordSize, AbstractRecords.estimateSizeInBytesUpperBound(magic(),
+                recordsBuilder.compressionType(), keySize, valueSize, headers));
+        this.lastAppendTime = now;
+        FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, this.recordCount,
+                                                               timestamp, checksum,
+                                                               keySize,
+                                                               valueSize);
+        // we have to keep every future returned to the users in case the batch needs to be
+        // split to several new batches and resent.
+        thunks.add(new Thunk(callback, future));
+        this.recordCount++;
+        return future;
+    }
+
+    private void awaitPendingWrites() {
+        // writes of reserved records only copy bytes into the buffer, so they are expected to finish quickly. If they
+        // don't, e.g. because a writing thread was descheduled, park rather than spinning for as long as they take
+        int spins = 0;
+        while (pendingWrites.get() > 0) {
+            if (spins < PENDING_WRITES_MAX_SPINS) {
+                spins++;
+                Thread.yield();
+            } else {
+                pendingWritesWaiter = Thread.currentThread();
+                if (pendingWrites.get() > 0)
+                    LockSupport.parkNanos(this, PENDING_WRITES_PARK_NANOS);
+            }
         }
+        pendingWritesWaiter = null;
     }
 
     /**
@@ -404,6 +509,7 @@ public final class ProducerBatch {
     }
 
     public void close() {
+        awaitPendingWrites();
         recordsBuilder.close();
         if (!recordsBuilder.isControlBatch()) {
             CompressionRatioEstimator.updateEstimation(topicPartition.topic(),
@@ -421,6 +527,7 @@ public final class ProducerBatch {
      * {@link RecordAccumulator#abortBatches()}).
      */
     public void abortRecordAppends() {
+        awaitPendingWrites();
         recordsBuilder.abort();
     }
 
@@ -468,4 +575,30 @@ public final class ProducerBatch {
         return reopened;
     }
 
+    /**
+     * A record reserved in this batch by {@link #tryReserve(long, byte[], ByteBuffer, Header[], Callback, long)} which
+     * still has to be written.
+     */
+    final class ReservedAppend {
+        final FutureRecordMetadata future;
+        private final MemoryRecordsBuilder.ReservedRecord record;
+
+        private ReservedAppend(MemoryRecordsBuilder.ReservedRecord record, FutureRecordMetadata future) {
+            this.record = record;
+            this.future = future;
+        }
+
+        void write() {
+            try {
+                record.write();
+            } finally {
+                if (pendingWrites.decrementAndGet() == 0) {
+                    Thread waiter = pendingWritesWaiter;
+                    if (waiter != null)
+                        LockSupport.unpark(waiter);
+                }
+            }
+        }
+    }
+
 }
@@ -19,6 +19,7 @@ package org.apache.kafka.clients.producer.internals;
 import org.apache.kafka.clients.ApiVersions;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
@@ -35,15 +36,19 @@ import org.apache.kafka.common.record.CompressionRatioEstimator;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.RecordValueWriter;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
 import org.apache.kafka.common.utils.CopyOnWriteMap;
 import org.apache.kafka.common.utils.LogContext;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -72,8 +77,12 @@ public final class RecordAccumulator {
     private final AtomicInteger flushesInProgress;
     private final AtomicInteger appendsInProgress;
     private final int batchSize;
+    // the buffer each appending thread writes streamed record values into, see writeValue()
+    private final ThreadLocal<ByteBuffer> valueBuffers = new ThreadLocal<>();
     private final CompressionType compression;
     private final long lingerMs;
+    // adjusts the linger time and batch size per partition, or null if they are fixed
+    private final AdaptiveBatching adaptiveBatching;
     private final long retryBackoffMs;
     private final BufferPool free;
     private final Time time;
@@ -82,7 +91,8 @@ public final class RecordAccumulator {
     private final IncompleteBatches incomplete;
     // The following variables are only accessed by the sender thread, so we don't need to protect them.
     private final Set<TopicPartition> muted;
-    private int drainIndex;
+    // the partition index of each node at which the next drain starts
+    private final Map<Integer, Integer> nodesDrainIndex;
     private final TransactionManager transactionManager;
 
     /**
@@ -113,18 +123,101 @@ public final class RecordAccumulator {
                              Time time,
                              ApiVersions apiVersions,
                              TransactionManager transactionManager) {
+        this(logContext, batchSize, totalSize, batchSize, false, compression, lingerMs, retryBackoffMs, metrics, time,
+                apiVersions, transactionManager);
+    }
+
+    /**
+     * Create a new record accumulator
+     *
+     * @param logContext The log context used for logging
+     * @param batchSize The size to use when allocating {@link MemoryRecords} instances
+     * @param totalSize The maximum memory the record accumulator can use.
+     * @param maxPooledBufferSize The largest buffer size to recycle, see {@link BufferPool}
+     * @param directBuffers Whether to allocate direct (off-heap) buffers for the batches
+     * @param compression The compression codec for the records
+     * @param lingerMs An artificial delay time to add before declaring a records instance that isn't full ready for
+     *        sending. This allows time for more records to arrive. Setting a non-zero lingerMs will trade off some
+     *        latency for potentially better throughput due to more batching (and hence fewer, larger requests).
+     * @param retryBackoffMs An artificial delay time to retry the produce request upon receiving an error. This avoids
+     *        exhausting all retries in a short period of time.
+     * @param metrics The metrics
+     * @param time The time instance to use
+     * @param apiVersions Request API versions for current connected brokers
+     * @param transactionManager The shared transaction state object which tracks producer IDs, epochs, and sequence
+     *                           numbers per partition.
+     */
+    public RecordAccumulator(LogContext logContext,
+                             int batchSize,
+                             long totalSize,
+                             int maxPooledBufferSize,
+                             boolean directBuffers,
+                             CompressionType compression,
+                             long lingerMs,
+                             long retryBackoffMs,
+                             Metrics metrics,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager) {
+        this(logContext, batchSize, totalSize, maxPooledBufferSize, directBuffers, compression, lingerMs, lingerMs,
+                batchSize, 0L, retryBackoffMs, metrics, time, apiVersions, transactionManager);
+    }
+
+    /**
+     * Create a new record accumulator
+     *
+     * @param logContext The log context used for logging
+     * @param batchSize The size to use when allocating {@link MemoryRecords} instances
+     * @param totalSize The maximum memory the record accumulator can use.
+     * @param maxPooledBufferSize The largest buffer size to recycle, see {@link BufferPool}
+     * @param directBuffers Whether to allocate direct (off-heap) buffers for the batches
+     * @param compression The compression codec for the records
+     * @param lingerMs An artificial delay time to add before declaring a records instance that isn't full ready for
+     *        sending. This allows time for more records to arrive. Setting a non-zero lingerMs will trade off some
+     *        latency for potentially better throughput due to more batching (and hence fewer, larger requests).
+     *        With adaptive batching, this is the lower bound of the linger time.
+     * @param maxLingerMs The upper bound of the linger time. If greater than lingerMs, the linger time and the size of
+     *        new batches are adjusted per partition, see {@link AdaptiveBatching}
+     * @param maxBatchSize The upper bound of the size of new batches with adaptive batching
+     * @param targetLatencyMs The latency from creation to acknowledgement that adaptive batching aims to keep batches
+     *        within
+     * @param retryBackoffMs An artificial delay time to retry the produce request upon receiving an error. This avoids
+     *        exhausting all retries in a short period of time.
+     * @param metrics The metrics
+     * @param time The time instance to use
+     * @param apiVersions Request API versions for current connected brokers
+     * @param transactionManager The shared transaction state object which tracks producer IDs, epochs, and sequence
+     *                           numbers per partition.
+     */
+    public RecordAccumulator(LogContext logContext,
+                             int batchSize,
+                             long totalSize,
+                             int maxPooledBufferSize,
+                             boolean directBuffers,
+                             CompressionType compression,
+                             long lingerMs,
+                             long maxLingerMs,
+                             int maxBatchSize,
+                             long targetLatencyMs,
+                             long retryBackoffMs,
+                             Metrics metrics,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager) {
         this.log = logContext.logger(RecordAccumulator.class);
-        this.drainIndex = 0;
+        this.nodesDrainIndex = new HashMap<>();
         this.closed = false;
         this.flushesInProgress = new AtomicInteger(0);
         this.appendsInProgress = new AtomicInteger(0);
         this.batchSize = batchSize;
         this.compression = compression;
         this.lingerMs = lingerMs;
+        this.adaptiveBatching = maxLingerMs > lingerMs ?
+                new AdaptiveBatching(lingerMs, maxLingerMs, batchSize, maxBatchSize, targetLatencyMs) : null;
         this.retryBackoffMs = retryBackoffMs;
         this.batches = new CopyOnWriteMap<>();
         String metricGrpName = "producer-metrics";
-        this.free = new BufferPool(totalSize, batchSize, metrics, time, metricGrpName);
+        this.free = new BufferPool(totalSize, batchSize, maxPooledBufferSize, directBuffers, metrics, time, metricGrpName);
         this.incomplete = new IncompleteBatches();
         this.muted = new HashSet<>();
         this.time = time;
@@ -158,6 +251,22 @@ public final class RecordAccumulator {
         };
         metrics.addMetric(metricName, availableBytes);
 
+        metricName = metrics.metricName("bufferpool-hit-total", metricGrpName, "The total number of batch buffer allocations served by a recycled buffer.");
+        Measurable poolHits = new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return free.hits();
+            }
+        };
+        metrics.addMetric(metricName, poolHits);
+
+        metricName = metrics.metricName("bufferpool-miss-total", metricGrpName, "The total number of batch buffer allocations which allocated a new buffer.");
+        Measurable poolMisses = new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return free.misses();
+            }
+        };
+        metrics.addMetric(metricName, poolMisses);
+
         Sensor bufferExhaustedRecordSensor = metrics.sensor("buffer-exhausted-records");
         MetricName rateMetricName = metrics.metricName("buffer-exhausted-rate", metricGrpName, "The average per-second number of record sends that are dropped due to buffer exhaustion");
         MetricName totalMetricName = metrics.metricName("buffer-exhausted-total", metricGrpName, "The total number of record sends that are dropped due to buffer exhaustion");
@@ -185,6 +294,59 @@ public final class RecordAccumulator {
                                      Header[] headers,
                                      Callback callback,
                                      long maxTimeToBlock) throws InterruptedException {
+        return append(tp, timestamp, key, value, headers, callback, maxTimeToBlock, false);
+    }
+
+    /**
+     * Add a record to the accumulator, return the append result
+     * <p>
+     * The append result will contain the future metadata, and flag for whether the appended batch is full or a new batch is created
+     * <p>
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param headers the Headers for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @param abortOnNewBatch If true, return without appending if the record does not fit in the last batch of the
+     *                        partition, so that the caller can pick another partition before a new batch is created
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     byte[] key,
+                                     byte[] value,
+                                     Header[] headers,
+                                     Callback callback,
+                                     long maxTimeToBlock,
+                                     boolean abortOnNewBatch) throws InterruptedException {
+        return append(tp, timestamp, key, Utils.wrapNullable(value), headers, callback, maxTimeToBlock, abortOnNewBatch);
+    }
+
+    /**
+     * Add a record whose value is already serialized into a buffer, for example by {@link #writeValue(RecordValueWriter)},
+     * return the append result. The buffer is not modified, so it can be appended again, e.g. to another partition if
+     * the append was aborted for a new batch.
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param headers the Headers for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @param abortOnNewBatch If true, return without appending if the record does not fit in the last batch of the
+     *                        partition, so that the caller can pick another partition before a new batch is created
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     byte[] key,
+                                     ByteBuffer value,
+                                     Header[] headers,
+                                     Callback callback,
+                                     long maxTimeToBlock,
+                                     boolean abortOnNewBatch) throws InterruptedException {
         // We keep track of the number of appending thread to make sure we do not miss batches in
         // abortIncompleteBatches().
         appendsInProgress.incrementAndGet();
@@ -193,17 +355,25 @@ public final class RecordAccumulator {
         try {
             // check if we have an in-progress batch
             Deque<ProducerBatch> dq = getOrCreateDeque(tp);
+            RecordAppendResult appendResult;
             synchronized (dq) {
                 if (closed)
                     throw new IllegalStateException("Cannot send after the producer is closed.");
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
-                if (appendResult != null)
-                    return appendResult;
+                appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
             }
+            if (appendResult != null)
+                return writeReserved(appendResult);
+
+            // the caller would rather move on to another partition than start a new batch for this one
+            if (abortOnNewBatch)
+                return new RecordAppendResult(null, false, false, true);
 
             // we don't have an in-progress record batch try to allocate a new batch
             byte maxUsableMagic = apiVersions.maxUsableProduceMagic();
-            int size = Math.max(this.batchSize, AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression, key, value, headers));
+            int keySize = key == null ? -1 : key.length;
+            int valueSize = value == null ? -1 : value.remaining();
+            int size = Math.max(batchSize(tp), AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression,
+                    keySize, valueSize, headers));
             log.trace("Allocating a new {} byte message buffer for topic {} partition {}", size, tp.topic(), tp.partition());
             buffer = free.allocate(size, maxTimeToBlock);
             synchronized (dq) {
@@ -211,23 +381,80 @@ public final class RecordAccumulator {
                 if (closed)
                     throw new IllegalStateException("Cannot send after the producer is closed.");
 
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
-                if (appendResult != null) {
-                    // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
-                    return appendResult;
+                appendResult = tryAppend(timestamp, key, value, headers, callback, dq);
+                if (appendResult == null) {
+                    MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic);
+                    ProducerBatch batch = new ProducerBatch(tp, recordsBuilder, time.milliseconds());
+                    FutureRecordMetadata future = Utils.notNull(batch.tryAppend(timestamp, key, value, headers,
+                            callback, time.milliseconds()));
+
+                    dq.addLast(batch);
+                    incomplete.add(batch);
+
+                    // Don't deallocate this buffer in the finally block as it's being used in the record batch
+                    buffer = null;
+
+                    return new RecordAppendResult(future, dq.size() > 1 || batch.isFull(), true, false);
                 }
+            }
+            // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
+            return writeReserved(appendResult);
+        } finally {
+            if (buffer != null)
+                free.deallocate(buffer);
+            appendsInProgress.decrementAndGet();
+        }
+    }
 
-                MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic);
-                ProducerBatch batch = new ProducerBatch(tp, recordsBuilder, time.milliseconds());
-                FutureRecordMetadata future = Utils.notNull(batch.tryAppend(timestamp, key, value, headers, callback, time.milliseconds()));
+    /**
+     * Add an existing, already encoded record batch to the accumulator as a batch of its own, without decompressing
+     * it, and return the append result. The batch is copied into a buffer from the pool, and its producer state is
+     * rewritten when it is drained, see {@link MemoryRecordsBuilder#forExistingBatch(ByteBuffer)}.
+     *
+     * @param tp The topic/partition to which this batch is being sent
+     * @param batch The record batch, which must be of magic v2 or above and not a control batch. With idempotence, it
+     *              must not have offset gaps either
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     */
+    public RecordAppendResult appendExistingBatch(TopicPartition tp,
+                                                  RecordBatch batch,
+                                                  Callback callback,
+                                                  long maxTimeToBlock) throws InterruptedException {
+        if (apiVersions.maxUsableProduceMagic() < RecordBatch.MAGIC_VALUE_V2)
+            throw new UnsupportedVersionException("Attempting to send an existing record batch to a broker which does " +
+                    "not support the required message format (v2). The broker must be version 0.11 or later.");
+        // the broker assigns consecutive offsets to the records of a batch with offset gaps, e.g. after compaction, so
+        // the last sequence of such a batch would not be the one implied by its last offset delta
+        Integer count = batch.countOrNull();
+        if (transactionManager != null && (count == null || count != batch.lastOffset() - batch.baseOffset() + 1))
+            throw new IllegalArgumentException("Cannot send an existing record batch with offset gaps, e.g. a compacted " +
+                    "batch, when idempotence is enabled: the batch has " + count + " records for offsets " +
+                    batch.baseOffset() + " to " + batch.lastOffset());
 
-                dq.addLast(batch);
-                incomplete.add(batch);
+        appendsInProgress.incrementAndGet();
+        ByteBuffer buffer = null;
+        try {
+            Deque<ProducerBatch> dq = getOrCreateDeque(tp);
+            log.trace("Allocating a new {} byte message buffer for an existing batch for topic {} partition {}",
+                    batch.sizeInBytes(), tp.topic(), tp.partition());
+            buffer = free.allocate(batch.sizeInBytes(), maxTimeToBlock);
+            batch.writeTo(buffer);
+            MemoryRecordsBuilder recordsBuilder = MemoryRecordsBuilder.forExistingBatch(buffer);
+            synchronized (dq) {
+                if (closed)
+                    throw new IllegalStateException("Cannot send after the producer is closed.");
+
+                // the batch is full from the start, so records appended later go to a new batch behind it
+                ProducerBatch producerBatch = new ProducerBatch(tp, recordsBuilder, time.milliseconds());
+                FutureRecordMetadata future = producerBatch.appendExistingBatch(callback, time.milliseconds());
+                dq.addLast(producerBatch);
+                incomplete.add(producerBatch);
 
                 // Don't deallocate this buffer in the finally block as it's being used in the record batch
                 buffer = null;
 
-                return new RecordAppendResult(future, dq.size() > 1 || batch.isFull(), true);
+                return new RecordAppendResult(future, true, true, false);
             }
         } finally {
             if (buffer != null)
@@ -247,24 +474,74 @@ public final class RecordAccumulator {
     /**
      *  Try to append to a ProducerBatch.
      *
+     *  If the batch supports it, the record is only reserved and the caller must write it with
+     *  {@link #writeReserved(RecordAppendResult)} after releasing the deque lock.
+     *
      *  If it is full, we return null and a new batch is created. We also close the batch for record appends to free up
      *  resources like compression buffers. The batch will be fully closed (ie. the record batch headers will be written
      *  and memory records built) in one of the following cases (whichever comes first): right before send,
      *  if it is expired, or when the producer is closed.
      */
-    private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers,
+    private RecordAppendResult tryAppend(long timestamp, byte[] key, ByteBuffer value, Header[] headers,
                                          Callback callback, Deque<ProducerBatch> deque) {
         ProducerBatch last = deque.peekLast();
         if (last != null) {
-            FutureRecordMetadata future = last.tryAppend(timestamp, key, value, headers, callback, time.milliseconds());
+            FutureRecordMetadata future;
+            ProducerBatch.ReservedAppend reservedAppend = null;
+            if (last.supportsReservedAppends()) {
+                reservedAppend = last.tryReserve(timestamp, key, value, headers, callback, time.milliseconds());
+                future = reservedAppend == null ? null : reservedAppend.future;
+            } else {
+                future = last.tryAppend(timestamp, key, value, headers, callback, time.milliseconds());
+            }
             if (future == null)
                 last.closeForRecordAppends();
             else
-                return new RecordAppendResult(future, deque.size() > 1 || last.isFull(), false);
+                return new RecordAppendResult(future, deque.size() > 1 || last.isFull(), false, false, reservedAppend);
         }
         return null;
     }
 
+    /**
+     * Write the value of a record into the value buffer of the calling thread, to be appended with
+     * {@link #append(TopicPartition, long, byte[], ByteBuffer, Header[], Callback, long, boolean)}. This runs before the
+     * deque lock is taken, so a failing writer only fails its own record. The buffer is reused by the next value the
+     * thread writes, unless the value is larger than a batch, so the value bytes are not allocated for every record.
+     * The returned buffer stays valid until then, so each value only needs to be written once.
+     */
+    public ByteBuffer writeValue(RecordValueWriter valueWriter) {
+        int sizeInBytes = valueWriter.sizeInBytes();
+        ByteBuffer buffer = valueBuffers.get();
+        if (buffer == null || buffer.capacity() < sizeInBytes) {
+            buffer = ByteBuffer.allocate(sizeInBytes);
+            if (sizeInBytes <= batchSize)
+                valueBuffers.set(buffer);
+        }
+        buffer.clear();
+        ByteBufferOutputStream out = new ByteBufferOutputStream(buffer);
+        try {
+            valueWriter.writeTo(new DataOutputStream(out));
+        } catch (IOException e) {
+            throw new KafkaException("Failed to write the record value", e);
+        }
+        if (out.position() != sizeInBytes)
+            throw new IllegalStateException("Record value writer wrote " + out.position() + " bytes, but reported a " +
+                    "size of " + sizeInBytes + " bytes");
+        ByteBuffer value = out.buffer();
+        value.flip();
+        return value;
+    }
+
+    /**
+     * Write the record of an append result which was only reserved while holding the deque lock. Records are
+     * copied into the batch outside of the lock, so appends to the same partition only serialize on the reservation.
+     */
+    private RecordAppendResult writeReserved(RecordAppendResult appendResult) {
+        if (appendResult.reservedAppend != null)
+            appendResult.reservedAppend.write();
+        return appendResult;
+    }
+
     /**
      * Get a list of batches which have been sitting in the accumulator too long and need to be expired.
      */
@@ -289,7 +566,7 @@ public final class RecordAccumulator {
                         // are invoked after completing the iterations, since sends invoked from callbacks
                         // may append more batches to the deque being iterated. The batch is deallocated after
                         // callbacks are invoked.
-                        if (batch.maybeExpire(requestTimeout, retryBackoffMs, now, this.lingerMs, isFull)) {
+                        if (batch.maybeExpire(requestTimeout, retryBackoffMs, now, lingerMs(tp), isFull)) {
                             expiredBatches.add(batch);
                             batchIterator.remove();
                         } else {
@@ -441,7 +718,7 @@ public final class RecordAccumulator {
                     if (batch != null) {
                         long waitedTimeMs = batch.waitedTimeMs(nowMs);
                         boolean backingOff = batch.attempts() > 0 && waitedTimeMs < retryBackoffMs;
-                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs;
+                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs(part);
                         boolean full = deque.size() > 1 || batch.isFull();
                         boolean expired = waitedTimeMs >= timeToWaitMs;
                         boolean sendable = full || expired || exhausted || closed || flushInProgress();
@@ -478,7 +755,10 @@ public final class RecordAccumulator {
 
     /**
      * Drain all the data for the given nodes and collate them into a list of batches that will fit within the specified
-     * size on a per-node basis. This method attempts to avoid choosing the same topic-node over and over.
+     * size on a per-node basis. This method attempts to avoid choosing the same topic-node over and over: each node
+     * keeps its own position in its list of partitions, and a partition whose batch did not fit in what was left of a
+     * request goes first in the next request to its node. Batches which do not fit are skipped rather than ending the
+     * request, so that smaller batches of the following partitions can fill it.
      *
      * @param cluster The current cluster metadata
      * @param nodes The list of node to drain
@@ -498,8 +778,12 @@ public final class RecordAccumulator {
             int size = 0;
             List<PartitionInfo> parts = cluster.partitionsForNode(node.id());
             List<ProducerBatch> ready = new ArrayList<>();
+            // the index of the first partition whose batch was skipped since it did not fit
+            int skippedIndex = -1;
             /* to make starvation less likely this loop doesn't start at 0 */
-            int start = drainIndex = drainIndex % parts.size();
+            Integer nodeDrainIndex = nodesDrainIndex.get(node.id());
+            int drainIndex = nodeDrainIndex == null ? 0 : nodeDrainIndex % parts.size();
+            int start = drainIndex;
             do {
                 PartitionInfo part = parts.get(drainIndex);
                 TopicPartition tp = new TopicPartition(part.topic(), part.partition());
@@ -516,8 +800,9 @@ public final class RecordAccumulator {
                                     if (size + first.estimatedSizeInBytes() > maxSize && !ready.isEmpty()) {
                                         // there is a rare case that a single batch size is larger than the request size due
                                         // to compression; in this case we will still eventually send this batch in a single
-                                        // request
-                                        break;
+                                        // request, since it goes first in the next one
+                                        if (skippedIndex < 0)
+                                            skippedIndex = drainIndex;
                                     } else {
                                         ProducerIdAndEpoch producerIdAndEpoch = null;
                                         boolean isTransactional = false;
@@ -572,6 +857,8 @@ public final class RecordAccumulator {
                                         batch.close();
                                         size += batch.records().sizeInBytes();
                                         ready.add(batch);
+                                        if (adaptiveBatching != null)
+                                            adaptiveBatching.onDrained(batch, now);
                                         batch.drained(now);
                                     }
                                 }
@@ -579,13 +866,35 @@ public final class RecordAccumulator {
                         }
                     }
                 }
-                this.drainIndex = (this.drainIndex + 1) % parts.size();
-            } while (start != drainIndex);
+                drainIndex = (drainIndex + 1) % parts.size();
+            } while (start != drainIndex && size < maxSize);
+            nodesDrainIndex.put(node.id(), skippedIndex >= 0 ? skippedIndex : drainIndex);
             batches.put(node.id(), ready);
         }
         return batches;
     }
 
+    /**
+     * Let adaptive batching adjust the linger time and batch size of the partition of a batch which has been
+     * acknowledged successfully.
+     *
+     * @param batch The acknowledged batch
+     * @param requestLatencyMs The latency of the produce request which sent the batch
+     * @param now The current time in milliseconds
+     */
+    public void batchAcknowledged(ProducerBatch batch, long requestLatencyMs, long now) {
+        if (adaptiveBatching != null)
+            adaptiveBatching.onCompleted(batch, requestLatencyMs, now);
+    }
+
+    private long lingerMs(TopicPartition tp) {
+        return adaptiveBatching == null ? lingerMs : adaptiveBatching.lingerMs(tp);
+    }
+
+    private int batchSize(TopicPartition tp) {
+        return adaptiveBatching == null ? batchSize : adaptiveBatching.batchSize(tp);
+    }
+
     private Deque<ProducerBatch> getDeque(TopicPartition tp) {
         return batches.get(tp);
     }
@@ -754,11 +1063,22 @@ public final class RecordAccumulator {
         public final FutureRecordMetadata future;
         public final boolean batchIsFull;
         public final boolean newBatchCreated;
+        public final boolean abortForNewBatch;
+        // the record to write once the deque lock has been released, if it was only reserved
+        private final ProducerBatch.ReservedAppend reservedAppend;
+
+        public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated,
+                                  boolean abortForNewBatch) {
+            this(future, batchIsFull, newBatchCreated, abortForNewBatch, null);
+        }
 
-        public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated) {
+        private RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated,
+                                   boolean abortForNewBatch, ProducerBatch.ReservedAppend reservedAppend) {
             this.future = future;
             this.batchIsFull = batchIsFull;
             this.newBatchCreated = newBatchCreated;
+            this.abortForNewBatch = abortForNewBatch;
+            this.reservedAppend = reservedAppend;
         }
     }
 
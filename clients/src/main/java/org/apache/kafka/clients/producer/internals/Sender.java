@@ -478,6 +478,8 @@ public class Sender implements Runnable {
                     TopicPartition tp = entry.getKey();
                     ProduceResponse.PartitionResponse partResp = entry.getValue();
                     ProducerBatch batch = batches.get(tp);
+                    if (partResp.error == Errors.NONE)
+                        this.accumulator.batchAcknowledged(batch, response.requestLatencyMs(), now);
                     completeBatch(batch, partResp, correlationId, now);
                 }
                 this.sensors.recordLatency(response.destination(), response.requestLatencyMs());
@@ -502,7 +504,7 @@ public class Sender implements Runnable {
                                long now) {
         Errors error = response.error;
 
-        if (error == Errors.MESSAGE_TOO_LARGE && batch.recordCount > 1 &&
+        if (error == Errors.MESSAGE_TOO_LARGE && batch.recordCount > 1 && !batch.isForExistingBatch() &&
                 (batch.magic() >= RecordBatch.MAGIC_VALUE_V2 || batch.isCompressed())) {
             // If the batch is too large, we split the batch and send the split batches again. We do not decrement
             // the retry attempts in this case.
@@ -722,6 +724,7 @@ public class Sender implements Runnable {
         public final Sensor queueTimeSensor;
         public final Sensor requestTimeSensor;
         public final Sensor recordsPerRequestSensor;
+        public final Sensor requestFillRatioSensor;
         public final Sensor batchSizeSensor;
         public final Sensor compressionRateSensor;
         public final Sensor maxRecordSizeSensor;
@@ -750,6 +753,10 @@ public class Sender implements Runnable {
             this.recordsPerRequestSensor.add(new Meter(metrics.recordSendRate, metrics.recordSendTotal));
             this.recordsPerRequestSensor.add(metrics.recordsPerRequestAvg, new Avg());
 
+            this.requestFillRatioSensor = metrics.sensor("request-fill-ratio");
+            this.requestFillRatioSensor.add(metrics.requestFillRatioAvg, new Avg());
+            this.requestFillRatioSensor.add(metrics.requestFillRatioMax, new Max());
+
             this.retrySensor = metrics.sensor("record-retries");
             this.retrySensor.add(new Meter(metrics.recordRetryRate, metrics.recordRetryTotal));
 
@@ -817,6 +824,7 @@ public class Sender implements Runnable {
             long now = time.milliseconds();
             for (List<ProducerBatch> nodeBatch : batches.values()) {
                 int records = 0;
+                int bytes = 0;
                 for (ProducerBatch batch : nodeBatch) {
                     // register all per-topic metrics at once
                     String topic = batch.topicPartition.topic();
@@ -843,8 +851,11 @@ public class Sender implements Runnable {
                     this.compressionRateSensor.record(batch.compressionRatio());
                     this.maxRecordSizeSensor.record(batch.maxRecordSize, now);
                     records += batch.recordCount;
+                    bytes += batch.estimatedSizeInBytes();
                 }
                 this.recordsPerRequestSensor.record(records, now);
+                if (!nodeBatch.isEmpty())
+                    this.requestFillRatioSensor.record((double) bytes / maxRequestSize, now);
             }
         }
 
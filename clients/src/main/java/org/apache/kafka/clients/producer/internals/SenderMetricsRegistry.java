@@ -47,6 +47,8 @@ public class SenderMetricsRegistry {
     public final MetricName recordSendRate;
     public final MetricName recordSendTotal;
     public final MetricName recordsPerRequestAvg;
+    public final MetricName requestFillRatioAvg;
+    public final MetricName requestFillRatioMax;
     public final MetricName recordRetryRate;
     public final MetricName recordRetryTotal;
     public final MetricName recordErrorRate;
@@ -99,6 +101,10 @@ public class SenderMetricsRegistry {
                 "The total number of records sent.");
         this.recordsPerRequestAvg = createMetricName("records-per-request-avg",
                 "The average number of records per request.");
+        this.requestFillRatioAvg = createMetricName("request-fill-ratio-avg",
+                "The average size of the record batches of a produce request as a fraction of the maximum request size.");
+        this.requestFillRatioMax = createMetricName("request-fill-ratio-max",
+                "The maximum size of the record batches of a produce request as a fraction of the maximum request size.");
         this.recordRetryRate = createMetricName("record-retry-rate",
                 "The average per-second number of retried record sends");
         this.recordRetryTotal = createMetricName("record-retry-total", 
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * A partitioning strategy which batches records without a key:
+ * <ul>
+ * <li>If a partition is specified in the record, use it
+ * <li>If no partition is specified but a key is present choose a partition based on a hash of the key
+ * <li>If no partition or key is present stick to one partition of the topic until the batch of that partition is
+ * full or has been sent, then move on to another available partition chosen at random
+ * </ul>
+ * Compared to the round-robin of the {@link DefaultPartitioner}, records without a key fill up one batch at a time,
+ * which results in fewer and larger produce requests.
+ */
+public class StickyPartitioner implements Partitioner {
+
+    private final ConcurrentMap<String, Integer> stickyPartitions = new ConcurrentHashMap<>();
+
+    public void configure(Map<String, ?> configs) {}
+
+    /**
+     * Compute the partition for the given record.
+     *
+     * @param topic The topic name
+     * @param key The key to partition on (or null if no key)
+     * @param keyBytes serialized key to partition on (or null if no key)
+     * @param value The value to partition on or null
+     * @param valueBytes serialized value to partition on or null
+     * @param cluster The current cluster metadata
+     */
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        if (keyBytes == null) {
+            Integer partition = stickyPartitions.get(topic);
+            return partition != null ? partition : nextPartition(topic, cluster, -1);
+        } else {
+            // hash the keyBytes to choose a partition
+            int numPartitions = cluster.partitionsForTopic(topic).size();
+            return Utils.toPositive(Utils.murmur2(keyBytes)) % numPartitions;
+        }
+    }
+
+    /**
+     * Called by the producer when a record without a key would have started a new batch for the current sticky
+     * partition of the topic, so that the record goes to a new sticky partition instead.
+     *
+     * @param topic The topic name
+     * @param cluster The current cluster metadata
+     * @param prevPartition The sticky partition the record was assigned to
+     */
+    public void onNewBatch(String topic, Cluster cluster, int prevPartition) {
+        nextPartition(topic, cluster, prevPartition);
+    }
+
+    private int nextPartition(String topic, Cluster cluster, int prevPartition) {
+        Integer oldPartition = stickyPartitions.get(topic);
+        // another thread may have switched the partition already, in which case we just use its choice
+        if (oldPartition != null && oldPartition != prevPartition)
+            return oldPartition;
+
+        int newPartition;
+        List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
+        if (availablePartitions.isEmpty()) {
+            // no partitions are available, give a non-available partition
+            newPartition = Utils.toPositive(ThreadLocalRandom.current().nextInt()) % cluster.partitionsForTopic(topic).size();
+        } else if (availablePartitions.size() == 1) {
+            newPartition = availablePartitions.get(0).partition();
+        } else {
+            do {
+                int random = Utils.toPositive(ThreadLocalRandom.current().nextInt());
+                newPartition = availablePartitions.get(random % availablePartitions.size()).partition();
+            } while (oldPartition != null && newPartition == oldPartition);
+        }
+
+        if (oldPartition == null)
+            stickyPartitions.putIfAbsent(topic, newPartition);
+        else
+            stickyPartitions.replace(topic, oldPartition, newPartition);
+        return stickyPartitions.get(topic);
+    }
+
+    public void close() {}
+
+}
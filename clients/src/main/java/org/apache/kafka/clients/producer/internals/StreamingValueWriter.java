@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.record.RecordValueWriter;
+import org.apache.kafka.common.serialization.StreamingSerializer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes a record value with a {@link StreamingSerializer}, see {@link RecordAccumulator#writeValue(RecordValueWriter)}.
+ * The serialized size is computed up front since it is needed to check the record size and to size the value buffer.
+ */
+public final class StreamingValueWriter<V> implements RecordValueWriter {
+    private final StreamingSerializer<V> serializer;
+    private final String topic;
+    private final Headers headers;
+    private final V value;
+    private final int sizeInBytes;
+
+    public StreamingValueWriter(StreamingSerializer<V> serializer, String topic, Headers headers, V value) {
+        this.serializer = serializer;
+        this.topic = topic;
+        this.headers = headers;
+        this.value = value;
+        this.sizeInBytes = serializer.serializedSize(topic, headers, value);
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        serializer.serialize(topic, headers, value, out);
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.kafka.common.record;
 
+import org.apache.kafka.common.errors.UnsupportedCompressionTypeException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.utils.AbstractIterator;
 import org.apache.kafka.common.utils.Time;
@@ -76,6 +77,10 @@ public abstract class AbstractRecords implements Records {
             if (toMagic < RecordBatch.MAGIC_VALUE_V2 && batch.isControlBatch())
                 continue;
 
+            if (toMagic < RecordBatch.MAGIC_VALUE_V2 && batch.compressionType() == CompressionType.ZSTD)
+                throw new UnsupportedCompressionTypeException("Down-conversion of zstandard-compressed batches " +
+                    "is not supported");
+
             if (batch.magic() <= toMagic) {
                 totalSizeEstimate += batch.sizeInBytes();
                 recordBatchAndRecordsList.add(new RecordBatchAndRecords(batch, null, null));
@@ -219,6 +224,23 @@ public abstract class AbstractRecords implements Records {
             return Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, key, value);
     }
 
+    /**
+     * Get an upper bound estimate on the batch size needed to hold a record with the given key and value sizes, which
+     * are -1 for a null key or value. This is only an estimate because it does not take into account overhead from the
+     * compression algorithm.
+     */
+    public static int estimateSizeInBytesUpperBound(byte magic, CompressionType compressionType, int keySize,
+                                                    int valueSize, Header[] headers) {
+        if (magic >= RecordBatch.MAGIC_VALUE_V2)
+            return DefaultRecordBatch.estimateBatchSizeUpperBound(keySize, valueSize, headers);
+
+        int legacyRecordSize = LegacyRecord.recordSize(magic, Math.max(keySize, 0), Math.max(valueSize, 0));
+        if (compressionType != CompressionType.NONE)
+            return Records.LOG_OVERHEAD + LegacyRecord.recordOverhead(magic) + legacyRecordSize;
+        else
+            return Records.LOG_OVERHEAD + legacyRecordSize;
+    }
+
     /**
      * Return the size of the record batch header.
      *
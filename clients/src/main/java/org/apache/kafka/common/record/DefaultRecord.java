@@ -229,6 +229,56 @@ public class DefaultRecord implements Record {
         return ByteUtils.sizeOfVarint(sizeInBytes) + sizeInBytes;
     }
 
+    /**
+     * Write the record to `out` at its current position and return its size.
+     */
+    public static int writeTo(ByteBuffer out,
+                              int offsetDelta,
+                              long timestampDelta,
+                              ByteBuffer key,
+                              ByteBuffer value,
+                              Header[] headers) {
+        int sizeInBytes = sizeOfBodyInBytes(offsetDelta, timestampDelta, key, value, headers);
+        ByteUtils.writeVarint(sizeInBytes, out);
+
+        byte attributes = 0; // there are no used record attributes at the moment
+        out.put(attributes);
+
+        ByteUtils.writeVarlong(timestampDelta, out);
+        ByteUtils.writeVarint(offsetDelta, out);
+
+        if (key == null) {
+            ByteUtils.writeVarint(-1, out);
+        } else {
+            ByteUtils.writeVarint(key.remaining(), out);
+            out.put(key.duplicate());
+        }
+
+        if (value == null) {
+            ByteUtils.writeVarint(-1, out);
+        } else {
+            ByteUtils.writeVarint(value.remaining(), out);
+            out.put(value.duplicate());
+        }
+
+        ByteUtils.writeVarint(headers.length, out);
+        for (Header header : headers) {
+            byte[] utf8Bytes = Utils.utf8(header.key());
+            ByteUtils.writeVarint(utf8Bytes.length, out);
+            out.put(utf8Bytes);
+
+            byte[] headerValue = header.value();
+            if (headerValue == null) {
+                ByteUtils.writeVarint(-1, out);
+            } else {
+                ByteUtils.writeVarint(headerValue.length, out);
+                out.put(headerValue);
+            }
+        }
+
+        return ByteUtils.sizeOfVarint(sizeInBytes) + sizeInBytes;
+    }
+
     @Override
     public boolean hasMagic(byte magic) {
         return magic >= MAGIC_VALUE_V2;
@@ -471,6 +521,10 @@ public class DefaultRecord implements Record {
     static int recordSizeUpperBound(ByteBuffer key, ByteBuffer value, Header[] headers) {
         int keySize = key == null ? -1 : key.remaining();
         int valueSize = value == null ? -1 : value.remaining();
+        return recordSizeUpperBound(keySize, valueSize, headers);
+    }
+
+    static int recordSizeUpperBound(int keySize, int valueSize, Header[] headers) {
         return MAX_RECORD_OVERHEAD + sizeOf(keySize, valueSize, headers);
     }
 
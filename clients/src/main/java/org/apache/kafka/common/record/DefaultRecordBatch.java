@@ -361,6 +361,20 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         buffer.putInt(PARTITION_LEADER_EPOCH_OFFSET, epoch);
     }
 
+    /**
+     * Overwrite the producer id, epoch, base sequence and transactional flag of this batch and update its checksum.
+     * The records of the batch are left as they are.
+     */
+    public void setProducerState(long producerId, short producerEpoch, int baseSequence, boolean isTransactional) {
+        byte attributes = computeAttributes(compressionType(), timestampType(), isTransactional, isControlBatch());
+        buffer.putShort(ATTRIBUTES_OFFSET, attributes);
+        buffer.putLong(PRODUCER_ID_OFFSET, producerId);
+        buffer.putShort(PRODUCER_EPOCH_OFFSET, producerEpoch);
+        buffer.putInt(BASE_SEQUENCE_OFFSET, baseSequence);
+        long crc = computeChecksum();
+        ByteUtils.writeUnsignedInt(buffer, CRC_OFFSET, crc);
+    }
+
     @Override
     public long checksum() {
         return ByteUtils.readUnsignedInt(buffer, CRC_OFFSET);
@@ -523,6 +537,10 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         return RECORD_BATCH_OVERHEAD + DefaultRecord.recordSizeUpperBound(key, value, headers);
     }
 
+    static int estimateBatchSizeUpperBound(int keySize, int valueSize, Header[] headers) {
+        return RECORD_BATCH_OVERHEAD + DefaultRecord.recordSizeUpperBound(keySize, valueSize, headers);
+    }
+
     static int incrementSequence(int baseSequence, int increment) {
         if (baseSequence > Integer.MAX_VALUE - increment)
             return increment - (Integer.MAX_VALUE - baseSequence) - 1;
@@ -55,6 +55,8 @@ public class MemoryRecordsBuilder {
     private final int partitionLeaderEpoch;
     private final int writeLimit;
     private final int batchHeaderSizeInBytes;
+    // the existing batch passed through by this builder, or null if records are appended to it
+    private final DefaultRecordBatch existingBatch;
 
     // Use a conservative estimate of the compression ratio. The producer overrides this using statistics
     // from previous batches before appending any records.
@@ -96,6 +98,8 @@ public class MemoryRecordsBuilder {
                 throw new IllegalArgumentException("Transactional records are not supported for magic " + magic);
             if (isControlBatch)
                 throw new IllegalArgumentException("Control records are not supported for magic " + magic);
+            if (compressionType == CompressionType.ZSTD)
+                throw new IllegalArgumentException("ZStandard compression is not supported for magic " + magic);
         }
 
         this.magic = magic;
@@ -116,12 +120,77 @@ public class MemoryRecordsBuilder {
         this.writeLimit = writeLimit;
         this.initialPosition = bufferStream.position();
         this.batchHeaderSizeInBytes = AbstractRecords.recordBatchHeaderSizeInBytes(magic, compressionType);
+        this.existingBatch = null;
 
         bufferStream.position(initialPosition + batchHeaderSizeInBytes);
         this.bufferStream = bufferStream;
         this.appendStream = new DataOutputStream(compressionType.wrapForOutput(this.bufferStream, magic));
     }
 
+    private MemoryRecordsBuilder(ByteBufferOutputStream bufferStream, DefaultRecordBatch existingBatch) {
+        this.magic = existingBatch.magic();
+        this.timestampType = existingBatch.timestampType();
+        this.compressionType = existingBatch.compressionType();
+        this.baseOffset = existingBatch.baseOffset();
+        this.logAppendTime = timestampType == TimestampType.LOG_APPEND_TIME ? existingBatch.maxTimestamp() : RecordBatch.NO_TIMESTAMP;
+        this.numRecords = existingBatch.countOrNull();
+        this.uncompressedRecordsSizeInBytes = existingBatch.sizeInBytes() - DefaultRecordBatch.RECORD_BATCH_OVERHEAD;
+        this.maxTimestamp = existingBatch.maxTimestamp();
+        this.offsetOfMaxTimestamp = existingBatch.lastOffset();
+        this.lastOffset = existingBatch.lastOffset();
+        this.firstTimestamp = existingBatch.firstTimestamp();
+        this.producerId = RecordBatch.NO_PRODUCER_ID;
+        this.producerEpoch = RecordBatch.NO_PRODUCER_EPOCH;
+        this.baseSequence = RecordBatch.NO_SEQUENCE;
+        this.isTransactional = false;
+        this.isControlBatch = false;
+        this.partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH;
+        this.writeLimit = existingBatch.sizeInBytes();
+        this.initialPosition = bufferStream.position() - existingBatch.sizeInBytes();
+        this.batchHeaderSizeInBytes = DefaultRecordBatch.RECORD_BATCH_OVERHEAD;
+        this.bufferStream = bufferStream;
+        this.appendStream = null;
+        this.appendStreamIsClosed = true;
+        this.existingBatch = existingBatch;
+    }
+
+    /**
+     * Construct a builder which passes through an existing record batch instead of appending records, for example to
+     * forward a batch fetched from another cluster. The batch is neither decompressed nor compressed again: closing
+     * the builder only rewrites the producer state (and hence the checksum) of the batch in place. The base offset
+     * and partition leader epoch are reset and the producer state is cleared until it is set with
+     * {@link #setProducerState(long, short, int, boolean)}.
+     *
+     * @param buffer The buffer holding a single record batch of magic v2 or above, which is not a control batch,
+     *               from position 0 up to its position. The builder takes ownership of the buffer.
+     * @return The builder, to which no records can be appended
+     */
+    public static MemoryRecordsBuilder forExistingBatch(ByteBuffer buffer) {
+        ByteBuffer batchBuffer = buffer.duplicate();
+        batchBuffer.flip();
+        DefaultRecordBatch batch = new DefaultRecordBatch(batchBuffer.slice());
+        if (batch.magic() < RecordBatch.MAGIC_VALUE_V2)
+            throw new IllegalArgumentException("Only record batches of magic v2 or above can be passed through, found magic " +
+                    batch.magic());
+        if (batch.isControlBatch())
+            throw new IllegalArgumentException("Control batches cannot be passed through");
+        if (batch.sizeInBytes() != batchBuffer.remaining())
+            throw new IllegalArgumentException("The buffer must hold a single record batch, but the batch has " +
+                    batch.sizeInBytes() + " bytes out of " + batchBuffer.remaining());
+
+        batch.setLastOffset(batch.lastOffset() - batch.baseOffset());
+        batch.setPartitionLeaderEpoch(RecordBatch.NO_PARTITION_LEADER_EPOCH);
+        batch.setProducerState(RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false);
+        return new MemoryRecordsBuilder(new ByteBufferOutputStream(buffer), batch);
+    }
+
+    /**
+     * Check whether this builder passes through an existing record batch, see {@link #forExistingBatch(ByteBuffer)}.
+     */
+    public boolean isForExistingBatch() {
+        return existingBatch != null;
+    }
+
     /**
      * Construct a new builder.
      *
@@ -303,7 +372,15 @@ public class MemoryRecordsBuilder {
 
         closeForRecordAppends();
 
-        if (numRecords == 0L) {
+        if (existingBatch != null) {
+            existingBatch.setProducerState(producerId, producerEpoch, baseSequence, isTransactional);
+            // the size of the records before compression is not known, so keep the estimation as it is
+            this.actualCompressionRatio = this.estimatedCompressionRatio;
+            ByteBuffer buffer = buffer().duplicate();
+            buffer.flip();
+            buffer.position(initialPosition);
+            builtRecords = MemoryRecords.readableRecords(buffer.slice());
+        } else if (numRecords == 0L) {
             buffer().position(initialPosition);
             builtRecords = MemoryRecords.EMPTY;
         } else {
@@ -522,6 +599,51 @@ public class MemoryRecordsBuilder {
         return append(timestamp, wrapNullable(key), wrapNullable(value), headers);
     }
 
+    /**
+     * Check whether records can be reserved with {@link #reserve(long, ByteBuffer, ByteBuffer, Header[])}. This is
+     * only the case for uncompressed batches of message format v2 and above, since a record can then be written
+     * at a known position in the buffer independently of the records around it.
+     */
+    public boolean supportsReservedAppends() {
+        return magic >= RecordBatch.MAGIC_VALUE_V2 && compressionType == CompressionType.NONE && !isControlBatch &&
+                existingBatch == null;
+    }
+
+    /**
+     * Reserve room for a new record at the next sequential offset without writing it. The record counts as appended
+     * once this returns, but it must be written with {@link ReservedRecord#write()} before the builder is closed.
+     * Unlike appends, reserved records can be written concurrently by several threads.
+     * @param timestamp The record timestamp
+     * @param key The record key
+     * @param value The record value
+     * @param headers The record headers if there are any
+     * @return The reserved record, or null if it does not fit in the current buffer
+     */
+    public ReservedRecord reserve(long timestamp, ByteBuffer key, ByteBuffer value, Header[] headers) {
+        if (!supportsReservedAppends())
+            throw new IllegalStateException("Records can only be reserved in uncompressed batches of magic v2 and above");
+        if (timestamp < 0 && timestamp != RecordBatch.NO_TIMESTAMP)
+            throw new IllegalArgumentException("Invalid negative timestamp " + timestamp);
+        ensureOpenForRecordAppend();
+
+        long offset = nextSequentialOffset();
+        int offsetDelta = (int) (offset - baseOffset);
+        long timestampDelta = timestamp - (firstTimestamp == null ? timestamp : firstTimestamp);
+        int sizeInBytes = DefaultRecord.sizeInBytes(offsetDelta, timestampDelta, key, value, headers);
+
+        // the buffer must not be reallocated while reserved records are being written to it
+        if (sizeInBytes > bufferStream.remaining())
+            return null;
+        ByteBuffer buffer = bufferStream.buffer();
+        int position = bufferStream.position();
+
+        if (firstTimestamp == null)
+            firstTimestamp = timestamp;
+        bufferStream.position(position + sizeInBytes);
+        recordWritten(offset, timestamp, sizeInBytes);
+        return new ReservedRecord(buffer, position, offsetDelta, timestampDelta, key, value, headers);
+    }
+
     /**
      * Append a new record at the next sequential offset.
      * @param record The record to append
@@ -679,7 +801,9 @@ public class MemoryRecordsBuilder {
      * @return The estimated number of bytes written
      */
     private int estimatedBytesWritten() {
-        if (compressionType == CompressionType.NONE) {
+        if (existingBatch != null) {
+            return existingBatch.sizeInBytes();
+        } else if (compressionType == CompressionType.NONE) {
             return batchHeaderSizeInBytes + uncompressedRecordsSizeInBytes;
         } else {
             // estimate the written bytes to the underlying byte buffer based on uncompressed written bytes
@@ -699,7 +823,7 @@ public class MemoryRecordsBuilder {
      * appended, then this returns true.
      */
     public boolean hasRoomFor(long timestamp, byte[] key, byte[] value, Header[] headers) {
-        return hasRoomFor(timestamp, wrapNullable(key), wrapNullable(value), headers);
+        return hasRoomFor(timestamp, key == null ? -1 : key.length, value == null ? -1 : value.length, headers);
     }
 
     /**
@@ -711,6 +835,18 @@ public class MemoryRecordsBuilder {
      * re-allocation in the underlying byte buffer stream.
      */
     public boolean hasRoomFor(long timestamp, ByteBuffer key, ByteBuffer value, Header[] headers) {
+        return hasRoomFor(timestamp, key == null ? -1 : key.remaining(), value == null ? -1 : value.remaining(), headers);
+    }
+
+    /**
+     * Check if we have room for a new record with the given key and value sizes, which are -1 for a null key or
+     * value. If no records have been appended, then this returns true.
+     *
+     * Note that the return value is based on the estimate of the bytes written to the compressor, which may not be
+     * accurate if compression is used. When this happens, the following append may cause dynamic buffer
+     * re-allocation in the underlying byte buffer stream.
+     */
+    public boolean hasRoomFor(long timestamp, int keySize, int valueSize, Header[] headers) {
         if (isFull())
             return false;
 
@@ -720,11 +856,11 @@ public class MemoryRecordsBuilder {
 
         final int recordSize;
         if (magic < RecordBatch.MAGIC_VALUE_V2) {
-            recordSize = Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, key, value);
+            recordSize = Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, Math.max(keySize, 0), Math.max(valueSize, 0));
         } else {
             int nextOffsetDelta = lastOffset == null ? 0 : (int) (lastOffset - baseOffset + 1);
             long timestampDelta = firstTimestamp == null ? 0 : timestamp - firstTimestamp;
-            recordSize = DefaultRecord.sizeInBytes(nextOffsetDelta, timestampDelta, key, value, headers);
+            recordSize = DefaultRecord.sizeInBytes(nextOffsetDelta, timestampDelta, keySize, valueSize, headers);
         }
 
         // Be conservative and not take compression of the new record into consideration.
@@ -757,6 +893,40 @@ public class MemoryRecordsBuilder {
         return lastOffset == null ? baseOffset : lastOffset + 1;
     }
 
+    /**
+     * A record which has been given an offset and a position in the buffer by
+     * {@link #reserve(long, ByteBuffer, ByteBuffer, Header[])}, but which has not been written yet.
+     */
+    public static final class ReservedRecord {
+        private final ByteBuffer buffer;
+        private final int position;
+        private final int offsetDelta;
+        private final long timestampDelta;
+        private final ByteBuffer key;
+        private final ByteBuffer value;
+        private final Header[] headers;
+
+        private ReservedRecord(ByteBuffer buffer, int position, int offsetDelta, long timestampDelta, ByteBuffer key,
+                               ByteBuffer value, Header[] headers) {
+            this.buffer = buffer;
+            this.position = position;
+            this.offsetDelta = offsetDelta;
+            this.timestampDelta = timestampDelta;
+            this.key = key;
+            this.value = value;
+            this.headers = headers;
+        }
+
+        /**
+         * Write the record to its reserved position. This does not touch any state shared with other records.
+         */
+        public void write() {
+            ByteBuffer out = buffer.duplicate();
+            out.position(position);
+            DefaultRecord.writeTo(out, offsetDelta, timestampDelta, key, value, headers);
+        }
+    }
+
     public static class RecordsInfo {
         public final long maxTimestamp;
         public final long shallowOffsetOfMaxTimestamp;
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes a non-null record value into a buffer which the producer reuses for the values of a thread, so that the value
+ * does not have to be serialized into a byte array of its own first. A value is written once per send, and its bytes
+ * are appended from the buffer.
+ *
+ * The size of the value is needed before it is written to size the buffer and to check the record size, so
+ * {@link #writeTo(DataOutput)} must write exactly {@link #sizeInBytes()} bytes.
+ */
+public interface RecordValueWriter {
+
+    /**
+     * The number of bytes written by {@link #writeTo(DataOutput)}
+     */
+    int sizeInBytes();
+
+    /**
+     * Write the value to the given output
+     */
+    void writeTo(DataOutput out) throws IOException;
+
+}
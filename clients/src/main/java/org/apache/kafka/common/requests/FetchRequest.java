@@ -24,9 +24,11 @@ import org.apache.kafka.common.protocol.types.Field;
 import org.apache.kafka.common.protocol.types.Schema;
 import org.apache.kafka.common.protocol.types.Struct;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.utils.Utils;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +46,9 @@ public class FetchRequest extends AbstractRequest {
     private static final String MIN_BYTES_KEY_NAME = "min_bytes";
     private static final String ISOLATION_LEVEL_KEY_NAME = "isolation_level";
     private static final String TOPICS_KEY_NAME = "topics";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
+    private static final String EPOCH_KEY_NAME = "epoch";
+    private static final String FORGOTTEN_TOPICS_DATA_KEY_NAME = "forgotten_topics_data";
 
     // request and partition level name
     private static final String MAX_BYTES_KEY_NAME = "max_bytes";
@@ -76,6 +81,10 @@ public class FetchRequest extends AbstractRequest {
             TOPIC_NAME,
             new Field(PARTITIONS_KEY_NAME, new ArrayOf(FETCH_REQUEST_PARTITION_V5), "Partitions to fetch."));
 
+    private static final Schema FETCH_REQUEST_FORGOTTEN_TOPIC_V7 = new Schema(
+            TOPIC_NAME,
+            new Field(PARTITIONS_KEY_NAME, new ArrayOf(INT32), "Partitions to remove from the fetch session."));
+
     private static final Schema FETCH_REQUEST_V0 = new Schema(
             new Field(REPLICA_ID_KEY_NAME, INT32, "Broker id of the follower. For normal consumers, use -1."),
             new Field(MAX_WAIT_KEY_NAME, INT32, "Maximum time in ms to wait for the response."),
@@ -139,9 +148,30 @@ public class FetchRequest extends AbstractRequest {
      */
     private static final Schema FETCH_REQUEST_V6 = FETCH_REQUEST_V5;
 
+    // FETCH_REQUEST_V7 added incremental fetch requests: the fetch session id and epoch, and the list of
+    // partitions to remove from the fetch session.
+    private static final Schema FETCH_REQUEST_V7 = new Schema(
+            new Field(REPLICA_ID_KEY_NAME, INT32, "Broker id of the follower. For normal consumers, use -1."),
+            new Field(MAX_WAIT_KEY_NAME, INT32, "Maximum time in ms to wait for the response."),
+            new Field(MIN_BYTES_KEY_NAME, INT32, "Minimum bytes to accumulate in the response."),
+            new Field(MAX_BYTES_KEY_NAME, INT32, "Maximum bytes to accumulate in the response. Note that this is not an absolute maximum, " +
+                    "if the first message in the first non-empty partition of the fetch is larger than this " +
+                    "value, the message will still be returned to ensure that progress can be made."),
+            new Field(ISOLATION_LEVEL_KEY_NAME, INT8, "This setting controls the visibility of transactional records. Using READ_UNCOMMITTED " +
+                    "(isolation_level = 0) makes all records visible. With READ_COMMITTED (isolation_level = 1), " +
+                    "non-transactional and COMMITTED transactional records are visible. To be more concrete, " +
+                    "READ_COMMITTED returns all data from offsets smaller than the current LSO (last stable offset), " +
+                    "and enables the inclusion of the list of aborted transactions in the result, which allows " +
+                    "consumers to discard ABORTED transactional records"),
+            new Field(SESSION_ID_KEY_NAME, INT32, "The fetch session ID"),
+            new Field(EPOCH_KEY_NAME, INT32, "The fetch epoch"),
+            new Field(TOPICS_KEY_NAME, new ArrayOf(FETCH_REQUEST_TOPIC_V5), "Topics to fetch in the order provided."),
+            new Field(FORGOTTEN_TOPICS_DATA_KEY_NAME, new ArrayOf(FETCH_REQUEST_FORGOTTEN_TOPIC_V7),
+                    "Topics to remove from the fetch session."));
+
     public static Schema[] schemaVersions() {
         return new Schema[]{FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3, FETCH_REQUEST_V4,
-            FETCH_REQUEST_V5, FETCH_REQUEST_V6};
+            FETCH_REQUEST_V5, FETCH_REQUEST_V6, FETCH_REQUEST_V7};
     };
 
     // default values for older versions where a request level limit did not exist
@@ -154,6 +184,8 @@ public class FetchRequest extends AbstractRequest {
     private final int maxBytes;
     private final IsolationLevel isolationLevel;
     private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
+    private final List<TopicPartition> toForget;
+    private final FetchMetadata metadata;
 
     public static final class PartitionData {
         public final long fetchOffset;
@@ -166,6 +198,28 @@ public class FetchRequest extends AbstractRequest {
             this.maxBytes = maxBytes;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            PartitionData that = (PartitionData) o;
+
+            return fetchOffset == that.fetchOffset &&
+                    logStartOffset == that.logStartOffset &&
+                    maxBytes == that.maxBytes;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (fetchOffset ^ (fetchOffset >>> 32));
+            result = 31 * result + (int) (logStartOffset ^ (logStartOffset >>> 32));
+            result = 31 * result + maxBytes;
+            return result;
+        }
+
         @Override
         public String toString() {
             return "(offset=" + fetchOffset + ", logStartOffset=" + logStartOffset + ", maxBytes=" + maxBytes + ")";
@@ -202,6 +256,8 @@ public class FetchRequest extends AbstractRequest {
         private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
         private final IsolationLevel isolationLevel;
         private int maxBytes = DEFAULT_RESPONSE_MAX_BYTES;
+        private FetchMetadata metadata = FetchMetadata.LEGACY;
+        private List<TopicPartition> toForget = Collections.emptyList();
 
         public static Builder forConsumer(int maxWait, int minBytes, LinkedHashMap<TopicPartition, PartitionData> fetchData) {
             return forConsumer(maxWait, minBytes, fetchData, IsolationLevel.READ_UNCOMMITTED);
@@ -238,13 +294,36 @@ public class FetchRequest extends AbstractRequest {
             return this;
         }
 
+        public List<TopicPartition> toForget() {
+            return toForget;
+        }
+
+        public Builder toForget(List<TopicPartition> toForget) {
+            this.toForget = toForget;
+            return this;
+        }
+
+        public FetchMetadata metadata() {
+            return metadata;
+        }
+
+        public Builder metadata(FetchMetadata metadata) {
+            this.metadata = metadata;
+            return this;
+        }
+
         @Override
         public FetchRequest build(short version) {
             if (version < 3) {
                 maxBytes = DEFAULT_RESPONSE_MAX_BYTES;
             }
 
-            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData, isolationLevel);
+            // Versions older than 7 have no notion of fetch sessions, so the request is always a full fetch
+            // and the broker will not create a session for it.
+            FetchMetadata requestMetadata = version < 7 ? FetchMetadata.LEGACY : metadata;
+            List<TopicPartition> requestToForget = version < 7 ? Collections.<TopicPartition>emptyList() : toForget;
+            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData, isolationLevel,
+                    requestToForget, requestMetadata);
         }
 
         @Override
@@ -257,13 +336,16 @@ public class FetchRequest extends AbstractRequest {
                     append(", maxBytes=").append(maxBytes).
                     append(", fetchData=").append(fetchData).
                     append(", isolationLevel=").append(isolationLevel).
+                    append(", toForget=").append(Utils.join(toForget, ", ")).
+                    append(", metadata=").append(metadata).
                     append(")");
             return bld.toString();
         }
     }
 
     private FetchRequest(short version, int replicaId, int maxWait, int minBytes, int maxBytes,
-                         LinkedHashMap<TopicPartition, PartitionData> fetchData, IsolationLevel isolationLevel) {
+                         LinkedHashMap<TopicPartition, PartitionData> fetchData, IsolationLevel isolationLevel,
+                         List<TopicPartition> toForget, FetchMetadata metadata) {
         super(version);
         this.replicaId = replicaId;
         this.maxWait = maxWait;
@@ -271,6 +353,8 @@ public class FetchRequest extends AbstractRequest {
         this.maxBytes = maxBytes;
         this.fetchData = fetchData;
         this.isolationLevel = isolationLevel;
+        this.toForget = toForget;
+        this.metadata = metadata;
     }
 
     public FetchRequest(Struct struct, short version) {
@@ -303,19 +387,38 @@ public class FetchRequest extends AbstractRequest {
                 fetchData.put(new TopicPartition(topic, partition), partitionData);
             }
         }
+
+        toForget = new ArrayList<>();
+        if (struct.hasField(FORGOTTEN_TOPICS_DATA_KEY_NAME)) {
+            for (Object forgottenTopicObj : struct.getArray(FORGOTTEN_TOPICS_DATA_KEY_NAME)) {
+                Struct forgottenTopic = (Struct) forgottenTopicObj;
+                String topic = forgottenTopic.get(TOPIC_NAME);
+                for (Object partitionObj : forgottenTopic.getArray(PARTITIONS_KEY_NAME))
+                    toForget.add(new TopicPartition(topic, (Integer) partitionObj));
+            }
+        }
+
+        if (struct.hasField(SESSION_ID_KEY_NAME))
+            metadata = new FetchMetadata(struct.getInt(SESSION_ID_KEY_NAME), struct.getInt(EPOCH_KEY_NAME));
+        else
+            metadata = FetchMetadata.LEGACY;
     }
 
     @Override
     public AbstractResponse getErrorResponse(int throttleTimeMs, Throwable e) {
+        // The error is set both on every partition (which is all that versions older than 7 understand) and at the
+        // top level. An incremental fetch response may not contain any partitions at all, so the top level error
+        // is the only way to report it in that case.
+        Errors error = Errors.forException(e);
         LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
 
         for (Map.Entry<TopicPartition, PartitionData> entry: fetchData.entrySet()) {
-            FetchResponse.PartitionData partitionResponse = new FetchResponse.PartitionData(Errors.forException(e),
+            FetchResponse.PartitionData partitionResponse = new FetchResponse.PartitionData(error,
                 FetchResponse.INVALID_HIGHWATERMARK, FetchResponse.INVALID_LAST_STABLE_OFFSET, FetchResponse.INVALID_LOG_START_OFFSET,
                 null, MemoryRecords.EMPTY);
             responseData.put(entry.getKey(), partitionResponse);
         }
-        return new FetchResponse(responseData, throttleTimeMs);
+        return new FetchResponse(error, responseData, throttleTimeMs, metadata.sessionId());
     }
 
     public int replicaId() {
@@ -338,6 +441,14 @@ public class FetchRequest extends AbstractRequest {
         return fetchData;
     }
 
+    public List<TopicPartition> toForget() {
+        return toForget;
+    }
+
+    public FetchMetadata metadata() {
+        return metadata;
+    }
+
     public boolean isFromFollower() {
         return replicaId >= 0;
     }
@@ -382,6 +493,29 @@ public class FetchRequest extends AbstractRequest {
             topicArray.add(topicData);
         }
         struct.set(TOPICS_KEY_NAME, topicArray.toArray());
+
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            struct.set(SESSION_ID_KEY_NAME, metadata.sessionId());
+            struct.set(EPOCH_KEY_NAME, metadata.epoch());
+
+            Map<String, List<Integer>> topicsToForget = new LinkedHashMap<>();
+            for (TopicPartition topicPartition : toForget) {
+                List<Integer> partitions = topicsToForget.get(topicPartition.topic());
+                if (partitions == null) {
+                    partitions = new ArrayList<>();
+                    topicsToForget.put(topicPartition.topic(), partitions);
+                }
+                partitions.add(topicPartition.partition());
+            }
+            List<Struct> forgottenTopicArray = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> entry : topicsToForget.entrySet()) {
+                Struct forgottenTopic = struct.instance(FORGOTTEN_TOPICS_DATA_KEY_NAME);
+                forgottenTopic.set(TOPIC_NAME, entry.getKey());
+                forgottenTopic.set(PARTITIONS_KEY_NAME, entry.getValue().toArray());
+                forgottenTopicArray.add(forgottenTopic);
+            }
+            struct.set(FORGOTTEN_TOPICS_DATA_KEY_NAME, forgottenTopicArray.toArray());
+        }
         return struct;
     }
 }
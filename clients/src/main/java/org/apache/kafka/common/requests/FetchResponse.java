@@ -39,6 +39,7 @@ import static org.apache.kafka.common.protocol.CommonFields.ERROR_CODE;
 import static org.apache.kafka.common.protocol.CommonFields.PARTITION_ID;
 import static org.apache.kafka.common.protocol.CommonFields.THROTTLE_TIME_MS;
 import static org.apache.kafka.common.protocol.CommonFields.TOPIC_NAME;
+import static org.apache.kafka.common.protocol.types.Type.INT32;
 import static org.apache.kafka.common.protocol.types.Type.INT64;
 import static org.apache.kafka.common.protocol.types.Type.RECORDS;
 import static org.apache.kafka.common.protocol.types.Type.STRING;
@@ -49,6 +50,7 @@ import static org.apache.kafka.common.protocol.types.Type.STRING;
 public class FetchResponse extends AbstractResponse {
 
     private static final String RESPONSES_KEY_NAME = "responses";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
 
     // topic level field names
     private static final String PARTITIONS_KEY_NAME = "partition_responses";
@@ -148,9 +150,16 @@ public class FetchResponse extends AbstractResponse {
      */
     private static final Schema FETCH_RESPONSE_V6 = FETCH_RESPONSE_V5;
 
+    // FETCH_RESPONSE_V7 added incremental fetch responses and a top-level error code.
+    private static final Schema FETCH_RESPONSE_V7 = new Schema(
+            THROTTLE_TIME_MS,
+            ERROR_CODE,
+            new Field(SESSION_ID_KEY_NAME, INT32, "The fetch session ID"),
+            new Field(RESPONSES_KEY_NAME, new ArrayOf(FETCH_RESPONSE_TOPIC_V5)));
+
     public static Schema[] schemaVersions() {
         return new Schema[] {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2,
-            FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5, FETCH_RESPONSE_V6};
+            FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5, FETCH_RESPONSE_V6, FETCH_RESPONSE_V7};
     }
 
 
@@ -166,10 +175,17 @@ public class FetchResponse extends AbstractResponse {
      *  NOT_LEADER_FOR_PARTITION (6)
      *  REPLICA_NOT_AVAILABLE (9)
      *  UNKNOWN (-1)
+     *
+     * Possible top-level error codes (version 7 and later):
+     *
+     *  FETCH_SESSION_ID_NOT_FOUND (62)
+     *  INVALID_FETCH_SESSION_EPOCH (63)
      */
 
+    private final Errors error;
     private final LinkedHashMap<TopicPartition, PartitionData> responseData;
     private final int throttleTimeMs;
+    private final int sessionId;
 
     public static final class AbortedTransaction {
         public final long producerId;
@@ -277,8 +293,24 @@ public class FetchResponse extends AbstractResponse {
      * @param throttleTimeMs Time in milliseconds the response was throttled
      */
     public FetchResponse(LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs) {
+        this(Errors.NONE, responseData, throttleTimeMs, FetchMetadata.INVALID_SESSION_ID);
+    }
+
+    /**
+     * Constructor for all versions which also carries the top-level error and fetch session id used by version 7
+     * and later. Older versions ignore both.
+     *
+     * @param error             The top-level error code
+     * @param responseData      fetched data grouped by topic-partition
+     * @param throttleTimeMs    Time in milliseconds the response was throttled
+     * @param sessionId         The id of the fetch session, or INVALID_SESSION_ID if there is no session
+     */
+    public FetchResponse(Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs,
+                         int sessionId) {
+        this.error = error;
         this.responseData = responseData;
         this.throttleTimeMs = throttleTimeMs;
+        this.sessionId = sessionId;
     }
 
     public FetchResponse(Struct struct) {
@@ -322,11 +354,14 @@ public class FetchResponse extends AbstractResponse {
         }
         this.responseData = responseData;
         this.throttleTimeMs = struct.getOrElse(THROTTLE_TIME_MS, DEFAULT_THROTTLE_TIME);
+        this.error = struct.hasField(ERROR_CODE) ? Errors.forCode(struct.get(ERROR_CODE)) : Errors.NONE;
+        this.sessionId = struct.hasField(SESSION_ID_KEY_NAME) ? struct.getInt(SESSION_ID_KEY_NAME) :
+                FetchMetadata.INVALID_SESSION_ID;
     }
 
     @Override
     public Struct toStruct(short version) {
-        return toStruct(version, responseData, throttleTimeMs);
+        return toStruct(version, error, responseData, throttleTimeMs, sessionId);
     }
 
     @Override
@@ -346,6 +381,10 @@ public class FetchResponse extends AbstractResponse {
         return new MultiSend(dest, sends);
     }
 
+    public Errors error() {
+        return error;
+    }
+
     public LinkedHashMap<TopicPartition, PartitionData> responseData() {
         return responseData;
     }
@@ -354,9 +393,15 @@ public class FetchResponse extends AbstractResponse {
         return this.throttleTimeMs;
     }
 
+    public int sessionId() {
+        return sessionId;
+    }
+
     @Override
     public Map<Errors, Integer> errorCounts() {
         Map<Errors, Integer> errorCounts = new HashMap<>();
+        if (error != Errors.NONE)
+            updateErrorCounts(errorCounts, error);
         for (PartitionData response : responseData.values())
             updateErrorCounts(errorCounts, response.error);
         return errorCounts;
@@ -369,7 +414,15 @@ public class FetchResponse extends AbstractResponse {
     private static void addResponseData(Struct struct, int throttleTimeMs, String dest, List<Send> sends) {
         Object[] allTopicData = struct.getArray(RESPONSES_KEY_NAME);
 
-        if (struct.hasField(THROTTLE_TIME_MS)) {
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            ByteBuffer buffer = ByteBuffer.allocate(14);
+            buffer.putInt(throttleTimeMs);
+            buffer.putShort(struct.get(ERROR_CODE));
+            buffer.putInt(struct.getInt(SESSION_ID_KEY_NAME));
+            buffer.putInt(allTopicData.length);
+            buffer.rewind();
+            sends.add(new ByteBufferSend(dest, buffer));
+        } else if (struct.hasField(THROTTLE_TIME_MS)) {
             ByteBuffer buffer = ByteBuffer.allocate(8);
             buffer.putInt(throttleTimeMs);
             buffer.putInt(allTopicData.length);
@@ -416,8 +469,12 @@ public class FetchResponse extends AbstractResponse {
         sends.add(new RecordsSend(dest, records));
     }
 
-    private static Struct toStruct(short version, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs) {
+    private static Struct toStruct(short version, Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData,
+                                   int throttleTimeMs, int sessionId) {
         Struct struct = new Struct(ApiKeys.FETCH.responseSchema(version));
+        struct.setIfExists(ERROR_CODE, error.code());
+        if (struct.hasField(SESSION_ID_KEY_NAME))
+            struct.set(SESSION_ID_KEY_NAME, sessionId);
         List<FetchRequest.TopicAndPartitionData<PartitionData>> topicsData = FetchRequest.TopicAndPartitionData.batchByTopic(responseData);
         List<Struct> topicArray = new ArrayList<>();
         for (FetchRequest.TopicAndPartitionData<PartitionData> topicEntry: topicsData) {
@@ -472,7 +529,7 @@ public class FetchResponse extends AbstractResponse {
     }
 
     public static int sizeOf(short version, LinkedHashMap<TopicPartition, PartitionData> responseData) {
-        return 4 + toStruct(version, responseData, 0).sizeOf();
+        return 4 + toStruct(version, Errors.NONE, responseData, 0, FetchMetadata.INVALID_SESSION_ID).sizeOf();
     }
 
 }
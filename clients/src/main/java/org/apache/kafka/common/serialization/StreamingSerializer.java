@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.serialization;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.kafka.common.header.Headers;
+
+/**
+ * A Serializer which can write the serialized form of the data directly to an output instead of returning a byte
+ * array.
+ *
+ * When used as the value serializer of a producer, non-null values are written into a buffer of the sending thread
+ * which is reused for every record, which saves allocating a byte array per record. Each value is written once per
+ * send, even if the record is moved on to another partition before it is appended. Note that the partitioner is then
+ * given a null {@code valueBytes} for these records. The byte array based methods are still used for null values
+ * and by consumers of this interface which only know about {@link Serializer}.
+ *
+ * A class that implements this interface is expected to have a constructor with no parameters.
+ * @param <T>
+ */
+public interface StreamingSerializer<T> extends ExtendedSerializer<T> {
+
+    /**
+     * Get the size of the serialized form of {@code data}.
+     *
+     * @param topic topic associated with data
+     * @param headers headers associated with the record
+     * @param data typed data, not null
+     * @return the number of bytes written by {@link #serialize(String, Headers, Object, DataOutput)}
+     */
+    int serializedSize(String topic, Headers headers, T data);
+
+    /**
+     * Write the serialized form of {@code data} to {@code out}. Exactly as many bytes as returned by
+     * {@link #serializedSize(String, Headers, Object)} for the same data must be written. If this method fails or
+     * writes a different number of bytes, the send of this record fails, and the other records are unaffected.
+     *
+     * @param topic topic associated with data
+     * @param headers headers associated with the record
+     * @param data typed data, not null
+     * @param out the output to write to
+     */
+    void serialize(String topic, Headers headers, T data, DataOutput out) throws IOException;
+}
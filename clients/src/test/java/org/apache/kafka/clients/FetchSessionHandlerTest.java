@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.kafka.common.utils.LogContext;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.apache.kafka.common.requests.FetchMetadata.INITIAL_EPOCH;
+import static org.apache.kafka.common.requests.FetchMetadata.INVALID_SESSION_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FetchSessionHandlerTest {
+    private static final LogContext LOG_CONTEXT = new LogContext("[FetchSessionHandler]=");
+
+    private static final TopicPartition FOO_0 = new TopicPartition("foo", 0);
+    private static final TopicPartition FOO_1 = new TopicPartition("foo", 1);
+    private static final TopicPartition BAR_0 = new TopicPartition("bar", 0);
+
+    private static FetchResponse.PartitionData respData(long highWatermark) {
+        return new FetchResponse.PartitionData(Errors.NONE, highWatermark, highWatermark, 0, null,
+                MemoryRecords.EMPTY);
+    }
+
+    private static FetchResponse response(int sessionId, TopicPartition... partitions) {
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        for (TopicPartition partition : partitions)
+            responseData.put(partition, respData(20));
+        return new FetchResponse(Errors.NONE, responseData, 0, sessionId);
+    }
+
+    private static List<TopicPartition> keys(FetchSessionHandler.FetchRequestData data) {
+        return new ArrayList<>(data.toSend().keySet());
+    }
+
+    @Test
+    public void testSessionless() {
+        FetchSessionHandler handler = new FetchSessionHandler(LOG_CONTEXT, 1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        builder.add(FOO_1, new FetchRequest.PartitionData(10, 110, 210));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertEquals(Arrays.asList(FOO_0, FOO_1), keys(data));
+        assertEquals(INVALID_SESSION_ID, data.metadata().sessionId());
+        assertEquals(INITIAL_EPOCH, data.metadata().epoch());
+
+        // the broker did not create a session, so the next request is full again
+        assertTrue(handler.handleResponse(response(INVALID_SESSION_ID, FOO_0, FOO_1)));
+
+        builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        data = builder.build();
+        assertEquals(Collections.singletonList(FOO_0), keys(data));
+        assertEquals(FetchMetadata.INITIAL, data.metadata());
+        assertTrue(data.toForget().isEmpty());
+    }
+
+    @Test
+    public void testIncrementals() {
+        FetchSessionHandler handler = new FetchSessionHandler(LOG_CONTEXT, 1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        builder.add(FOO_1, new FetchRequest.PartitionData(10, 110, 210));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertTrue(data.metadata().isFull());
+        assertTrue(handler.handleResponse(response(123, FOO_0, FOO_1)));
+
+        // FOO_0 is unchanged, FOO_1 moved forward and BAR_0 is new
+        builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        builder.add(FOO_1, new FetchRequest.PartitionData(20, 110, 210));
+        builder.add(BAR_0, new FetchRequest.PartitionData(5, 0, 200));
+        data = builder.build();
+        assertFalse(data.metadata().isFull());
+        assertEquals(123, data.metadata().sessionId());
+        assertEquals(1, data.metadata().epoch());
+        // altered partitions are moved after the new ones
+        assertEquals(Arrays.asList(BAR_0, FOO_1), keys(data));
+        assertTrue(data.toForget().isEmpty());
+        assertEquals(3, data.sessionPartitions().size());
+        assertEquals(20, data.sessionPartitions().get(FOO_1).fetchOffset);
+
+        // an incremental response only needs to contain the partitions which changed
+        assertTrue(handler.handleResponse(response(123, BAR_0)));
+
+        // dropping FOO_0 puts it in the forget list
+        builder = handler.newBuilder();
+        builder.add(FOO_1, new FetchRequest.PartitionData(20, 110, 210));
+        builder.add(BAR_0, new FetchRequest.PartitionData(5, 0, 200));
+        data = builder.build();
+        assertEquals(2, data.metadata().epoch());
+        assertTrue(data.toSend().isEmpty());
+        assertEquals(Collections.singletonList(FOO_0), data.toForget());
+        assertEquals(2, data.sessionPartitions().size());
+
+        // the broker closed the session, so the next request is full
+        assertTrue(handler.handleResponse(response(INVALID_SESSION_ID)));
+        builder = handler.newBuilder();
+        builder.add(FOO_1, new FetchRequest.PartitionData(20, 110, 210));
+        data = builder.build();
+        assertEquals(FetchMetadata.INITIAL, data.metadata());
+        assertEquals(Collections.singletonList(FOO_1), keys(data));
+    }
+
+    @Test
+    public void testInvalidResponsesCloseTheSession() {
+        FetchSessionHandler handler = new FetchSessionHandler(LOG_CONTEXT, 1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        builder.build();
+
+        // a full response must contain exactly the requested partitions
+        assertFalse(handler.handleResponse(response(123, FOO_0, FOO_1)));
+        builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        assertTrue(builder.build().metadata().isFull());
+        assertTrue(handler.handleResponse(response(123, FOO_0)));
+
+        // an incremental response must not contain partitions outside of the session
+        builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        assertFalse(builder.build().metadata().isFull());
+        assertFalse(handler.handleResponse(response(123, BAR_0)));
+
+        builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        FetchSessionHandler.FetchRequestData data = builder.build();
+        assertEquals(new FetchMetadata(123, INITIAL_EPOCH), data.metadata());
+        assertEquals(Collections.singletonList(FOO_0), keys(data));
+    }
+
+    @Test
+    public void testErrors() {
+        FetchSessionHandler handler = new FetchSessionHandler(LOG_CONTEXT, 1);
+        FetchSessionHandler.Builder builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        builder.build();
+        assertTrue(handler.handleResponse(response(123, FOO_0)));
+
+        // an unknown session forces the creation of a brand new session
+        assertFalse(handler.handleResponse(new FetchResponse(Errors.FETCH_SESSION_ID_NOT_FOUND,
+                new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 0, INVALID_SESSION_ID)));
+        builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        assertEquals(FetchMetadata.INITIAL, builder.build().metadata());
+        assertTrue(handler.handleResponse(response(456, FOO_0)));
+
+        // a network error closes the existing session on the next request
+        handler.handleError(new RuntimeException("disconnected"));
+        builder = handler.newBuilder();
+        builder.add(FOO_0, new FetchRequest.PartitionData(0, 100, 200));
+        assertEquals(new FetchMetadata(456, INITIAL_EPOCH), builder.build().metadata());
+    }
+}
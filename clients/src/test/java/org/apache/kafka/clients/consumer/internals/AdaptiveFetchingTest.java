@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveFetchingTest {
+
+    private static final int MAX_POLL_RECORDS = 500;
+    private static final int MAX_FETCH_BYTES = 50 * 1024 * 1024;
+    private static final int MAX_PARTITION_FETCH_BYTES = 1024 * 1024;
+
+    private final AdaptiveFetching adaptiveFetching = new AdaptiveFetching(MAX_POLL_RECORDS, MAX_FETCH_BYTES,
+            MAX_PARTITION_FETCH_BYTES, 300000);
+
+    @Test
+    public void testDefaultsToConfiguredValues() {
+        assertEquals(MAX_POLL_RECORDS, adaptiveFetching.pollRecords());
+        assertEquals(MAX_FETCH_BYTES, adaptiveFetching.fetchBytes());
+        assertEquals(MAX_PARTITION_FETCH_BYTES, adaptiveFetching.partitionFetchBytes());
+    }
+
+    @Test
+    public void testSlowProcessingReducesPollRecords() {
+        // 100 records processed in 10 seconds, so 1500 records fit in half of the poll interval, more than the bound
+        adaptiveFetching.onPollReturn(100, 0L);
+        adaptiveFetching.onPollStart(10000L);
+        assertEquals(MAX_POLL_RECORDS, adaptiveFetching.pollRecords());
+
+        // 10 records processed in 10 seconds, so 150 records fit once the average has caught up
+        for (int i = 1; i <= 50; i++) {
+            adaptiveFetching.onPollReturn(10, i * 100000L);
+            adaptiveFetching.onPollStart(i * 100000L + 10000L);
+        }
+        assertEquals(150, adaptiveFetching.pollRecords());
+    }
+
+    @Test
+    public void testPollRecordsIsAtLeastOne() {
+        adaptiveFetching.onPollReturn(1, 0L);
+        adaptiveFetching.onPollStart(1000000L);
+        assertEquals(1, adaptiveFetching.pollRecords());
+    }
+
+    @Test
+    public void testFetchSizesFollowProcessingRate() {
+        // 1 KB records processed at one per ms, with fetches taking 100 ms: 200 KB covers two round trips
+        adaptiveFetching.onRecordsRead(1024 * 1000, 1000);
+        adaptiveFetching.onFetchCompleted(100L);
+        adaptiveFetching.onPollReturn(100, 0L);
+        adaptiveFetching.onPollStart(100L);
+        assertEquals(MAX_POLL_RECORDS, adaptiveFetching.pollRecords());
+        // the records of one poll take 500 KB, which is more than two round trips
+        assertEquals(500 * 1024, adaptiveFetching.fetchBytes());
+        assertEquals(500 * 1024, adaptiveFetching.partitionFetchBytes());
+
+        // slower fetches need larger ones, up to the bounds
+        for (int i = 0; i < 50; i++)
+            adaptiveFetching.onFetchCompleted(5000L);
+        assertEquals(MAX_PARTITION_FETCH_BYTES, adaptiveFetching.partitionFetchBytes());
+        assertEquals(10000 * 1024, adaptiveFetching.fetchBytes(), 1024);
+    }
+
+    @Test
+    public void testFetchSizesAreNotReducedBelowMinimum() {
+        adaptiveFetching.onRecordsRead(10, 10);
+        adaptiveFetching.onFetchCompleted(1L);
+        adaptiveFetching.onPollReturn(1, 0L);
+        adaptiveFetching.onPollStart(100000L);
+        assertEquals(AdaptiveFetching.MIN_FETCH_BYTES, adaptiveFetching.fetchBytes());
+        assertEquals(AdaptiveFetching.MIN_FETCH_BYTES, adaptiveFetching.partitionFetchBytes());
+    }
+}
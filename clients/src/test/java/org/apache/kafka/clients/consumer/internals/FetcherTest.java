@@ -100,6 +100,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Collections.singleton;
 import static org.junit.Assert.assertArrayEquals;
@@ -133,6 +134,7 @@ public class FetcherTest {
     private SubscriptionState subscriptions = new SubscriptionState(OffsetResetStrategy.EARLIEST);
     private SubscriptionState subscriptionsNoAutoReset = new SubscriptionState(OffsetResetStrategy.NONE);
     private static final double EPSILON = 0.0001;
+    private static final int MAX_POLL_INTERVAL_MS = 300000;
     private ConsumerNetworkClient consumerClient = new ConsumerNetworkClient(new LogContext(),
             client, metadata, time, 100, 1000, Integer.MAX_VALUE);
 
@@ -298,6 +300,117 @@ public class FetcherTest {
         }
     }
 
+    @Test
+    public void testLazyDeserialization() {
+        final AtomicInteger deserialized = new AtomicInteger();
+        ByteArrayDeserializer deserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                deserialized.incrementAndGet();
+                if (new String(data, StandardCharsets.UTF_8).equals("value-2"))
+                    throw new SerializationException();
+                return data;
+            }
+        };
+
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), deserializer, deserializer,
+                Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED, new FetcherOptions().lazyDeserialization(true));
+
+        subscriptions.assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        client.prepareResponse(matchesOffset(tp0, 1), fetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp0);
+        assertEquals(3, records.size());
+        assertEquals(4L, subscriptions.position(tp0).longValue());
+        assertEquals("Nothing should be deserialized before it is accessed", 0, deserialized.get());
+
+        ConsumerRecord<byte[], byte[]> record = records.get(0);
+        assertEquals(3, record.serializedKeySize());
+        assertEquals(7, record.serializedValueSize());
+        assertArrayEquals("value-1".getBytes(), record.value());
+        assertEquals(1, deserialized.get());
+        assertArrayEquals("value-1".getBytes(), record.value());
+        assertEquals("Deserialized value should be reused", 1, deserialized.get());
+        assertArrayEquals("key".getBytes(), record.key());
+        assertEquals(2, deserialized.get());
+
+        // a deserialization error is raised from the accessor of the affected record only
+        try {
+            records.get(1).value();
+            fail("value() should have raised");
+        } catch (SerializationException e) {
+            // expected
+        }
+        assertArrayEquals("value-3".getBytes(), records.get(2).value());
+    }
+
+    @Test
+    public void testPrefetchWhileRecordsAreBuffered() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED,
+                new FetcherOptions().prefetchBytes(64 * 1024));
+
+        subscriptions.assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp0, 1), fetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertTrue(fetcher.hasCompletedFetches());
+
+        // the next fetch starts after the buffered records even though none of them have been consumed yet
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp0, 4), fetchResponse(tp0, this.nextRecords, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp0);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), collectRecordOffsets(records));
+        assertEquals(6L, subscriptions.position(tp0).longValue());
+    }
+
+    @Test
+    public void testNoPrefetchBeyondBudget() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED,
+                new FetcherOptions().prefetchBytes(this.records.sizeInBytes()));
+
+        subscriptions.assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp0, 1), fetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals("Buffered data has reached the prefetch budget", 0, fetcher.sendFetches());
+
+        assertEquals(3, fetcher.fetchedRecords().get(tp0).size());
+        assertEquals(1, fetcher.sendFetches());
+    }
+
+    @Test
+    public void testStalePrefetchIsDiscardedAfterSeek() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED,
+                new FetcherOptions().prefetchBytes(64 * 1024));
+
+        subscriptions.assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp0, 1), fetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp0, 4), fetchResponse(tp0, this.nextRecords, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        subscriptions.seek(tp0, 2);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+        assertEquals(2L, subscriptions.position(tp0).longValue());
+    }
+
     @Test
     public void testParseCorruptedRecord() throws Exception {
         ByteBuffer buffer = ByteBuffer.allocate(1024);
@@ -429,6 +542,130 @@ public class FetcherTest {
         }
     }
 
+    @Test
+    public void testFetchedBatches() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, CompressionType.NONE, TimestampType.CREATE_TIME, 0L);
+        builder.append(0L, "key".getBytes(), "value-0".getBytes());
+        builder.close();
+        builder = MemoryRecords.builder(buffer, CompressionType.GZIP, TimestampType.CREATE_TIME, 1L);
+        builder.append(0L, "key".getBytes(), "value-1".getBytes());
+        builder.append(0L, "key".getBytes(), "value-2".getBytes());
+        builder.close();
+        buffer.flip();
+
+        subscriptions.assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchResponse(tp0, MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        Map<TopicPartition, List<RecordBatch>> fetchedBatches = fetcher.fetchedBatches();
+        List<RecordBatch> batches = fetchedBatches.get(tp0);
+        // the batch before the fetch position is skipped and the compressed batch is returned as it is
+        assertEquals(1, batches.size());
+        RecordBatch batch = batches.get(0);
+        assertEquals(1L, batch.baseOffset());
+        assertEquals(2L, batch.lastOffset());
+        assertEquals(CompressionType.GZIP, batch.compressionType());
+        assertEquals(3L, subscriptions.position(tp0).longValue());
+        assertTrue(fetcher.fetchedBatches().isEmpty());
+    }
+
+    @Test
+    public void testFetchedBatchesAfterPartiallyConsumedBatch() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), 1);
+
+        subscriptions.assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        assertEquals(1, fetcher.fetchedRecords().get(tp0).size());
+        assertEquals(2L, subscriptions.position(tp0).longValue());
+
+        // the rest of the batch is returned as a whole
+        List<RecordBatch> batches = fetcher.fetchedBatches().get(tp0);
+        assertEquals(1, batches.size());
+        assertEquals(1L, batches.get(0).baseOffset());
+        assertEquals(4L, subscriptions.position(tp0).longValue());
+    }
+
+    @Test
+    public void testDecompressionThreads() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED,
+                new FetcherOptions().decompressionThreads(2));
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, CompressionType.GZIP, TimestampType.CREATE_TIME, 0L);
+            builder.append(0L, "key".getBytes(), "value-0".getBytes());
+            builder.append(0L, "key".getBytes(), "value-1".getBytes());
+            builder.close();
+            builder = MemoryRecords.builder(buffer, CompressionType.NONE, TimestampType.CREATE_TIME, 2L);
+            builder.append(0L, "key".getBytes(), "value-2".getBytes());
+            builder.close();
+            builder = MemoryRecords.builder(buffer, CompressionType.GZIP, TimestampType.CREATE_TIME, 3L);
+            builder.append(0L, "key".getBytes(), "value-3".getBytes());
+            builder.close();
+            buffer.flip();
+
+            subscriptions.assignFromUser(singleton(tp0));
+            subscriptions.seek(tp0, 0);
+
+            assertEquals(1, fetcher.sendFetches());
+            client.prepareResponse(fetchResponse(tp0, MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
+            consumerClient.poll(0);
+
+            List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp0);
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L), collectRecordOffsets(records));
+            for (int i = 0; i < records.size(); i++)
+                assertArrayEquals(("value-" + i).getBytes(), records.get(i).value());
+            assertEquals(4L, subscriptions.position(tp0).longValue());
+        } finally {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    public void testInvalidCompressedBatchWithDecompressionThreads() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_UNCOMMITTED,
+                new FetcherOptions().decompressionThreads(2));
+        try {
+            MemoryRecords records = MemoryRecords.withRecords(0L, CompressionType.GZIP,
+                    new SimpleRecord(10L, "key".getBytes(), "value".getBytes()));
+            ByteBuffer buffer = records.buffer();
+
+            // Garble the CRC
+            buffer.position(17);
+            buffer.put("beef".getBytes());
+            buffer.position(0);
+
+            subscriptions.assignFromUser(singleton(tp0));
+            subscriptions.seek(tp0, 0);
+
+            assertEquals(1, fetcher.sendFetches());
+            client.prepareResponse(fetchResponse(tp0, MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
+            consumerClient.poll(0);
+
+            // the failure in the background is raised again when the batch is read
+            for (int i = 0; i < 2; i++) {
+                try {
+                    fetcher.fetchedRecords();
+                    fail("fetchedRecords should have raised KafkaException");
+                } catch (KafkaException e) {
+                    assertEquals(0, subscriptions.position(tp0).longValue());
+                }
+            }
+        } finally {
+            fetcher.close();
+        }
+    }
+
     @Test
     public void testParseInvalidRecordBatch() throws Exception {
         MemoryRecords records = MemoryRecords.withRecords(RecordBatch.MAGIC_VALUE_V2, 0L,
@@ -536,6 +773,36 @@ public class FetcherTest {
         assertEquals(5, records.get(1).offset());
     }
 
+    @Test
+    public void testAdaptiveFetchingReducesPollRecords() {
+        Metrics metrics = new Metrics(time);
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, metrics, new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), 500, IsolationLevel.READ_UNCOMMITTED,
+                new FetcherOptions().adaptiveFetching(true).maxPollIntervalMs(MAX_POLL_INTERVAL_MS));
+        KafkaMetric pollRecordsTarget = metrics.metrics().get(metrics.metricInstance(metricsRegistry.pollRecordsTarget));
+        assertEquals(500, pollRecordsTarget.value(), EPSILON);
+
+        // a single record took longer to process than half of the poll interval
+        fetcher.onPollReturn(1, time.milliseconds());
+        time.sleep(MAX_POLL_INTERVAL_MS);
+        fetcher.onPollStart(time.milliseconds());
+        assertEquals(1, pollRecordsTarget.value(), EPSILON);
+
+        subscriptions.assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+        client.prepareResponse(matchesOffset(tp0, 1), fetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp0);
+        assertEquals(1, records.size());
+        assertEquals(2L, subscriptions.position(tp0).longValue());
+
+        // the fetch size is kept within the configured bound
+        KafkaMetric partitionFetchBytesTarget = metrics.metrics().get(
+                metrics.metricInstance(metricsRegistry.partitionFetchBytesTarget));
+        assertEquals(fetchSize, partitionFetchBytesTarget.value(), EPSILON);
+    }
+
     /**
      * Test the scenario where a partition with fetched but not consumed records (i.e. max.poll.records is
      * less than the number of fetched records) is unassigned and a different partition is assigned. This is a
@@ -2075,6 +2342,17 @@ public class FetcherTest {
                                                Deserializer<V> valueDeserializer,
                                                int maxPollRecords,
                                                IsolationLevel isolationLevel) {
+        return createFetcher(subscriptions, metrics, keyDeserializer, valueDeserializer, maxPollRecords, isolationLevel,
+                new FetcherOptions());
+    }
+
+    private <K, V> Fetcher<K, V> createFetcher(SubscriptionState subscriptions,
+                                               Metrics metrics,
+                                               Deserializer<K> keyDeserializer,
+                                               Deserializer<V> valueDeserializer,
+                                               int maxPollRecords,
+                                               IsolationLevel isolationLevel,
+                                               FetcherOptions options) {
         return new Fetcher<>(
                 new LogContext(),
                 consumerClient,
@@ -2092,7 +2370,8 @@ public class FetcherTest {
                 metricsRegistry,
                 time,
                 retryBackoffMs,
-                isolationLevel);
+                isolationLevel,
+                options);
     }
 
     private <T> List<Long> collectRecordOffsets(List<ConsumerRecord<T, T>> records) {
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer.internals;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.kafka.common.serialization.ExtendedDeserializer.Wrapper.ensureExtended;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyConsumerRecordTest {
+
+    private final TopicPartition tp = new TopicPartition("topic", 0);
+
+    @Test
+    public void testToStringDoesNotDeserialize() {
+        final AtomicInteger deserialized = new AtomicInteger();
+        StringDeserializer failingDeserializer = new StringDeserializer() {
+            @Override
+            public String deserialize(String topic, byte[] data) {
+                deserialized.incrementAndGet();
+                throw new SerializationException("cannot deserialize");
+            }
+        };
+        LazyConsumerRecord<String, String> record = new LazyConsumerRecord<>(tp, 5L, 0L, TimestampType.CREATE_TIME,
+                null, bytes("key"), bytes("value"), new RecordHeaders(), ensureExtended(failingDeserializer),
+                ensureExtended(failingDeserializer));
+
+        String string = record.toString();
+        assertTrue(string, string.contains("key = <3 serialized bytes>"));
+        assertTrue(string, string.contains("value = <5 serialized bytes>"));
+        assertEquals(0, deserialized.get());
+
+        try {
+            record.value();
+            fail("value() should have raised");
+        } catch (SerializationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testToStringAfterDeserialization() {
+        StringDeserializer deserializer = new StringDeserializer();
+        LazyConsumerRecord<String, String> record = new LazyConsumerRecord<>(tp, 5L, 0L, TimestampType.CREATE_TIME,
+                null, null, bytes("value"), new RecordHeaders(), ensureExtended(deserializer),
+                ensureExtended(deserializer));
+
+        assertEquals("value", record.value());
+        String string = record.toString();
+        assertTrue(string, string.contains("key = null"));
+        assertTrue(string, string.contains("value = value"));
+    }
+
+    private static ByteBuffer bytes(String string) {
+        return ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBatchingTest {
+
+    private final TopicPartition tp = new TopicPartition("test", 0);
+    private final AdaptiveBatching adaptiveBatching = new AdaptiveBatching(5L, 50L, 1024, 8192, 100L);
+
+    @Test
+    public void testDefaultsToLowerBounds() {
+        assertEquals(5L, adaptiveBatching.lingerMs(tp));
+        assertEquals(1024, adaptiveBatching.batchSize(tp));
+    }
+
+    @Test
+    public void testLingerGrowsWithinTargetUpToMax() {
+        long now = 0L;
+        for (int i = 0; i < 100; i++) {
+            ProducerBatch batch = batch(now, 100);
+            now += 10;
+            adaptiveBatching.onCompleted(batch, 5L, now);
+        }
+        assertEquals(50L, adaptiveBatching.lingerMs(tp));
+    }
+
+    @Test
+    public void testLingerIsHalvedAboveTargetDownToMin() {
+        long now = 0L;
+        for (int i = 0; i < 20; i++)
+            adaptiveBatching.onCompleted(batch(now, 100), 5L, now + 10);
+        assertEquals(25L, adaptiveBatching.lingerMs(tp));
+
+        adaptiveBatching.onCompleted(batch(now, 100), 5L, now + 150);
+        assertEquals(12L, adaptiveBatching.lingerMs(tp));
+
+        for (int i = 0; i < 5; i++)
+            adaptiveBatching.onCompleted(batch(now, 100), 5L, now + 150);
+        assertEquals(5L, adaptiveBatching.lingerMs(tp));
+    }
+
+    @Test
+    public void testLingerLeavesRoomForRequestLatency() {
+        long now = 0L;
+        for (int i = 0; i < 100; i++)
+            adaptiveBatching.onCompleted(batch(now, 100), 80L, now + 90);
+        assertEquals(20L, adaptiveBatching.lingerMs(tp));
+    }
+
+    @Test
+    public void testBatchSizeFollowsArrivalRate() {
+        // 100 bytes per ms, with a linger time of 5 ms and no request latency known yet
+        ProducerBatch batch = batch(0L, 1000);
+        adaptiveBatching.onDrained(batch, 10L);
+        int expected = (int) (batch.estimatedSizeInBytes() / 10.0 * 5);
+        assertEquals(Math.max(1024, expected), adaptiveBatching.batchSize(tp));
+
+        // the request latency adds to the time data accumulates, but the size is capped
+        adaptiveBatching.onCompleted(batch, 200L, 10L);
+        assertEquals(8192, adaptiveBatching.batchSize(tp));
+    }
+
+    @Test
+    public void testRetriedBatchesDoNotCountForArrivalRate() {
+        ProducerBatch batch = batch(0L, 1000);
+        batch.reenqueued(1L);
+        assertTrue(batch.attempts() > 0);
+        adaptiveBatching.onDrained(batch, 2L);
+        assertEquals(1024, adaptiveBatching.batchSize(tp));
+    }
+
+    private ProducerBatch batch(long createdMs, int valueSize) {
+        ProducerBatch batch = new ProducerBatch(tp, MemoryRecords.builder(ByteBuffer.allocate(valueSize + 128),
+                CompressionType.NONE, TimestampType.CREATE_TIME, 0L), createdMs);
+        batch.tryAppend(createdMs, null, new byte[valueSize], Record.EMPTY_HEADERS, null, createdMs);
+        return batch;
+    }
+}
@@ -95,6 +95,71 @@ public class BufferPoolTest {
         assertEquals("Non-standard size didn't go to the free list.", totalMemory - size, pool.unallocatedMemory());
     }
 
+    /**
+     * Test that buffers larger than the poolable size are rounded up to their size class and recycled
+     */
+    @Test
+    public void testSizeClasses() throws Exception {
+        long totalMemory = 64 * 1024;
+        int size = 1024;
+        BufferPool pool = new BufferPool(totalMemory, size, 4 * size, false, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(3 * size, maxBlockTimeMs);
+        assertEquals("Buffer limit should equal requested size.", 3 * size, buffer.limit());
+        assertEquals("Buffer should be rounded up to its size class.", 4 * size, buffer.capacity());
+        assertEquals("Available memory should have shrunk by the class size", totalMemory - 4 * size, pool.availableMemory());
+        pool.deallocate(buffer);
+        assertEquals("All memory should be available", totalMemory, pool.availableMemory());
+        assertEquals("But now some is on the free list", totalMemory - 4 * size, pool.unallocatedMemory());
+
+        ByteBuffer recycled = pool.allocate(4 * size, maxBlockTimeMs);
+        assertTrue("Buffer of the same class should be recycled", recycled == buffer);
+        assertEquals("Recycled buffer should be cleared.", 0, recycled.position());
+        pool.deallocate(recycled);
+
+        buffer = pool.allocate(8 * size, maxBlockTimeMs);
+        assertEquals("Buffer above the largest class should not be rounded", 8 * size, buffer.capacity());
+        pool.deallocate(buffer);
+        assertEquals("Buffer above the largest class didn't go to the free list.", totalMemory - 4 * size,
+                pool.unallocatedMemory());
+        assertEquals("Only the second allocation should be served from the pool", 1, pool.hits());
+        assertEquals(2, pool.misses());
+    }
+
+    /**
+     * Test that pooled memory of one size class can be reclaimed to satisfy an allocation of another
+     */
+    @Test
+    public void testFreeListsAreReclaimed() throws Exception {
+        int size = 1024;
+        BufferPool pool = new BufferPool(4 * size, size, 2 * size, false, metrics, time, metricGroup);
+        ByteBuffer first = pool.allocate(2 * size, maxBlockTimeMs);
+        ByteBuffer second = pool.allocate(2 * size, maxBlockTimeMs);
+        pool.deallocate(first);
+        pool.deallocate(second);
+        assertEquals("Both buffers should be on the free list", 0, pool.unallocatedMemory());
+        ByteBuffer buffer = pool.allocate(3 * size, maxBlockTimeMs);
+        assertEquals(3 * size, buffer.capacity());
+        assertEquals(size, pool.availableMemory());
+        pool.deallocate(buffer);
+        assertEquals(4 * size, pool.availableMemory());
+    }
+
+    /**
+     * Test that the pool hands out direct buffers when configured to
+     */
+    @Test
+    public void testDirectBuffers() throws Exception {
+        int size = 1024;
+        BufferPool pool = new BufferPool(64 * 1024, size, 4 * size, true, metrics, time, metricGroup);
+        ByteBuffer pooled = pool.allocate(size, maxBlockTimeMs);
+        ByteBuffer nonPooled = pool.allocate(5 * size, maxBlockTimeMs);
+        assertTrue("Pooled buffer should be direct", pooled.isDirect());
+        assertTrue("Non-pooled buffer should be direct", nonPooled.isDirect());
+        pool.deallocate(pooled);
+        pool.deallocate(nonPooled);
+        assertTrue("Recycled buffer should be direct", pool.allocate(size, maxBlockTimeMs).isDirect());
+    }
+
     /**
      * Test that we cannot try to allocate more memory then we have in the whole pool
      */
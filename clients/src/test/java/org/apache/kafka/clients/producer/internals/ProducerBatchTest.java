@@ -29,6 +29,8 @@ import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.test.TestCondition;
+import org.apache.kafka.test.TestUtils;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
@@ -197,6 +199,9 @@ public class ProducerBatchTest {
                 if (compressionType == CompressionType.NONE && magic < MAGIC_VALUE_V2)
                     continue;
 
+                if (compressionType == CompressionType.ZSTD && magic < MAGIC_VALUE_V2)
+                    continue;
+
                 MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), magic,
                         compressionType, TimestampType.CREATE_TIME, 0L);
 
@@ -273,6 +278,40 @@ public class ProducerBatchTest {
         assertEquals(null, batch.tryAppend(now + 1, null, new byte[10], Record.EMPTY_HEADERS, null, now + 1));
     }
 
+    @Test
+    public void testCloseParksUntilReservedRecordIsWritten() throws Exception {
+        final ProducerBatch batch = new ProducerBatch(new TopicPartition("topic", 1), memoryRecordsBuilder, now);
+        ProducerBatch.ReservedAppend reservedAppend = batch.tryReserve(now, null, ByteBuffer.wrap(new byte[10]),
+                Record.EMPTY_HEADERS, null, now);
+        assertNotNull(reservedAppend);
+
+        final Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                batch.close();
+            }
+        });
+        closer.start();
+        TestUtils.waitForCondition(new TestCondition() {
+            @Override
+            public boolean conditionMet() {
+                return closer.getState() == Thread.State.TIMED_WAITING;
+            }
+        }, "The closing thread did not park while the reserved record was pending");
+
+        reservedAppend.write();
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        assertEquals(1, countRecords(batch.records()));
+    }
+
+    private static int countRecords(MemoryRecords records) {
+        int count = 0;
+        for (Record record : records.records())
+            count++;
+        return count;
+    }
+
     private static class MockCallback implements Callback {
         private int invocations = 0;
         private RecordMetadata metadata;
@@ -36,20 +36,25 @@ import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordValueWriter;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
 import org.apache.kafka.common.utils.LogContext;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
 import org.apache.kafka.test.TestUtils;
 import org.junit.After;
 import org.junit.Test;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +68,7 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -139,6 +145,39 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testAbortOnNewBatch() throws Exception {
+        int batchSize = 1025;
+        RecordAccumulator accum = createTestRecordAccumulator(
+                batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10L * batchSize, CompressionType.NONE, 10L);
+
+        // there is no batch to append to yet
+        RecordAccumulator.RecordAppendResult result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null,
+                maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        assertNull(result.future);
+        assertTrue(accum.batches().get(tp1).isEmpty());
+        assertEquals(10L * batchSize, accum.bufferPoolAvailableMemory());
+
+        result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false);
+        assertFalse(result.abortForNewBatch);
+        assertTrue(result.newBatchCreated);
+
+        // records which fit in the last batch are appended as usual
+        int appends = expectedNumAppends(batchSize);
+        for (int i = 1; i < appends; i++) {
+            result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true);
+            assertFalse(result.abortForNewBatch);
+            assertNotNull(result.future);
+        }
+        assertEquals(1, accum.batches().get(tp1).size());
+
+        // but not once the last batch is full
+        result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        assertEquals(1, accum.batches().get(tp1).size());
+    }
+
     @Test
     public void testAppendLargeCompressed() throws Exception {
         testAppendLarge(CompressionType.GZIP);
@@ -232,6 +271,92 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testDrainSkipsBatchesWhichDoNotFit() throws Exception {
+        PartitionInfo part3OnNode1 = new PartitionInfo(topic, partition3, node1, null, null);
+        Cluster cluster = new Cluster(null, Arrays.asList(node1, node2), Arrays.asList(part1, part2, part3OnNode1),
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+        RecordAccumulator accum = createTestRecordAccumulator(
+                1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024, CompressionType.NONE, 10L);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        for (int i = 0; i < 1024 / msgSize; i++)
+            accum.append(tp2, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        accum.append(tp3, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        // the batch of tp2 does not fit, but the one of tp3 after it still does
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), 512, 0).get(node1.id());
+        assertEquals(2, batches.size());
+        assertEquals(tp1, batches.get(0).topicPartition);
+        assertEquals(tp3, batches.get(1).topicPartition);
+
+        // the skipped partition goes first in the next request to the node
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        batches = accum.drain(cluster, Collections.singleton(node1), 512, 0).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp2, batches.get(0).topicPartition);
+
+        batches = accum.drain(cluster, Collections.singleton(node1), 512, 0).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp1, batches.get(0).topicPartition);
+    }
+
+    @Test
+    public void testDrainIndexIsPerNode() throws Exception {
+        RecordAccumulator accum = createTestRecordAccumulator(
+                1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024, CompressionType.NONE, 10L);
+        // two batches for tp1 and one for tp2
+        for (int i = 0; i < 1024 / msgSize; i++) {
+            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+            accum.append(tp2, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        }
+        assertEquals(2, accum.batches().get(tp1).size());
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), 512, 0).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp1, batches.get(0).topicPartition);
+
+        // draining another node leaves the position of node1 where it was
+        accum.append(tp3, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        assertEquals(1, accum.drain(cluster, Collections.singleton(node2), 512, 0).get(node2.id()).size());
+
+        batches = accum.drain(cluster, Collections.singleton(node1), 512, 0).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp2, batches.get(0).topicPartition);
+    }
+
+    @Test
+    public void testAdaptiveLinger() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(logContext, 1024, 10 * 1024, 1024, false, CompressionType.NONE,
+                0L, 20L, 8192, 100L, 100L, metrics, time, new ApiVersions(), null);
+
+        // batches acknowledged within the target latency make the partition linger longer
+        for (int i = 0; i < 5; i++) {
+            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+            time.sleep(i);
+            assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+                    time.milliseconds()).get(node1.id());
+            assertEquals(1, batches.size());
+            time.sleep(10);
+            accum.batchAcknowledged(batches.get(0), 5L, time.milliseconds());
+        }
+
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        RecordAccumulator.ReadyCheckResult result = accum.ready(cluster, time.milliseconds());
+        assertTrue(result.readyNodes.isEmpty());
+        assertEquals(5L, result.nextReadyCheckDelayMs);
+        time.sleep(5);
+        assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+                time.milliseconds()).get(node1.id());
+
+        // a batch acknowledged above the target latency halves the linger time
+        time.sleep(200);
+        accum.batchAcknowledged(batches.get(0), 5L, time.milliseconds());
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        assertEquals(2L, accum.ready(cluster, time.milliseconds()).nextReadyCheckDelayMs);
+    }
+
     @Test
     public void testPartialDrain() throws Exception {
         RecordAccumulator accum = createTestRecordAccumulator(
@@ -837,6 +962,250 @@ public class RecordAccumulatorTest {
         }
     }
 
+    @Test
+    public void testConcurrentAppendsToSamePartition() throws Exception {
+        final int numThreads = 4;
+        final int msgs = 5000;
+        final RecordAccumulator accum = createTestRecordAccumulator(
+                1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024, CompressionType.NONE, 0L);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            final int thread = i;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < msgs; i++) {
+                        try {
+                            byte[] value = (thread + "-" + i).getBytes();
+                            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+
+        // records are copied into their batch outside of the deque lock, so check that none is lost or torn
+        Set<String> values = new HashSet<>();
+        while (values.size() < numThreads * msgs) {
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), 5 * 1024, 0).get(node1.id());
+            if (batches != null) {
+                for (ProducerBatch batch : batches) {
+                    for (Record record : batch.records().records()) {
+                        record.ensureValid();
+                        assertEquals(ByteBuffer.wrap(key), record.key());
+                        assertTrue(values.add(Utils.utf8(record.value(), record.valueSize())));
+                    }
+                    accum.deallocate(batch);
+                }
+            }
+        }
+
+        for (Thread t : threads)
+            t.join();
+        for (int i = 0; i < numThreads; i++)
+            for (int j = 0; j < msgs; j++)
+                assertTrue(values.contains(i + "-" + j));
+    }
+
+    @Test
+    public void testFailedValueWriterOnlyFailsItsRecord() throws Exception {
+        RecordAccumulator accum = createTestRecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L);
+        Future<RecordMetadata> future = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null,
+                maxBlockTimeMs).future;
+
+        final KafkaException failure = new KafkaException("failed to serialize");
+        try {
+            accum.writeValue(new FailingValueWriter(value.length, failure));
+            fail("Expected the value writer failure to be rethrown");
+        } catch (KafkaException e) {
+            assertEquals(failure, e);
+        }
+        try {
+            accum.writeValue(new BytesValueWriter(value, value.length + 1));
+            fail("Expected a writer which writes fewer bytes than it reported to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the record appended before the failures is unaffected and the partition still takes streamed values
+        assertFalse(future.isDone());
+        byte[] streamedValue = "streamed".getBytes();
+        ByteBuffer streamed = accum.writeValue(new BytesValueWriter(streamedValue, streamedValue.length));
+        accum.append(tp1, 0L, key, streamed, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false);
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+        assertEquals(1, batches.size());
+        List<ByteBuffer> values = new ArrayList<>();
+        for (Record record : batches.get(0).records().records())
+            values.add(record.value());
+        assertEquals(Arrays.asList(ByteBuffer.wrap(value), ByteBuffer.wrap(streamedValue)), values);
+    }
+
+    @Test
+    public void testWrittenValueCanBeAppendedAgainAfterAbortForNewBatch() throws Exception {
+        RecordAccumulator accum = createTestRecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L);
+
+        // there is no batch for tp1 yet, so the append is aborted and retried on tp2 with the same bytes
+        ByteBuffer written = accum.writeValue(new BytesValueWriter(value, value.length));
+        RecordAccumulator.RecordAppendResult result = accum.append(tp1, 0L, key, written, Record.EMPTY_HEADERS, null,
+                maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        accum.append(tp2, 0L, key, written, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false);
+
+        ProducerBatch batch = accum.batches().get(tp2).peekFirst();
+        Record record = batch.records().records().iterator().next();
+        assertEquals(ByteBuffer.wrap(value), record.value());
+    }
+
+    private static class FailingValueWriter implements RecordValueWriter {
+        private final int sizeInBytes;
+        private final RuntimeException failure;
+
+        FailingValueWriter(int sizeInBytes, RuntimeException failure) {
+            this.sizeInBytes = sizeInBytes;
+            this.failure = failure;
+        }
+
+        @Override
+        public int sizeInBytes() {
+            return sizeInBytes;
+        }
+
+        @Override
+        public void writeTo(DataOutput out) {
+            throw failure;
+        }
+    }
+
+    private static class BytesValueWriter implements RecordValueWriter {
+        private final byte[] value;
+        private final int reportedSize;
+
+        BytesValueWriter(byte[] value, int reportedSize) {
+            this.value = value;
+            this.reportedSize = reportedSize;
+        }
+
+        @Override
+        public int sizeInBytes() {
+            return reportedSize;
+        }
+
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.write(value);
+        }
+    }
+
+    @Test
+    public void testAppendExistingBatch() throws Exception {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.GZIP,
+                TimestampType.CREATE_TIME, 42L);
+        for (int i = 0; i < 3; i++)
+            builder.append(time.milliseconds(), key, value);
+        MutableRecordBatch existing = builder.build().batches().iterator().next();
+
+        RecordAccumulator accum = createTestRecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+        RecordAccumulator.RecordAppendResult result = accum.appendExistingBatch(tp1, existing, null, maxBlockTimeMs);
+        assertTrue(result.batchIsFull);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        Deque<ProducerBatch> partitionBatches = accum.batches().get(tp1);
+        assertEquals(3, partitionBatches.size());
+        assertTrue(accum.hasIncomplete());
+
+        List<ProducerBatch> drained = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+                    time.milliseconds()).get(node1.id());
+            assertEquals(1, batches.size());
+            drained.addAll(batches);
+        }
+
+        ProducerBatch batch = drained.get(1);
+        assertTrue(batch.isForExistingBatch());
+        assertEquals(3, batch.recordCount);
+        MutableRecordBatch sent = batch.records().batches().iterator().next();
+        sent.ensureValid();
+        assertEquals(existing.sizeInBytes(), sent.sizeInBytes());
+        assertEquals(CompressionType.GZIP, sent.compressionType());
+        assertEquals(0L, sent.baseOffset());
+        assertEquals(2L, sent.lastOffset());
+        assertEquals(3, Utils.toList(batch.records().records().iterator()).size());
+        assertFalse(drained.get(0).isForExistingBatch());
+        assertFalse(drained.get(2).isForExistingBatch());
+
+        batch.done(100L, time.milliseconds(), null);
+        assertTrue(result.future.isDone());
+        assertEquals(100L, result.future.get().offset());
+    }
+
+    @Test
+    public void testAppendExistingBatchWithOffsetGaps() throws Exception {
+        RecordAccumulator accum = createTestRecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L);
+        accum.appendExistingBatch(tp1, compactedBatch(), null, maxBlockTimeMs);
+
+        // the broker assigns consecutive offsets to the remaining records, so only they count
+        ProducerBatch batch = accum.batches().get(tp1).peekFirst();
+        assertEquals(2, batch.recordCount);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendExistingBatchWithOffsetGapsRequiresNoIdempotence() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(logContext, 1024, 10 * 1024, CompressionType.NONE, 10L,
+                100L, metrics, time, new ApiVersions(), new TransactionManager());
+        accum.appendExistingBatch(tp1, compactedBatch(), null, maxBlockTimeMs);
+    }
+
+    @Test
+    public void testAppendExistingBatchAdvancesSequenceByRecordCount() throws Exception {
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setProducerIdAndEpoch(new ProducerIdAndEpoch(1000L, (short) 0));
+        RecordAccumulator accum = new RecordAccumulator(logContext, 1024, 10 * 1024, CompressionType.NONE, 10L,
+                100L, metrics, time, new ApiVersions(), transactionManager);
+
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.GZIP,
+                TimestampType.CREATE_TIME, 0L);
+        for (int i = 0; i < 3; i++)
+            builder.append(time.milliseconds(), key, value);
+        accum.appendExistingBatch(tp1, builder.build().batches().iterator().next(), null, maxBlockTimeMs);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs);
+
+        List<ProducerBatch> drained = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+            drained.addAll(accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+                    time.milliseconds()).get(node1.id()));
+        assertEquals(2, drained.size());
+        assertEquals(0, drained.get(0).baseSequence());
+        assertEquals(3, drained.get(1).baseSequence());
+        assertEquals(4, transactionManager.sequenceNumber(tp1).intValue());
+    }
+
+    private MutableRecordBatch compactedBatch() {
+        // the record at offset 1 was removed by compaction
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.GZIP,
+                TimestampType.CREATE_TIME, 0L);
+        builder.appendWithOffset(0L, time.milliseconds(), key, value);
+        builder.appendWithOffset(2L, time.milliseconds(), key, value);
+        return builder.build().batches().iterator().next();
+    }
+
+    @Test(expected = UnsupportedVersionException.class)
+    public void testAppendExistingBatchRequiresMagicV2() throws Exception {
+        ApiVersions apiVersions = new ApiVersions();
+        apiVersions.update(node1.idString(), NodeApiVersions.create(Collections.singleton(
+                new ApiVersionsResponse.ApiVersion(ApiKeys.PRODUCE.id, (short) 0, (short) 2))));
+        RecordAccumulator accum = new RecordAccumulator(logContext, 1024, 10 * 1024, CompressionType.NONE, 10L,
+                100L, metrics, time, apiVersions, null);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.NONE,
+                TimestampType.CREATE_TIME, 0L);
+        builder.append(time.milliseconds(), key, value);
+        accum.appendExistingBatch(tp1, builder.build().batches().iterator().next(), null, maxBlockTimeMs);
+    }
+
     /**
      * Return a test RecordAccumulator instance
      */
@@ -141,6 +141,23 @@ public class SenderTest {
         assertEquals(offset, future.get().offset());
     }
 
+    @Test
+    public void testRequestFillRatioMetrics() throws Exception {
+        accumulator.append(tp0, 0L, "key".getBytes(), "value".getBytes(), null, null, MAX_BLOCK_TIMEOUT);
+        sender.run(time.milliseconds()); // connect
+        sender.run(time.milliseconds()); // send produce request
+        assertEquals(1, client.inFlightRequestCount());
+
+        ProduceRequest request = (ProduceRequest) client.requests().peek().requestBuilder().build();
+        int bytes = request.partitionRecordsOrFail().get(tp0).sizeInBytes();
+        assertTrue(bytes > 0);
+        Map<MetricName, KafkaMetric> allMetrics = metrics.metrics();
+        assertEquals((double) bytes / MAX_REQUEST_SIZE,
+                allMetrics.get(this.senderMetricsRegistry.requestFillRatioAvg).value(), 0.0);
+        assertEquals((double) bytes / MAX_REQUEST_SIZE,
+                allMetrics.get(this.senderMetricsRegistry.requestFillRatioMax).value(), 0.0);
+    }
+
     @Test
     public void testMessageFormatDownConversion() throws Exception {
         // this test case verifies the behavior when the version of the produce request supported by the
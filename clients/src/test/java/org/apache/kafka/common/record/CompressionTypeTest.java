@@ -19,8 +19,13 @@ package org.apache.kafka.common.record;
 import org.apache.kafka.common.utils.ByteBufferOutputStream;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -53,4 +58,38 @@ public class CompressionTypeTest {
                 buffer, RecordBatch.MAGIC_VALUE_V1, BufferSupplier.create());
         assertFalse(in.ignoreFlagDescriptorChecksum());
     }
+
+    @Test
+    public void testZStdRoundTrip() throws IOException {
+        byte[] data = "kafka kafka kafka kafka kafka kafka kafka kafka".getBytes();
+        ByteBufferOutputStream bufferStream = new ByteBufferOutputStream(256);
+        try (OutputStream out = CompressionType.ZSTD.wrapForOutput(bufferStream, RecordBatch.MAGIC_VALUE_V2)) {
+            out.write(data);
+        }
+
+        ByteBuffer compressed = bufferStream.buffer();
+        compressed.flip();
+        assertTrue(compressed.remaining() < data.length);
+
+        byte[] decompressed = new byte[data.length];
+        try (InputStream in = CompressionType.ZSTD.wrapForInput(compressed, RecordBatch.MAGIC_VALUE_V2,
+                BufferSupplier.NO_CACHING)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(decompressed, read, data.length - read);
+                if (n < 0)
+                    break;
+                read += n;
+            }
+        }
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    public void testForIdAndForName() {
+        for (CompressionType type : CompressionType.values()) {
+            assertEquals(type, CompressionType.forId(type.id));
+            assertEquals(type, CompressionType.forName(type.name));
+        }
+    }
 }
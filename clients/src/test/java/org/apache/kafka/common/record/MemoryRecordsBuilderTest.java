@@ -16,6 +16,7 @@
  */
 package org.apache.kafka.common.record;
 
+import org.apache.kafka.common.errors.UnsupportedCompressionTypeException;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.apache.kafka.test.TestUtils;
@@ -32,8 +33,10 @@ import java.util.List;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 @RunWith(value = Parameterized.class)
 public class MemoryRecordsBuilderTest {
@@ -50,6 +53,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void testWriteEmptyRecordSet() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -205,6 +210,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void testCompressionRateV0() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -260,6 +267,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void testCompressionRateV1() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -291,6 +300,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void buildUsingLogAppendTime() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -320,6 +331,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void buildUsingCreateTime() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(1024);
         buffer.position(bufferOffset);
 
@@ -353,6 +366,9 @@ public class MemoryRecordsBuilderTest {
     public void testAppendedChecksumConsistency() {
         ByteBuffer buffer = ByteBuffer.allocate(512);
         for (byte magic : Arrays.asList(RecordBatch.MAGIC_VALUE_V0, RecordBatch.MAGIC_VALUE_V1, RecordBatch.MAGIC_VALUE_V2)) {
+            if (compressionType == CompressionType.ZSTD && magic < RecordBatch.MAGIC_VALUE_V2)
+                continue;
+
             MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, magic, compressionType,
                     TimestampType.CREATE_TIME, 0L, LegacyRecord.NO_TIMESTAMP, RecordBatch.NO_PRODUCER_ID,
                     RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
@@ -395,6 +411,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void writePastLimit() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(64);
         buffer.position(bufferOffset);
 
@@ -440,6 +458,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void convertV2ToV1UsingMixedCreateAndLogAppendTime() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(512);
         MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2,
                 compressionType, TimestampType.LOG_APPEND_TIME, 0L);
@@ -495,6 +515,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void convertToV1WithMixedV0AndV2Data() {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V1);
+
         ByteBuffer buffer = ByteBuffer.allocate(512);
         MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V0,
                 compressionType, TimestampType.NO_TIMESTAMP_TYPE, 0L);
@@ -573,6 +595,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldThrowIllegalStateExceptionOnBuildWhenAborted() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -590,6 +614,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldResetBufferToInitialPositionOnAbort() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -603,6 +629,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldThrowIllegalStateExceptionOnCloseWhenAborted() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -620,6 +648,8 @@ public class MemoryRecordsBuilderTest {
 
     @Test
     public void shouldThrowIllegalStateExceptionOnAppendWhenAborted() throws Exception {
+        assumeAtLeastV2OrNotZstd(RecordBatch.MAGIC_VALUE_V0);
+
         ByteBuffer buffer = ByteBuffer.allocate(128);
         buffer.position(bufferOffset);
 
@@ -635,6 +665,136 @@ public class MemoryRecordsBuilderTest {
         }
     }
 
+    @Test
+    public void testZStdCompressionNotSupportedBeforeMagicV2() {
+        assumeTrue(compressionType == CompressionType.ZSTD);
+
+        for (byte magic : Arrays.asList(RecordBatch.MAGIC_VALUE_V0, RecordBatch.MAGIC_VALUE_V1)) {
+            ByteBuffer buffer = ByteBuffer.allocate(128);
+            try {
+                MemoryRecords.builder(buffer, magic, compressionType, TimestampType.CREATE_TIME, 0L);
+                fail("Expected IllegalArgumentException for magic " + magic);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedCompressionTypeException.class)
+    public void testDownConversionOfZStdBatchNotSupported() {
+        assumeTrue(compressionType == CompressionType.ZSTD);
+
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, compressionType,
+                TimestampType.CREATE_TIME, 0L);
+        builder.append(10L, "1".getBytes(), "a".getBytes());
+        builder.close();
+        buffer.flip();
+
+        MemoryRecords.readableRecords(buffer).downConvert(RecordBatch.MAGIC_VALUE_V1, 0, time);
+    }
+
+    @Test
+    public void testReserve() {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.position(bufferOffset);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, compressionType,
+                TimestampType.CREATE_TIME, 0L);
+        assumeTrue(builder.supportsReservedAppends());
+
+        builder.append(10L, "a".getBytes(), "1".getBytes());
+        MemoryRecordsBuilder.ReservedRecord second = builder.reserve(11L, ByteBuffer.wrap("b".getBytes()),
+                ByteBuffer.wrap("2".getBytes()), Record.EMPTY_HEADERS);
+        MemoryRecordsBuilder.ReservedRecord third = builder.reserve(9L, null, ByteBuffer.wrap("3".getBytes()),
+                Record.EMPTY_HEADERS);
+        // reserved records may be written in any order
+        third.write();
+        second.write();
+        MemoryRecords records = builder.build();
+
+        MutableRecordBatch batch = records.batches().iterator().next();
+        batch.ensureValid();
+        assertEquals(11L, batch.maxTimestamp());
+        assertEquals(2L, batch.lastOffset());
+
+        List<Record> logRecords = Utils.toList(records.records().iterator());
+        assertEquals(3, logRecords.size());
+        for (int i = 0; i < logRecords.size(); i++) {
+            assertEquals(i, logRecords.get(i).offset());
+            assertEquals(ByteBuffer.wrap(String.valueOf(i + 1).getBytes()), logRecords.get(i).value());
+        }
+        assertEquals(9L, logRecords.get(2).timestamp());
+        assertNull(logRecords.get(2).key());
+    }
+
+    @Test
+    public void testReserveReturnsNullIfBufferIsFull() {
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, compressionType,
+                TimestampType.CREATE_TIME, 0L);
+        assumeTrue(builder.supportsReservedAppends());
+
+        assertNull(builder.reserve(0L, null, ByteBuffer.allocate(128), Record.EMPTY_HEADERS));
+        assertEquals(0, builder.numRecords());
+    }
+
+    @Test
+    public void testForExistingBatch() {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.position(bufferOffset);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, compressionType,
+                TimestampType.CREATE_TIME, 100L, 10L, 5L, (short) 1, 20, false, 3);
+        builder.append(10L, "a".getBytes(), "1".getBytes());
+        builder.append(11L, "b".getBytes(), "2".getBytes());
+        builder.append(9L, null, "3".getBytes());
+        MutableRecordBatch source = builder.build().batches().iterator().next();
+
+        ByteBuffer copy = ByteBuffer.allocate(source.sizeInBytes());
+        source.writeTo(copy);
+        MemoryRecordsBuilder passThrough = MemoryRecordsBuilder.forExistingBatch(copy);
+        assertTrue(passThrough.isForExistingBatch());
+        assertFalse(passThrough.supportsReservedAppends());
+        assertTrue(passThrough.isFull());
+        passThrough.setProducerState(50L, (short) 2, 7, true);
+        MemoryRecords records = passThrough.build();
+
+        MutableRecordBatch batch = records.batches().iterator().next();
+        batch.ensureValid();
+        assertEquals(source.sizeInBytes(), records.sizeInBytes());
+        assertEquals(compressionType, batch.compressionType());
+        assertEquals(0L, batch.baseOffset());
+        assertEquals(2L, batch.lastOffset());
+        assertEquals(11L, batch.maxTimestamp());
+        assertEquals(50L, batch.producerId());
+        assertEquals(2, batch.producerEpoch());
+        assertEquals(7, batch.baseSequence());
+        assertTrue(batch.isTransactional());
+        assertEquals(RecordBatch.NO_PARTITION_LEADER_EPOCH, batch.partitionLeaderEpoch());
+
+        List<Record> logRecords = Utils.toList(records.records().iterator());
+        assertEquals(3, logRecords.size());
+        for (int i = 0; i < logRecords.size(); i++) {
+            assertEquals(i, logRecords.get(i).offset());
+            assertEquals(ByteBuffer.wrap(String.valueOf(i + 1).getBytes()), logRecords.get(i).value());
+        }
+        assertEquals(9L, logRecords.get(2).timestamp());
+        assertNull(logRecords.get(2).key());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForExistingBatchRejectsOldMagic() {
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V1, CompressionType.NONE,
+                TimestampType.CREATE_TIME, 0L);
+        builder.append(10L, "a".getBytes(), "1".getBytes());
+        builder.build();
+        MemoryRecordsBuilder.forExistingBatch(buffer);
+    }
+
+    private void assumeAtLeastV2OrNotZstd(byte magic) {
+        assumeTrue(compressionType != CompressionType.ZSTD || magic >= RecordBatch.MAGIC_VALUE_V2);
+    }
+
     @Parameterized.Parameters(name = "bufferOffset={0}, compression={1}")
     public static Collection<Object[]> data() {
         List<Object[]> values = new ArrayList<>();
@@ -799,8 +799,12 @@ public class MemoryRecordsTest {
         List<Object[]> values = new ArrayList<>();
         for (long firstOffset : asList(0L, 57L))
             for (byte magic : asList(RecordBatch.MAGIC_VALUE_V0, RecordBatch.MAGIC_VALUE_V1, RecordBatch.MAGIC_VALUE_V2))
-                for (CompressionType type: CompressionType.values())
+                for (CompressionType type: CompressionType.values()) {
+                    // ZStandard is only supported by message format v2 and above
+                    if (type == CompressionType.ZSTD && magic < RecordBatch.MAGIC_VALUE_V2)
+                        continue;
                     values.add(new Object[] {magic, firstOffset, type});
+                }
         return values;
     }
 
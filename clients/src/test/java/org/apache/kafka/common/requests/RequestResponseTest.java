@@ -501,6 +501,38 @@ public class RequestResponseTest {
         assertEquals(request.isolationLevel(), deserialized.isolationLevel());
     }
 
+    @Test
+    public void testFetchRequestWithMetadata() throws Exception {
+        FetchRequest request = createFetchRequest(7, new FetchMetadata(123, 4),
+                Collections.singletonList(new TopicPartition("test3", 1)));
+        Struct struct = request.toStruct();
+        FetchRequest deserialized = (FetchRequest) deserialize(request, struct, request.version());
+        assertEquals(request.metadata(), deserialized.metadata());
+        assertEquals(request.toForget(), deserialized.toForget());
+        assertEquals(request.fetchData(), deserialized.fetchData());
+
+        // older versions cannot carry the session metadata
+        request = createFetchRequest(6, new FetchMetadata(123, 4),
+                Collections.singletonList(new TopicPartition("test3", 1)));
+        assertEquals(FetchMetadata.LEGACY, request.metadata());
+        assertTrue(request.toForget().isEmpty());
+    }
+
+    @Test
+    public void testFetchResponseWithSessionId() throws Exception {
+        FetchResponse response = new FetchResponse(Errors.NONE, createFetchResponse().responseData(), 10, 123);
+        FetchResponse deserialized = FetchResponse.parse(toBuffer(response.toStruct((short) 7)), (short) 7);
+        assertEquals(123, deserialized.sessionId());
+        assertEquals(Errors.NONE, deserialized.error());
+        assertEquals(response.responseData(), deserialized.responseData());
+
+        response = new FetchResponse(Errors.FETCH_SESSION_ID_NOT_FOUND,
+                new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 10, FetchMetadata.INVALID_SESSION_ID);
+        deserialized = FetchResponse.parse(toBuffer(response.toStruct((short) 7)), (short) 7);
+        assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND, deserialized.error());
+        assertEquals(Collections.singletonMap(Errors.FETCH_SESSION_ID_NOT_FOUND, 1), deserialized.errorCounts());
+    }
+
     @Test
     public void testJoinGroupRequestVersion0RebalanceTimeout() throws Exception {
         final short version = 0;
@@ -539,6 +571,14 @@ public class RequestResponseTest {
         return FetchRequest.Builder.forConsumer(100, 100000, fetchData, isolationLevel).setMaxBytes(1000).build((short) version);
     }
 
+    private FetchRequest createFetchRequest(int version, FetchMetadata metadata, List<TopicPartition> toForget) {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 0L, 1000000));
+        fetchData.put(new TopicPartition("test2", 0), new FetchRequest.PartitionData(200, 0L, 1000000));
+        return FetchRequest.Builder.forConsumer(100, 100000, fetchData).metadata(metadata).
+                setMaxBytes(1000).toForget(toForget).build((short) version);
+    }
+
     private FetchRequest createFetchRequest(int version) {
         LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
         fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 0L, 1000000));
@@ -391,6 +391,20 @@ class Partition(val topic: String,
     }
   }
 
+  /**
+   * Check whether the local leader replica is waiting for a group commit flush of the messages up to `requiredOffset`
+   * (exclusive), in which case the produce requests which appended them cannot be acknowledged yet.
+   */
+  def isFlushPending(requiredOffset: Long): Boolean =
+    leaderReplicaIfLocal.flatMap(_.log).exists(_.isFlushPending(requiredOffset))
+
+  /**
+   * Check whether the group commit flush of the messages up to `requiredOffset` (exclusive) failed on the local leader
+   * replica, in which case the produce requests which appended them must fail.
+   */
+  def isFlushFailed(requiredOffset: Long): Boolean =
+    leaderReplicaIfLocal.flatMap(_.log).exists(_.isFlushFailed(requiredOffset))
+
   /*
    * Returns a tuple where the first element is a boolean indicating whether enough replicas reached `requiredOffset`
    * and the second element is an error (which would be `Errors.NONE` for no error).
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.util
+
+import kafka.common.OffsetAndMetadata
+import kafka.utils.nonthreadsafe
+import org.apache.kafka.common.TopicPartition
+
+import scala.collection.mutable
+
+/**
+ * The committed offsets of a group, kept in arrays of primitive values for each topic rather than as several objects
+ * per offset, since the group cache of a coordinator may hold millions of offsets. Entries are only materialized as
+ * [[CommitRecordMetadataAndOffset]] when they are read. Topic names and metadata strings are kept as given, the
+ * [[GroupMetadataManager]] interns them so that they are shared by the groups consuming the same topics and by commits
+ * with the same metadata.
+ *
+ * The arrays of a topic hold its committed partitions sorted by partition and are looked up by binary search, so a
+ * group committing a few high-numbered partitions of a topic does not pay for the partitions below them. They shrink
+ * when most of their partitions are removed.
+ *
+ * The offset count and the size estimate are kept as the offsets change, so that the group cache gauges can read
+ * them without taking the group lock.
+ */
+@nonthreadsafe
+private[group] class CommittedOffsets {
+  import CommittedOffsets._
+
+  private val topics = new mutable.HashMap[String, TopicOffsets]
+  @volatile private var numOffsets = 0
+  @volatile private var sizeInBytes = ObjectOverhead
+
+  def size: Int = numOffsets
+
+  def isEmpty: Boolean = numOffsets == 0
+
+  def nonEmpty: Boolean = !isEmpty
+
+  def contains(topicPartition: TopicPartition): Boolean =
+    topics.get(topicPartition.topic).exists(_.contains(topicPartition.partition))
+
+  def get(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] =
+    topics.get(topicPartition.topic).flatMap(_.get(topicPartition.partition))
+
+  def put(topicPartition: TopicPartition, offset: CommitRecordMetadataAndOffset): Unit = {
+    val topicOffsets = topics.get(topicPartition.topic) match {
+      case Some(existing) => existing
+      case None =>
+        val created = new TopicOffsets
+        topics.put(topicPartition.topic, created)
+        sizeInBytes += TopicEntryOverhead + created.estimatedSizeInBytes
+        created
+    }
+    val sizeBefore = topicOffsets.estimatedSizeInBytes
+    if (topicOffsets.put(topicPartition.partition, offset)) {
+      numOffsets += 1
+      sizeInBytes += topicOffsets.estimatedSizeInBytes - sizeBefore
+    }
+  }
+
+  def remove(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = {
+    topics.get(topicPartition.topic).flatMap { topicOffsets =>
+      val sizeBefore = topicOffsets.estimatedSizeInBytes
+      val removed = topicOffsets.remove(topicPartition.partition)
+      if (removed.isDefined) {
+        numOffsets -= 1
+        if (topicOffsets.isEmpty) {
+          topics.remove(topicPartition.topic)
+          sizeInBytes -= TopicEntryOverhead + sizeBefore
+        } else
+          sizeInBytes += topicOffsets.estimatedSizeInBytes - sizeBefore
+      }
+      removed
+    }
+  }
+
+  def iterator: Iterator[(TopicPartition, CommitRecordMetadataAndOffset)] = topics.iterator.flatMap {
+    case (topic, topicOffsets) => topicOffsets.iterator.map { case (partition, offset) =>
+      (new TopicPartition(topic, partition), offset)
+    }
+  }
+
+  /**
+   * An estimate of the heap used by the offsets, not counting the topic names and metadata strings, which are shared
+   */
+  def estimatedSizeInBytes: Long = sizeInBytes
+}
+
+private[group] object CommittedOffsets {
+  // the appended batch offset of an offset which has not been appended yet, batch offsets are never negative
+  private val NoAppendedBatchOffset = -1L
+
+  // estimates of the size of the objects, assuming compressed references
+  private val ObjectOverhead = 16L
+  private val ArrayOverhead = 16L
+  private val ReferenceSize = 4L
+  private val TopicEntryOverhead = 48L
+  private val LongArrays = 4
+  private val IntSize = 4L
+
+  /**
+   * The offsets of the partitions of a topic, in parallel arrays sorted by partition
+   */
+  private class TopicOffsets {
+    private var partitions = Array.emptyIntArray
+    private var offsets = Array.emptyLongArray
+    private var commitTimestamps = Array.emptyLongArray
+    private var expireTimestamps = Array.emptyLongArray
+    private var appendedBatchOffsets = Array.emptyLongArray
+    private var metadata = Array.empty[String]
+    private var numPartitions = 0
+
+    def isEmpty: Boolean = numPartitions == 0
+
+    def contains(partition: Int): Boolean = indexOf(partition) >= 0
+
+    def get(partition: Int): Option[CommitRecordMetadataAndOffset] = {
+      val index = indexOf(partition)
+      if (index >= 0) Some(entry(index)) else None
+    }
+
+    /**
+     * Set the offset of a partition, returning true if the partition had no offset
+     */
+    def put(partition: Int, offset: CommitRecordMetadataAndOffset): Boolean = {
+      var index = indexOf(partition)
+      val added = index < 0
+      if (added) {
+        index = -(index + 1)
+        insertAt(index)
+        partitions(index) = partition
+      }
+      val offsetAndMetadata = offset.offsetAndMetadata
+      offsets(index) = offsetAndMetadata.offset
+      commitTimestamps(index) = offsetAndMetadata.commitTimestamp
+      expireTimestamps(index) = offsetAndMetadata.expireTimestamp
+      appendedBatchOffsets(index) = offset.appendedBatchOffset.getOrElse(NoAppendedBatchOffset)
+      metadata(index) = offsetAndMetadata.metadata
+      added
+    }
+
+    def remove(partition: Int): Option[CommitRecordMetadataAndOffset] = {
+      val index = indexOf(partition)
+      if (index < 0)
+        None
+      else {
+        val removed = entry(index)
+        removeAt(index)
+        Some(removed)
+      }
+    }
+
+    def iterator: Iterator[(Int, CommitRecordMetadataAndOffset)] =
+      (0 until numPartitions).iterator.map(index => (partitions(index), entry(index)))
+
+    def estimatedSizeInBytes: Long = {
+      val capacity = partitions.length.toLong
+      ObjectOverhead + ArrayOverhead + capacity * IntSize + LongArrays * (ArrayOverhead + capacity * 8) +
+        ArrayOverhead + capacity * ReferenceSize
+    }
+
+    private def indexOf(partition: Int): Int = util.Arrays.binarySearch(partitions, 0, numPartitions, partition)
+
+    private def entry(index: Int): CommitRecordMetadataAndOffset = {
+      val appendedBatchOffset = appendedBatchOffsets(index)
+      CommitRecordMetadataAndOffset(
+        if (appendedBatchOffset == NoAppendedBatchOffset) None else Some(appendedBatchOffset),
+        OffsetAndMetadata(offsets(index), metadata(index), commitTimestamps(index), expireTimestamps(index)))
+    }
+
+    private def insertAt(index: Int): Unit = {
+      if (numPartitions == partitions.length)
+        resize(math.max(1, numPartitions * 2))
+      val moved = numPartitions - index
+      System.arraycopy(partitions, index, partitions, index + 1, moved)
+      System.arraycopy(offsets, index, offsets, index + 1, moved)
+      System.arraycopy(commitTimestamps, index, commitTimestamps, index + 1, moved)
+      System.arraycopy(expireTimestamps, index, expireTimestamps, index + 1, moved)
+      System.arraycopy(appendedBatchOffsets, index, appendedBatchOffsets, index + 1, moved)
+      System.arraycopy(metadata, index, metadata, index + 1, moved)
+      numPartitions += 1
+    }
+
+    private def removeAt(index: Int): Unit = {
+      val moved = numPartitions - index - 1
+      System.arraycopy(partitions, index + 1, partitions, index, moved)
+      System.arraycopy(offsets, index + 1, offsets, index, moved)
+      System.arraycopy(commitTimestamps, index + 1, commitTimestamps, index, moved)
+      System.arraycopy(expireTimestamps, index + 1, expireTimestamps, index, moved)
+      System.arraycopy(appendedBatchOffsets, index + 1, appendedBatchOffsets, index, moved)
+      System.arraycopy(metadata, index + 1, metadata, index, moved)
+      numPartitions -= 1
+      metadata(numPartitions) = null
+      // halve the arrays once they are a quarter full, so that alternating puts and removes do not resize each time
+      if (numPartitions <= partitions.length / 4)
+        resize(partitions.length / 2)
+    }
+
+    private def resize(capacity: Int): Unit = {
+      partitions = util.Arrays.copyOf(partitions, capacity)
+      offsets = util.Arrays.copyOf(offsets, capacity)
+      commitTimestamps = util.Arrays.copyOf(commitTimestamps, capacity)
+      expireTimestamps = util.Arrays.copyOf(expireTimestamps, capacity)
+      appendedBatchOffsets = util.Arrays.copyOf(appendedBatchOffsets, capacity)
+      metadata = util.Arrays.copyOf(metadata, capacity)
+    }
+  }
+}
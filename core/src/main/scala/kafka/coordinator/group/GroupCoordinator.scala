@@ -831,6 +831,7 @@ object GroupCoordinator {
   private[group] def offsetConfig(config: KafkaConfig) = OffsetConfig(
     maxMetadataSize = config.offsetMetadataMaxSize,
     loadBufferSize = config.offsetsLoadBufferSize,
+    offsetsLoadThreads = config.offsetsLoadThreads,
     offsetsRetentionMs = config.offsetsRetentionMinutes * 60L * 1000L,
     offsetsRetentionCheckIntervalMs = config.offsetsRetentionCheckIntervalMs,
     offsetsTopicNumPartitions = config.offsetsTopicPartitions,
@@ -838,7 +839,8 @@ object GroupCoordinator {
     offsetsTopicReplicationFactor = config.offsetsTopicReplicationFactor,
     offsetsTopicCompressionCodec = config.offsetsTopicCompressionCodec,
     offsetCommitTimeoutMs = config.offsetCommitTimeoutMs,
-    offsetCommitRequiredAcks = config.offsetCommitRequiredAcks
+    offsetCommitRequiredAcks = config.offsetCommitRequiredAcks,
+    offsetCommitCoalescingEnable = config.offsetCommitCoalescingEnable
   )
 
   def apply(config: KafkaConfig,
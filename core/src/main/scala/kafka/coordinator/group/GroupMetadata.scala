@@ -159,7 +159,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
 
   private val members = new mutable.HashMap[String, MemberMetadata]
 
-  private val offsets = new mutable.HashMap[TopicPartition, CommitRecordMetadataAndOffset]
+  private val offsets = new CommittedOffsets
 
   private val pendingOffsetCommits = new mutable.HashMap[TopicPartition, OffsetAndMetadata]
 
@@ -293,7 +293,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
 
   def initializeOffsets(offsets: collection.Map[TopicPartition, CommitRecordMetadataAndOffset],
                         pendingTxnOffsets: Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]) {
-    this.offsets ++= offsets
+    offsets.foreach { case (topicPartition, offset) => this.offsets.put(topicPartition, offset) }
     this.pendingTransactionalOffsetCommits ++= pendingTxnOffsets
   }
 
@@ -302,7 +302,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
       if (offsetWithCommitRecordMetadata.appendedBatchOffset.isEmpty)
         throw new IllegalStateException("Cannot complete offset commit write without providing the metadata of the record " +
           "in the log.")
-      if (!offsets.contains(topicPartition) || offsets(topicPartition).olderThan(offsetWithCommitRecordMetadata))
+      if (offsets.get(topicPartition).forall(_.olderThan(offsetWithCommitRecordMetadata)))
         offsets.put(topicPartition, offsetWithCommitRecordMetadata)
     }
 
@@ -416,7 +416,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
   }
 
   def removeExpiredOffsets(startMs: Long) : Map[TopicPartition, OffsetAndMetadata] = {
-    val expiredOffsets = offsets
+    val expiredOffsets = offsets.iterator
       .filter {
         case (topicPartition, commitRecordMetadataAndOffset) =>
           commitRecordMetadataAndOffset.offsetAndMetadata.expireTimestamp < startMs && !pendingOffsetCommits.contains(topicPartition)
@@ -424,12 +424,12 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
       .map {
         case (topicPartition, commitRecordOffsetAndMetadata) =>
           (topicPartition, commitRecordOffsetAndMetadata.offsetAndMetadata)
-      }
-    offsets --= expiredOffsets.keySet
-    expiredOffsets.toMap
+      }.toMap
+    expiredOffsets.keys.foreach(offsets.remove)
+    expiredOffsets
   }
 
-  def allOffsets = offsets.map { case (topicPartition, commitRecordMetadataAndOffset) =>
+  def allOffsets = offsets.iterator.map { case (topicPartition, commitRecordMetadataAndOffset) =>
     (topicPartition, commitRecordMetadataAndOffset.offsetAndMetadata)
   }.toMap
 
@@ -440,6 +440,9 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
 
   def numOffsets = offsets.size
 
+  // kept up to date by the offsets, so it may be read without the group lock
+  def offsetsSizeInBytes: Long = offsets.estimatedSizeInBytes
+
   def hasOffsets = offsets.nonEmpty || pendingOffsetCommits.nonEmpty || pendingTransactionalOffsetCommits.nonEmpty
 
   private def assertValidTransition(targetState: GroupState) {
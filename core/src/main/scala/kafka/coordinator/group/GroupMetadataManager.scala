@@ -20,7 +20,7 @@ package kafka.coordinator.group
 import java.io.PrintStream
 import java.nio.ByteBuffer
 import java.nio.charset.StandardCharsets
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.locks.ReentrantLock
 
@@ -76,11 +76,37 @@ class GroupMetadataManager(brokerId: Int,
   /* single-thread scheduler to handle offset/group metadata cache loading and unloading */
   private val scheduler = new KafkaScheduler(threads = 1, threadNamePrefix = "group-metadata-manager-")
 
+  /* single-thread schedulers to load and unload partitions in parallel if more than one load thread is configured.
+   * A partition is always loaded and unloaded by the same scheduler, so that its loads and unloads run in order */
+  private val loadSchedulers =
+    if (config.offsetsLoadThreads == 1)
+      Seq(scheduler)
+    else
+      (0 until config.offsetsLoadThreads).map { i =>
+        val loadScheduler = new KafkaScheduler(threads = 1, threadNamePrefix = s"group-metadata-manager-loader-$i-")
+        loadScheduler.startup()
+        loadScheduler
+      }
+
+  /* the number of log offsets left to read of each partition being loaded */
+  private val offsetsToLoad = new ConcurrentHashMap[Int, java.lang.Long]()
+
   /* The groups with open transactional offsets commits per producer. We need this because when the commit or abort
    * marker comes in for a transaction, it is for a particular partition on the offsets topic and a particular producerId.
    * We use this structure to quickly find the groups which need to be updated by the commit/abort marker. */
   private val openGroupsForProducer = mutable.HashMap[Long, mutable.Set[String]]()
 
+  /* shares the topic names and metadata strings of the cached offsets between groups */
+  private val stringInterner = new StringInterner(GroupMetadataManager.MaxInternedStrings)
+
+  /* appends the offset commits of all groups bound for the same offsets topic partition together, if enabled */
+  private val offsetCommitAppender =
+    if (config.offsetCommitCoalescingEnable)
+      Some(new OffsetCommitAppender(brokerId, config, replicaManager, compressionType))
+    else
+      None
+  offsetCommitAppender.foreach(_.start())
+
   this.logIdent = s"[GroupMetadataManager brokerId=$brokerId] "
 
   private def recreateGauge[T](name: String, gauge: Gauge[T]): Gauge[T] = {
@@ -95,11 +121,39 @@ class GroupMetadataManager(brokerId: Int,
       }).sum
     })
 
+  recreateGauge("OffsetsCacheSizeInBytes",
+    new Gauge[Long] {
+      def value = offsetsCacheSizeInBytes
+    })
+
+  recreateGauge("OffsetsCacheBytesPerOffset",
+    new Gauge[Long] {
+      def value = {
+        var numOffsets = 0L
+        var sizeInBytes = 0L
+        groupMetadataCache.values.foreach { group =>
+          numOffsets += group.numOffsets
+          sizeInBytes += group.offsetsSizeInBytes
+        }
+        if (numOffsets == 0) 0L else sizeInBytes / numOffsets
+      }
+    })
+
   recreateGauge("NumGroups",
     new Gauge[Int] {
       def value = groupMetadataCache.size
     })
 
+  recreateGauge("NumPartitionsLoading",
+    new Gauge[Int] {
+      def value = inLock(partitionLock) { loadingPartitions.size }
+    })
+
+  recreateGauge("NumLogOffsetsToLoad",
+    new Gauge[Long] {
+      def value = offsetsToLoad.values.asScala.map(_.longValue).sum
+    })
+
   recreateGauge("NumGroupsPreparingRebalance",
     new Gauge[Int] {
       def value(): Int = groupMetadataCache.values.count(group => {
@@ -135,6 +189,20 @@ class GroupMetadataManager(brokerId: Int,
       })
     })
 
+  private def internTopic(topicPartition: TopicPartition): TopicPartition = {
+    val topic = stringInterner.intern(topicPartition.topic)
+    if (topic eq topicPartition.topic) topicPartition else new TopicPartition(topic, topicPartition.partition)
+  }
+
+  private def internMetadata(offsetAndMetadata: OffsetAndMetadata): OffsetAndMetadata = {
+    val metadata = stringInterner.intern(offsetAndMetadata.metadata)
+    if (metadata eq offsetAndMetadata.metadata) offsetAndMetadata
+    else offsetAndMetadata.copy(offsetMetadata = offsetAndMetadata.offsetMetadata.copy(metadata = metadata))
+  }
+
+  // an estimate of the heap used by the committed offsets of the cached groups, read without the group locks
+  private def offsetsCacheSizeInBytes: Long = groupMetadataCache.values.map(_.offsetsSizeInBytes).sum
+
   def enableMetadataExpiration() {
     scheduler.startup()
 
@@ -298,6 +366,8 @@ class GroupMetadataManager(brokerId: Int,
     // first filter out partitions with offset metadata size exceeding limit
     val filteredOffsetMetadata = offsetMetadata.filter { case (_, offsetAndMetadata) =>
       validateOffsetMetadataLength(offsetAndMetadata.metadata)
+    }.map { case (topicPartition, offsetAndMetadata) =>
+      (internTopic(topicPartition), internMetadata(offsetAndMetadata))
     }
 
     group.inLock {
@@ -327,16 +397,18 @@ class GroupMetadataManager(brokerId: Int,
             new SimpleRecord(timestamp, key, value)
           }
           val offsetTopicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, partitionFor(group.groupId))
-          val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magicValue, compressionType, records.asJava))
 
           if (isTxnOffsetCommit && magicValue < RecordBatch.MAGIC_VALUE_V2)
             throw Errors.UNSUPPORTED_FOR_MESSAGE_FORMAT.exception("Attempting to make a transaction offset commit with an invalid magic: " + magicValue)
 
-          val builder = MemoryRecords.builder(buffer, magicValue, compressionType, timestampType, 0L, time.milliseconds(),
-            producerId, producerEpoch, 0, isTxnOffsetCommit, RecordBatch.NO_PARTITION_LEADER_EPOCH)
+          def entries: Map[TopicPartition, MemoryRecords] = {
+            val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magicValue, compressionType, records.asJava))
+            val builder = MemoryRecords.builder(buffer, magicValue, compressionType, timestampType, 0L, time.milliseconds(),
+              producerId, producerEpoch, 0, isTxnOffsetCommit, RecordBatch.NO_PARTITION_LEADER_EPOCH)
 
-          records.foreach(builder.append)
-          val entries = Map(offsetTopicPartition -> builder.build())
+            records.foreach(builder.append)
+            Map(offsetTopicPartition -> builder.build())
+          }
 
           // set the callback function to insert offsets into cache after log append completed
           def putCacheCallback(responseStatus: Map[TopicPartition, PartitionResponse]) {
@@ -419,7 +491,13 @@ class GroupMetadataManager(brokerId: Int,
             }
           }
 
-          appendForGroup(group, entries, putCacheCallback)
+          offsetCommitAppender match {
+            // transactional commits are appended in their own batch, which carries the producer id and epoch
+            case Some(appender) if !isTxnOffsetCommit =>
+              appender.append(offsetTopicPartition, magicValue, records, putCacheCallback)
+            case _ =>
+              appendForGroup(group, entries, putCacheCallback)
+          }
 
         case None =>
           val commitStatus = offsetMetadata.map { case (topicPartition, _) =>
@@ -479,7 +557,7 @@ class GroupMetadataManager(brokerId: Int,
   def loadGroupsForPartition(offsetsPartition: Int, onGroupLoaded: GroupMetadata => Unit) {
     val topicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, offsetsPartition)
     info(s"Scheduling loading of offsets and group metadata from $topicPartition")
-    scheduler.schedule(topicPartition.toString, doLoadGroupsAndOffsets)
+    loadScheduler(offsetsPartition).schedule(topicPartition.toString, doLoadGroupsAndOffsets)
 
     def doLoadGroupsAndOffsets() {
       inLock(partitionLock) {
@@ -506,7 +584,15 @@ class GroupMetadataManager(brokerId: Int,
     }
   }
 
+  private def loadScheduler(offsetsPartition: Int): KafkaScheduler =
+    loadSchedulers(offsetsPartition % loadSchedulers.size)
+
   private[group] def loadGroupsAndOffsets(topicPartition: TopicPartition, onGroupLoaded: GroupMetadata => Unit) {
+    try doLoadGroupsAndOffsets(topicPartition, onGroupLoaded)
+    finally offsetsToLoad.remove(topicPartition.partition)
+  }
+
+  private def doLoadGroupsAndOffsets(topicPartition: TopicPartition, onGroupLoaded: GroupMetadata => Unit) {
     def highWaterMark = replicaManager.getLogEndOffset(topicPartition).getOrElse(-1L)
 
     replicaManager.getLog(topicPartition) match {
@@ -518,12 +604,28 @@ class GroupMetadataManager(brokerId: Int,
         lazy val buffer = ByteBuffer.allocate(config.loadBufferSize)
 
         // loop breaks if leader changes at any time during the load, since getHighWatermark is -1
-        val loadedOffsets = mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]()
+        // offsets are kept by group, so that each group can be loaded and released without regrouping all offsets
+        val loadedOffsets = mutable.Map[String, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]()
         val pendingOffsets = mutable.Map[Long, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]]()
         val loadedGroups = mutable.Map[String, GroupMetadata]()
         val removedGroups = mutable.Set[String]()
 
+        def loadedOffset(groupTopicPartition: GroupTopicPartition): Option[CommitRecordMetadataAndOffset] =
+          loadedOffsets.get(groupTopicPartition.group).flatMap(_.get(groupTopicPartition.topicPartition))
+
+        def putLoadedOffset(groupTopicPartition: GroupTopicPartition, offset: CommitRecordMetadataAndOffset): Unit =
+          loadedOffsets.getOrElseUpdate(groupTopicPartition.group, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]())
+            .put(groupTopicPartition.topicPartition, offset)
+
+        def removeLoadedOffset(groupTopicPartition: GroupTopicPartition): Unit =
+          loadedOffsets.get(groupTopicPartition.group).foreach { groupOffsets =>
+            groupOffsets.remove(groupTopicPartition.topicPartition)
+            if (groupOffsets.isEmpty)
+              loadedOffsets.remove(groupTopicPartition.group)
+          }
+
         while (currOffset < highWaterMark && !shuttingDown.get()) {
+          offsetsToLoad.put(topicPartition.partition, math.max(0L, highWaterMark - currOffset))
           val fetchDataInfo = log.read(currOffset, config.loadBufferSize, maxOffset = None,
             minOneMessage = true, isolationLevel = IsolationLevel.READ_UNCOMMITTED)
           val memRecords = fetchDataInfo.records match {
@@ -543,8 +645,8 @@ class GroupMetadataManager(brokerId: Int,
                 pendingOffsets.getOrElse(batch.producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
                   .foreach {
                     case (groupTopicPartition, commitRecordMetadataAndOffset) =>
-                      if (!loadedOffsets.contains(groupTopicPartition) || loadedOffsets(groupTopicPartition).olderThan(commitRecordMetadataAndOffset))
-                        loadedOffsets.put(groupTopicPartition, commitRecordMetadataAndOffset)
+                      if (loadedOffset(groupTopicPartition).forall(_.olderThan(commitRecordMetadataAndOffset)))
+                        putLoadedOffset(groupTopicPartition, commitRecordMetadataAndOffset)
                   }
               }
               pendingOffsets.remove(batch.producerId)
@@ -558,18 +660,18 @@ class GroupMetadataManager(brokerId: Int,
                       pendingOffsets.put(batch.producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
 
                     // load offset
-                    val groupTopicPartition = offsetKey.key
+                    val groupTopicPartition = offsetKey.key.copy(topicPartition = internTopic(offsetKey.key.topicPartition))
                     if (!record.hasValue) {
                       if (isTxnOffsetCommit)
                         pendingOffsets(batch.producerId).remove(groupTopicPartition)
                       else
-                        loadedOffsets.remove(groupTopicPartition)
+                        removeLoadedOffset(groupTopicPartition)
                     } else {
-                      val offsetAndMetadata = GroupMetadataManager.readOffsetMessageValue(record.value)
+                      val offsetAndMetadata = internMetadata(GroupMetadataManager.readOffsetMessageValue(record.value))
                       if (isTxnOffsetCommit)
                         pendingOffsets(batch.producerId).put(groupTopicPartition, CommitRecordMetadataAndOffset(Some(batch.baseOffset), offsetAndMetadata))
                       else
-                        loadedOffsets.put(groupTopicPartition, CommitRecordMetadataAndOffset(Some(batch.baseOffset), offsetAndMetadata))
+                        putLoadedOffset(groupTopicPartition, CommitRecordMetadataAndOffset(Some(batch.baseOffset), offsetAndMetadata))
                     }
 
                   case groupMetadataKey: GroupMetadataKey =>
@@ -593,11 +695,6 @@ class GroupMetadataManager(brokerId: Int,
           }
         }
 
-        val (groupOffsets, emptyGroupOffsets) = loadedOffsets
-          .groupBy(_._1.group)
-          .mapValues(_.map { case (groupTopicPartition, offset) => (groupTopicPartition.topicPartition, offset) })
-          .partition { case (group, _) => loadedGroups.contains(group) }
-
         val pendingOffsetsByGroup = mutable.Map[String, mutable.Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]]()
         pendingOffsets.foreach { case (producerId, producerOffsets) =>
           producerOffsets.keySet.map(_.group).foreach(addProducerGroup(producerId, _))
@@ -611,33 +708,30 @@ class GroupMetadataManager(brokerId: Int,
             }
         }
 
-        val (pendingGroupOffsets, pendingEmptyGroupOffsets) = pendingOffsetsByGroup
-          .partition { case (group, _) => loadedGroups.contains(group)}
-
-        loadedGroups.values.foreach { group =>
-          val offsets = groupOffsets.getOrElse(group.groupId, Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
-          val pendingOffsets = pendingGroupOffsets.getOrElse(group.groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
+        // the offsets of each group are removed as it is loaded, so that they can be collected before the other groups
+        // of the partition are loaded
+        def loadGroupAndOffsets(group: GroupMetadata): Unit = {
+          val offsets = loadedOffsets.remove(group.groupId).getOrElse(Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
+          val pendingOffsets = pendingOffsetsByGroup.remove(group.groupId).getOrElse(Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
           debug(s"Loaded group metadata $group with offsets $offsets and pending offsets $pendingOffsets")
           loadGroup(group, offsets, pendingOffsets)
           onGroupLoaded(group)
         }
 
+        loadedGroups.values.foreach(loadGroupAndOffsets)
+
         // load groups which store offsets in kafka, but which have no active members and thus no group
         // metadata stored in the log
-        (emptyGroupOffsets.keySet ++ pendingEmptyGroupOffsets.keySet).foreach { case(groupId) =>
-          val group = new GroupMetadata(groupId)
-          val offsets = emptyGroupOffsets.getOrElse(groupId, Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
-          val pendingOffsets = pendingEmptyGroupOffsets.getOrElse(groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
-          debug(s"Loaded group metadata $group with offsets $offsets and pending offsets $pendingOffsets")
-          loadGroup(group, offsets, pendingOffsets)
-          onGroupLoaded(group)
+        val emptyGroupIds = loadedOffsets.keySet.toSet
+        (emptyGroupIds ++ pendingOffsetsByGroup.keySet).foreach { groupId =>
+          loadGroupAndOffsets(new GroupMetadata(groupId))
         }
 
         removedGroups.foreach { groupId =>
           // if the cache already contains a group which should be removed, raise an error. Note that it
           // is possible (however unlikely) for a consumer group to be removed, and then to be used only for
           // offset storage (i.e. by "simple" consumers)
-          if (groupMetadataCache.contains(groupId) && !emptyGroupOffsets.contains(groupId))
+          if (groupMetadataCache.contains(groupId) && !emptyGroupIds.contains(groupId))
             throw new IllegalStateException(s"Unexpected unload of active group $groupId while " +
               s"loading partition $topicPartition")
         }
@@ -678,7 +772,7 @@ class GroupMetadataManager(brokerId: Int,
                                onGroupUnloaded: GroupMetadata => Unit) {
     val topicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, offsetsPartition)
     info(s"Scheduling unloading of offsets and group metadata from $topicPartition")
-    scheduler.schedule(topicPartition.toString, removeGroupsAndOffsets)
+    loadScheduler(offsetsPartition).schedule(topicPartition.toString, removeGroupsAndOffsets)
 
     def removeGroupsAndOffsets() {
       var numOffsetsRemoved = 0
@@ -834,6 +928,8 @@ class GroupMetadataManager(brokerId: Int,
     shuttingDown.set(true)
     if (scheduler.isStarted)
       scheduler.shutdown()
+    loadSchedulers.filter(loadScheduler => loadScheduler != scheduler && loadScheduler.isStarted).foreach(_.shutdown())
+    offsetCommitAppender.foreach(_.shutdown())
 
     // TODO: clear the caches
   }
@@ -887,6 +983,9 @@ object GroupMetadataManager {
   private val CURRENT_OFFSET_KEY_SCHEMA_VERSION = 1.toShort
   private val CURRENT_GROUP_KEY_SCHEMA_VERSION = 2.toShort
 
+  // the number of distinct topic names and metadata strings which the cached offsets share at most
+  private val MaxInternedStrings = 100000
+
   private val OFFSET_COMMIT_KEY_SCHEMA = new Schema(new Field("group", STRING),
     new Field("topic", STRING),
     new Field("partition", INT32))
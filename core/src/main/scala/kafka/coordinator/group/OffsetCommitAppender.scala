@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+
+import kafka.server.ReplicaManager
+import kafka.utils.ShutdownableThread
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record._
+import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
+
+import scala.collection.JavaConverters._
+import scala.collection._
+
+/**
+ * Appends the offset commits bound for the same partition of the offsets topic as one batch, so that many small
+ * commits cost one append and one delayed produce operation rather than one each.
+ *
+ * Commits are queued by the request handler threads and appended by this thread, which takes every commit queued
+ * while its previous appends were in progress. The callback of each commit is called with the status of the batch
+ * it was appended in. Since a batch holds the commits of many groups, it is appended without holding a group lock
+ * and each callback acquires the lock of its own group.
+ *
+ * The callbacks are run by this thread too. A batch may be completed by any thread which completes delayed produce
+ * operations, and such a thread may hold the lock of a group (see KAFKA-6042). Acquiring the locks of the groups in
+ * the batch there could deadlock with a thread holding the lock of one of those groups which completes a batch with
+ * a commit of the first group, so the completion of a batch is only queued.
+ */
+private[group] class OffsetCommitAppender(brokerId: Int,
+                                          config: OffsetConfig,
+                                          replicaManager: ReplicaManager,
+                                          compressionType: CompressionType)
+  extends ShutdownableThread(s"group-metadata-manager-offset-commit-appender-$brokerId", isInterruptible = false) {
+
+  import OffsetCommitAppender._
+
+  // the commits to append and the appended batches to complete
+  private val events = new LinkedBlockingQueue[Event]()
+  // guards the queueing of events against the draining of the queue on shutdown
+  private val eventsLock = new Object
+  private var stopped = false
+
+  /**
+   * Queue the records of an offset commit to be appended to the given partition of the offsets topic
+   */
+  def append(partition: TopicPartition,
+             magic: Byte,
+             records: Iterable[SimpleRecord],
+             callback: Map[TopicPartition, PartitionResponse] => Unit): Unit = {
+    val commit = PendingCommit(partition, magic, records.toSeq, callback)
+    if (!enqueue(commit))
+      complete(commit, Map(partition -> new PartitionResponse(Errors.NOT_LEADER_FOR_PARTITION)))
+  }
+
+  override def doWork(): Unit = {
+    val first = events.poll(PollTimeoutMs, TimeUnit.MILLISECONDS)
+    if (first != null) {
+      val drained = new java.util.ArrayList[Event]()
+      drained.add(first)
+      events.drainTo(drained)
+      val commits = mutable.ListBuffer[PendingCommit]()
+      drained.asScala.foreach {
+        case commit: PendingCommit => commits += commit
+        case completed: CompletedBatch => completed.commits.foreach(complete(_, completed.responseStatus))
+      }
+      commits.groupBy(commit => (commit.partition, commit.magic)).foreach {
+        case ((partition, magic), partitionCommits) =>
+          batches(magic, partitionCommits).foreach(appendBatch(partition, magic, _))
+      }
+    }
+  }
+
+  override def shutdown(): Unit = {
+    super.shutdown()
+    val remaining = new java.util.ArrayList[Event]()
+    eventsLock synchronized {
+      stopped = true
+      events.drainTo(remaining)
+    }
+    remaining.asScala.foreach {
+      case commit: PendingCommit =>
+        complete(commit, Map(commit.partition -> new PartitionResponse(Errors.NOT_LEADER_FOR_PARTITION)))
+      case completed: CompletedBatch =>
+        completed.commits.foreach(complete(_, completed.responseStatus))
+    }
+  }
+
+  private def enqueue(event: Event): Boolean = eventsLock synchronized {
+    if (!stopped)
+      events.put(event)
+    !stopped
+  }
+
+  private def onBatchCompleted(commits: Seq[PendingCommit], responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
+    // batches completed after the shutdown, e.g. when the delayed produce operations are expired, are completed by
+    // the calling thread since this thread no longer runs
+    if (!enqueue(CompletedBatch(commits, responseStatus)))
+      commits.foreach(complete(_, responseStatus))
+  }
+
+  /**
+   * Split the commits of a partition into batches of at most `MaxBatchSizeInBytes`, unless a single commit is larger
+   */
+  private def batches(magic: Byte, commits: Seq[PendingCommit]): Seq[Seq[PendingCommit]] = {
+    val batches = mutable.ListBuffer[Seq[PendingCommit]]()
+    var batch = mutable.ListBuffer[PendingCommit]()
+    var batchSize = 0
+    commits.foreach { commit =>
+      val commitSize = AbstractRecords.estimateSizeInBytes(magic, compressionType, commit.records.asJava)
+      if (batch.nonEmpty && batchSize + commitSize > MaxBatchSizeInBytes) {
+        batches += batch
+        batch = mutable.ListBuffer[PendingCommit]()
+        batchSize = 0
+      }
+      batch += commit
+      batchSize += commitSize
+    }
+    if (batch.nonEmpty)
+      batches += batch
+    batches
+  }
+
+  private def appendBatch(partition: TopicPartition, magic: Byte, commits: Seq[PendingCommit]): Unit = {
+    try {
+      val records = commits.flatMap(_.records)
+      val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magic, compressionType, records.asJava))
+      // We always use CREATE_TIME, like the producer. The conversion to LOG_APPEND_TIME (if necessary) happens automatically.
+      val builder = MemoryRecords.builder(buffer, magic, compressionType, TimestampType.CREATE_TIME, 0L)
+      records.foreach(builder.append)
+      debug(s"Appending ${commits.size} offset commits with ${records.size} offsets to $partition")
+
+      replicaManager.appendRecords(
+        timeout = config.offsetCommitTimeoutMs.toLong,
+        requiredAcks = config.offsetCommitRequiredAcks,
+        internalTopicsAllowed = true,
+        isFromClient = false,
+        entriesPerPartition = Map(partition -> builder.build()),
+        responseCallback = responseStatus => onBatchCompleted(commits, responseStatus))
+    } catch {
+      case e: Throwable =>
+        error(s"Failed to append ${commits.size} offset commits to $partition", e)
+        commits.foreach(commit => complete(commit, Map(partition -> new PartitionResponse(Errors.forException(e)))))
+    }
+  }
+
+  private def complete(commit: PendingCommit, responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
+    try commit.callback(responseStatus)
+    catch {
+      case e: Throwable => error(s"Failed to complete offset commit to ${commit.partition}", e)
+    }
+  }
+}
+
+private[group] object OffsetCommitAppender {
+  // the time to wait for a commit before checking whether the thread is shutting down
+  val PollTimeoutMs = 300L
+  // well below the default maximum message size, which applies to the batches appended to the offsets topic
+  val MaxBatchSizeInBytes = 512 * 1024
+
+  private sealed trait Event
+
+  private case class PendingCommit(partition: TopicPartition,
+                                   magic: Byte,
+                                   records: Seq[SimpleRecord],
+                                   callback: Map[TopicPartition, PartitionResponse] => Unit) extends Event
+
+  private case class CompletedBatch(commits: Seq[PendingCommit],
+                                    responseStatus: Map[TopicPartition, PartitionResponse]) extends Event
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.lang.ref.WeakReference
+import java.util
+
+import kafka.utils.threadsafe
+
+/**
+ * Shares equal strings, such as the topic names and commit metadata of the cached offsets. Unlike `String.intern`,
+ * the strings are only weakly referenced, so a string is collected once no group uses it any more, and at most
+ * `maxSize` strings are tracked, so that clients committing distinct metadata cannot grow the interner without bound.
+ * Strings beyond the bound are returned as they are.
+ */
+@threadsafe
+private[group] class StringInterner(maxSize: Int) {
+
+  private val strings = new util.WeakHashMap[String, WeakReference[String]]
+
+  def intern(string: String): String = {
+    if (string == null || string.isEmpty)
+      string
+    else strings synchronized {
+      val reference = strings.get(string)
+      val interned = if (reference == null) null else reference.get
+      if (interned != null)
+        interned
+      else {
+        if (strings.size < maxSize)
+          strings.put(string, new WeakReference(string))
+        string
+      }
+    }
+  }
+
+  /**
+   * The number of strings tracked, which no longer counts the strings which were collected
+   */
+  def size: Int = strings synchronized strings.size
+}
@@ -20,24 +20,34 @@ package kafka.log
 import java.io.{File, RandomAccessFile}
 import java.nio.{ByteBuffer, MappedByteBuffer}
 import java.nio.channels.FileChannel
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.{Lock, ReentrantLock}
 
+import com.yammer.metrics.core.Gauge
 import kafka.log.IndexSearchType.IndexSearchEntity
+import kafka.metrics.KafkaMetricsGroup
 import kafka.utils.CoreUtils.inLock
 import kafka.utils.{CoreUtils, Logging}
-import org.apache.kafka.common.utils.{MappedByteBuffers, OperatingSystem, Utils}
+import org.apache.kafka.common.utils.{MappedByteBuffers, OperatingSystem, Time, Utils}
 
 import scala.math.ceil
 
 /**
  * The abstract index class which holds entry format agnostic methods.
  *
+ * The index file is only memory-mapped on first access, so that loading a log with many segments does not map the
+ * indexes of segments which are never read. A mapping which has not been accessed for a while can be released with
+ * `unmapIfIdle()`, it will be mapped again the next time the index is accessed.
+ *
  * @param file The index file
  * @param baseOffset the base offset of the segment that this index is corresponding to.
  * @param maxIndexSize The maximum index size in bytes.
+ * @param time The clock used to track the last access of the mapped buffer
  */
 abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Long,
-                                   val maxIndexSize: Int = -1, val writable: Boolean) extends Logging {
+                                   val maxIndexSize: Int = -1, val writable: Boolean, time: Time) extends Logging {
+  import AbstractIndex._
 
   // Length of the index file
   @volatile
@@ -47,47 +57,44 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
 
   protected val lock = new ReentrantLock
 
+  // The memory mapped buffer of the index file, null until the index is first accessed or after it has been unmapped
   @volatile
-  protected var mmap: MappedByteBuffer = {
-    val newlyCreated = file.createNewFile()
-    val raf = if (writable) new RandomAccessFile(file, "rw") else new RandomAccessFile(file, "r")
-    try {
-      /* pre-allocate the file if necessary */
-      if(newlyCreated) {
-        if(maxIndexSize < entrySize)
-          throw new IllegalArgumentException("Invalid max index size: " + maxIndexSize)
-        raf.setLength(roundDownToExactMultiple(maxIndexSize, entrySize))
-      }
+  private var _mmap: MappedByteBuffer = null
 
-      /* memory-map the file */
-      _length = raf.length()
-      val idx = {
-        if (writable)
-          raf.getChannel.map(FileChannel.MapMode.READ_WRITE, 0, _length)
-        else
-          raf.getChannel.map(FileChannel.MapMode.READ_ONLY, 0, _length)
-      }
-      /* set the position in the index for the next entry */
-      if(newlyCreated)
-        idx.position(0)
-      else
-        // if this is a pre-existing index, assume it is valid and set position to last entry
-        idx.position(roundDownToExactMultiple(idx.limit(), entrySize))
-      idx
-    } finally {
-      CoreUtils.swallow(raf.close(), this)
+  // The number of readers currently accessing the mapped buffer, the buffer is never unmapped while this is positive
+  private val readers = new AtomicInteger(0)
+
+  // The last time the mapped buffer was accessed, only updated once it is AccessTimeGranularityMs old
+  @volatile
+  private var lastAccessMs = time.milliseconds
+
+  // Set once the index is deleted or its handlers are closed, after which it must not be mapped again
+  @volatile
+  private var closed = false
+
+  private[this] val newlyCreated: Boolean = {
+    val created = file.createNewFile()
+    if (created) {
+      /* pre-allocate the file if necessary */
+      if (maxIndexSize < entrySize)
+        throw new IllegalArgumentException("Invalid max index size: " + maxIndexSize)
+      val raf = new RandomAccessFile(file, "rw")
+      try raf.setLength(roundDownToExactMultiple(maxIndexSize, entrySize))
+      finally CoreUtils.swallow(raf.close(), this)
     }
+    _length = file.length
+    created
   }
 
   /**
    * The maximum number of entries this index can hold
    */
   @volatile
-  private[this] var _maxEntries = mmap.limit() / entrySize
+  private[this] var _maxEntries = (_length / entrySize).toInt
 
-  /** The number of entries in this index */
+  /** The number of entries in this index, a pre-existing index is assumed to be valid up to its last entry */
   @volatile
-  protected var _entries = mmap.position() / entrySize
+  protected var _entries = if (newlyCreated) 0 else _maxEntries
 
   /**
    * True iff there are no more slots available in this index
@@ -100,6 +107,110 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
 
   def length: Long = _length
 
+  /** True iff the index file is currently memory-mapped */
+  def isMapped: Boolean = _mmap != null
+
+  /** The last time the memory-mapped buffer of this index was accessed */
+  def lastAccessTimeMs: Long = lastAccessMs
+
+  /**
+   * The memory-mapped buffer of this index, which is mapped on first access. Callers must either hold `lock` or
+   * be inside `maybeLock()` so that the buffer cannot be unmapped while it is in use.
+   */
+  protected def mmap: MappedByteBuffer = {
+    val buffer = _mmap
+    if (buffer != null) {
+      touch()
+      buffer
+    } else inLock(lock) {
+      lastAccessMs = time.milliseconds
+      if (_mmap == null)
+        _mmap = map()
+      _mmap
+    }
+  }
+
+  /**
+   * Record an access of the mapped buffer. The access time is only written when it moves by at least
+   * AccessTimeGranularityMs, so that lookups do not write a shared field every time.
+   */
+  private def touch(): Unit = {
+    val now = time.milliseconds
+    if (now - lastAccessMs >= AccessTimeGranularityMs)
+      lastAccessMs = now
+  }
+
+  private def map(): MappedByteBuffer = {
+    if (closed)
+      throw new IllegalStateException(s"Attempt to access the closed index ${file.getAbsolutePath}")
+    val raf = if (writable) new RandomAccessFile(file, "rw") else new RandomAccessFile(file, "r")
+    try {
+      // a writable index whose file was deleted before it was mapped, e.g. to rebuild it, gets a new file of the same size
+      val mode = if (writable) FileChannel.MapMode.READ_WRITE else FileChannel.MapMode.READ_ONLY
+      val idx = raf.getChannel.map(mode, 0, _length)
+      /* set the position in the index for the next entry */
+      idx.position(_entries * entrySize)
+      IndexMapStats.mapped()
+      idx
+    } finally {
+      CoreUtils.swallow(raf.close(), this)
+    }
+  }
+
+  /**
+   * Unmap the index file if it has not been accessed for at least `idleMs`. The index stays usable and is mapped again
+   * on the next access.
+   *
+   * @return true if the index was unmapped
+   */
+  def unmapIfIdle(now: Long, idleMs: Long): Boolean = {
+    // an index whose lock is held is being written to, so it is not idle
+    if (!lock.tryLock())
+      return false
+    try {
+      val buffer = _mmap
+      if (buffer == null || now - lastAccessMs < idleMs) {
+        false
+      } else {
+        // Readers register themselves before reading `_mmap`, so once `_mmap` is cleared either we see their
+        // registration here or they see the cleared buffer and map the file again under the lock we are holding.
+        _mmap = null
+        if (readers.get > 0) {
+          _mmap = buffer
+          false
+        } else {
+          if (writable)
+            buffer.force()
+          unmap(buffer)
+          true
+        }
+      }
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  /**
+   * Read the entry in the given slot, reading it from the file rather than mapping it if the index is not mapped yet.
+   */
+  protected def readEntry(n: Int): IndexEntry = {
+    inLock(lock) {
+      val buffer = _mmap
+      if (buffer != null) {
+        parseEntry(buffer, n)
+      } else {
+        val raf = new RandomAccessFile(file, "r")
+        try {
+          val entry = ByteBuffer.allocate(entrySize)
+          Utils.readFullyOrFail(raf.getChannel, entry, n.toLong * entrySize, "index entry")
+          parseEntry(entry, 0)
+        } finally {
+          CoreUtils.swallow(raf.close(), this)
+        }
+      }
+    }
+  }
+
   /**
    * Reset the size of the memory map and the underneath file. This is used in two kinds of cases: (1) in
    * trimToValidSize() which is called at closing the segment or new segment being rolled; (2) at
@@ -118,16 +229,23 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
       } else {
         val raf = new RandomAccessFile(file, "rw")
         try {
-          val position = mmap.position()
+          val wasMapped = isMapped
 
           /* Windows won't let us modify the file length while the file is mmapped :-( */
-          if (OperatingSystem.IS_WINDOWS)
+          if (wasMapped && OperatingSystem.IS_WINDOWS)
             safeForceUnmap()
           raf.setLength(roundedNewSize)
           _length = roundedNewSize
-          mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, roundedNewSize)
-          _maxEntries = mmap.limit() / entrySize
-          mmap.position(position)
+          _maxEntries = roundedNewSize / entrySize
+          /* an index which is not mapped yet is mapped with its new size on first access */
+          if (wasMapped) {
+            val newMmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, roundedNewSize)
+            newMmap.position(_entries * entrySize)
+            // the previous mapping is left to the garbage collector as readers may still be using it
+            if (_mmap == null)
+              IndexMapStats.mapped()
+            _mmap = newMmap
+          }
           true
         } finally {
           CoreUtils.swallow(raf.close(), this)
@@ -151,7 +269,9 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
    */
   def flush() {
     inLock(lock) {
-      mmap.force()
+      val buffer = _mmap
+      if (buffer != null)
+        buffer.force()
     }
   }
 
@@ -165,6 +285,7 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
       // However, in some cases it can pause application threads(STW) for a long moment reading metadata from a physical disk.
       // To prevent this, we forcefully cleanup memory mapping within proper execution which never affects API responsiveness.
       // See https://issues.apache.org/jira/browse/KAFKA-4614 for the details.
+      closed = true
       safeForceUnmap()
     }
     file.delete()
@@ -192,6 +313,7 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
 
   def closeHandler(): Unit = {
     inLock(lock) {
+      closed = true
       safeForceUnmap()
     }
   }
@@ -222,23 +344,34 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
   }
 
   /**
-   * Forcefully free the buffer's mmap.
+   * Forcefully free the buffer's mmap. The file is mapped again on the next access unless the index is closed.
    */
   protected[log] def forceUnmap() {
-    try MappedByteBuffers.unmap(file.getAbsolutePath, mmap)
-    finally mmap = null // Accessing unmapped mmap crashes JVM by SEGV so we null it out to be safe
+    val buffer = _mmap
+    // Accessing unmapped mmap crashes JVM by SEGV so we null it out to be safe
+    _mmap = null
+    if (buffer != null)
+      unmap(buffer)
+  }
+
+  private def unmap(buffer: MappedByteBuffer): Unit = {
+    try MappedByteBuffers.unmap(file.getAbsolutePath, buffer)
+    finally IndexMapStats.unmapped()
   }
 
   /**
    * Execute the given function in a lock only if we are running on windows. We do this
    * because Windows won't let us resize a file while it is mmapped. As a result we have to force unmap it
-   * and this requires synchronizing reads.
+   * and this requires synchronizing reads. On other platforms the function is run without the lock, but it is
+   * registered as a reader so that the mapped buffer is not unmapped by `unmapIfIdle()` while it is in use.
    */
   protected def maybeLock[T](lock: Lock)(fun: => T): T = {
     if (OperatingSystem.IS_WINDOWS)
       lock.lock()
+    readers.incrementAndGet()
     try fun
     finally {
+      readers.decrementAndGet()
       if (OperatingSystem.IS_WINDOWS)
         lock.unlock()
     }
@@ -315,6 +448,37 @@ abstract class AbstractIndex[K, V](@volatile var file: File, val baseOffset: Lon
 
 }
 
+object AbstractIndex {
+  // the precision of the last access time of an index, much smaller than any sensible idle time before unmapping
+  val AccessTimeGranularityMs = 1000L
+}
+
+object IndexMapStats extends KafkaMetricsGroup {
+  private val mappedIndexes = new AtomicInteger(0)
+
+  val mapRate = newMeter("IndexMapsPerSec", "maps", TimeUnit.SECONDS)
+  val unmapRate = newMeter("IndexUnmapsPerSec", "unmaps", TimeUnit.SECONDS)
+
+  newGauge(
+    "MappedIndexCount",
+    new Gauge[Int] {
+      def value = mappedIndexes.get
+    }
+  )
+
+  def mappedIndexCount: Int = mappedIndexes.get
+
+  private[log] def mapped(): Unit = {
+    mappedIndexes.incrementAndGet()
+    mapRate.mark()
+  }
+
+  private[log] def unmapped(): Unit = {
+    mappedIndexes.decrementAndGet()
+    unmapRate.mark()
+  }
+}
+
 object IndexSearchType extends Enumeration {
   type IndexSearchEntity = Value
   val KEY, VALUE = Value
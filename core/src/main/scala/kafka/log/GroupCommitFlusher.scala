@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+
+import kafka.utils.CoreUtils.inLock
+import kafka.utils.{ShutdownableThread, threadsafe}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.KafkaStorageException
+
+import scala.collection.mutable
+
+/**
+ * Flushes the logs of a single log directory on behalf of the appends which require a flush, so that all the appends
+ * made by concurrent request handlers while a flush is in progress are made durable by a single flush of each log
+ * rather than by one flush per append.
+ *
+ * Appends register their log with `requestFlush()` and return without waiting. Once a log has been flushed, the
+ * listener is notified with its partition so that the produce requests waiting for the flush can be completed. If the
+ * flush fails, the log is marked as such up to the offset it was flushed to before the listener is notified, so that
+ * those requests fail instead. IO errors are left to the log dir failure handling, which takes the partitions of the
+ * log dir offline.
+ */
+@threadsafe
+class GroupCommitFlusher(val logDir: File) extends ShutdownableThread(s"kafka-group-commit-flusher-${logDir.getName}",
+  isInterruptible = false) {
+
+  this.logIdent = s"[GroupCommitFlusher logDir=${logDir.getAbsolutePath}] "
+
+  private val lock = new ReentrantLock
+  private val flushRequested = lock.newCondition()
+  private val pendingLogs = mutable.LinkedHashSet.empty[Log]
+
+  @volatile private var listener: TopicPartition => Unit = (_: TopicPartition) => ()
+
+  /**
+   * Set the function to call with the partition of each log once it has been flushed
+   */
+  def setListener(listener: TopicPartition => Unit): Unit = {
+    this.listener = listener
+  }
+
+  /**
+   * Request a flush of the given log up to its current log end offset
+   */
+  def requestFlush(log: Log): Unit = {
+    inLock(lock) {
+      pendingLogs += log
+      flushRequested.signal()
+    }
+  }
+
+  override def doWork(): Unit = {
+    val logs = inLock(lock) {
+      // wake up periodically so that shutdown is noticed, as this thread is not interrupted
+      if (pendingLogs.isEmpty)
+        flushRequested.await(GroupCommitFlusher.MaxWaitMs, TimeUnit.MILLISECONDS)
+      val logs = pendingLogs.toList
+      pendingLogs.clear()
+      logs
+    }
+
+    if (logs.nonEmpty) {
+      debug(s"Flushing ${logs.size} logs")
+      logs.foreach { log =>
+        val offset = log.logEndOffset
+        try log.flush(offset)
+        catch {
+          // IO errors are already reported to the log dir failure channel by the log itself
+          case e: KafkaStorageException =>
+            error(s"Error flushing log for ${log.topicPartition} up to offset $offset", e)
+          case e: Throwable =>
+            error(s"Error flushing log for ${log.topicPartition} up to offset $offset", e)
+            log.markGroupCommitFailed(offset)
+        }
+      }
+      logs.foreach(log => listener(log.topicPartition))
+    }
+  }
+}
+
+object GroupCommitFlusher {
+  val MaxWaitMs = 100L
+}
@@ -21,13 +21,15 @@ import java.io.{File, IOException}
 import java.nio.file.Files
 import java.text.NumberFormat
 import java.util.concurrent.atomic._
-import java.util.concurrent.{ConcurrentNavigableMap, ConcurrentSkipListMap, TimeUnit}
+import java.util.concurrent.{Callable, ConcurrentNavigableMap, ConcurrentSkipListMap, ExecutionException, ExecutorService, TimeUnit}
+import java.util.concurrent.locks.ReentrantReadWriteLock
 
 import kafka.api.KAFKA_0_10_0_IV0
 import kafka.common.{InvalidOffsetException, KafkaException, LongRef}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{BrokerTopicStats, FetchDataInfo, LogDirFailureChannel, LogOffsetMetadata}
 import kafka.utils._
+import kafka.utils.CoreUtils.{inReadLock, inWriteLock}
 import org.apache.kafka.common.errors.{CorruptRecordException, KafkaStorageException, OffsetOutOfRangeException, RecordBatchTooLargeException, RecordTooLargeException, UnsupportedForMessageFormatException}
 import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.{IsolationLevel, ListOffsetRequest}
@@ -35,6 +37,7 @@ import org.apache.kafka.common.requests.{IsolationLevel, ListOffsetRequest}
 import scala.collection.JavaConverters._
 import scala.collection.mutable.{ArrayBuffer, ListBuffer}
 import scala.collection.{Seq, mutable}
+import scala.util.{Failure, Success, Try}
 import com.yammer.metrics.core.Gauge
 import org.apache.kafka.common.utils.{Time, Utils}
 import kafka.message.{BrokerCompressionCodec, CompressionCodec, NoCompressionCodec}
@@ -132,6 +135,12 @@ case class CompletedTxn(producerId: Long, firstOffset: Long, lastOffset: Long, i
  * @param time The time instance used for checking the clock
  * @param maxProducerIdExpirationMs The maximum amount of time to wait before a producer id is considered expired
  * @param producerIdExpirationCheckIntervalMs How often to check for producer ids which need to be expired
+ * @param segmentRecoveryPool The thread pool used to rebuild the indexes of unflushed segments in parallel on recovery
+ * @param recoveryProgress Tracks the number of bytes left to recover across all the logs being loaded
+ * @param groupCommitFlusher If defined, the leader appends which require a flush hand it to this flusher instead of
+ *                           flushing inline, and the flush is awaited by the produce request, see `isFlushPending()`.
+ *                           Follower appends are always flushed inline, since a follower acknowledges the messages to
+ *                           the leader by fetching past them.
  */
 @threadsafe
 class Log(@volatile var dir: File,
@@ -145,16 +154,27 @@ class Log(@volatile var dir: File,
           val producerIdExpirationCheckIntervalMs: Int,
           val topicPartition: TopicPartition,
           val producerStateManager: ProducerStateManager,
-          logDirFailureChannel: LogDirFailureChannel) extends Logging with KafkaMetricsGroup {
+          logDirFailureChannel: LogDirFailureChannel,
+          segmentRecoveryPool: Option[ExecutorService] = None,
+          recoveryProgress: Option[LogRecoveryProgress] = None,
+          groupCommitFlusher: Option[GroupCommitFlusher] = None) extends Logging with KafkaMetricsGroup {
 
   import kafka.log.Log._
 
-  /* A lock that guards all modifications to the log */
-  private val lock = new Object
+  /* A lock that guards all modifications to the log. Operations which only inspect the producer state or the
+   * segments take the read lock so that they do not serialize with each other. */
+  private val lock = new ReentrantReadWriteLock
   // The memory mapped buffer for index files of this log will be closed for index files of this log will be closed with either delete() or closeHandlers()
   // After memory mapped buffer is closed, no disk IO operation should be performed for this log
   @volatile private var isMemoryMappedBufferClosed = false
 
+  /* The offset up to which a flush has been requested from the group commit flusher */
+  @volatile private var groupCommitOffset = 0L
+
+  /* The offset up to which a flush by the group commit flusher failed, or -1 if no flush failed since the last
+   * successful one. The appends below it fail rather than wait for the flush */
+  @volatile private var groupCommitFailedOffset = -1L
+
   /* last time it was flushed */
   private val lastFlushedTime = new AtomicLong(time.milliseconds)
 
@@ -248,7 +268,7 @@ class Log(@volatile var dir: File,
     tags)
 
   scheduler.schedule(name = "PeriodicProducerExpirationCheck", fun = () => {
-    lock synchronized {
+    inWriteLock(lock) {
       producerStateManager.removeExpiredProducers(time.milliseconds)
     }
   }, period = producerIdExpirationCheckIntervalMs, delay = producerIdExpirationCheckIntervalMs, unit = TimeUnit.MILLISECONDS)
@@ -351,7 +371,17 @@ class Log(@volatile var dir: File,
     }
   }
 
-  private def recoverSegment(segment: LogSegment, leaderEpochCache: Option[LeaderEpochCache] = None): Int = lock synchronized {
+  private def recoverSegment(segment: LogSegment, leaderEpochCache: Option[LeaderEpochCache] = None): Int =
+    withSegmentProducerState(segment)(segment.recover(_, leaderEpochCache))
+
+  /*
+   * Recover the producer state, leader epochs and transaction index of a segment whose indexes have already been
+   * rebuilt by LogSegment.rebuildIndexes()
+   */
+  private def recoverSegmentState(segment: LogSegment, leaderEpochCache: Option[LeaderEpochCache]): Unit =
+    withSegmentProducerState(segment)(segment.replay(_, leaderEpochCache))
+
+  private def withSegmentProducerState[T](segment: LogSegment)(recover: ProducerStateManager => T): T = inWriteLock(lock) {
     val stateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs)
     stateManager.truncateAndReload(logStartOffset, segment.baseOffset, time.milliseconds)
     logSegments(stateManager.mapEndOffset, segment.baseOffset).foreach { segment =>
@@ -366,12 +396,12 @@ class Log(@volatile var dir: File,
     // checkpoint the recovery point
     stateManager.takeSnapshot()
 
-    val bytesTruncated = segment.recover(stateManager, leaderEpochCache)
+    val result = recover(stateManager)
 
     // once we have recovered the segment's data, take a snapshot to ensure that we won't
     // need to reload the same segment again while recovering another segment.
     stateManager.takeSnapshot()
-    bytesTruncated
+    result
   }
 
   // This method does not need to convert IOException to KafkaStorageException because it is only called before all logs are loaded
@@ -380,9 +410,9 @@ class Log(@volatile var dir: File,
       val logFile = new File(CoreUtils.replaceSuffix(swapFile.getPath, SwapFileSuffix, ""))
       val startOffset = offsetFromFile(logFile)
       val indexFile = new File(CoreUtils.replaceSuffix(logFile.getPath, LogFileSuffix, IndexFileSuffix) + SwapFileSuffix)
-      val index =  new OffsetIndex(indexFile, baseOffset = startOffset, maxIndexSize = config.maxIndexSize)
+      val index =  new OffsetIndex(indexFile, baseOffset = startOffset, maxIndexSize = config.maxIndexSize, time = time)
       val timeIndexFile = new File(CoreUtils.replaceSuffix(logFile.getPath, LogFileSuffix, TimeIndexFileSuffix) + SwapFileSuffix)
-      val timeIndex = new TimeIndex(timeIndexFile, baseOffset = startOffset, maxIndexSize = config.maxIndexSize)
+      val timeIndex = new TimeIndex(timeIndexFile, baseOffset = startOffset, maxIndexSize = config.maxIndexSize, time = time)
       val txnIndexFile = new File(CoreUtils.replaceSuffix(logFile.getPath, LogFileSuffix, TxnIndexFileSuffix) + SwapFileSuffix)
       val txnIndex = new TransactionIndex(startOffset, txnIndexFile)
       val swapSegment = new LogSegment(FileRecords.open(swapFile),
@@ -450,25 +480,49 @@ class Log(@volatile var dir: File,
     // if we have the clean shutdown marker, skip recovery
     if (!hasCleanShutdownFile) {
       // okay we need to actually recovery this log
-      val unflushed = logSegments(this.recoveryPoint, Long.MaxValue).iterator
+      val unflushedSegments = logSegments(this.recoveryPoint, Long.MaxValue).toBuffer
+      // With a segment recovery pool, the batch validation and index rebuilding of all the unflushed segments is done
+      // concurrently up front. Only the replay of the producer state, which depends on the preceding segments, is left
+      // to be done one segment at a time below.
+      val rebuiltIndexes = segmentRecoveryPool.filter(_ => unflushedSegments.size > 1).map { pool =>
+        val futures = unflushedSegments.map { segment =>
+          pool.submit(new Callable[Int] {
+            override def call(): Int = {
+              val segmentBytes = segment.size
+              val truncatedBytes = handleInvalidOffset(segment)(segment.rebuildIndexes())
+              recoveryProgress.foreach(_.recordRecovered(segmentBytes))
+              truncatedBytes
+            }
+          })
+        }
+        // wait for all the segments before looking at the results, so that none of them is still being recovered
+        // when a failure is propagated
+        futures.map(future => Try(future.get)).map {
+          case Success(truncatedBytes) => truncatedBytes
+          case Failure(e: ExecutionException) => throw e.getCause
+          case Failure(e) => throw e
+        }
+      }
+
+      val unflushed = unflushedSegments.zipWithIndex.iterator
       while (unflushed.hasNext) {
-        val segment = unflushed.next
+        val (segment, index) = unflushed.next
         info("Recovering unflushed segment %d in log %s.".format(segment.baseOffset, name))
-        val truncatedBytes =
-          try {
-            recoverSegment(segment, Some(_leaderEpochCache))
-          } catch {
-            case _: InvalidOffsetException =>
-              val startOffset = segment.baseOffset
-              warn("Found invalid offset during recovery for log " + dir.getName + ". Deleting the corrupt segment and " +
-                "creating an empty one with starting offset " + startOffset)
-              segment.truncateTo(startOffset)
-          }
+        val truncatedBytes = rebuiltIndexes match {
+          case Some(truncated) =>
+            recoverSegmentState(segment, Some(_leaderEpochCache))
+            truncated(index)
+          case None =>
+            val segmentBytes = segment.size
+            val truncated = handleInvalidOffset(segment)(recoverSegment(segment, Some(_leaderEpochCache)))
+            recoveryProgress.foreach(_.recordRecovered(segmentBytes))
+            truncated
+        }
         if (truncatedBytes > 0) {
           // we had an invalid message, delete all remaining log
           warn("Corruption found in segment %d of log %s, truncating to offset %d.".format(segment.baseOffset, name,
             segment.nextOffset()))
-          unflushed.foreach(deleteSegment)
+          unflushed.foreach { case (remaining, _) => deleteSegment(remaining) }
         }
       }
     }
@@ -476,7 +530,23 @@ class Log(@volatile var dir: File,
     recoveryPoint
   }
 
-  private def loadProducerState(lastOffset: Long, reloadFromCleanShutdown: Boolean): Unit = lock synchronized {
+  /**
+   * Run the given recovery of a segment, deleting the content of the segment if it turns out to contain an invalid
+   * offset, and return the number of bytes truncated from the segment.
+   */
+  private def handleInvalidOffset(segment: LogSegment)(recover: => Int): Int = {
+    try {
+      recover
+    } catch {
+      case _: InvalidOffsetException =>
+        val startOffset = segment.baseOffset
+        warn("Found invalid offset during recovery for log " + dir.getName + ". Deleting the corrupt segment and " +
+          "creating an empty one with starting offset " + startOffset)
+        segment.truncateTo(startOffset)
+    }
+  }
+
+  private def loadProducerState(lastOffset: Long, reloadFromCleanShutdown: Boolean): Unit = inWriteLock(lock) {
     checkIfMemoryMappedBufferClosed()
     val messageFormatVersion = config.messageFormatVersion.messageFormatVersion
     info(s"Loading producer state from offset $lastOffset for partition $topicPartition with message " +
@@ -545,7 +615,7 @@ class Log(@volatile var dir: File,
     completedTxns.foreach(producerStateManager.completeTxn)
   }
 
-  private[log] def activeProducersWithLastSequence: Map[Long, Int] = lock synchronized {
+  private[log] def activeProducersWithLastSequence: Map[Long, Int] = inReadLock(lock) {
     producerStateManager.activeProducers.map { case (producerId, producerIdEntry) =>
       (producerId, producerIdEntry.lastSeq)
     }
@@ -568,7 +638,7 @@ class Log(@volatile var dir: File,
    */
   def close() {
     debug(s"Closing log $name")
-    lock synchronized {
+    inWriteLock(lock) {
       checkIfMemoryMappedBufferClosed()
       maybeHandleIOException(s"Error while renaming dir for $topicPartition in dir ${dir.getParent}") {
         // We take a snapshot at the last written offset to hopefully avoid the need to scan the log
@@ -586,7 +656,7 @@ class Log(@volatile var dir: File,
     * @throws KafkaStorageException if rename fails
     */
   def renameDir(name: String) {
-    lock synchronized {
+    inWriteLock(lock) {
       maybeHandleIOException(s"Error while renaming dir for $topicPartition in log dir ${dir.getParent}") {
         val renamedDir = new File(dir.getParent, name)
         Utils.atomicMoveWithFallback(dir.toPath, renamedDir.toPath)
@@ -607,7 +677,7 @@ class Log(@volatile var dir: File,
    */
   def closeHandlers() {
     debug(s"Closing handlers of log $name")
-    lock synchronized {
+    inWriteLock(lock) {
       logSegments.foreach(_.closeHandlers())
       isMemoryMappedBufferClosed = true
     }
@@ -661,7 +731,7 @@ class Log(@volatile var dir: File,
       var validRecords = trimInvalidBytes(records, appendInfo)
 
       // they are valid, insert them in the log
-      lock synchronized {
+      inWriteLock(lock) {
         checkIfMemoryMappedBufferClosed()
         if (assignOffsets) {
           // assign offsets to the message set
@@ -777,8 +847,15 @@ class Log(@volatile var dir: File,
         trace("Appended message set to log %s with first offset: %d, next offset: %d, and messages: %s"
           .format(this.name, appendInfo.firstOffset, nextOffsetMetadata.messageOffset, validRecords))
 
-        if (unflushedMessages >= config.flushInterval)
-          flush()
+        if (unflushedMessages >= config.flushInterval) {
+          groupCommitFlusher match {
+            case Some(flusher) if assignOffsets =>
+              groupCommitOffset = logEndOffset
+              flusher.requestFlush(this)
+            case _ =>
+              flush()
+          }
+        }
 
         appendInfo
       }
@@ -786,14 +863,14 @@ class Log(@volatile var dir: File,
   }
 
   def onHighWatermarkIncremented(highWatermark: Long): Unit = {
-    lock synchronized {
+    inWriteLock(lock) {
       replicaHighWatermark = Some(highWatermark)
       producerStateManager.onHighWatermarkUpdated(highWatermark)
       updateFirstUnstableOffset()
     }
   }
 
-  private def updateFirstUnstableOffset(): Unit = lock synchronized {
+  private def updateFirstUnstableOffset(): Unit = inWriteLock(lock) {
     checkIfMemoryMappedBufferClosed()
     val updatedFirstStableOffset = producerStateManager.firstUnstableOffset match {
       case Some(logOffsetMetadata) if logOffsetMetadata.messageOffsetOnly || logOffsetMetadata.messageOffset < logStartOffset =>
@@ -818,7 +895,7 @@ class Log(@volatile var dir: File,
     // The deleteRecordsOffset may be lost only if all in-sync replicas of this broker are shutdown
     // in an unclean manner within log.flush.start.offset.checkpoint.interval.ms. The chance of this happening is low.
     maybeHandleIOException(s"Exception while increasing log start offset for $topicPartition to $newLogStartOffset in dir ${dir.getParent}") {
-      lock synchronized {
+      inWriteLock(lock) {
         checkIfMemoryMappedBufferClosed()
         if (newLogStartOffset > logStartOffset) {
           info(s"Incrementing log start offset of partition $topicPartition to $newLogStartOffset in dir ${dir.getParent}")
@@ -1159,7 +1236,7 @@ class Log(@volatile var dir: File,
    * @return The number of segments deleted
    */
   private def deleteOldSegments(predicate: (LogSegment, Option[LogSegment]) => Boolean, reason: String): Int = {
-    lock synchronized {
+    inWriteLock(lock) {
       val deletable = deletableSegments(predicate)
       if (deletable.nonEmpty)
         info(s"Found deletable segments with base offsets [${deletable.map(_.baseOffset).mkString(",")}] due to $reason")
@@ -1174,7 +1251,7 @@ class Log(@volatile var dir: File,
         // we must always have at least one segment, so if we are going to delete all the segments, create a new one first
         if (segments.size == numToDelete)
           roll()
-        lock synchronized {
+        inWriteLock(lock) {
           checkIfMemoryMappedBufferClosed()
           // remove the segments for lookups
           deletable.foreach(deleteSegment)
@@ -1326,7 +1403,7 @@ class Log(@volatile var dir: File,
   def roll(expectedNextOffset: Long = 0): LogSegment = {
     maybeHandleIOException(s"Error while rolling log segment for $topicPartition in dir ${dir.getParent}") {
       val start = time.nanoseconds
-      lock synchronized {
+      inWriteLock(lock) {
         checkIfMemoryMappedBufferClosed()
         val newOffset = math.max(expectedNextOffset, logEndOffset)
         val logFile = Log.logFile(dir, newOffset)
@@ -1389,6 +1466,29 @@ class Log(@volatile var dir: File,
    */
   def flush(): Unit = flush(this.logEndOffset)
 
+  /**
+   * Check whether the messages up to the given offset (exclusive) have been handed to the group commit flusher and are
+   * not flushed yet. Produce requests are only acknowledged once the flush completes.
+   */
+  def isFlushPending(offset: Long): Boolean = offset <= groupCommitOffset && offset > recoveryPoint
+
+  /**
+   * Check whether the messages up to the given offset (exclusive) were waiting for a group commit flush which failed,
+   * in which case the produce requests which appended them must fail rather than wait. Messages appended after the
+   * failed flush wait for the next flush.
+   */
+  def isFlushFailed(offset: Long): Boolean = offset <= groupCommitFailedOffset && isFlushPending(offset)
+
+  /**
+   * Mark the flush of the group commit flusher up to the given offset (exclusive) as failed, until a later flush
+   * of these messages succeeds
+   */
+  private[log] def markGroupCommitFailed(offset: Long): Unit = {
+    inWriteLock(lock) {
+      groupCommitFailedOffset = math.max(offset, groupCommitFailedOffset)
+    }
+  }
+
   /**
    * Flush log segments for all offsets up to offset-1
    *
@@ -1403,12 +1503,14 @@ class Log(@volatile var dir: File,
       for (segment <- logSegments(this.recoveryPoint, offset))
         segment.flush()
 
-      lock synchronized {
+      inWriteLock(lock) {
         checkIfMemoryMappedBufferClosed()
         if (offset > this.recoveryPoint) {
           this.recoveryPoint = offset
           lastFlushedTime.set(time.milliseconds)
         }
+        if (offset >= groupCommitFailedOffset)
+          groupCommitFailedOffset = -1L
       }
     }
   }
@@ -1438,7 +1540,7 @@ class Log(@volatile var dir: File,
 
   // Visible for testing, see `deleteSnapshotsAfterRecoveryPointCheckpoint()` for details
   private[log] def minSnapshotsOffsetToRetain: Long = {
-    lock synchronized {
+    inReadLock(lock) {
       val twoSegmentsMinOffset = lowerSegment(activeSegment.baseOffset).getOrElse(activeSegment).baseOffset
       // Prefer segment base offset
       val recoveryPointOffset = lowerSegment(recoveryPoint).map(_.baseOffset).getOrElse(recoveryPoint)
@@ -1454,7 +1556,7 @@ class Log(@volatile var dir: File,
    */
   private[log] def delete() {
     maybeHandleIOException(s"Error while deleting log for $topicPartition in dir ${dir.getParent}") {
-      lock synchronized {
+      inWriteLock(lock) {
         checkIfMemoryMappedBufferClosed()
         removeLogMetrics()
         logSegments.foreach(_.delete())
@@ -1468,23 +1570,23 @@ class Log(@volatile var dir: File,
   }
 
   // visible for testing
-  private[log] def takeProducerSnapshot(): Unit = lock synchronized {
+  private[log] def takeProducerSnapshot(): Unit = inWriteLock(lock) {
     checkIfMemoryMappedBufferClosed()
     producerStateManager.takeSnapshot()
   }
 
   // visible for testing
-  private[log] def latestProducerSnapshotOffset: Option[Long] = lock synchronized {
+  private[log] def latestProducerSnapshotOffset: Option[Long] = inReadLock(lock) {
     producerStateManager.latestSnapshotOffset
   }
 
   // visible for testing
-  private[log] def oldestProducerSnapshotOffset: Option[Long] = lock synchronized {
+  private[log] def oldestProducerSnapshotOffset: Option[Long] = inReadLock(lock) {
     producerStateManager.oldestSnapshotOffset
   }
 
   // visible for testing
-  private[log] def latestProducerStateEndOffset: Long = lock synchronized {
+  private[log] def latestProducerStateEndOffset: Long = inReadLock(lock) {
     producerStateManager.mapEndOffset
   }
 
@@ -1503,7 +1605,7 @@ class Log(@volatile var dir: File,
         false
       } else {
         info("Truncating log %s to offset %d.".format(name, targetOffset))
-        lock synchronized {
+        inWriteLock(lock) {
           checkIfMemoryMappedBufferClosed()
           if (segments.firstEntry.getValue.baseOffset > targetOffset) {
             truncateFullyAndStartAt(targetOffset)
@@ -1513,6 +1615,7 @@ class Log(@volatile var dir: File,
             activeSegment.truncateTo(targetOffset)
             updateLogEndOffset(targetOffset)
             this.recoveryPoint = math.min(targetOffset, this.recoveryPoint)
+            this.groupCommitOffset = math.min(targetOffset, this.groupCommitOffset)
             this.logStartOffset = math.min(targetOffset, this.logStartOffset)
             _leaderEpochCache.clearAndFlushLatest(targetOffset)
             loadProducerState(targetOffset, reloadFromCleanShutdown = false)
@@ -1531,7 +1634,7 @@ class Log(@volatile var dir: File,
   private[log] def truncateFullyAndStartAt(newOffset: Long) {
     maybeHandleIOException(s"Error while truncating the entire log for $topicPartition in dir ${dir.getParent}") {
       debug(s"Truncate and start log '$name' at offset $newOffset")
-      lock synchronized {
+      inWriteLock(lock) {
         checkIfMemoryMappedBufferClosed()
         val segmentsToDelete = logSegments.toList
         segmentsToDelete.foreach(deleteSegment)
@@ -1552,6 +1655,7 @@ class Log(@volatile var dir: File,
         updateFirstUnstableOffset()
 
         this.recoveryPoint = math.min(newOffset, this.recoveryPoint)
+        this.groupCommitOffset = math.min(newOffset, this.groupCommitOffset)
         this.logStartOffset = newOffset
       }
     }
@@ -1577,13 +1681,14 @@ class Log(@volatile var dir: File,
    * that includes up to "to-1" or the end of the log (if to > logEndOffset)
    */
   def logSegments(from: Long, to: Long): Iterable[LogSegment] = {
-    lock synchronized {
-      val floor = segments.floorKey(from)
-      if (floor eq null)
-        segments.headMap(to).values.asScala
-      else
-        segments.subMap(floor, true, to, false).values.asScala
-    }
+    // The segments map is concurrent and its views are weakly consistent, so a segment removed between the lookup of the
+    // floor key and the creation of the view is simply not part of it, just like a segment removed after the view is
+    // created. No lock is needed, which keeps the cleaner and the flusher from waiting on appends.
+    val floor = segments.floorKey(from)
+    if (floor eq null)
+      segments.headMap(to).values.asScala
+    else
+      segments.subMap(floor, true, to, false).values.asScala
   }
 
   override def toString = "Log(" + dir + ")"
@@ -1605,7 +1710,7 @@ class Log(@volatile var dir: File,
    */
   private def deleteSegment(segment: LogSegment) {
     info("Scheduling log segment %d for log %s for deletion.".format(segment.baseOffset, name))
-    lock synchronized {
+    inWriteLock(lock) {
       segments.remove(segment.baseOffset)
       asyncDeleteSegment(segment)
     }
@@ -1658,7 +1763,7 @@ class Log(@volatile var dir: File,
    * @param isRecoveredSwapFile true if the new segment was created from a swap file during recovery after a crash
    */
   private[log] def replaceSegments(newSegment: LogSegment, oldSegments: Seq[LogSegment], isRecoveredSwapFile: Boolean = false) {
-    lock synchronized {
+    inWriteLock(lock) {
       checkIfMemoryMappedBufferClosed()
       // need to do this in two phases to be crash safe AND do the delete asynchronously
       // if we crash in the middle of this we complete the swap in loadSegments()
@@ -1763,11 +1868,15 @@ object Log {
             time: Time = Time.SYSTEM,
             maxProducerIdExpirationMs: Int,
             producerIdExpirationCheckIntervalMs: Int,
-            logDirFailureChannel: LogDirFailureChannel): Log = {
+            logDirFailureChannel: LogDirFailureChannel,
+            segmentRecoveryPool: Option[ExecutorService] = None,
+            recoveryProgress: Option[LogRecoveryProgress] = None,
+            groupCommitFlusher: Option[GroupCommitFlusher] = None): Log = {
     val topicPartition = Log.parseTopicPartitionName(dir)
     val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs)
     new Log(dir, config, logStartOffset, recoveryPoint, scheduler, brokerTopicStats, time, maxProducerIdExpirationMs,
-      producerIdExpirationCheckIntervalMs, topicPartition, producerStateManager, logDirFailureChannel)
+      producerIdExpirationCheckIntervalMs, topicPartition, producerStateManager, logDirFailureChannel,
+      segmentRecoveryPool, recoveryProgress, groupCommitFlusher)
   }
 
   /**
@@ -126,6 +126,16 @@ class LogCleaner(val config: CleanerConfig,
            new Gauge[Int] {
              def value: Int = cleaners.map(_.lastStats).map(_.elapsedSecs).max.toInt
            })
+  /* a metric to track the combined rate at which the cleaner threads processed the log in their last cleaning */
+  newGauge("cleaner-throughput-bytes-per-sec",
+           new Gauge[Long] {
+             def value: Long = cleaners.map(_.lastStats).map(_.throughputBytesPerSec).sum.toLong
+           })
+  /* a metric to track the maximum collision rate of any thread's offset map in the last cleaning */
+  newGauge("max-offset-map-collision-rate-percent",
+           new Gauge[Int] {
+             def value: Int = cleaners.map(_.lastStats).map(100 * _.offsetMapCollisionRate).max.toInt
+           })
 
   /**
    * Start the background cleaning
@@ -222,8 +232,9 @@ class LogCleaner(val config: CleanerConfig,
       warn("Cannot use more than 2G of cleaner buffer space per cleaner thread, ignoring excess buffer space...")
 
     val cleaner = new Cleaner(id = threadId,
-                              offsetMap = new SkimpyOffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
-                                                              hashAlgorithm = config.hashAlgorithm),
+                              offsetMap = OffsetMap(config.offsetMapType,
+                                                    memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
+                                                    hashAlgorithm = config.hashAlgorithm),
                               ioBufferSize = config.ioBufferSize / config.numThreads / 2,
                               maxIoBufferSize = config.maxMessageSize,
                               dupBufferLoadFactor = config.dedupeBufferLoadFactor,
@@ -251,6 +262,8 @@ class LogCleaner(val config: CleanerConfig,
     	 initiateShutdown()
     	 backOffWaitLatch.countDown()
     	 awaitShutdown()
+    	 // the thread has stopped cleaning, so the memory of its offset map can be released
+    	 cleaner.close()
      }
 
     /**
@@ -306,7 +319,8 @@ class LogCleaner(val config: CleanerConfig,
                                                                                            stats.elapsedIndexSecs,
                                                                                            mb(stats.mapBytesRead)/stats.elapsedIndexSecs,
                                                                                            100 * stats.elapsedIndexSecs/stats.elapsedSecs) +
-        "\tBuffer utilization: %.1f%%%n".format(100 * stats.bufferUtilization) +
+        "\tBuffer utilization: %.1f%%, collision rate: %.1f%%%n".format(100 * stats.bufferUtilization,
+                                                                          100 * stats.offsetMapCollisionRate) +
         "\tCleaned %,.1f MB in %.1f seconds (%,.1f Mb/sec, %.1f%% of total time)%n".format(mb(stats.bytesRead),
                                                                                            stats.elapsedSecs - stats.elapsedIndexSecs,
                                                                                            mb(stats.bytesRead)/(stats.elapsedSecs - stats.elapsedIndexSecs), 100 * (stats.elapsedSecs - stats.elapsedIndexSecs).toDouble/stats.elapsedSecs) +
@@ -357,6 +371,13 @@ private[log] class Cleaner(val id: Int,
 
   require(offsetMap.slots * dupBufferLoadFactor > 1, "offset map is too small to fit in even a single message, so log cleaning will never make progress. You can increase log.cleaner.dedupe.buffer.size or decrease log.cleaner.threads")
 
+  /**
+   * Release the memory of the offset map. The cleaner must not be used any more afterwards.
+   */
+  def close(): Unit = {
+    offsetMap.close()
+  }
+
   /**
    * Clean the given log
    *
@@ -401,6 +422,7 @@ private[log] class Cleaner(val id: Int,
 
     // record buffer utilization
     stats.bufferUtilization = offsetMap.utilization
+    stats.offsetMapCollisionRate = offsetMap.collisionRate
 
     stats.allDone()
 
@@ -437,8 +459,8 @@ private[log] class Cleaner(val id: Int,
 
     val startOffset = firstSegment.baseOffset
     val records = FileRecords.open(logFile, false, log.initFileSize, log.config.preallocate)
-    val index = new OffsetIndex(indexFile, startOffset, firstSegment.index.maxIndexSize)
-    val timeIndex = new TimeIndex(timeIndexFile, startOffset, firstSegment.timeIndex.maxIndexSize)
+    val index = new OffsetIndex(indexFile, startOffset, firstSegment.index.maxIndexSize, time = time)
+    val timeIndex = new TimeIndex(timeIndexFile, startOffset, firstSegment.timeIndex.maxIndexSize, time = time)
     val txnIndex = new TransactionIndex(startOffset, txnIndexFile)
     val cleaned = new LogSegment(records, index, timeIndex, txnIndex, startOffset, firstSegment.indexIntervalBytes,
       log.config.randomSegmentJitter, time)
@@ -771,7 +793,7 @@ private[log] class Cleaner(val id: Int,
           } else {
             for (record <- batch.asScala) {
               if (record.hasKey && record.offset >= startOffset) {
-                if (map.size < maxDesiredMapSize)
+                if (map.size < maxDesiredMapSize && map.canStore(record.offset))
                   map.put(record.key, record.offset)
                 else
                   return true
@@ -812,6 +834,7 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
   var invalidMessagesRead = 0L
   var messagesWritten = 0L
   var bufferUtilization = 0.0d
+  var offsetMapCollisionRate = 0.0d
 
   def readMessages(messagesRead: Int, bytesRead: Int) {
     this.messagesRead += messagesRead
@@ -847,6 +870,8 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
 
   def elapsedIndexSecs = (mapCompleteTime - startTime)/1000.0
 
+  def throughputBytesPerSec: Double = if (endTime > startTime) bytesRead / elapsedSecs else 0.0
+
 }
 
 /**
@@ -53,10 +53,14 @@ class LogManager(logDirs: Seq[File],
                  val defaultConfig: LogConfig,
                  val cleanerConfig: CleanerConfig,
                  ioThreads: Int,
+                 segmentRecoveryThreads: Int,
                  val flushCheckMs: Long,
                  val flushRecoveryOffsetCheckpointMs: Long,
                  val flushStartOffsetCheckpointMs: Long,
                  val retentionCheckMs: Long,
+                 val indexUnmapIdleMs: Long,
+                 val indexUnmapMaxMapped: Int,
+                 groupCommitEnabled: Boolean,
                  val maxPidExpirationMs: Int,
                  scheduler: Scheduler,
                  val brokerState: BrokerState,
@@ -100,6 +104,39 @@ class LogManager(logDirs: Seq[File],
     logDirsSet
   }
 
+  /* the flushers which coalesce the flushes requested by concurrent appends, one per log directory. The log directories
+   * are fixed for the lifetime of the log manager, a directory which goes offline keeps its flusher and the flushes of
+   * its logs fail the waiting produce requests. A log without a flusher for its directory is flushed inline. */
+  private val groupCommitFlushers: Map[String, GroupCommitFlusher] =
+    if (groupCommitEnabled)
+      liveLogDirs.map(dir => dir.getAbsolutePath -> new GroupCommitFlusher(dir)).toMap
+    else
+      Map.empty
+
+  /* the progress of the recovery of the logs at startup, exported as metrics while the logs are being loaded */
+  private val recoveryProgress = new LogRecoveryProgress(time)
+
+  newGauge(
+    "RemainingBytesToRecover",
+    new Gauge[Long] {
+      def value = recoveryProgress.remainingBytes
+    }
+  )
+
+  newGauge(
+    "RecoveryBytesPerSec",
+    new Gauge[Long] {
+      def value = recoveryProgress.bytesPerSec.toLong
+    }
+  )
+
+  newGauge(
+    "RecoveryEstimatedTimeRemainingMs",
+    new Gauge[Long] {
+      def value = recoveryProgress.estimatedTimeRemainingMs
+    }
+  )
+
   loadLogs()
 
   // public, so we can access this from kafka.admin.DeleteTopicTest
@@ -229,7 +266,8 @@ class LogManager(logDirs: Seq[File],
     }
   }
 
-  private def loadLog(logDir: File, recoveryPoints: Map[TopicPartition, Long], logStartOffsets: Map[TopicPartition, Long]): Unit = {
+  private def loadLog(logDir: File, recoveryPoints: Map[TopicPartition, Long], logStartOffsets: Map[TopicPartition, Long],
+                      segmentRecoveryPool: Option[ExecutorService]): Unit = {
     debug("Loading log '" + logDir.getName + "'")
     val topicPartition = Log.parseTopicPartitionName(logDir)
     val config = topicConfigs.getOrElse(topicPartition.topic, defaultConfig)
@@ -246,7 +284,10 @@ class LogManager(logDirs: Seq[File],
       scheduler = scheduler,
       time = time,
       brokerTopicStats = brokerTopicStats,
-      logDirFailureChannel = logDirFailureChannel)
+      logDirFailureChannel = logDirFailureChannel,
+      segmentRecoveryPool = segmentRecoveryPool,
+      recoveryProgress = Some(recoveryProgress),
+      groupCommitFlusher = groupCommitFlushers.get(logDir.getParentFile.getAbsolutePath))
 
     if (logDir.getName.endsWith(Log.DeleteDirSuffix)) {
       this.logsToBeDeleted.add(log)
@@ -278,6 +319,12 @@ class LogManager(logDirs: Seq[File],
     val threadPools = ArrayBuffer.empty[ExecutorService]
     val offlineDirs = mutable.Set.empty[(String, IOException)]
     val jobs = mutable.Map.empty[File, Seq[Future[_]]]
+    // a pool shared by all the data directories for recovering the segments of each log concurrently
+    val segmentRecoveryPool =
+      if (segmentRecoveryThreads > 0) Some(Executors.newWorkStealingPool(segmentRecoveryThreads))
+      else None
+    segmentRecoveryPool.foreach(threadPools.append(_))
+    recoveryProgress.start()
 
     for (dir <- liveLogDirs) {
       try {
@@ -285,6 +332,7 @@ class LogManager(logDirs: Seq[File],
         threadPools.append(pool)
 
         val cleanShutdownFile = new File(dir, Log.CleanShutdownFile)
+        val needsRecovery = !cleanShutdownFile.exists
 
         if (cleanShutdownFile.exists) {
           debug(s"Found clean shutdown file. Skipping recovery for all logs in data directory: ${dir.getAbsolutePath}")
@@ -314,9 +362,11 @@ class LogManager(logDirs: Seq[File],
           dirContent <- Option(dir.listFiles).toList
           logDir <- dirContent if logDir.isDirectory
         } yield {
+          if (needsRecovery)
+            recoveryProgress.addBytesToRecover(bytesToRecover(logDir, recoveryPoints))
           CoreUtils.runnable {
             try {
-              loadLog(logDir, recoveryPoints, logStartOffsets)
+              loadLog(logDir, recoveryPoints, logStartOffsets, segmentRecoveryPool)
             } catch {
               case e: IOException =>
                 offlineDirs.add((dir.getAbsolutePath, e))
@@ -353,11 +403,35 @@ class LogManager(logDirs: Seq[File],
         throw e.getCause
     } finally {
       threadPools.foreach(_.shutdown())
+      recoveryProgress.complete()
     }
 
     info(s"Logs loading complete in ${time.milliseconds - startMs} ms.")
   }
 
+  /**
+   * Estimate the number of bytes to recover for the given log directory after an unclean shutdown, that is the size of
+   * the segments containing offsets at or beyond the recovery point
+   */
+  private def bytesToRecover(logDir: File, recoveryPoints: Map[TopicPartition, Long]): Long = {
+    if (logDir.getName.endsWith(Log.DeleteDirSuffix))
+      0L
+    else {
+      try {
+        val recoveryPoint = recoveryPoints.getOrElse(Log.parseTopicPartitionName(logDir), 0L)
+        val segments = Option(logDir.listFiles).toSeq.flatten
+          .filter(file => file.isFile && file.getName.endsWith(Log.LogFileSuffix))
+          .map(file => (Log.offsetFromFile(file), file.length))
+          .sortBy { case (baseOffset, _) => baseOffset }
+        val firstToRecover = math.max(0, segments.lastIndexWhere { case (baseOffset, _) => baseOffset <= recoveryPoint })
+        segments.drop(firstToRecover).map { case (_, size) => size }.sum
+      } catch {
+        // the log itself reports invalid directories when it is loaded
+        case _: KafkaException => 0L
+      }
+    }
+  }
+
   /**
    *  Start the background threads to flush logs and do log cleanup
    */
@@ -391,9 +465,26 @@ class LogManager(logDirs: Seq[File],
                          delay = InitialTaskDelayMs,
                          period = defaultConfig.fileDeleteDelayMs,
                          TimeUnit.MILLISECONDS)
+      if (indexUnmapIdleMs < Long.MaxValue) {
+        info("Starting index unmapper with an idle time of %d ms.".format(indexUnmapIdleMs))
+        scheduler.schedule("kafka-index-unmapper",
+                           unmapIdleIndexes _,
+                           delay = InitialTaskDelayMs,
+                           period = indexUnmapIdleMs,
+                           TimeUnit.MILLISECONDS)
+      }
     }
     if (cleanerConfig.enableCleaner)
       cleaner.startup()
+    groupCommitFlushers.values.foreach(_.start())
+  }
+
+  /**
+   * Set the function to call with the partition of each log flushed by group commit, which completes the produce
+   * requests waiting for the flush
+   */
+  def setGroupCommitListener(listener: TopicPartition => Unit): Unit = {
+    groupCommitFlushers.values.foreach(_.setListener(listener))
   }
 
   /**
@@ -402,7 +493,13 @@ class LogManager(logDirs: Seq[File],
   def shutdown() {
     info("Shutting down.")
 
+    // the logs are flushed when they are closed below
+    groupCommitFlushers.values.foreach(_.shutdown())
+
     removeMetric("OfflineLogDirectoryCount")
+    removeMetric("RemainingBytesToRecover")
+    removeMetric("RecoveryBytesPerSec")
+    removeMetric("RecoveryEstimatedTimeRemainingMs")
     for (dir <- logDirs) {
       removeMetric("LogDirectoryOffline", Map("logDirectory" -> dir.getAbsolutePath))
     }
@@ -665,7 +762,8 @@ class LogManager(logDirs: Seq[File],
             scheduler = scheduler,
             time = time,
             brokerTopicStats = brokerTopicStats,
-            logDirFailureChannel = logDirFailureChannel)
+            logDirFailureChannel = logDirFailureChannel,
+            groupCommitFlusher = groupCommitFlushers.get(new File(logDir).getAbsolutePath))
 
           if (isFuture)
             futureLogs.put(topicPartition, log)
@@ -874,6 +972,39 @@ class LogManager(logDirs: Seq[File],
       }
     }
   }
+
+  /**
+   * Release the memory mapping of the offset and time indexes which have not been accessed for at least
+   * indexUnmapIdleMs, least recently used first, until at most indexUnmapMaxMapped indexes are mapped. The indexes
+   * are mapped again on their next access.
+   */
+  def unmapIdleIndexes(): Unit = {
+    val now = time.milliseconds
+    val mappedIndexes = for {
+      log <- allLogs
+      segment <- log.logSegments
+      index <- Seq(segment.index, segment.timeIndex)
+      if index.isMapped
+    } yield index
+
+    var mapped = mappedIndexes.size
+    var unmapped = 0
+    val idleIndexes = mappedIndexes.filter(now - _.lastAccessTimeMs >= indexUnmapIdleMs).toSeq.sortBy(_.lastAccessTimeMs)
+    val iterator = idleIndexes.iterator
+    while (mapped > indexUnmapMaxMapped && iterator.hasNext) {
+      val index = iterator.next()
+      try {
+        if (index.unmapIfIdle(now, indexUnmapIdleMs)) {
+          mapped -= 1
+          unmapped += 1
+        }
+      } catch {
+        case e: Throwable =>
+          error(s"Error unmapping index ${index.file.getAbsolutePath}", e)
+      }
+    }
+    debug(s"Unmapped $unmapped indexes which were idle for at least $indexUnmapIdleMs ms, $mapped indexes are mapped")
+  }
 }
 
 object LogManager {
@@ -904,7 +1035,8 @@ object LogManager {
       maxMessageSize = config.messageMaxBytes,
       maxIoBytesPerSecond = config.logCleanerIoMaxBytesPerSecond,
       backOffMs = config.logCleanerBackoffMs,
-      enableCleaner = config.logCleanerEnable)
+      enableCleaner = config.logCleanerEnable,
+      offsetMapType = config.logCleanerDedupeMapType)
 
     new LogManager(logDirs = config.logDirs.map(new File(_).getAbsoluteFile),
       initialOfflineDirs = initialOfflineDirs.map(new File(_).getAbsoluteFile),
@@ -912,10 +1044,14 @@ object LogManager {
       defaultConfig = defaultLogConfig,
       cleanerConfig = cleanerConfig,
       ioThreads = config.numRecoveryThreadsPerDataDir,
+      segmentRecoveryThreads = config.numSegmentRecoveryThreads,
       flushCheckMs = config.logFlushSchedulerIntervalMs,
       flushRecoveryOffsetCheckpointMs = config.logFlushOffsetCheckpointIntervalMs,
       flushStartOffsetCheckpointMs = config.logFlushStartOffsetCheckpointIntervalMs,
       retentionCheckMs = config.logCleanupIntervalMs,
+      indexUnmapIdleMs = config.logIndexUnmapIdleMs,
+      indexUnmapMaxMapped = config.logIndexUnmapMaxMapped,
+      groupCommitEnabled = config.logFlushGroupCommitEnable,
       maxPidExpirationMs = config.transactionIdExpirationMs,
       scheduler = kafkaScheduler,
       brokerState = brokerState,
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.util.concurrent.atomic.AtomicLong
+
+import kafka.utils.threadsafe
+import org.apache.kafka.common.utils.Time
+
+/**
+ * Tracks the progress of the recovery of the logs after an unclean shutdown. The number of bytes to recover is
+ * estimated up front from the sizes of the segments at or beyond the recovery point of each log, while the number of
+ * recovered bytes is updated by the logs as they finish recovering each segment.
+ */
+@threadsafe
+class LogRecoveryProgress(time: Time) {
+  private val bytesToRecover = new AtomicLong(0L)
+  private val recoveredBytes = new AtomicLong(0L)
+  @volatile private var startMs = -1L
+  @volatile private var endMs = -1L
+
+  def start(): Unit = {
+    startMs = time.milliseconds
+  }
+
+  /**
+   * Mark the recovery as complete. Any remaining estimated bytes, for example of segments which were deleted because
+   * of an earlier corruption, are discarded.
+   */
+  def complete(): Unit = {
+    endMs = time.milliseconds
+    bytesToRecover.set(recoveredBytes.get)
+  }
+
+  def addBytesToRecover(bytes: Long): Unit = bytesToRecover.addAndGet(bytes)
+
+  def recordRecovered(bytes: Long): Unit = recoveredBytes.addAndGet(bytes)
+
+  def remainingBytes: Long = math.max(0L, bytesToRecover.get - recoveredBytes.get)
+
+  def bytesPerSec: Double = {
+    if (startMs < 0)
+      0.0
+    else {
+      val elapsedMs = (if (endMs >= 0) endMs else time.milliseconds) - startMs
+      if (elapsedMs <= 0) 0.0 else recoveredBytes.get * 1000.0 / elapsedMs
+    }
+  }
+
+  /**
+   * The estimated time until the recovery completes at the current rate, or -1 if no bytes have been recovered yet
+   */
+  def estimatedTimeRemainingMs: Long = {
+    val remaining = remainingBytes
+    val rate = bytesPerSec
+    if (remaining == 0)
+      0L
+    else if (rate <= 0)
+      -1L
+    else
+      (remaining * 1000 / rate).toLong
+  }
+}
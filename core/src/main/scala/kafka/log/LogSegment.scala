@@ -40,6 +40,10 @@ import scala.math._
  *
  * A segment with a base offset of [base_offset] would be stored in two files, a [base_offset].index and a [base_offset].log file.
  *
+ * Methods which modify the segment must be called while holding the write lock of the owning log. The read-only methods
+ * `read`, `findOffsetByTimestamp`, `largestTimestamp` and `size` only touch state which is safe to read concurrently
+ * with an append, so they can be called without any lock.
+ *
  * @param log The message set containing log entries
  * @param index The offset index
  * @param timeIndex The timestamp index
@@ -72,8 +76,8 @@ class LogSegment(val log: FileRecords,
   def this(dir: File, startOffset: Long, indexIntervalBytes: Int, maxIndexSize: Int, rollJitterMs: Long, time: Time,
            fileAlreadyExists: Boolean = false, initFileSize: Int = 0, preallocate: Boolean = false) =
     this(FileRecords.open(Log.logFile(dir, startOffset), fileAlreadyExists, initFileSize, preallocate),
-         new OffsetIndex(Log.offsetIndexFile(dir, startOffset), baseOffset = startOffset, maxIndexSize = maxIndexSize),
-         new TimeIndex(Log.timeIndexFile(dir, startOffset), baseOffset = startOffset, maxIndexSize = maxIndexSize),
+         new OffsetIndex(Log.offsetIndexFile(dir, startOffset), baseOffset = startOffset, maxIndexSize = maxIndexSize, time = time),
+         new TimeIndex(Log.timeIndexFile(dir, startOffset), baseOffset = startOffset, maxIndexSize = maxIndexSize, time = time),
          new TransactionIndex(startOffset, Log.transactionIndexFile(dir, startOffset)),
          startOffset,
          indexIntervalBytes,
@@ -249,7 +253,47 @@ class LogSegment(val log: FileRecords,
    * @return The number of bytes truncated from the log
    */
   @nonthreadsafe
-  def recover(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochCache] = None): Int = {
+  def recover(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochCache] = None): Int =
+    validateAndRebuildIndexes(batch => replayBatch(batch, producerStateManager, leaderEpochCache))
+
+  /**
+   * Run the first half of recovery on the given segment: validate the batches and rebuild the offset and time indexes
+   * from the log file, lopping off any invalid bytes from the end of the log and index. Unlike the producer state,
+   * this does not depend on the preceding segments, so it can be done concurrently for the segments of a log. It must
+   * be followed by a call to replay() to rebuild the transaction index.
+   *
+   * @return The number of bytes truncated from the log
+   */
+  @nonthreadsafe
+  def rebuildIndexes(): Int = validateAndRebuildIndexes(_ => ())
+
+  /**
+   * Run the second half of recovery on the given segment: update the producer state and the leader epoch cache from
+   * the batches of the segment and rebuild the transaction index. The batches must have been validated by
+   * rebuildIndexes() first.
+   *
+   * @param producerStateManager Producer state corresponding to the segment's base offset. This is needed to recover
+   *                             the transaction index.
+   * @param leaderEpochCache Optionally a cache for updating the leader epoch during recovery.
+   */
+  @nonthreadsafe
+  def replay(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochCache] = None): Unit = {
+    for (batch <- log.batches.asScala)
+      replayBatch(batch, producerStateManager, leaderEpochCache)
+  }
+
+  private def replayBatch(batch: RecordBatch, producerStateManager: ProducerStateManager,
+                          leaderEpochCache: Option[LeaderEpochCache]): Unit = {
+    if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
+      leaderEpochCache.foreach { cache =>
+        if (batch.partitionLeaderEpoch > cache.latestEpoch()) // this is to avoid unnecessary warning in cache.assign()
+          cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
+      }
+      updateProducerState(producerStateManager, batch)
+    }
+  }
+
+  private def validateAndRebuildIndexes(onValidBatch: RecordBatch => Unit): Int = {
     index.truncate()
     index.resize(index.maxIndexSize)
     timeIndex.truncate()
@@ -276,14 +320,7 @@ class LogSegment(val log: FileRecords,
           lastIndexEntry = validBytes
         }
         validBytes += batch.sizeInBytes()
-
-        if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
-          leaderEpochCache.foreach { cache =>
-            if (batch.partitionLeaderEpoch > cache.latestEpoch()) // this is to avoid unnecessary warning in cache.assign()
-              cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
-          }
-          updateProducerState(producerStateManager, batch)
-        }
+        onValidBatch(batch)
       }
     } catch {
       case e: CorruptRecordException =>
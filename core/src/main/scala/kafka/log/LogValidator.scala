@@ -19,9 +19,9 @@ package kafka.log
 import java.nio.ByteBuffer
 
 import kafka.common.LongRef
-import kafka.message.{CompressionCodec, NoCompressionCodec}
+import kafka.message.{CompressionCodec, NoCompressionCodec, ZStdCompressionCodec}
 import kafka.utils.Logging
-import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedForMessageFormatException}
+import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedCompressionTypeException, UnsupportedForMessageFormatException}
 import org.apache.kafka.common.record._
 import org.apache.kafka.common.utils.Time
 
@@ -234,6 +234,11 @@ private[kafka] object LogValidator extends Logging {
                                                  partitionLeaderEpoch: Int,
                                                  isFromClient: Boolean): ValidationAndOffsetAssignResult = {
 
+      // ZStandard is only defined for the v2 batch format, so we cannot write it to (or convert it into) older formats
+      if (targetCodec == ZStdCompressionCodec && toMagic < RecordBatch.MAGIC_VALUE_V2)
+        throw new UnsupportedCompressionTypeException("Produce requests with ZStandard compression require " +
+          s"message format v2 or later, but the topic is configured with message format v$toMagic")
+
       // No in place assignment situation 1 and 2
       var inPlaceAssignment = sourceCodec == targetCodec && toMagic > RecordBatch.MAGIC_VALUE_V0
 
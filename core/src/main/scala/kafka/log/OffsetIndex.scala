@@ -22,6 +22,7 @@ import java.nio.ByteBuffer
 
 import kafka.utils.CoreUtils.inLock
 import kafka.common.InvalidOffsetException
+import org.apache.kafka.common.utils.Time
 
 /**
  * An index that maps offsets to physical file locations for a particular log segment. This index may be sparse:
@@ -49,8 +50,8 @@ import kafka.common.InvalidOffsetException
  * storage format.
  */
 // Avoid shadowing mutable `file` in AbstractIndex
-class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable: Boolean = true)
-    extends AbstractIndex[Long, Int](_file, baseOffset, maxIndexSize, writable) {
+class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable: Boolean = true, time: Time = Time.SYSTEM)
+    extends AbstractIndex[Long, Int](_file, baseOffset, maxIndexSize, writable, time) {
 
   override def entrySize = 8
 
@@ -58,7 +59,7 @@ class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writabl
   private[this] var _lastOffset = lastEntry.offset
 
   debug("Loaded index file %s with maxEntries = %d, maxIndexSize = %d, entries = %d, lastOffset = %d, file position = %d"
-    .format(file.getAbsolutePath, maxEntries, maxIndexSize, _entries, _lastOffset, mmap.position()))
+    .format(file.getAbsolutePath, maxEntries, maxIndexSize, _entries, _lastOffset, sizeInBytes))
 
   /**
    * The last entry in the index
@@ -67,7 +68,7 @@ class OffsetIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writabl
     inLock(lock) {
       _entries match {
         case 0 => OffsetPosition(baseOffset, 0)
-        case s => parseEntry(mmap, s - 1).asInstanceOf[OffsetPosition]
+        case s => readEntry(s - 1).asInstanceOf[OffsetPosition]
       }
     }
   }
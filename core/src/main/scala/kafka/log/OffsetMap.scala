@@ -19,9 +19,10 @@ package kafka.log
 
 import java.util.Arrays
 import java.security.MessageDigest
-import java.nio.ByteBuffer
+import java.nio.{ByteBuffer, MappedByteBuffer}
 import kafka.utils._
-import org.apache.kafka.common.utils.Utils
+import net.jpountz.xxhash.XXHashFactory
+import org.apache.kafka.common.utils.{MappedByteBuffers, Utils}
 
 trait OffsetMap {
   def slots: Int
@@ -32,6 +33,25 @@ trait OffsetMap {
   def size: Int
   def utilization: Double = size.toDouble / slots
   def latestOffset: Long
+  /* the average number of extra probes per lookup since the last clear */
+  def collisionRate: Double
+  /* whether the map is able to store the given offset, in addition to having a free slot */
+  def canStore(offset: Long): Boolean = true
+  /* release the memory held outside of the heap, after which the map must not be used any more */
+  def close(): Unit = {}
+}
+
+object OffsetMap {
+  val Skimpy = "skimpy"
+  val OffHeap = "offheap"
+
+  val MapTypes = Seq(Skimpy, OffHeap)
+
+  def apply(mapType: String, memory: Int, hashAlgorithm: String): OffsetMap = mapType match {
+    case Skimpy => new SkimpyOffsetMap(memory, hashAlgorithm)
+    case OffHeap => new OffHeapOffsetMap(memory)
+    case _ => throw new IllegalArgumentException(s"Unknown offset map type $mapType, expected one of ${MapTypes.mkString(", ")}")
+  }
 }
 
 /**
@@ -160,7 +180,7 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   /**
    * The rate of collisions in the lookups
    */
-  def collisionRate: Double = 
+  override def collisionRate: Double = 
     (this.probes - this.lookups) / this.lookups.toDouble
 
   /**
@@ -199,3 +219,195 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   }
   
 }
+
+/**
+ * An open-addressed hash table used for deduplicating the log, stored in a direct buffer outside of the heap.
+ * Each slot holds two 64-bit XXHashes of the key computed with independent seeds as a proxy for the key and the
+ * offset of the key stored as an unsigned 32-bit delta from the first offset put into the map since the last clear.
+ * A slot takes 20 bytes rather than the 24 bytes of a SkimpyOffsetMap using MD5, so the same memory holds 1.2 times
+ * as many keys. The first hash places the key and collisions are resolved by linear probing. A probed slot matches if
+ * both hashes are equal. Like with SkimpyOffsetMap, the keys themselves are never compared, so distinct keys are
+ * confused if their 128-bit fingerprints are identical, which is as unlikely as for MD5 digests. This hash table does
+ * not support deletes.
+ * @param memory The amount of memory this map can use
+ */
+@nonthreadsafe
+class OffHeapOffsetMap(val memory: Int) extends OffsetMap {
+  import OffHeapOffsetMap._
+
+  /**
+   * The number of bytes of space each entry uses (two 8 byte hashes plus a 4 byte offset delta)
+   */
+  val bytesPerEntry = 2 * HashSize + 4
+
+  /**
+   * The maximum number of entries this map can contain
+   */
+  val slots: Int = memory / bytesPerEntry
+
+  /* only the memory taken by the slots is allocated, since it is outside of the heap */
+  private val bytes = ByteBuffer.allocateDirect(slots * bytesPerEntry)
+
+  private val hasher = XXHashFactory.fastestInstance.hash64
+
+  /* number of entries put into the map */
+  private var entries = 0
+
+  /* number of lookups on the map */
+  private var lookups = 0L
+
+  /* the number of probes for all lookups */
+  private var probes = 0L
+
+  /* the offset the stored offset deltas are relative to, -1 until the first put */
+  private var baseOffset = -1L
+
+  /* the latest offset written into the map */
+  private var lastOffset = -1L
+
+  /**
+   * Associate this offset to the given key.
+   * @param key The key
+   * @param offset The offset
+   */
+  override def put(key: ByteBuffer, offset: Long) {
+    require(entries < slots, "Attempt to add a new entry to a full offset map.")
+    require(canStore(offset), s"Offset $offset is out of the range of offsets supported by this offset map (base offset $baseOffset).")
+    if (baseOffset < 0)
+      baseOffset = offset
+    lookups += 1
+    val hash = hashOf(key)
+    val check = checkHashOf(key)
+    // probe until we find the slot holding both hashes of this key or the first empty slot
+    var slot = firstSlot(hash)
+    var pos = slot * bytesPerEntry
+    var stored = bytes.getLong(pos)
+    while (stored != EmptyHash && (stored != hash || bytes.getLong(pos + HashSize) != check)) {
+      slot = nextSlot(slot)
+      pos = slot * bytesPerEntry
+      stored = bytes.getLong(pos)
+    }
+    if (stored == EmptyHash) {
+      // found an empty slot, size grows by 1
+      bytes.putLong(pos, hash)
+      bytes.putLong(pos + HashSize, check)
+      entries += 1
+    }
+    bytes.putInt(pos + 2 * HashSize, (offset - baseOffset).toInt)
+    lastOffset = offset
+  }
+
+  /**
+   * Get the offset associated with this key.
+   * @param key The key
+   * @return The offset associated with this key or -1 if the key is not found
+   */
+  override def get(key: ByteBuffer): Long = {
+    lookups += 1
+    val hash = hashOf(key)
+    val check = checkHashOf(key)
+    // search for the hashes of this key by probing until we find the hashes we are looking for or we find an empty
+    // slot, visiting every slot at most once in case the map is full
+    var slot = firstSlot(hash)
+    var attempt = 0
+    while (attempt < slots) {
+      val pos = slot * bytesPerEntry
+      val stored = bytes.getLong(pos)
+      if (stored == EmptyHash)
+        return -1L
+      if (stored == hash && bytes.getLong(pos + HashSize) == check)
+        return baseOffset + (bytes.getInt(pos + 2 * HashSize) & 0xFFFFFFFFL)
+      slot = nextSlot(slot)
+      attempt += 1
+    }
+    -1L
+  }
+
+  /**
+   * Remove all the entries from the map.
+   */
+  override def clear() {
+    this.entries = 0
+    this.lookups = 0L
+    this.probes = 0L
+    this.baseOffset = -1L
+    this.lastOffset = -1L
+    var pos = 0
+    val end = slots * bytesPerEntry
+    while (pos < end) {
+      bytes.putLong(pos, EmptyHash)
+      pos += bytesPerEntry
+    }
+  }
+
+  /**
+   * The number of entries put into the map (note that not all may remain)
+   */
+  override def size: Int = entries
+
+  /**
+   * The rate of collisions in the lookups
+   */
+  override def collisionRate: Double =
+    (this.probes - this.lookups) / this.lookups.toDouble
+
+  /**
+   * Offsets are stored relative to the first offset put into the map, so only offsets within 2^32 of it fit
+   */
+  override def canStore(offset: Long): Boolean =
+    baseOffset < 0 || (offset >= baseOffset && offset - baseOffset <= MaxOffsetDelta)
+
+  /**
+   * The latest offset put into the map
+   */
+  override def latestOffset: Long = lastOffset
+
+  override def updateLatestOffset(offset: Long): Unit = {
+    lastOffset = offset
+  }
+
+  /**
+   * Free the direct buffer now rather than once it is garbage collected, which may take long since the map is not
+   * allocated often
+   */
+  override def close(): Unit = {
+    bytes match {
+      // direct buffers are mapped byte buffers, which can be unmapped the same way as memory mapped files
+      case buffer: MappedByteBuffer => MappedByteBuffers.unmap("log cleaner offset map", buffer)
+      case _ =>
+    }
+  }
+
+  private def firstSlot(hash: Long): Int = {
+    this.probes += 1
+    Utils.toPositive((hash ^ (hash >>> 32)).toInt) % slots
+  }
+
+  private def nextSlot(slot: Int): Int = {
+    this.probes += 1
+    if (slot + 1 == slots) 0 else slot + 1
+  }
+
+  /**
+   * The 64-bit hash of the given key placing it in the map, never equal to the marker of an empty slot
+   */
+  private[log] def hashOf(key: ByteBuffer): Long = {
+    val hash = hasher.hash(key, key.position, key.remaining, Seed)
+    if (hash == EmptyHash) 1L else hash
+  }
+
+  /**
+   * The second 64-bit hash of the given key, which tells keys with the same placing hash apart
+   */
+  private[log] def checkHashOf(key: ByteBuffer): Long =
+    hasher.hash(key, key.position, key.remaining, CheckSeed)
+
+}
+
+object OffHeapOffsetMap {
+  private val HashSize = 8
+  private val EmptyHash = 0L
+  private val Seed = 0x9747b28cL
+  private val CheckSeed = 0x5bd1e995c6a4a793L
+  private val MaxOffsetDelta = 0xFFFFFFFFL
+}
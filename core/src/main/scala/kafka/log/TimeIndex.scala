@@ -24,6 +24,7 @@ import kafka.common.InvalidOffsetException
 import kafka.utils.CoreUtils._
 import kafka.utils.Logging
 import org.apache.kafka.common.record.RecordBatch
+import org.apache.kafka.common.utils.Time
 
 /**
  * An index that maps from the timestamp to the logical offsets of the messages in a segment. This index might be
@@ -50,8 +51,8 @@ import org.apache.kafka.common.record.RecordBatch
  *
  */
 // Avoid shadowing mutable file in AbstractIndex
-class TimeIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable: Boolean = true)
-    extends AbstractIndex[Long, Long](_file, baseOffset, maxIndexSize, writable) with Logging {
+class TimeIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable: Boolean = true, time: Time = Time.SYSTEM)
+    extends AbstractIndex[Long, Long](_file, baseOffset, maxIndexSize, writable, time) with Logging {
 
   @volatile private var _lastEntry = lastEntryFromIndexFile
 
@@ -73,7 +74,7 @@ class TimeIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable:
     inLock(lock) {
       _entries match {
         case 0 => TimestampOffset(RecordBatch.NO_TIMESTAMP, baseOffset)
-        case s => parseEntry(mmap, s - 1).asInstanceOf[TimestampOffset]
+        case s => readEntry(s - 1).asInstanceOf[TimestampOffset]
       }
     }
   }
@@ -208,9 +209,10 @@ class TimeIndex(_file: File, baseOffset: Long, maxIndexSize: Int = -1, writable:
   override def sanityCheck() {
     val lastTimestamp = lastEntry.timestamp
     val lastOffset = lastEntry.offset
-    require(_entries == 0 || (lastTimestamp >= timestamp(mmap, 0)),
+    lazy val firstTimestamp = readEntry(0).asInstanceOf[TimestampOffset].timestamp
+    require(_entries == 0 || (lastTimestamp >= firstTimestamp),
       s"Corrupt time index found, time index file (${file.getAbsolutePath}) has non-zero size but the last timestamp " +
-          s"is $lastTimestamp which is no larger than the first timestamp ${timestamp(mmap, 0)}")
+          s"is $lastTimestamp which is no larger than the first timestamp $firstTimestamp")
     require(_entries == 0 || lastOffset >= baseOffset,
       s"Corrupt time index found, time index file (${file.getAbsolutePath}) has non-zero size but the last offset " +
           s"is $lastOffset which is smaller than the first offset $baseOffset")
@@ -41,6 +41,13 @@ object RequestChannel extends Logging {
 
   def isRequestLoggingEnabled: Boolean = requestLogger.underlying.isDebugEnabled
 
+  /** Whether the request is sent by the controller or is a fetch from a follower replica */
+  def isControlRequest(request: Request): Boolean = request.header.apiKey match {
+    case ApiKeys.LEADER_AND_ISR | ApiKeys.UPDATE_METADATA | ApiKeys.STOP_REPLICA => true
+    case ApiKeys.FETCH => request.body[FetchRequest].isFromFollower
+    case _ => false
+  }
+
   sealed trait BaseRequest
   case object ShutdownRequest extends BaseRequest
 
@@ -239,10 +246,37 @@ object RequestChannel extends Logging {
   case object CloseConnectionAction extends ResponseAction
 }
 
-class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMetricsGroup {
+/**
+ * Passes requests from the processors to the request handlers and responses back to the processors.
+ *
+ * Requests are either queued in a single queue shared by all processors, or in a queue per processor which holds its
+ * share of `queueSize`. With per-processor queues, a handler takes requests from the queue of its own processor
+ * first and steals from the queues of the other processors when it is empty, so that processors do not contend on
+ * a single queue lock. A handler only blocks on a count of the requests which no handler has claimed yet. Requests of
+ * a connection keep their order in either mode, since a processor mutes a connection until the response to its
+ * request has been sent.
+ *
+ * If control requests are prioritized, requests from the controller and fetches from follower replicas are queued
+ * in a separate queue which handlers take requests from before any other queue, so that they are not delayed by
+ * client requests when the broker is overloaded. That queue is not bounded, since control and replication traffic
+ * is bounded by the number of brokers, and each connection has at most one request queued.
+ */
+class RequestChannel(val numProcessors: Int,
+                     val queueSize: Int,
+                     val perProcessorQueues: Boolean = false,
+                     val prioritizeControlRequests: Boolean = false) extends KafkaMetricsGroup {
   val metrics = new RequestChannel.Metrics
   private var responseListeners: List[(Int) => Unit] = Nil
-  private val requestQueue = new ArrayBlockingQueue[BaseRequest](queueSize)
+  private val controlRequestQueue = new LinkedBlockingQueue[BaseRequest]()
+  private val requestQueues =
+    if (perProcessorQueues)
+      Array.fill(numProcessors)(new ArrayBlockingQueue[BaseRequest](math.max(1, queueSize / numProcessors)))
+    else
+      Array(new ArrayBlockingQueue[BaseRequest](queueSize))
+  // handlers claim requests before taking them when there is more than one queue to take requests from
+  private val claimRequests = perProcessorQueues || prioritizeControlRequests
+  // the number of queued requests which have not been claimed by a handler
+  private val unclaimedRequests = new Semaphore(0)
   private val responseQueues = new Array[BlockingQueue[RequestChannel.Response]](numProcessors)
   for(i <- 0 until numProcessors)
     responseQueues(i) = new LinkedBlockingQueue[RequestChannel.Response]()
@@ -250,10 +284,27 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
   newGauge(
     "RequestQueueSize",
     new Gauge[Int] {
-      def value = requestQueue.size
+      def value = requestQueues.foldLeft(0) {(total, q) => total + q.size()}
     }
   )
 
+  if (perProcessorQueues) {
+    for (i <- 0 until numProcessors) {
+      newGauge("RequestQueueSize",
+        new Gauge[Int] {
+          def value = requestQueues(i).size()
+        },
+        Map("processor" -> i.toString)
+      )
+    }
+  }
+
+  if (prioritizeControlRequests) {
+    newGauge("ControlRequestQueueSize", new Gauge[Int] {
+      def value = controlRequestQueue.size()
+    })
+  }
+
   newGauge("ResponseQueueSize", new Gauge[Int]{
     def value = responseQueues.foldLeft(0) {(total, q) => total + q.size()}
   })
@@ -269,7 +320,17 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
 
   /** Send a request to be handled, potentially blocking until there is room in the queue for the request */
   def sendRequest(request: RequestChannel.Request) {
-    requestQueue.put(request)
+    if (prioritizeControlRequests && RequestChannel.isControlRequest(request)) {
+      controlRequestQueue.put(request)
+      unclaimedRequests.release()
+    } else
+      enqueue(request.processor, request)
+  }
+
+  private def enqueue(processor: Int, request: BaseRequest) {
+    requestQueues(processor % requestQueues.length).put(request)
+    if (claimRequests)
+      unclaimedRequests.release()
   }
 
   /** Send a response back to the socket server to be sent over the network */
@@ -294,11 +355,48 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
 
   /** Get the next request or block until specified time has elapsed */
   def receiveRequest(timeout: Long): RequestChannel.BaseRequest =
-    requestQueue.poll(timeout, TimeUnit.MILLISECONDS)
+    receiveRequest(timeout, 0)
+
+  /**
+   * Get the next request or block until specified time has elapsed. Control requests are taken first if they are
+   * prioritized. With per-processor queues, the queue of the processor the handler is assigned to is checked before
+   * the others.
+   */
+  def receiveRequest(timeout: Long, handlerId: Int): RequestChannel.BaseRequest = {
+    if (!claimRequests)
+      requestQueues(0).poll(timeout, TimeUnit.MILLISECONDS)
+    else if (unclaimedRequests.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+      takeClaimed(handlerId % requestQueues.length)
+    else
+      null
+  }
 
   /** Get the next request or block until there is one */
-  def receiveRequest(): RequestChannel.BaseRequest =
-    requestQueue.take()
+  def receiveRequest(): RequestChannel.BaseRequest = {
+    if (!claimRequests)
+      requestQueues(0).take()
+    else {
+      unclaimedRequests.acquire()
+      takeClaimed(0)
+    }
+  }
+
+  /**
+   * Take a request after claiming it, starting with the control request queue and then the given queue. Requests
+   * are added to a queue before they can be claimed, so there is at least one request in the queues for every claim,
+   * although other handlers may take it from the queue this one is looking at.
+   */
+  private def takeClaimed(firstQueue: Int): RequestChannel.BaseRequest = {
+    var request: BaseRequest = controlRequestQueue.poll()
+    var i = firstQueue
+    while (request == null) {
+      request = requestQueues(i).poll()
+      i = (i + 1) % requestQueues.length
+      if (request == null && i == firstQueue)
+        request = controlRequestQueue.poll()
+    }
+    request
+  }
 
   /** Get a response for the given processor if there is one */
   def receiveResponse(processor: Int): RequestChannel.Response = {
@@ -319,7 +417,12 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
   }
 
   def clear() {
-    requestQueue.clear()
+    if (claimRequests) {
+      // only remove claimed requests, so that every remaining claim still has a request to take
+      while (unclaimedRequests.tryAcquire())
+        takeClaimed(0)
+    } else
+      requestQueues(0).clear()
   }
 
   def shutdown() {
@@ -327,7 +430,7 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
     metrics.close()
   }
 
-  def sendShutdownRequest(): Unit = requestQueue.put(ShutdownRequest)
+  def sendShutdownRequest(): Unit = enqueue(0, ShutdownRequest)
 
 }
 
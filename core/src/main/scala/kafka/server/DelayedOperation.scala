@@ -26,6 +26,7 @@ import kafka.metrics.KafkaMetricsGroup
 import kafka.utils.CoreUtils.{inReadLock, inWriteLock}
 import kafka.utils._
 import kafka.utils.timer._
+import org.apache.kafka.common.utils.Utils
 
 import scala.collection._
 import scala.collection.mutable.ListBuffer
@@ -124,32 +125,56 @@ abstract class DelayedOperation(override val delayMs: Long,
 
 object DelayedOperationPurgatory {
 
+  /* the default number of independently locked stripes the watch lists are spread over */
+  val DefaultWatcherStripes = 512
+
   def apply[T <: DelayedOperation](purgatoryName: String,
                                    brokerId: Int = 0,
                                    purgeInterval: Int = 1000,
                                    reaperEnabled: Boolean = true,
-                                   timerEnabled: Boolean = true): DelayedOperationPurgatory[T] = {
+                                   timerEnabled: Boolean = true,
+                                   watcherStripes: Int = DefaultWatcherStripes): DelayedOperationPurgatory[T] = {
     val timer = new SystemTimer(purgatoryName)
-    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled)
+    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled,
+      watcherStripes)
   }
 
 }
 
 /**
  * A helper purgatory class for bookkeeping delayed operations with a timeout, and expiring timed out operations.
+ *
+ * The watch lists are spread over `watcherStripes` independently locked stripes based on the hash of the
+ * watch key, so that threads completing or watching operations on different keys rarely contend on the same lock.
  */
 final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
                                                              timeoutTimer: Timer,
                                                              brokerId: Int = 0,
                                                              purgeInterval: Int = 1000,
                                                              reaperEnabled: Boolean = true,
-                                                             timerEnabled: Boolean = true)
+                                                             timerEnabled: Boolean = true,
+                                                             watcherStripes: Int = DelayedOperationPurgatory.DefaultWatcherStripes)
         extends Logging with KafkaMetricsGroup {
 
-  /* a list of operation watching keys */
-  private val watchersForKey = new Pool[Any, Watchers](Some((key: Any) => new Watchers(key)))
+  require(watcherStripes > 0, s"The number of watcher stripes must be positive, but was $watcherStripes")
+
+  /* a stripe of the watch lists, guarded by its own lock */
+  private class WatcherList {
+    val watchersByKey = new Pool[Any, Watchers](Some((key: Any) => new Watchers(key)))
 
-  private val removeWatchersLock = new ReentrantReadWriteLock()
+    val watchersLock = new ReentrantReadWriteLock()
+
+    /*
+     * Return all the current watcher lists of this stripe,
+     * note that the returned watchers may be removed from the list by other threads
+     */
+    def allWatchers = inReadLock(watchersLock) { watchersByKey.values }
+  }
+
+  private val watcherLists = Array.fill[WatcherList](watcherStripes)(new WatcherList)
+
+  private def watcherList(key: Any): WatcherList =
+    watcherLists(Utils.toPositive(key.hashCode) % watcherLists.length)
 
   // the number of estimated total operations in the purgatory
   private[this] val estimatedTotalOperations = new AtomicInteger(0)
@@ -247,7 +272,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
    * @return the number of completed operations during this process
    */
   def checkAndComplete(key: Any): Int = {
-    val watchers = inReadLock(removeWatchersLock) { watchersForKey.get(key) }
+    val wl = watcherList(key)
+    val watchers = inReadLock(wl.watchersLock) { wl.watchersByKey.get(key) }
     if(watchers == null)
       0
     else
@@ -259,7 +285,7 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
    * on multiple lists, and some of its watched entries may still be in the watch lists
    * even when it has been completed, this number may be larger than the number of real operations watched
    */
-  def watched: Int = allWatchers.map(_.countWatched).sum
+  def watched: Int = watcherLists.map(_.allWatchers.map(_.countWatched).sum).sum
 
   /**
    * Return the number of delayed operations in the expiry queue
@@ -270,27 +296,24 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     * Cancel watching on any delayed operations for the given key. Note the operation will not be completed
     */
   def cancelForKey(key: Any): List[T] = {
-    inWriteLock(removeWatchersLock) {
-      val watchers = watchersForKey.remove(key)
+    val wl = watcherList(key)
+    inWriteLock(wl.watchersLock) {
+      val watchers = wl.watchersByKey.remove(key)
       if (watchers != null)
         watchers.cancel()
       else
         Nil
     }
   }
-  /*
-   * Return all the current watcher lists,
-   * note that the returned watchers may be removed from the list by other threads
-   */
-  private def allWatchers = inReadLock(removeWatchersLock) { watchersForKey.values }
 
   /*
-   * Return the watch list of the given key, note that we need to
-   * grab the removeWatchersLock to avoid the operation being added to a removed watcher list
+   * Return the watch list of the given key, note that we need to grab the lock of the
+   * key's stripe to avoid the operation being added to a removed watcher list
    */
   private def watchForOperation(key: Any, operation: T) {
-    inReadLock(removeWatchersLock) {
-      val watcher = watchersForKey.getAndMaybePut(key)
+    val wl = watcherList(key)
+    inReadLock(wl.watchersLock) {
+      val watcher = wl.watchersByKey.getAndMaybePut(key)
       watcher.watch(operation)
     }
   }
@@ -299,13 +322,14 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
    * Remove the key from watcher lists if its list is empty
    */
   private def removeKeyIfEmpty(key: Any, watchers: Watchers) {
-    inWriteLock(removeWatchersLock) {
+    val wl = watcherList(key)
+    inWriteLock(wl.watchersLock) {
       // if the current key is no longer correlated to the watchers to remove, skip
-      if (watchersForKey.get(key) != watchers)
+      if (wl.watchersByKey.get(key) != watchers)
         return
 
       if (watchers != null && watchers.isEmpty) {
-        watchersForKey.remove(key)
+        wl.watchersByKey.remove(key)
       }
     }
   }
@@ -401,7 +425,8 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
       // a little overestimated total number of operations.
       estimatedTotalOperations.getAndSet(delayed)
       debug("Begin purging watch lists")
-      val purged = allWatchers.map(_.purgeCompleted()).sum
+      // purge one stripe at a time so that the other stripes stay available to request handler threads
+      val purged = watcherLists.map(_.allWatchers.map(_.purgeCompleted()).sum).sum
       debug("Purged %d elements from watch lists.".format(purged))
     }
   }
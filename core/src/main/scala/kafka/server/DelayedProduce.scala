@@ -81,6 +81,10 @@ class DelayedProduce(delayMs: Long,
    *   B.1 - If there was a local error thrown while checking if at least requiredAcks
    *         replicas have caught up to this operation: set an error in response
    *   B.2 - Otherwise, set the response with no error.
+   *
+   * In both cases, a partition whose appended messages are waiting for a group commit flush is not satisfied until the
+   * flush completes, or fails with a storage error if the flush failed. With requiredAcks = 1, the delayed operation
+   * only waits for that flush.
    */
   override def tryComplete(): Boolean = {
     // check for each partition if it still has pending acks
@@ -92,8 +96,14 @@ class DelayedProduce(delayMs: Long,
           case Some(partition) =>
             if (partition eq ReplicaManager.OfflinePartition)
               (false, Errors.KAFKA_STORAGE_ERROR)
-            else
+            else if (partition.isFlushFailed(status.requiredOffset))
+              (false, Errors.KAFKA_STORAGE_ERROR)
+            else if (partition.isFlushPending(status.requiredOffset))
+              (false, Errors.NONE)
+            else if (produceMetadata.produceRequiredAcks == -1)
               partition.checkEnoughReplicasReachOffset(status.requiredOffset)
+            else
+              (true, Errors.NONE)
           case None =>
             // Case A
             (false, Errors.UNKNOWN_TOPIC_OR_PARTITION)
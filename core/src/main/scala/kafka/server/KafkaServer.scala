@@ -52,6 +52,10 @@ import scala.collection.JavaConverters._
 import scala.collection.{Map, Seq, mutable}
 
 object KafkaServer {
+  // The minimum time in milliseconds that an incremental fetch session must be unused before
+  // it can be evicted from the fetch session cache to make room for a new session.
+  val MIN_INCREMENTAL_FETCH_SESSION_EVICTION_MS: Long = 120000
+
   // Copy the subset of properties that are relevant to Logs
   // I'm listing out individual properties here since the names are slightly different in each Config class...
   private[kafka] def copyKafkaConfigToLog(kafkaConfig: KafkaConfig): java.util.Map[String, Object] = {
@@ -266,9 +270,12 @@ class KafkaServer(val config: KafkaConfig, time: Time = Time.SYSTEM, threadNameP
         }
 
         /* start processing requests */
+        val fetchManager = new FetchManager(time,
+          new FetchSessionCache(config.maxIncrementalFetchSessionCacheSlots,
+            KafkaServer.MIN_INCREMENTAL_FETCH_SESSION_EVICTION_MS))
         apis = new KafkaApis(socketServer.requestChannel, replicaManager, adminManager, groupCoordinator, transactionCoordinator,
           kafkaController, zkClient, config.brokerId, config, metadataCache, metrics, authorizer, quotaManagers,
-          brokerTopicStats, clusterId, time)
+          fetchManager, brokerTopicStats, clusterId, time)
 
         requestHandlerPool = new KafkaRequestHandlerPool(config.brokerId, socketServer.requestChannel, apis, time,
           config.numIoThreads)
@@ -329,6 +329,9 @@ class ReplicaManager(val config: KafkaConfig,
     val haltBrokerOnFailure = config.interBrokerProtocolVersion < KAFKA_1_0_IV0
     logDirFailureHandler = new LogDirFailureHandler("LogDirFailureHandler", haltBrokerOnFailure)
     logDirFailureHandler.start()
+
+    // complete the produce requests waiting for a group commit flush once their log has been flushed
+    logManager.setGroupCommitListener(topicPartition => tryCompleteDelayedProduce(new TopicPartitionOperationKey(topicPartition)))
   }
 
   def stopReplica(topicPartition: TopicPartition, deletePartition: Boolean)  = {
@@ -705,12 +708,19 @@ class ReplicaManager(val config: KafkaConfig,
   // 1. required acks = -1
   // 2. there is data to append
   // 3. at least one partition append was successful (fewer errors than partitions)
+  // If we are waiting for the followers or for a group commit flush of the appended messages, we need to delay the response
   private def delayedProduceRequestRequired(requiredAcks: Short,
                                             entriesPerPartition: Map[TopicPartition, MemoryRecords],
                                             localProduceResults: Map[TopicPartition, LogAppendResult]): Boolean = {
-    requiredAcks == -1 &&
     entriesPerPartition.nonEmpty &&
-    localProduceResults.values.count(_.exception.isDefined) < entriesPerPartition.size
+    localProduceResults.values.count(_.exception.isDefined) < entriesPerPartition.size &&
+    (requiredAcks == -1 || (requiredAcks == 1 && isFlushPending(localProduceResults)))
+  }
+
+  private def isFlushPending(localProduceResults: Map[TopicPartition, LogAppendResult]): Boolean = {
+    localProduceResults.exists { case (topicPartition, result) =>
+      result.exception.isEmpty && getPartition(topicPartition).exists(_.isFlushPending(result.info.lastOffset + 1))
+    }
   }
 
   private def isValidRequiredAcks(requiredAcks: Short): Boolean = {
@@ -771,7 +781,8 @@ class ReplicaManager(val config: KafkaConfig,
                    _: RecordBatchTooLargeException |
                    _: CorruptRecordException |
                    _: KafkaStorageException |
-                   _: InvalidTimestampException) =>
+                   _: InvalidTimestampException |
+                   _: UnsupportedCompressionTypeException) =>
             (topicPartition, LogAppendResult(LogAppendInfo.UnknownLogAppendInfo, Some(e)))
           case t: Throwable =>
             val logStartOffset = getPartition(topicPartition) match {
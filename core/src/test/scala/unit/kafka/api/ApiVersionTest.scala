@@ -72,6 +72,10 @@ class ApiVersionTest {
     assertEquals(KAFKA_1_0_IV0, ApiVersion("1.0.0"))
     assertEquals(KAFKA_1_0_IV0, ApiVersion("1.0.0-IV0"))
     assertEquals(KAFKA_1_0_IV0, ApiVersion("1.0.1"))
+
+    assertEquals(KAFKA_1_1_IV0, ApiVersion("1.1"))
+    assertEquals(KAFKA_1_1_IV0, ApiVersion("1.1.0"))
+    assertEquals(KAFKA_1_1_IV0, ApiVersion("1.1-IV0"))
   }
 
 }
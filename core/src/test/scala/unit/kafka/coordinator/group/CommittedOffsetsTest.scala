@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import kafka.common.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+import org.junit.Assert._
+import org.junit.Test
+
+class CommittedOffsetsTest {
+
+  private val offsets = new CommittedOffsets
+  private val foo0 = new TopicPartition("foo", 0)
+  private val foo5 = new TopicPartition("foo", 5)
+  private val bar0 = new TopicPartition("bar", 0)
+
+  @Test
+  def testPutAndGet(): Unit = {
+    val appended = commit(37, "metadata", appendedBatchOffset = Some(15L))
+    val pending = commit(12, "", appendedBatchOffset = None)
+    offsets.put(foo5, appended)
+    offsets.put(bar0, pending)
+
+    assertEquals(Some(appended), offsets.get(foo5))
+    assertEquals(Some(pending), offsets.get(bar0))
+    assertEquals(None, offsets.get(foo0))
+    assertTrue(offsets.contains(foo5))
+    assertFalse(offsets.contains(foo0))
+    assertFalse(offsets.contains(new TopicPartition("baz", 5)))
+    assertEquals(2, offsets.size)
+  }
+
+  @Test
+  def testPutReplacesExistingOffset(): Unit = {
+    offsets.put(foo0, commit(1, "first"))
+    val second = commit(2, "second")
+    offsets.put(foo0, second)
+
+    assertEquals(Some(second), offsets.get(foo0))
+    assertEquals(1, offsets.size)
+  }
+
+  @Test
+  def testNullMetadata(): Unit = {
+    val offset = commit(1, null)
+    offsets.put(foo0, offset)
+    assertEquals(Some(offset), offsets.get(foo0))
+  }
+
+  @Test
+  def testRemove(): Unit = {
+    val offset = commit(1, "metadata")
+    offsets.put(foo0, offset)
+    offsets.put(foo5, commit(2, "metadata"))
+
+    assertEquals(Some(offset), offsets.remove(foo0))
+    assertEquals(None, offsets.remove(foo0))
+    assertEquals(None, offsets.remove(bar0))
+    assertFalse(offsets.contains(foo0))
+    assertEquals(1, offsets.size)
+
+    offsets.remove(foo5)
+    assertTrue(offsets.isEmpty)
+    assertEquals(List.empty, offsets.iterator.toList)
+  }
+
+  @Test
+  def testIterator(): Unit = {
+    val expected = Map(foo0 -> commit(1, "a"), foo5 -> commit(2, "b"), bar0 -> commit(3, "c"))
+    expected.foreach { case (topicPartition, offset) => offsets.put(topicPartition, offset) }
+    assertEquals(expected, offsets.iterator.toMap)
+  }
+
+  @Test
+  def testManyPartitionsInAnyOrder(): Unit = {
+    val partitions = scala.util.Random.shuffle((0 until 100).toList)
+    partitions.foreach(partition => offsets.put(new TopicPartition("foo", partition), commit(partition, "")))
+    partitions.filter(_ % 2 == 0).foreach(partition => offsets.remove(new TopicPartition("foo", partition)))
+
+    (0 until 100).foreach { partition =>
+      val expected = if (partition % 2 == 0) None else Some(commit(partition, ""))
+      assertEquals(expected, offsets.get(new TopicPartition("foo", partition)))
+    }
+    assertEquals(50, offsets.size)
+  }
+
+  @Test
+  def testEstimatedSizeGrowsWithPartitions(): Unit = {
+    val emptySize = offsets.estimatedSizeInBytes
+    (0 until 100).foreach(partition => offsets.put(new TopicPartition("foo", partition), commit(partition, "")))
+    val size = offsets.estimatedSizeInBytes
+    assertTrue(size > emptySize)
+    // an offset takes four longs, the partition and a reference in the arrays, the capacity is at most twice the
+    // partition count
+    assertTrue(s"Unexpected size $size", size - emptySize <= 2 * 100 * (4 * 8 + 4 + 4) + 256)
+  }
+
+  @Test
+  def testEstimatedSizeOfHighNumberedPartition(): Unit = {
+    val emptySize = offsets.estimatedSizeInBytes
+    offsets.put(new TopicPartition("foo", 999), commit(1, ""))
+    val size = offsets.estimatedSizeInBytes
+    // the partitions below the committed one take no space
+    assertTrue(s"Unexpected size $size", size - emptySize <= (4 * 8 + 4 + 4) + 256)
+  }
+
+  @Test
+  def testEstimatedSizeShrinksAfterRemovals(): Unit = {
+    val emptySize = offsets.estimatedSizeInBytes
+    (0 until 100).foreach(partition => offsets.put(new TopicPartition("foo", partition), commit(partition, "")))
+    (1 until 100).foreach(partition => offsets.remove(new TopicPartition("foo", partition)))
+    val size = offsets.estimatedSizeInBytes
+    assertTrue(s"Unexpected size $size", size - emptySize <= 2 * (4 * 8 + 4 + 4) + 256)
+    assertEquals(Some(commit(0, "")), offsets.get(foo0))
+  }
+
+  @Test
+  def testEstimatedSizeReturnsToEmptySizeAfterRemovingAllTopics(): Unit = {
+    val emptySize = offsets.estimatedSizeInBytes
+    Seq("foo", "bar").foreach { topic =>
+      (0 until 10).foreach(partition => offsets.put(new TopicPartition(topic, partition), commit(partition, "")))
+    }
+    val size = offsets.estimatedSizeInBytes
+    offsets.put(new TopicPartition("foo", 0), commit(5, ""))
+    assertEquals(size, offsets.estimatedSizeInBytes)
+    Seq("foo", "bar").foreach { topic =>
+      (0 until 10).foreach(partition => offsets.remove(new TopicPartition(topic, partition)))
+    }
+    assertEquals(emptySize, offsets.estimatedSizeInBytes)
+  }
+
+  private def commit(offset: Long,
+                     metadata: String,
+                     appendedBatchOffset: Option[Long] = Some(0L)): CommitRecordMetadataAndOffset =
+    CommitRecordMetadataAndOffset(appendedBatchOffset, OffsetAndMetadata(offset, metadata, 1000L, 2000L))
+}
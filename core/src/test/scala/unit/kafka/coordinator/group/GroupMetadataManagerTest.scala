@@ -30,7 +30,7 @@ import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.{IsolationLevel, OffsetFetchResponse}
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.easymock.{Capture, EasyMock, IAnswer}
-import org.junit.Assert.{assertEquals, assertFalse, assertTrue}
+import org.junit.Assert.{assertEquals, assertFalse, assertSame, assertTrue}
 import org.junit.{Before, Test}
 import java.nio.ByteBuffer
 
@@ -114,6 +114,39 @@ class GroupMetadataManagerTest {
     }
   }
 
+  @Test
+  def testLoadPartitionsInParallel() {
+    val otherGroupPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 1)
+    val parallelManager = new GroupMetadataManager(0, ApiVersion.latestVersion,
+      OffsetConfig(offsetsLoadThreads = 2), replicaManager, zkClient, time)
+    try {
+      val otherGroupId = Iterator.from(0).map(i => s"group-$i").find(parallelManager.partitionFor(_) == 1).get
+      val startOffset = 15L
+      val committedOffsets = Map(new TopicPartition("foo", 0) -> 23L)
+
+      expectGroupMetadataLoad(groupTopicPartition, startOffset, MemoryRecords.withRecords(startOffset,
+        CompressionType.NONE, createCommittedOffsetRecords(committedOffsets): _*))
+      expectGroupMetadataLoad(otherGroupPartition, startOffset, MemoryRecords.withRecords(startOffset,
+        CompressionType.NONE, createCommittedOffsetRecords(committedOffsets, otherGroupId): _*))
+      EasyMock.replay(replicaManager)
+
+      parallelManager.loadGroupsForPartition(groupPartitionId, _ => ())
+      parallelManager.loadGroupsForPartition(otherGroupPartition.partition, _ => ())
+      TestUtils.waitUntilTrue(() => parallelManager.isPartitionOwned(groupPartitionId) &&
+        parallelManager.isPartitionOwned(otherGroupPartition.partition), "Partitions were not loaded")
+
+      Seq(groupId, otherGroupId).foreach { loadedGroupId =>
+        val group = parallelManager.getGroup(loadedGroupId).getOrElse(fail(s"Group $loadedGroupId was not loaded into the cache"))
+        assertEquals(Some(23L), group.offset(new TopicPartition("foo", 0)).map(_.offset))
+      }
+      assertEquals(0, getGauge(parallelManager, "NumPartitionsLoading").value)
+      assertEquals(0L, Metrics.defaultRegistry().allMetrics().get(parallelManager.metricName("NumLogOffsetsToLoad", Map.empty))
+        .asInstanceOf[Gauge[Long]].value)
+    } finally {
+      parallelManager.shutdown()
+    }
+  }
+
   @Test
   def testLoadTransactionalOffsetsWithoutGroup() {
     val groupMetadataTopicPartition = groupTopicPartition
@@ -815,6 +848,70 @@ class GroupMetadataManagerTest {
     EasyMock.verify(replicaManager)
   }
 
+  @Test
+  def testCommittedMetadataIsShared() {
+    val memberId = ""
+    val fooPartition = new TopicPartition("foo", 0)
+    val barPartition = new TopicPartition("bar", 0)
+
+    groupMetadataManager.addPartitionOwnership(groupPartitionId)
+
+    val group = new GroupMetadata(groupId)
+    groupMetadataManager.addGroup(group)
+
+    val offsets = immutable.Map(fooPartition -> OffsetAndMetadata(37, new String("metadata")),
+      barPartition -> OffsetAndMetadata(38, new String("metadata")))
+
+    expectAppendMessage(Errors.NONE)
+    EasyMock.replay(replicaManager)
+
+    groupMetadataManager.storeOffsets(group, memberId, offsets, _ => ())
+
+    val cachedOffsets = groupMetadataManager.getOffsets(groupId, Some(Seq(fooPartition, barPartition)))
+    assertEquals("metadata", cachedOffsets(fooPartition).metadata)
+    assertSame(cachedOffsets(fooPartition).metadata, cachedOffsets(barPartition).metadata)
+
+    EasyMock.verify(replicaManager)
+  }
+
+  @Test
+  def testCommitOffsetWithCoalescing() {
+    val memberId = ""
+    val topicPartition = new TopicPartition("foo", 0)
+    val offset = 37
+
+    val coalescingManager = new GroupMetadataManager(0, ApiVersion.latestVersion,
+      OffsetConfig(offsetCommitCoalescingEnable = true), replicaManager, zkClient, time)
+    try {
+      coalescingManager.addPartitionOwnership(groupPartitionId)
+
+      val group = new GroupMetadata(groupId)
+      coalescingManager.addGroup(group)
+
+      val offsets = immutable.Map(topicPartition -> OffsetAndMetadata(offset))
+
+      expectAppendMessage(Errors.NONE)
+      EasyMock.replay(replicaManager)
+
+      @volatile var commitErrors: Option[immutable.Map[TopicPartition, Errors]] = None
+      def callback(errors: immutable.Map[TopicPartition, Errors]) {
+        commitErrors = Some(errors)
+      }
+
+      coalescingManager.storeOffsets(group, memberId, offsets, callback)
+      TestUtils.waitUntilTrue(() => commitErrors.isDefined, "Offset commit was not appended")
+      assertEquals(Some(Errors.NONE), commitErrors.get.get(topicPartition))
+
+      val cachedOffsets = coalescingManager.getOffsets(groupId, Some(Seq(topicPartition)))
+      assertEquals(Errors.NONE, cachedOffsets(topicPartition).error)
+      assertEquals(offset, cachedOffsets(topicPartition).offset)
+
+      EasyMock.verify(replicaManager)
+    } finally {
+      coalescingManager.shutdown()
+    }
+  }
+
   @Test
   def testTransactionalCommitOffsetCommitted() {
     val memberId = ""
@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, TimeUnit}
+import java.util.concurrent.locks.ReentrantLock
+
+import kafka.server.ReplicaManager
+import kafka.utils.CoreUtils
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.internals.Topic
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record._
+import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
+import org.easymock.{Capture, CaptureType, EasyMock, IAnswer}
+import org.junit.Assert.{assertEquals, assertTrue}
+import org.junit.Test
+
+import scala.collection.JavaConverters._
+import scala.collection._
+
+class OffsetCommitAppenderTest {
+
+  private val partition0 = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 0)
+  private val partition1 = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 1)
+  private val replicaManager = EasyMock.createMock(classOf[ReplicaManager])
+  // the thread is not started, the tests run its work loop themselves
+  private val appender = new OffsetCommitAppender(0, OffsetConfig(), replicaManager, CompressionType.NONE)
+
+  @Test
+  def testCommitsToSamePartitionAreAppendedTogether(): Unit = {
+    val appendedRecords = expectAppends(Errors.NONE, times = 1)
+    EasyMock.replay(replicaManager)
+
+    val errors = mutable.ListBuffer[Errors]()
+    appender.append(partition0, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("a")), status => errors += status(partition0).error)
+    appender.append(partition0, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("b"), record("c")), status => errors += status(partition0).error)
+    appendAndComplete()
+
+    assertEquals(Seq(Errors.NONE, Errors.NONE), errors)
+    val batches = appendedRecords.getValue()(partition0).batches.asScala.toList
+    assertEquals(1, batches.size)
+    assertEquals(Seq("a", "b", "c"), batches.head.asScala.map(key).toList)
+    EasyMock.verify(replicaManager)
+  }
+
+  @Test
+  def testCommitsToDifferentPartitionsAreAppendedSeparately(): Unit = {
+    val appendedRecords = expectAppends(Errors.NONE, times = 2)
+    EasyMock.replay(replicaManager)
+
+    val errors = mutable.Map[TopicPartition, Errors]()
+    appender.append(partition0, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("a")), status => errors ++= status.mapValues(_.error))
+    appender.append(partition1, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("b")), status => errors ++= status.mapValues(_.error))
+    appendAndComplete()
+
+    assertEquals(Map(partition0 -> Errors.NONE, partition1 -> Errors.NONE), errors)
+    assertEquals(Set(partition0, partition1), appendedRecords.getValues.asScala.flatMap(_.keySet).toSet)
+    EasyMock.verify(replicaManager)
+  }
+
+  @Test
+  def testFailedAppendFailsAllCommitsOfTheBatch(): Unit = {
+    expectAppends(Errors.NOT_ENOUGH_REPLICAS, times = 1)
+    EasyMock.replay(replicaManager)
+
+    val errors = mutable.ListBuffer[Errors]()
+    appender.append(partition0, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("a")), status => errors += status(partition0).error)
+    appender.append(partition0, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("b")), status => errors += status(partition0).error)
+    appendAndComplete()
+
+    assertEquals(Seq(Errors.NOT_ENOUGH_REPLICAS, Errors.NOT_ENOUGH_REPLICAS), errors)
+    EasyMock.verify(replicaManager)
+  }
+
+  @Test
+  def testLargeCommitsAreSplitIntoSeveralBatches(): Unit = {
+    val appendedRecords = expectAppends(Errors.NONE, times = 2)
+    EasyMock.replay(replicaManager)
+
+    val value = new Array[Byte](OffsetCommitAppender.MaxBatchSizeInBytes / 2 + 1)
+    appender.append(partition0, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("a", value)), _ => ())
+    appender.append(partition0, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record("b", value)), _ => ())
+    appendAndComplete()
+
+    assertEquals(Seq(Seq("a"), Seq("b")), appendedRecords.getValues.asScala.map { entries =>
+      entries(partition0).records.asScala.map(key).toList
+    })
+    EasyMock.verify(replicaManager)
+  }
+
+  @Test
+  def testBatchesCompletedByThreadsHoldingGroupLocks(): Unit = {
+    val (appendedRecords, callbacks) = expectDelayedAppends(times = 2)
+    EasyMock.replay(replicaManager)
+
+    // the commits of each group take the lock of the group when they are completed, like the group metadata manager
+    val groupLocks = Seq(new ReentrantLock, new ReentrantLock)
+    val errors = new ConcurrentHashMap[Int, Errors]()
+    Seq(partition0, partition1).zipWithIndex.foreach { case (partition, group) =>
+      appender.append(partition, RecordBatch.CURRENT_MAGIC_VALUE, Seq(record(s"group-$group")), status =>
+        CoreUtils.inLock(groupLocks(group)) {
+          errors.put(group, status(partition).error)
+        })
+    }
+    appender.doWork()
+    val callbackByPartition = appendedRecords.getValues.asScala.map(_.keySet.head).zip(callbacks.getValues.asScala).toMap
+    assertEquals(Set(partition0, partition1), callbackByPartition.keySet)
+
+    // each group's lock is held by a thread which completes the delayed append of the other group's commit
+    val locksHeld = new CountDownLatch(2)
+    val completed = new CountDownLatch(2)
+    val release = new CountDownLatch(1)
+    val threads = Seq(0, 1).map { group =>
+      val thread = new Thread(new Runnable {
+        override def run(): Unit = CoreUtils.inLock(groupLocks(group)) {
+          locksHeld.countDown()
+          locksHeld.await()
+          val otherPartition = if (group == 0) partition1 else partition0
+          callbackByPartition(otherPartition)(Map(otherPartition -> new PartitionResponse(Errors.NONE, 0L,
+            RecordBatch.NO_TIMESTAMP, 0L)))
+          completed.countDown()
+          release.await()
+        }
+      })
+      thread.setDaemon(true)
+      thread.start()
+      thread
+    }
+    assertTrue("Completing the batches blocked on the group locks", completed.await(10, TimeUnit.SECONDS))
+    assertTrue("The commits must not be completed while their group lock is held", errors.isEmpty)
+
+    release.countDown()
+    threads.foreach(_.join(10000))
+    appender.doWork()
+    assertEquals(Map(0 -> Errors.NONE, 1 -> Errors.NONE), errors.asScala)
+    EasyMock.verify(replicaManager)
+  }
+
+  /**
+   * Append the queued commits and complete the batches which were completed while being appended
+   */
+  private def appendAndComplete(): Unit = {
+    appender.doWork()
+    appender.doWork()
+  }
+
+  private def expectDelayedAppends(times: Int): (Capture[Map[TopicPartition, MemoryRecords]],
+                                                 Capture[Map[TopicPartition, PartitionResponse] => Unit]) = {
+    val capturedRecords: Capture[Map[TopicPartition, MemoryRecords]] = EasyMock.newCapture(CaptureType.ALL)
+    val capturedCallbacks: Capture[Map[TopicPartition, PartitionResponse] => Unit] = EasyMock.newCapture(CaptureType.ALL)
+    EasyMock.expect(replicaManager.appendRecords(EasyMock.anyLong(),
+      EasyMock.anyShort(),
+      internalTopicsAllowed = EasyMock.eq(true),
+      isFromClient = EasyMock.eq(false),
+      EasyMock.capture(capturedRecords),
+      EasyMock.capture(capturedCallbacks),
+      EasyMock.anyObject().asInstanceOf[Option[ReentrantLock]],
+      EasyMock.anyObject())
+    ).times(times)
+    (capturedRecords, capturedCallbacks)
+  }
+
+  private def expectAppends(error: Errors, times: Int): Capture[Map[TopicPartition, MemoryRecords]] = {
+    val capturedRecords: Capture[Map[TopicPartition, MemoryRecords]] = EasyMock.newCapture(CaptureType.ALL)
+    val capturedCallback: Capture[Map[TopicPartition, PartitionResponse] => Unit] = EasyMock.newCapture(CaptureType.LAST)
+    EasyMock.expect(replicaManager.appendRecords(EasyMock.anyLong(),
+      EasyMock.anyShort(),
+      internalTopicsAllowed = EasyMock.eq(true),
+      isFromClient = EasyMock.eq(false),
+      EasyMock.capture(capturedRecords),
+      EasyMock.capture(capturedCallback),
+      EasyMock.anyObject().asInstanceOf[Option[ReentrantLock]],
+      EasyMock.anyObject())
+    ).andAnswer(new IAnswer[Unit] {
+      override def answer = {
+        val partition = capturedRecords.getValues.asScala.last.keySet.head
+        capturedCallback.getValue.apply(Map(partition -> new PartitionResponse(error, 0L, RecordBatch.NO_TIMESTAMP, 0L)))
+      }
+    }).times(times)
+    capturedRecords
+  }
+
+  private def record(key: String, value: Array[Byte] = Array.emptyByteArray): SimpleRecord =
+    new SimpleRecord(0L, key.getBytes, value)
+
+  private def key(record: Record): String = {
+    val bytes = new Array[Byte](record.keySize)
+    record.key.get(bytes)
+    new String(bytes)
+  }
+}
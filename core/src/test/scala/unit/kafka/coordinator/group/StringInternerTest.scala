@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import org.junit.Assert._
+import org.junit.Test
+
+class StringInternerTest {
+
+  @Test
+  def testEqualStringsAreShared(): Unit = {
+    val interner = new StringInterner(10)
+    val first = new String("metadata")
+    assertSame(first, interner.intern(first))
+    assertSame(first, interner.intern(new String("metadata")))
+    assertEquals(1, interner.size)
+  }
+
+  @Test
+  def testNullAndEmptyStringsAreNotTracked(): Unit = {
+    val interner = new StringInterner(10)
+    assertNull(interner.intern(null))
+    assertEquals("", interner.intern(""))
+    assertEquals(0, interner.size)
+  }
+
+  @Test
+  def testStringsBeyondTheBoundAreNotShared(): Unit = {
+    val interner = new StringInterner(1)
+    val first = new String("a")
+    assertSame(first, interner.intern(first))
+    val second = new String("b")
+    assertSame(second, interner.intern(second))
+    assertNotSame(second, interner.intern(new String("b")))
+    assertSame(first, interner.intern(new String("a")))
+    assertEquals(1, interner.size)
+  }
+}
@@ -1082,6 +1082,25 @@ class LogCleanerTest extends JUnitSuite {
     assertEquals("Map should contain second value", 7206178L, map.get(key(1)))
   }
 
+  /**
+   * Test that building the offset map stops at the first offset the map is unable to store
+   */
+  @Test
+  def testBuildOffsetMapStopsAtUnstorableOffset(): Unit = {
+    val map = new FakeOffsetMap(1000) {
+      override def canStore(offset: Long): Boolean = offset < 3
+    }
+    val log = makeLog()
+    val cleaner = makeCleaner(Int.MaxValue)
+    writeToLog(log, (0 until 5) zip (0 until 5))
+    log.roll()
+
+    cleaner.buildOffsetMap(log, 0L, log.activeSegment.baseOffset, map, new CleanerStats())
+    assertEquals("Only the storable offsets should be in the map", 3, map.size)
+    assertEquals(2L, map.latestOffset)
+    assertEquals(-1L, map.get(key(3)))
+  }
+
   /**
    * Test building a partial offset map of part of a log segment
    */
@@ -1345,5 +1364,7 @@ class FakeOffsetMap(val slots: Int) extends OffsetMap {
     lastOffset = offset
   }
 
+  override def collisionRate: Double = 0.0
+
   override def toString: String = map.toString
 }
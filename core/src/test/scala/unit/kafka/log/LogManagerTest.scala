@@ -19,16 +19,22 @@ package kafka.log
 
 import java.io._
 import java.util.Properties
+import java.util.concurrent.ConcurrentLinkedQueue
 
+import com.yammer.metrics.Metrics
+import com.yammer.metrics.core.Gauge
 import kafka.common._
 import kafka.server.checkpoints.OffsetCheckpointFile
 import kafka.utils._
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.OffsetOutOfRangeException
+import org.apache.kafka.common.requests.IsolationLevel
 import org.apache.kafka.common.utils.Utils
 import org.junit.Assert._
 import org.junit.{After, Before, Test}
 
+import scala.collection.JavaConverters._
+
 class LogManagerTest {
 
   val time = new MockTime()
@@ -296,11 +302,127 @@ class LogManagerTest {
     }
   }
 
-  private def createLogManager(logDirs: Seq[File] = Seq(this.logDir)): LogManager = {
+  /**
+   * Test that the logs are recovered with a segment recovery pool after an unclean shutdown and that the progress of
+   * the recovery is reported
+   */
+  @Test
+  def testParallelRecoveryAfterUncleanShutdown() {
+    val topicPartitions = Seq(new TopicPartition("test-a", 0), new TopicPartition("test-b", 0))
+    val logEndOffsets = topicPartitions.map { tp =>
+      val log = logManager.getOrCreateLog(tp, logConfig)
+      for (_ <- 0 until 200)
+        log.appendAsLeader(TestUtils.singletonRecords("test".getBytes()), leaderEpoch = 0)
+      assertTrue("Test requires multiple segments", log.numberOfSegments > 2)
+      log.logEndOffset
+    }
+    logManager.shutdown()
+    assertTrue(new File(logDir, Log.CleanShutdownFile).delete())
+
+    logManager = createLogManager(segmentRecoveryThreads = 2)
+    topicPartitions.zip(logEndOffsets).foreach { case (tp, logEndOffset) =>
+      assertEquals(logEndOffset, logManager.getLog(tp).get.logEndOffset)
+    }
+    val gauges = Metrics.defaultRegistry.allMetrics.asScala.filterKeys(_.getMBeanName.startsWith("kafka.log:type=LogManager"))
+      .map { case (name, metric) => name.getName -> metric.asInstanceOf[Gauge[Long]].value }
+    assertEquals(0L, gauges("RemainingBytesToRecover"))
+    assertEquals(0L, gauges("RecoveryEstimatedTimeRemainingMs"))
+  }
+
+  @Test
+  def testIndexesAreMappedLazilyAndUnmappedWhenIdle() {
+    val tp = new TopicPartition(name, 0)
+    val log = logManager.getOrCreateLog(tp, logConfig)
+    for (_ <- 0 until 200)
+      log.appendAsLeader(TestUtils.singletonRecords("test".getBytes()), leaderEpoch = 0)
+    assertTrue("Test requires multiple segments", log.numberOfSegments > 2)
+    logManager.shutdown()
+
+    logManager = createLogManager(indexUnmapIdleMs = 1000L)
+    val reloaded = logManager.getLog(tp).get
+    val coldSegment = reloaded.logSegments.head
+    assertFalse("Indexes of cold segments should not be mapped on load", coldSegment.index.isMapped)
+    assertFalse(coldSegment.timeIndex.isMapped)
+
+    reloaded.read(coldSegment.baseOffset + 1, 1024, maxOffset = None, minOneMessage = true, isolationLevel = IsolationLevel.READ_UNCOMMITTED)
+    assertTrue("Indexes should be mapped on first lookup", coldSegment.index.isMapped)
+
+    val mappedIndexCount = IndexMapStats.mappedIndexCount
+    time.sleep(500)
+    logManager.unmapIdleIndexes()
+    assertTrue(coldSegment.index.isMapped)
+
+    time.sleep(1000)
+    logManager.unmapIdleIndexes()
+    assertFalse("Idle indexes should be unmapped", coldSegment.index.isMapped)
+    assertTrue(IndexMapStats.mappedIndexCount < mappedIndexCount)
+
+    // the index is mapped again on the next lookup
+    reloaded.read(coldSegment.baseOffset + 1, 1024, maxOffset = None, minOneMessage = true, isolationLevel = IsolationLevel.READ_UNCOMMITTED)
+    assertTrue(coldSegment.index.isMapped)
+  }
+
+  @Test
+  def testIdleIndexesAreUnmappedLeastRecentlyUsedFirst() {
+    val tp = new TopicPartition(name, 0)
+    val log = logManager.getOrCreateLog(tp, logConfig)
+    for (_ <- 0 until 200)
+      log.appendAsLeader(TestUtils.singletonRecords("test".getBytes()), leaderEpoch = 0)
+    assertTrue("Test requires multiple segments", log.numberOfSegments > 2)
+    logManager.shutdown()
+
+    logManager = createLogManager(indexUnmapIdleMs = 1000L, indexUnmapMaxMapped = 1)
+    val reloaded = logManager.getLog(tp).get
+    val olderSegment = reloaded.logSegments.head
+    val newerSegment = reloaded.logSegments.drop(1).head
+    def mappedIndexes = reloaded.logSegments.flatMap(segment => Seq(segment.index, segment.timeIndex)).filter(_.isMapped)
+
+    time.sleep(1000)
+    reloaded.read(olderSegment.baseOffset + 1, 1024, maxOffset = None, minOneMessage = true, isolationLevel = IsolationLevel.READ_UNCOMMITTED)
+    time.sleep(1000)
+    reloaded.read(newerSegment.baseOffset + 1, 1024, maxOffset = None, minOneMessage = true, isolationLevel = IsolationLevel.READ_UNCOMMITTED)
+    assertTrue(olderSegment.index.isMapped)
+    assertTrue(newerSegment.index.isMapped)
+
+    // all the mapped indexes are idle now, but only the least recently used ones are unmapped to meet the cap
+    time.sleep(1000)
+    logManager.unmapIdleIndexes()
+    assertFalse(olderSegment.index.isMapped)
+    assertEquals(1, mappedIndexes.size)
+    assertTrue(mappedIndexes.forall(index => index == newerSegment.index || index == newerSegment.timeIndex))
+  }
+
+  @Test
+  def testGroupCommitFlushesAppendsInBackground() {
+    logManager.shutdown()
+    logManager = createLogManager(groupCommitEnabled = true)
+    val flushedPartitions = new ConcurrentLinkedQueue[TopicPartition]
+    logManager.setGroupCommitListener(flushedPartitions.add)
+    logManager.startup()
+
+    val tp = new TopicPartition(name, 0)
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, 1: java.lang.Integer)
+    val log = logManager.getOrCreateLog(tp, LogConfig(logProps))
+    for (_ <- 0 until 10)
+      log.appendAsLeader(TestUtils.singletonRecords("test".getBytes()), leaderEpoch = 0)
+
+    TestUtils.waitUntilTrue(() => log.recoveryPoint == log.logEndOffset && flushedPartitions.contains(tp),
+      "The group commit flusher should flush the log and notify the listener")
+    assertFalse(log.isFlushPending(log.logEndOffset))
+  }
+
+  private def createLogManager(logDirs: Seq[File] = Seq(this.logDir), segmentRecoveryThreads: Int = 0,
+                               indexUnmapIdleMs: Long = Long.MaxValue, indexUnmapMaxMapped: Int = 0,
+                               groupCommitEnabled: Boolean = false): LogManager = {
     TestUtils.createLogManager(
       defaultConfig = logConfig,
       logDirs = logDirs,
-      time = this.time)
+      time = this.time,
+      segmentRecoveryThreads = segmentRecoveryThreads,
+      indexUnmapIdleMs = indexUnmapIdleMs,
+      indexUnmapMaxMapped = indexUnmapMaxMapped,
+      groupCommitEnabled = groupCommitEnabled)
   }
 
   @Test
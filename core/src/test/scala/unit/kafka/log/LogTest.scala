@@ -20,6 +20,7 @@ package kafka.log
 import java.io._
 import java.nio.ByteBuffer
 import java.util.Properties
+import java.util.concurrent.{ExecutorService, Executors}
 
 import org.apache.kafka.common.errors._
 import kafka.common.KafkaException
@@ -2626,6 +2627,73 @@ class LogTest {
     assertEquals(List(new AbortedTxn(pid1, 0L, 29L, 8L), new AbortedTxn(pid2, 8L, 74L, 36L)), abortedTransactions)
   }
 
+  @Test
+  def testParallelTransactionIndexRecovery(): Unit = {
+    val logConfig = createLogConfig(segmentBytes = 128 * 2)
+    val log = createLog(logDir, logConfig)
+    val epoch = 0.toShort
+
+    val pid1 = 1L
+    val pid2 = 2L
+    val appendPid1 = appendTransactionalAsLeader(log, pid1, epoch)
+    val appendPid2 = appendTransactionalAsLeader(log, pid2, epoch)
+
+    appendPid1(5) // nextOffset: 5
+    appendNonTransactionalAsLeader(log, 3) // 8
+    appendPid2(2) // 10
+    appendPid1(10) // 20
+    appendEndTxnMarkerAsLeader(log, pid1, epoch, ControlRecordType.ABORT) // 21
+    appendNonTransactionalAsLeader(log, 10) // 31
+    appendPid2(6) // 37
+    appendEndTxnMarkerAsLeader(log, pid2, epoch, ControlRecordType.ABORT) // 38
+    appendNonTransactionalAsLeader(log, 10) // 48
+    val expectedAbortedTransactions = allAbortedTransactions(log).toList
+    assertEquals(2, expectedAbortedTransactions.size)
+    assertTrue("Test requires multiple segments", log.numberOfSegments > 2)
+    val logEndOffset = log.logEndOffset
+
+    // keep the offset indexes so that the segments are only recovered from the recovery point
+    log.logSegments.foreach(_.txnIndex.delete())
+    log.close()
+
+    val pool = Executors.newWorkStealingPool(4)
+    try {
+      val progress = new LogRecoveryProgress(mockTime)
+      val bytesToRecover = log.logSegments.map(_.size.toLong).sum
+      progress.addBytesToRecover(bytesToRecover)
+      val reloadedLog = createLog(logDir, logConfig, segmentRecoveryPool = Some(pool), recoveryProgress = Some(progress))
+      assertEquals(logEndOffset, reloadedLog.logEndOffset)
+      assertEquals(expectedAbortedTransactions, allAbortedTransactions(reloadedLog).toList)
+      assertEquals(0L, progress.remainingBytes)
+    } finally {
+      pool.shutdown()
+    }
+  }
+
+  @Test
+  def testParallelRecoveryTruncatesAfterCorruptSegment(): Unit = {
+    val logConfig = createLogConfig(segmentBytes = 1000, indexIntervalBytes = 1)
+    var log = createLog(logDir, logConfig)
+    for (_ <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = "test".getBytes, timestamp = mockTime.milliseconds), leaderEpoch = 0)
+    assertTrue("Test requires multiple segments", log.numberOfSegments > 3)
+    val corruptSegment = log.logSegments.toSeq(1)
+    val corruptSegmentNextOffset = corruptSegment.nextOffset()
+    log.close()
+
+    // corrupt the end of the second segment, the segments after it should be discarded
+    TestUtils.appendNonsenseToFile(corruptSegment.log.file, 100)
+
+    val pool = Executors.newWorkStealingPool(4)
+    try {
+      log = createLog(logDir, logConfig, segmentRecoveryPool = Some(pool))
+      assertEquals(corruptSegmentNextOffset, log.logEndOffset)
+      assertEquals(2, log.numberOfSegments)
+    } finally {
+      pool.shutdown()
+    }
+  }
+
   @Test
   def testRecoverOnlyLastSegment(): Unit = {
     val logConfig = createLogConfig(segmentBytes = 128 * 5)
@@ -2939,6 +3007,89 @@ class LogTest {
     assertEquals(new AbortedTransaction(pid, 0), fetchDataInfo.abortedTransactions.get.head)
   }
 
+  @Test
+  def testGroupCommitAppliesToLeaderAppendsOnly(): Unit = {
+    // the flusher is not started, so the flushes requested from it stay pending
+    val flusher = new GroupCommitFlusher(tmpDir)
+    val log = createLog(logDir, groupCommitLogConfig, groupCommitFlusher = Some(flusher))
+
+    log.appendAsLeader(TestUtils.singletonRecords("a".getBytes), leaderEpoch = 0)
+    assertTrue(log.isFlushPending(log.logEndOffset))
+    assertEquals(0L, log.recoveryPoint)
+
+    // a follower fetches past the messages it appended, so it flushes them before acknowledging them
+    val followerRecords = TestUtils.records(baseOffset = log.logEndOffset, records = List(new SimpleRecord("b".getBytes)))
+    followerRecords.batches.asScala.foreach(_.setPartitionLeaderEpoch(0))
+    log.appendAsFollower(followerRecords)
+    assertEquals(log.logEndOffset, log.recoveryPoint)
+    assertFalse(log.isFlushPending(log.logEndOffset))
+  }
+
+  @Test
+  def testFailedGroupCommitFlush(): Unit = {
+    // the flusher is not started, its work loop is run by the test
+    val flusher = new GroupCommitFlusher(tmpDir)
+    val flushedPartitions = ListBuffer[TopicPartition]()
+    flusher.setListener(flushedPartitions += _)
+    var failFlush = true
+    val maxProducerIdExpirationMs = 60 * 60 * 1000
+    val topicPartition = Log.parseTopicPartitionName(logDir)
+    val log = new Log(logDir, groupCommitLogConfig, logStartOffset = 0L, recoveryPoint = 0L, mockTime.scheduler,
+      brokerTopicStats, mockTime, maxProducerIdExpirationMs, LogManager.ProducerIdExpirationCheckIntervalMs,
+      topicPartition, new ProducerStateManager(topicPartition, logDir, maxProducerIdExpirationMs),
+      new LogDirFailureChannel(10), groupCommitFlusher = Some(flusher)) {
+
+      override def flush(offset: Long): Unit = {
+        if (failFlush)
+          throw new IllegalStateException("Injected flush failure")
+        super.flush(offset)
+      }
+    }
+
+    log.appendAsLeader(TestUtils.singletonRecords("a".getBytes), leaderEpoch = 0)
+    val failedOffset = log.logEndOffset
+    assertFalse(log.isFlushFailed(failedOffset))
+
+    flusher.doWork()
+    assertEquals(List(log.topicPartition), flushedPartitions.toList)
+    assertTrue(log.isFlushFailed(failedOffset))
+
+    // messages appended after the failed flush wait for the next flush rather than fail
+    log.appendAsLeader(TestUtils.singletonRecords("b".getBytes), leaderEpoch = 0)
+    assertFalse(log.isFlushFailed(log.logEndOffset))
+    assertTrue(log.isFlushPending(log.logEndOffset))
+
+    // the next successful flush clears the failure
+    failFlush = false
+    flusher.doWork()
+    assertFalse(log.isFlushFailed(failedOffset))
+    assertFalse(log.isFlushPending(log.logEndOffset))
+    assertEquals(log.logEndOffset, log.recoveryPoint)
+  }
+
+  @Test
+  def testGroupCommitFlushIOErrorIsLeftToLogDirFailure(): Unit = {
+    // the flusher is not started, its work loop is run by the test
+    val flusher = new GroupCommitFlusher(tmpDir)
+    val flushedPartitions = ListBuffer[TopicPartition]()
+    flusher.setListener(flushedPartitions += _)
+    val log = createLog(logDir, groupCommitLogConfig, groupCommitFlusher = Some(flusher))
+
+    log.appendAsLeader(TestUtils.singletonRecords("a".getBytes), leaderEpoch = 0)
+
+    // flushing a log whose handlers are closed fails with a storage error, which takes the log dir offline instead
+    log.closeHandlers()
+    flusher.doWork()
+    assertEquals(List(log.topicPartition), flushedPartitions.toList)
+    assertFalse(log.isFlushFailed(log.logEndOffset))
+  }
+
+  private def groupCommitLogConfig: LogConfig = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, 1: java.lang.Integer)
+    LogConfig(logProps)
+  }
+
   def createLogConfig(segmentMs: Long = Defaults.SegmentMs,
                       segmentBytes: Int = Defaults.SegmentSize,
                       retentionMs: Long = Defaults.RetentionMs,
@@ -2974,7 +3125,10 @@ class LogTest {
                 brokerTopicStats: BrokerTopicStats = brokerTopicStats,
                 time: Time = mockTime,
                 maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
-                producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs): Log = {
+                producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs,
+                segmentRecoveryPool: Option[ExecutorService] = None,
+                recoveryProgress: Option[LogRecoveryProgress] = None,
+                groupCommitFlusher: Option[GroupCommitFlusher] = None): Log = {
     Log(dir = dir,
         config = config,
         logStartOffset = logStartOffset,
@@ -2984,7 +3138,10 @@ class LogTest {
         time = time,
         maxProducerIdExpirationMs = maxProducerIdExpirationMs,
         producerIdExpirationCheckIntervalMs = producerIdExpirationCheckIntervalMs,
-        logDirFailureChannel = new LogDirFailureChannel(10))
+        logDirFailureChannel = new LogDirFailureChannel(10),
+        segmentRecoveryPool = segmentRecoveryPool,
+        recoveryProgress = recoveryProgress,
+        groupCommitFlusher = groupCommitFlusher)
   }
 
   private def allAbortedTransactions(log: Log) = log.logSegments.flatMap(_.txnIndex.allAbortedTxns)
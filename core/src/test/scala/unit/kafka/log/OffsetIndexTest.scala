@@ -28,7 +28,7 @@ import org.scalatest.junit.JUnitSuite
 
 import scala.collection._
 import scala.util.Random
-import kafka.utils.TestUtils
+import kafka.utils.{MockTime, TestUtils}
 import kafka.common.InvalidOffsetException
 
 class OffsetIndexTest extends JUnitSuite {
@@ -173,9 +173,76 @@ class OffsetIndexTest extends JUnitSuite {
   @Test
   def forceUnmapTest(): Unit = {
     val idx = new OffsetIndex(nonExistentTempFile(), baseOffset = 0L, maxIndexSize = 10 * 8)
+    idx.append(1, 10)
+    assertTrue(idx.isMapped)
     idx.forceUnmap()
-    // mmap should be null after unmap causing lookup to throw a NPE
-    intercept[NullPointerException](idx.lookup(1))
+    assertFalse(idx.isMapped)
+    // the index is mapped again on the next access
+    assertEquals(OffsetPosition(1, 10), idx.lookup(1))
+    assertTrue(idx.isMapped)
+    // but not once its handlers are closed
+    idx.closeHandler()
+    intercept[IllegalStateException](idx.lookup(1))
+  }
+
+  @Test
+  def testIndexIsMappedOnFirstAccess(): Unit = {
+    val file = nonExistentTempFile()
+    val idx = new OffsetIndex(file, baseOffset = 45L, maxIndexSize = 30 * 8)
+    for (i <- 1 to 10)
+      idx.append(45L + i * 2, i * 20)
+    idx.trimToValidSize()
+    idx.closeHandler()
+
+    val reopened = new OffsetIndex(file, baseOffset = 45L, maxIndexSize = 30 * 8)
+    assertFalse("Loading an index should not map it", reopened.isMapped)
+    assertEquals(10, reopened.entries)
+    assertEquals(65L, reopened.lastOffset)
+    reopened.sanityCheck()
+    assertFalse(reopened.isMapped)
+
+    assertEquals(OffsetPosition(51L, 60), reopened.lookup(52L))
+    assertTrue(reopened.isMapped)
+    reopened.closeHandler()
+  }
+
+  @Test
+  def testUnmapIfIdle(): Unit = {
+    val idx = new OffsetIndex(nonExistentTempFile(), baseOffset = 0L, maxIndexSize = 30 * 8)
+    idx.append(5, 50)
+    val lastAccessMs = idx.lastAccessTimeMs
+
+    assertFalse(idx.unmapIfIdle(lastAccessMs + 99, 100))
+    assertTrue(idx.isMapped)
+    assertTrue(idx.unmapIfIdle(lastAccessMs + 100, 100))
+    assertFalse(idx.isMapped)
+    assertFalse("An unmapped index cannot be unmapped again", idx.unmapIfIdle(lastAccessMs + 100, 100))
+
+    // the appended entry survives the unmapping and further appends continue after it
+    idx.append(7, 70)
+    assertEquals(2, idx.entries)
+    assertEquals(OffsetPosition(5, 50), idx.lookup(6))
+    assertEquals(OffsetPosition(7, 70), idx.lookup(7))
+  }
+
+  @Test
+  def testLastAccessTimeFollowsTheGivenTime(): Unit = {
+    val time = new MockTime()
+    val idx = new OffsetIndex(nonExistentTempFile(), baseOffset = 0L, maxIndexSize = 30 * 8, time = time)
+    idx.append(5, 50)
+    val mappedMs = time.milliseconds
+    assertEquals(mappedMs, idx.lastAccessTimeMs)
+
+    // accesses within the granularity of the access time do not move it
+    time.sleep(AbstractIndex.AccessTimeGranularityMs - 1)
+    idx.lookup(5)
+    assertEquals(mappedMs, idx.lastAccessTimeMs)
+
+    time.sleep(1)
+    idx.lookup(5)
+    assertEquals(time.milliseconds, idx.lastAccessTimeMs)
+    assertFalse(idx.unmapIfIdle(time.milliseconds + 1999, 2000))
+    assertTrue(idx.unmapIfIdle(time.milliseconds + 2000, 2000))
   }
   
   def assertWriteFails[T](message: String, idx: OffsetIndex, offset: Int, klass: Class[T]) {
@@ -33,10 +33,22 @@ class OffsetMapTest extends JUnitSuite {
     validateMap(1000)
     validateMap(5000)
   }
+
+  @Test
+  def testOffHeapBasicValidation() {
+    validateMap(10, mapType = OffsetMap.OffHeap)
+    validateMap(100, mapType = OffsetMap.OffHeap)
+    validateMap(1000, mapType = OffsetMap.OffHeap)
+    validateMap(5000, mapType = OffsetMap.OffHeap)
+  }
   
   @Test
   def testClear() {
-    val map = new SkimpyOffsetMap(4000)
+    verifyClear(new SkimpyOffsetMap(4000))
+    verifyClear(new OffHeapOffsetMap(4000))
+  }
+
+  private def verifyClear(map: OffsetMap) {
     for(i <- 0 until 10)
       map.put(key(i), i)
     for(i <- 0 until 10)
@@ -48,7 +60,11 @@ class OffsetMapTest extends JUnitSuite {
   
   @Test
   def testGetWhenFull() {
-    val map = new SkimpyOffsetMap(4096)
+    verifyGetWhenFull(new SkimpyOffsetMap(4096))
+    verifyGetWhenFull(new OffHeapOffsetMap(4096))
+  }
+
+  private def verifyGetWhenFull(map: OffsetMap) {
     var i = 37L  //any value would do
     while (map.size < map.slots) {
       map.put(key(i), i)
@@ -58,10 +74,78 @@ class OffsetMapTest extends JUnitSuite {
     assertEquals(map.get(key(i-1L)), i-1L)
   }
 
+  @Test
+  def testOffHeapMapFitsMoreKeys() {
+    // 24 bytes per key for MD5 and 20 bytes per key for the off-heap map
+    assertEquals(200, new SkimpyOffsetMap(4800).slots)
+    assertEquals(240, new OffHeapOffsetMap(4800).slots)
+    // memory which does not fit a whole slot is left unused
+    assertEquals(240, new OffHeapOffsetMap(4819).slots)
+  }
+
+  @Test
+  def testOffHeapMapClose() {
+    val map = new OffHeapOffsetMap(4000)
+    map.put(key(1), 10L)
+    map.close()
+    // closing twice is harmless
+    map.close()
+  }
+
+  @Test
+  def testOffHeapKeysWithSamePlacingHashAreDistinguished() {
+    // every key is placed with the same hash, so only the check hash tells them apart
+    val map = new OffHeapOffsetMap(4000) {
+      override private[log] def hashOf(key: ByteBuffer): Long = 42L
+    }
+    map.put(key(1), 10L)
+    assertEquals(-1L, map.get(key(2)))
+    map.put(key(2), 20L)
+    assertEquals(2, map.size)
+    assertEquals(10L, map.get(key(1)))
+    assertEquals(20L, map.get(key(2)))
+
+    map.put(key(1), 30L)
+    assertEquals(2, map.size)
+    assertEquals(30L, map.get(key(1)))
+    assertEquals(20L, map.get(key(2)))
+  }
+
+  @Test
+  def testOffHeapUpdateExistingKey() {
+    val map = new OffHeapOffsetMap(4000)
+    map.put(key(1), 10L)
+    map.put(key(1), 20L)
+    assertEquals(1, map.size)
+    assertEquals(20L, map.get(key(1)))
+    assertEquals(20L, map.latestOffset)
+  }
+
+  @Test
+  def testOffHeapOffsetRange() {
+    val map = new OffHeapOffsetMap(4000)
+    val base = 1L << 40
+    assertTrue(map.canStore(0L))
+    map.put(key(0), base)
+    assertTrue(map.canStore(base + 0xFFFFFFFFL))
+    assertFalse(map.canStore(base + 0x100000000L))
+    assertFalse(map.canStore(base - 1))
+    map.put(key(1), base + 0xFFFFFFFFL)
+    assertEquals(base, map.get(key(0)))
+    assertEquals(base + 0xFFFFFFFFL, map.get(key(1)))
+
+    // the base offset is reset by clear
+    map.clear()
+    assertTrue(map.canStore(0L))
+    map.put(key(0), 0L)
+    assertEquals(0L, map.get(key(0)))
+  }
+
   def key(key: Long) = ByteBuffer.wrap(key.toString.getBytes)
   
-  def validateMap(items: Int, loadFactor: Double = 0.5): SkimpyOffsetMap = {
-    val map = new SkimpyOffsetMap((items/loadFactor * 24).toInt)
+  def validateMap(items: Int, loadFactor: Double = 0.5, mapType: String = OffsetMap.Skimpy): OffsetMap = {
+    val bytesPerEntry = if (mapType == OffsetMap.Skimpy) 24 else 20
+    val map = OffsetMap(mapType, (items/loadFactor * bytesPerEntry).toInt, "MD5")
     for(i <- 0 until items)
       map.put(key(i), i)
     for(i <- 0 until items)
@@ -73,15 +157,16 @@ class OffsetMapTest extends JUnitSuite {
 
 object OffsetMapTest {
   def main(args: Array[String]) {
-    if(args.length != 2) {
-      System.err.println("USAGE: java OffsetMapTest size load")
+    if(args.length < 2) {
+      System.err.println("USAGE: java OffsetMapTest size load [skimpy|offheap]")
       Exit.exit(1)
     }
     val test = new OffsetMapTest()
     val size = args(0).toInt
     val load = args(1).toDouble
+    val mapType = if (args.length > 2) args(2) else OffsetMap.Skimpy
     val start = System.nanoTime
-    val map = test.validateMap(size, load)
+    val map = test.validateMap(size, load, mapType)
     val ellapsedMs = (System.nanoTime - start) / 1000.0 / 1000.0
     println(map.size + " entries in map of size " + map.slots + " in " + ellapsedMs + " ms")
     println("Collision rate: %.1f%%".format(100*map.collisionRate))
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.network
+
+import java.net.InetAddress
+import java.util.{Collections, LinkedHashMap}
+
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.memory.MemoryPool
+import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.protocol.ApiKeys
+import org.apache.kafka.common.record.MemoryRecords
+import org.apache.kafka.common.requests._
+import org.apache.kafka.common.security.auth.{KafkaPrincipal, SecurityProtocol}
+import org.junit.Assert._
+import org.junit.{After, Test}
+
+import scala.collection.mutable.ArrayBuffer
+
+class RequestChannelTest {
+
+  private val tp = new TopicPartition("topic", 0)
+  private val metrics = new RequestChannel.Metrics
+  private val channels = new ArrayBuffer[RequestChannel]
+
+  @After
+  def tearDown(): Unit = {
+    channels.foreach(_.shutdown())
+    metrics.close()
+  }
+
+  @Test
+  def testRequestsAreHandledInOrderByDefault(): Unit = {
+    val channel = requestChannel(numProcessors = 1, perProcessorQueues = false, prioritizeControlRequests = false)
+    val requests = Seq(produceRequest(0), followerFetchRequest(0), stopReplicaRequest(0))
+    requests.foreach(channel.sendRequest)
+    assertEquals(requests, requests.map(_ => channel.receiveRequest(100)))
+    assertNull(channel.receiveRequest(10))
+  }
+
+  @Test
+  def testControlRequestsAreHandledFirst(): Unit = {
+    val channel = requestChannel(numProcessors = 1, perProcessorQueues = false, prioritizeControlRequests = true)
+    val produce = produceRequest(0)
+    val consumerFetch = consumerFetchRequest(0)
+    val followerFetch = followerFetchRequest(0)
+    val stopReplica = stopReplicaRequest(0)
+    Seq(produce, consumerFetch, followerFetch, stopReplica).foreach(channel.sendRequest)
+
+    assertEquals(Seq(followerFetch, stopReplica, produce, consumerFetch), (0 until 4).map(_ => channel.receiveRequest(100)))
+    assertNull(channel.receiveRequest(10))
+  }
+
+  @Test
+  def testHandlersStealFromOtherProcessors(): Unit = {
+    val channel = requestChannel(numProcessors = 2, perProcessorQueues = true, prioritizeControlRequests = false)
+    val fromFirst = produceRequest(0)
+    val fromSecond = produceRequest(1)
+    channel.sendRequest(fromFirst)
+    channel.sendRequest(fromSecond)
+
+    // the handler assigned to the second processor takes its requests first
+    assertEquals(fromSecond, channel.receiveRequest(100, 1))
+    assertEquals(fromFirst, channel.receiveRequest(100, 1))
+    assertNull(channel.receiveRequest(10, 1))
+  }
+
+  @Test
+  def testControlRequestsAreHandledFirstWithPerProcessorQueues(): Unit = {
+    val channel = requestChannel(numProcessors = 2, perProcessorQueues = true, prioritizeControlRequests = true)
+    val produce = produceRequest(1)
+    val stopReplica = stopReplicaRequest(0)
+    channel.sendRequest(produce)
+    channel.sendRequest(stopReplica)
+
+    assertEquals(stopReplica, channel.receiveRequest(100, 1))
+    assertEquals(produce, channel.receiveRequest(100, 1))
+    assertNull(channel.receiveRequest(10, 1))
+  }
+
+  @Test
+  def testShutdownRequestWithPerProcessorQueues(): Unit = {
+    val channel = requestChannel(numProcessors = 2, perProcessorQueues = true, prioritizeControlRequests = true)
+    channel.sendShutdownRequest()
+    assertEquals(RequestChannel.ShutdownRequest, channel.receiveRequest(100, 1))
+  }
+
+  @Test
+  def testClearWithPerProcessorQueues(): Unit = {
+    val channel = requestChannel(numProcessors = 2, perProcessorQueues = true, prioritizeControlRequests = true)
+    channel.sendRequest(produceRequest(0))
+    channel.sendRequest(stopReplicaRequest(1))
+    channel.clear()
+    assertNull(channel.receiveRequest(10, 0))
+
+    val produce = produceRequest(1)
+    channel.sendRequest(produce)
+    assertEquals(produce, channel.receiveRequest(100, 0))
+  }
+
+  private def requestChannel(numProcessors: Int, perProcessorQueues: Boolean, prioritizeControlRequests: Boolean): RequestChannel = {
+    val channel = new RequestChannel(numProcessors, 10, perProcessorQueues, prioritizeControlRequests)
+    channels += channel
+    channel
+  }
+
+  private def produceRequest(processor: Int): RequestChannel.Request =
+    buildRequest(processor, ProduceRequest.Builder.forCurrentMagic(1, 5000,
+      Collections.singletonMap(tp, MemoryRecords.EMPTY)))
+
+  private def consumerFetchRequest(processor: Int): RequestChannel.Request =
+    buildRequest(processor, FetchRequest.Builder.forConsumer(500, 1, fetchData))
+
+  private def followerFetchRequest(processor: Int): RequestChannel.Request =
+    buildRequest(processor, FetchRequest.Builder.forReplica(ApiKeys.FETCH.latestVersion, 1, 500, 1, fetchData))
+
+  private def stopReplicaRequest(processor: Int): RequestChannel.Request =
+    buildRequest(processor, new StopReplicaRequest.Builder(0, 1, false, Collections.singleton(tp)))
+
+  private def fetchData: LinkedHashMap[TopicPartition, FetchRequest.PartitionData] = {
+    val fetchData = new LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    fetchData.put(tp, new FetchRequest.PartitionData(0, 0, 1000))
+    fetchData
+  }
+
+  private def buildRequest[T <: AbstractRequest](processor: Int, builder: AbstractRequest.Builder[T]): RequestChannel.Request = {
+    val request = builder.build()
+    val buffer = request.serialize(new RequestHeader(builder.apiKey, request.version, "", 0))
+
+    // read the header from the buffer first so that the body can be read next from the Request constructor
+    val header = RequestHeader.parse(buffer)
+    val context = new RequestContext(header, processor.toString, InetAddress.getLocalHost, KafkaPrincipal.ANONYMOUS,
+      new ListenerName(""), SecurityProtocol.PLAINTEXT)
+    new RequestChannel.Request(processor, context, 0, MemoryPool.NONE, buffer, metrics)
+  }
+}
@@ -185,6 +185,36 @@ class SocketServerTest extends JUnitSuite {
     assertEquals(serializedBytes.toSeq, receiveResponse(plainSocket).toSeq)
   }
 
+  @Test
+  def testPerProcessorRequestQueues() {
+    val overrideProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    overrideProps.put(KafkaConfig.NumNetworkThreadsProp, "2")
+    overrideProps.put(KafkaConfig.QueuedRequestsPerProcessorProp, "true")
+    val serverMetrics = new Metrics()
+    val overrideServer = new SocketServer(KafkaConfig.fromProps(overrideProps), serverMetrics, Time.SYSTEM, credentialProvider)
+    try {
+      overrideServer.startup()
+      val serializedBytes = producerRequestBytes
+      val conns = (0 until 4).map(_ => connect(overrideServer))
+      conns.foreach(sendRequest(_, serializedBytes))
+
+      // a single handler takes the requests of every processor
+      val requests = conns.map { _ =>
+        overrideServer.requestChannel.receiveRequest(2000, 1) match {
+          case request: RequestChannel.Request => request
+          case other => fail(s"Unexpected request $other")
+        }
+      }
+      assertEquals(2, requests.map(_.processor).toSet.size)
+      assertNull(overrideServer.requestChannel.receiveRequest(100, 1))
+
+      requests.foreach(processRequest(overrideServer.requestChannel, _))
+      conns.foreach(socket => assertEquals(serializedBytes.toSeq, receiveResponse(socket).toSeq))
+    } finally {
+      shutdownServerAndMetrics(overrideServer)
+    }
+  }
+
   @Test
   def tooBigRequestIsRejected() {
     val tooManyBytes = new Array[Byte](server.config.socketRequestMaxBytes + 1)
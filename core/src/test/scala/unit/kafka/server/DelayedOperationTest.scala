@@ -104,6 +104,36 @@ class DelayedOperationTest {
     assertEquals("Purgatory should have 1 watched elements instead of " + purgatory.watched, 1, purgatory.watched)
   }
 
+  @Test
+  def testWatchersSpreadOverStripes() {
+    purgatory.shutdown()
+    purgatory = DelayedOperationPurgatory[MockDelayedOperation](purgatoryName = "mock", watcherStripes = 4)
+
+    val keys = (0 until 20).map(i => s"test$i")
+    val operations = keys.map { key =>
+      val op = new MockDelayedOperation(100000L)
+      assertFalse("Operation not satisfied and hence watched", purgatory.tryCompleteElseWatch(op, Seq(key)))
+      key -> op
+    }.toMap
+    val sharedOp = new MockDelayedOperation(100000L)
+    assertFalse(purgatory.tryCompleteElseWatch(sharedOp, keys))
+    assertEquals(40, purgatory.watched)
+
+    // completing an operation on one key does not disturb the keys sharing its stripe
+    operations("test0").completable = true
+    assertEquals(1, purgatory.checkAndComplete("test0"))
+    keys.tail.foreach(key => assertFalse(operations(key).isCompleted))
+    assertEquals(39, purgatory.watched)
+
+    assertEquals(2, purgatory.cancelForKey("test1").size)
+    assertEquals(37, purgatory.watched)
+
+    sharedOp.completable = true
+    assertEquals(1, purgatory.checkAndComplete("test2"))
+    keys.drop(3).foreach(key => assertEquals(0, purgatory.checkAndComplete(key)))
+    assertEquals(19, purgatory.watched)
+  }
+
   @Test
   def shouldCancelForKeyReturningCancelledOperations() {
     purgatory.tryCompleteElseWatch(new MockDelayedOperation(10000L), Seq("key"))
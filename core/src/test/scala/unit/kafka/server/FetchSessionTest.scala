@@ -0,0 +1,190 @@
+/**
+  * Licensed to the Apache Software Foundation (ASF) under one or more
+  * contributor license agreements.  See the NOTICE file distributed with
+  * this work for additional information regarding copyright ownership.
+  * The ASF licenses this file to You under the Apache License, Version 2.0
+  * (the "License"); you may not use this file except in compliance with
+  * the License.  You may obtain a copy of the License at
+  *
+  * http://www.apache.org/licenses/LICENSE-2.0
+  *
+  * Unless required by applicable law or agreed to in writing, software
+  * distributed under the License is distributed on an "AS IS" BASIS,
+  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  * See the License for the specific language governing permissions and
+  * limitations under the License.
+  */
+package kafka.server
+
+import java.util
+import java.util.Collections
+
+import kafka.utils.MockTime
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.MemoryRecords
+import org.apache.kafka.common.requests.FetchMetadata.{FINAL_EPOCH, INVALID_SESSION_ID}
+import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, FetchMetadata => JFetchMetadata}
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.JavaConverters._
+
+class FetchSessionTest {
+  private val time = new MockTime()
+  private val foo0 = new TopicPartition("foo", 0)
+  private val foo1 = new TopicPartition("foo", 1)
+
+  private def dummyCreate(size: Int)(): FetchSession.CACHE_MAP = {
+    val cacheMap = new FetchSession.CACHE_MAP(size)
+    for (i <- 0 until size) {
+      val tp = new TopicPartition("test", i)
+      cacheMap.put(tp, new CachedPartition(tp, new FetchRequest.PartitionData(0, 0, 100)))
+    }
+    cacheMap
+  }
+
+  private def respData(highWatermark: Long): FetchResponse.PartitionData =
+    new FetchResponse.PartitionData(Errors.NONE, highWatermark, highWatermark, 0, null, MemoryRecords.EMPTY)
+
+  private def fetchData(partitions: (TopicPartition, Long)*): util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData] = {
+    val data = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    partitions.foreach { case (tp, offset) => data.put(tp, new FetchRequest.PartitionData(offset, 0, 100)) }
+    data
+  }
+
+  @Test
+  def testSessionCache(): Unit = {
+    val cache = new FetchSessionCache(3, 100)
+    assertEquals(0, cache.size)
+    val id1 = cache.maybeCreateSession(0, false, 10, dummyCreate(10))
+    val id2 = cache.maybeCreateSession(10, false, 20, dummyCreate(20))
+    val id3 = cache.maybeCreateSession(20, false, 30, dummyCreate(30))
+    assertEquals(3, cache.size)
+    assertEquals(60, cache.totalPartitions)
+
+    // the cache is full and none of the entries are old enough to be evicted
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(30, false, 40, dummyCreate(40)))
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(40, false, 5, dummyCreate(5)))
+    assertEquals(3, cache.size)
+
+    // once the first session is stale, it is replaced
+    cache.touch(cache.get(id1).get, 200)
+    val id4 = cache.maybeCreateSession(210, false, 11, dummyCreate(11))
+    assertTrue(cache.get(id1).isDefined)
+    assertFalse(cache.get(id2).isDefined)
+    assertTrue(cache.get(id3).isDefined)
+    assertTrue(cache.get(id4).isDefined)
+    assertEquals(51, cache.totalPartitions)
+
+    val id5 = cache.maybeCreateSession(215, false, 40, dummyCreate(40))
+    assertNotEquals(INVALID_SESSION_ID, id5)
+    assertFalse(cache.get(id3).isDefined)
+
+    // a session which is not stale can only be evicted by a bigger one once it is old enough
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(250, false, 5, dummyCreate(5)))
+    val id6 = cache.maybeCreateSession(250, false, 40, dummyCreate(40))
+    assertNotEquals(INVALID_SESSION_ID, id6)
+    assertEquals(3, cache.size)
+    assertFalse(cache.get(id1).isDefined)
+    assertTrue(cache.get(id4).isDefined)
+    assertTrue(cache.get(id5).isDefined)
+  }
+
+  @Test
+  def testPrivilegedSessionEvictsUnprivileged(): Unit = {
+    val cache = new FetchSessionCache(2, 1000)
+    val id1 = cache.maybeCreateSession(0, false, 100, dummyCreate(100))
+    val id2 = cache.maybeCreateSession(10, true, 5, dummyCreate(5))
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(20, false, 200, dummyCreate(200)))
+
+    // a follower session is always more valuable than a recent consumer session
+    val id3 = cache.maybeCreateSession(30, true, 5, dummyCreate(5))
+    assertNotEquals(INVALID_SESSION_ID, id3)
+    assertFalse(cache.get(id1).isDefined)
+    assertTrue(cache.get(id2).isDefined)
+    assertTrue(cache.get(id3).isDefined)
+  }
+
+  @Test
+  def testIncrementalFetchSession(): Unit = {
+    val fetchManager = new FetchManager(time, new FetchSessionCache(1000, 1000))
+
+    // an initial full fetch creates a new session
+    val reqData1 = fetchData(foo0 -> 0L, foo1 -> 10L)
+    val context1 = fetchManager.newContext(JFetchMetadata.INITIAL, reqData1,
+      Collections.emptyList[TopicPartition], false)
+    assertEquals(classOf[FullFetchContext], context1.getClass)
+    assertEquals(Some(10L), context1.getFetchOffset(foo1))
+    val respData1 = new FetchSession.RESP_MAP
+    respData1.put(foo0, respData(20))
+    respData1.put(foo1, respData(30))
+    val resp1 = context1.updateAndGenerateResponseData(respData1)
+    assertEquals(Errors.NONE, resp1.error)
+    assertNotEquals(INVALID_SESSION_ID, resp1.sessionId)
+    assertEquals(2, resp1.responseData.size)
+
+    // an incremental fetch which does not list any partition still fetches all of them
+    val context2 = fetchManager.newContext(new JFetchMetadata(resp1.sessionId, 1),
+      fetchData(foo1 -> 15L), Collections.emptyList[TopicPartition], false)
+    assertEquals(classOf[IncrementalFetchContext], context2.getClass)
+    val visited = new util.ArrayList[TopicPartition]
+    context2.foreachPartition((tp, _) => visited.add(tp))
+    assertEquals(util.Arrays.asList(foo0, foo1), visited)
+    assertEquals(Some(15L), context2.getFetchOffset(foo1))
+
+    // only the partitions whose metadata changed are returned
+    val respData2 = new FetchSession.RESP_MAP
+    respData2.put(foo0, respData(20))
+    respData2.put(foo1, respData(40))
+    val resp2 = context2.updateAndGenerateResponseData(respData2)
+    assertEquals(Errors.NONE, resp2.error)
+    assertEquals(resp1.sessionId, resp2.sessionId)
+    assertEquals(Collections.singleton(foo1), resp2.responseData.keySet)
+
+    // a request with a stale epoch is rejected
+    val context3 = fetchManager.newContext(new JFetchMetadata(resp1.sessionId, 1),
+      fetchData(), Collections.emptyList[TopicPartition], false)
+    assertEquals(classOf[SessionErrorContext], context3.getClass)
+    assertEquals(Errors.INVALID_FETCH_SESSION_EPOCH,
+      context3.updateAndGenerateResponseData(new FetchSession.RESP_MAP).error)
+
+    // an unknown session id is rejected
+    val context4 = fetchManager.newContext(new JFetchMetadata(resp1.sessionId + 1, 1),
+      fetchData(), Collections.emptyList[TopicPartition], false)
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND,
+      context4.updateAndGenerateResponseData(new FetchSession.RESP_MAP).error)
+
+    // forgetting every partition closes the session
+    val context5 = fetchManager.newContext(new JFetchMetadata(resp1.sessionId, 2),
+      fetchData(), util.Arrays.asList(foo0, foo1), false)
+    assertEquals(classOf[SessionlessFetchContext], context5.getClass)
+    assertEquals(INVALID_SESSION_ID, context5.updateAndGenerateResponseData(new FetchSession.RESP_MAP).sessionId)
+  }
+
+  @Test
+  def testFullFetchClosesExistingSession(): Unit = {
+    val cache = new FetchSessionCache(1000, 1000)
+    val fetchManager = new FetchManager(time, cache)
+    val context1 = fetchManager.newContext(JFetchMetadata.INITIAL, fetchData(foo0 -> 0L),
+      Collections.emptyList[TopicPartition], false)
+    val respData1 = new FetchSession.RESP_MAP
+    respData1.put(foo0, respData(20))
+    val sessionId = context1.updateAndGenerateResponseData(respData1).sessionId
+    assertEquals(1, cache.size)
+
+    // the final epoch closes the session without creating a new one
+    val context2 = fetchManager.newContext(new JFetchMetadata(sessionId, FINAL_EPOCH), fetchData(foo0 -> 0L),
+      Collections.emptyList[TopicPartition], false)
+    assertEquals(classOf[SessionlessFetchContext], context2.getClass)
+    assertEquals(0, cache.size)
+    assertEquals(INVALID_SESSION_ID, context2.updateAndGenerateResponseData(respData1).sessionId)
+
+    // legacy requests never create sessions
+    val context3 = fetchManager.newContext(JFetchMetadata.LEGACY, fetchData(foo0 -> 0L),
+      Collections.emptyList[TopicPartition], false)
+    assertEquals(classOf[SessionlessFetchContext], context3.getClass)
+    assertEquals(respData1.asScala.keySet, context3.updateAndGenerateResponseData(respData1).responseData.asScala.keySet)
+    assertEquals(0, cache.size)
+  }
+}
@@ -19,7 +19,7 @@ package kafka.server
 
 import java.io.File
 import java.util.Properties
-import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong}
 
 import kafka.log.LogConfig
 import kafka.utils.{MockScheduler, MockTime, TestUtils}
@@ -180,6 +180,52 @@ class ReplicaManagerTest {
     }
   }
 
+  @Test
+  def testProduceIsAcknowledgedAfterGroupCommitFlush() {
+    val props = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect)
+    props.put("log.dir", TestUtils.tempRelativeDir("data").getAbsolutePath)
+    val config = KafkaConfig.fromProps(props)
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, 1: java.lang.Integer)
+    val logManager = TestUtils.createLogManager(config.logDirs.map(new File(_)), LogConfig(logProps), groupCommitEnabled = true)
+    logManager.startup()
+    val metadataCache = EasyMock.createMock(classOf[MetadataCache])
+    EasyMock.expect(metadataCache.getAliveBrokers).andReturn(Seq(createBroker(0, "host0", 0))).anyTimes()
+    EasyMock.replay(metadataCache)
+    val rm = new ReplicaManager(config, metrics, time, kafkaZkClient, new MockScheduler(time), logManager,
+      new AtomicBoolean(false), QuotaFactory.instantiate(config, metrics, time, ""), new BrokerTopicStats,
+      metadataCache, new LogDirFailureChannel(config.logDirs.size))
+    rm.startup()
+
+    try {
+      val tp = new TopicPartition(topic, 0)
+      val brokerList = Seq[Integer](0).asJava
+      rm.getOrCreatePartition(tp).getOrCreateReplica(0)
+      val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(ApiKeys.LEADER_AND_ISR.latestVersion, 0, 0,
+        collection.immutable.Map(tp -> new LeaderAndIsrRequest.PartitionState(0, 0, 0, brokerList, 0, brokerList, true)).asJava,
+        Set(new Node(0, "host0", 0)).asJava).build()
+      rm.becomeLeaderOrFollower(0, leaderAndIsrRequest, (_, _) => ())
+      val log = logManager.getLog(tp).get
+
+      // the response is only sent once the flusher of the log directory has flushed the appended messages
+      for (requiredAcks <- Seq[Short](1, -1)) {
+        val recoveryPointOnResponse = new AtomicLong(-1L)
+        val records = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(s"acks $requiredAcks".getBytes))
+        val appendResult = appendRecords(rm, tp, records, requiredAcks = requiredAcks).onFire { _ =>
+          recoveryPointOnResponse.set(log.recoveryPoint)
+        }
+        TestUtils.waitUntilTrue(() => recoveryPointOnResponse.get >= 0, s"Produce with acks=$requiredAcks was not acknowledged")
+        assertEquals(Errors.NONE, appendResult.assertFired.error)
+        assertTrue(s"Response sent before the log was flushed with acks=$requiredAcks",
+          recoveryPointOnResponse.get > appendResult.assertFired.baseOffset)
+      }
+      assertEquals(log.logEndOffset, log.recoveryPoint)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+      logManager.shutdown()
+    }
+  }
+
   @Test
   def testReceiveOutOfOrderSequenceExceptionWithLogStartOffset(): Unit = {
     val timer = new MockTimer
@@ -530,7 +576,8 @@ class ReplicaManagerTest {
   private def appendRecords(replicaManager: ReplicaManager,
                             partition: TopicPartition,
                             records: MemoryRecords,
-                            isFromClient: Boolean = true): CallbackResult[PartitionResponse] = {
+                            isFromClient: Boolean = true,
+                            requiredAcks: Short = -1): CallbackResult[PartitionResponse] = {
     val result = new CallbackResult[PartitionResponse]()
     def appendCallback(responses: Map[TopicPartition, PartitionResponse]): Unit = {
       val response = responses.get(partition)
@@ -540,7 +587,7 @@ class ReplicaManagerTest {
 
     replicaManager.appendRecords(
       timeout = 1000,
-      requiredAcks = -1,
+      requiredAcks = requiredAcks,
       internalTopicsAllowed = false,
       isFromClient = isFromClient,
       entriesPerPartition = Map(partition -> records),
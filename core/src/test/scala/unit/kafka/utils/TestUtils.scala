@@ -1022,17 +1022,25 @@ object TestUtils extends Logging {
   def createLogManager(logDirs: Seq[File] = Seq.empty[File],
                        defaultConfig: LogConfig = LogConfig(),
                        cleanerConfig: CleanerConfig = CleanerConfig(enableCleaner = false),
-                       time: MockTime = new MockTime()): LogManager = {
+                       time: MockTime = new MockTime(),
+                       segmentRecoveryThreads: Int = 0,
+                       indexUnmapIdleMs: Long = Long.MaxValue,
+                       indexUnmapMaxMapped: Int = 0,
+                       groupCommitEnabled: Boolean = false): LogManager = {
     new LogManager(logDirs = logDirs,
                    initialOfflineDirs = Array.empty[File],
                    topicConfigs = Map(),
                    defaultConfig = defaultConfig,
                    cleanerConfig = cleanerConfig,
                    ioThreads = 4,
+                   segmentRecoveryThreads = segmentRecoveryThreads,
                    flushCheckMs = 1000L,
                    flushRecoveryOffsetCheckpointMs = 10000L,
                    flushStartOffsetCheckpointMs = 10000L,
                    retentionCheckMs = 1000L,
+                   indexUnmapIdleMs = indexUnmapIdleMs,
+                   indexUnmapMaxMapped = indexUnmapMaxMapped,
+                   groupCommitEnabled = groupCommitEnabled,
                    maxPidExpirationMs = 60 * 60 * 1000,
                    scheduler = time.scheduler,
                    time = time,
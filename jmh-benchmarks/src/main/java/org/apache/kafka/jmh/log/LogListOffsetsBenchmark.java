@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.log.Log;
+import kafka.log.LogConfig;
+import kafka.log.LogSegment;
+import kafka.log.TimestampOffset;
+import kafka.server.BrokerTopicStats;
+import kafka.server.LogDirFailureChannel;
+import kafka.utils.KafkaScheduler;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.Option;
+import scala.collection.Iterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures how offset lookups on a partition hold up while the same partition is being appended to. The readers
+ * alternate between ListOffsets style timestamp lookups and the segment range lookups used by the cleaner and the
+ * flusher, neither of which should have to wait for appends.
+ */
+@State(Scope.Group)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class LogListOffsetsBenchmark {
+
+    @Param(value = {"1048576"})
+    private int segmentBytes = 1024 * 1024;
+
+    @Param(value = {"100"})
+    private int recordSize = 100;
+
+    private File logDir;
+
+    private KafkaScheduler scheduler;
+
+    private Log log;
+
+    private byte[] value;
+
+    private long startMs;
+
+    @Setup
+    public void setUp() throws IOException {
+        logDir = new File(Files.createTempDirectory("kafka-jmh-").toFile(), "topic-0");
+        scheduler = new KafkaScheduler(1, "kafka-scheduler-", true);
+        scheduler.startup();
+
+        Properties props = new Properties();
+        props.put(LogConfig.SegmentBytesProp(), segmentBytes);
+        log = Log.apply(logDir, LogConfig.fromProps(new Properties(), props), 0L, 0L, scheduler, new BrokerTopicStats(),
+            Time.SYSTEM, 60 * 60 * 1000, 10 * 60 * 1000, new LogDirFailureChannel(1), Option.empty(), Option.empty(),
+            Option.empty());
+
+        startMs = System.currentTimeMillis();
+        value = new byte[recordSize];
+        // start with a few segments so that the lookups have something to search
+        while (log.numberOfSegments() < 10)
+            append();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        scheduler.shutdown();
+        Utils.delete(logDir.getParentFile());
+    }
+
+    @Benchmark
+    @Group("appendListOffsets")
+    @GroupThreads(1)
+    public long append() {
+        MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE,
+            new SimpleRecord(System.currentTimeMillis(), value));
+        return log.appendAsLeader(records, 0, true).lastOffset();
+    }
+
+    @Benchmark
+    @Group("appendListOffsets")
+    @GroupThreads(2)
+    public Option<TimestampOffset> listOffsets() {
+        long now = System.currentTimeMillis();
+        return log.fetchOffsetsByTimestamp(startMs + ThreadLocalRandom.current().nextLong(now - startMs + 1));
+    }
+
+    @Benchmark
+    @Group("appendListOffsets")
+    @GroupThreads(2)
+    public long segmentRange() {
+        long logEndOffset = log.logEndOffset();
+        long from = ThreadLocalRandom.current().nextLong(logEndOffset + 1);
+        long size = 0;
+        Iterator<LogSegment> segments = log.logSegments(from, logEndOffset).iterator();
+        while (segments.hasNext())
+            size += segments.next().size();
+        return size;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares forwarding a fetched record batch by decompressing it and appending its records to a new batch, as a
+ * mirroring producer does with {@code send}, against passing the encoded batch through with
+ * {@link MemoryRecordsBuilder#forExistingBatch(ByteBuffer)}, as {@code sendBatch} does.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExistingBatchAppendBenchmark {
+
+    private static final int RECORDS_PER_BATCH = 100;
+
+    @Param(value = {"NONE", "LZ4", "GZIP"})
+    private CompressionType compressionType = CompressionType.NONE;
+
+    @Param(value = {"100", "1000"})
+    private int valueSize = 100;
+
+    private RecordBatch fetchedBatch;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void init() {
+        Random random = new Random(0);
+        byte[] value = new byte[valueSize];
+        buffer = ByteBuffer.allocate(RECORDS_PER_BATCH * (valueSize + 64) + 1024);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.CURRENT_MAGIC_VALUE,
+                compressionType, TimestampType.CREATE_TIME, 1000L);
+        for (int i = 0; i < RECORDS_PER_BATCH; i++) {
+            random.nextBytes(value);
+            builder.append(System.currentTimeMillis(), null, value);
+        }
+        MemoryRecords records = builder.build();
+        ByteBuffer fetched = ByteBuffer.allocate(records.sizeInBytes());
+        fetched.put(records.buffer());
+        fetched.flip();
+        fetchedBatch = MemoryRecords.readableRecords(fetched).batches().iterator().next();
+        buffer = ByteBuffer.allocate(buffer.capacity());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_BATCH)
+    public MemoryRecords reencodeRecords() {
+        buffer.clear();
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.CURRENT_MAGIC_VALUE,
+                compressionType, TimestampType.CREATE_TIME, 0L);
+        try (CloseableIterator<Record> iterator = fetchedBatch.streamingIterator(BufferSupplier.NO_CACHING)) {
+            while (iterator.hasNext()) {
+                Record record = iterator.next();
+                builder.append(record.timestamp(), record.key(), record.value(), record.headers());
+            }
+        }
+        builder.setProducerState(1L, (short) 0, 0, false);
+        return builder.build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_BATCH)
+    public MemoryRecords passThroughBatch() {
+        buffer.clear();
+        fetchedBatch.writeTo(buffer);
+        MemoryRecordsBuilder builder = MemoryRecordsBuilder.forExistingBatch(buffer);
+        builder.setProducerState(1L, (short) 0, 0, false);
+        return builder.build();
+    }
+}
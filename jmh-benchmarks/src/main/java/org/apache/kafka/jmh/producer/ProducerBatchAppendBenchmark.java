@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.StreamingValueWriter;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.serialization.StreamingSerializer;
+import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares appending records to the producer's accumulator with a value serialized to a byte array first against a
+ * value written by a {@link StreamingSerializer} into the reused value buffer of the appending thread. Run with
+ * {@code -prof gc} to see the allocation rate per record in {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProducerBatchAppendBenchmark {
+
+    private static final int RECORDS_PER_BATCH = 100;
+    private static final String TOPIC = "topic";
+
+    @Param(value = {"false", "true"})
+    private boolean streaming = false;
+
+    @Param(value = {"4", "32"})
+    private int fieldsPerValue = 4;
+
+    private final TopicPartition tp = new TopicPartition(TOPIC, 0);
+    private final Headers headers = new RecordHeaders();
+    private final LongArraySerializer serializer = new LongArraySerializer();
+    private long[] value;
+    private Metrics metrics;
+    private RecordAccumulator accumulator;
+
+    @Setup
+    public void init() {
+        value = new long[fieldsPerValue];
+        for (int i = 0; i < fieldsPerValue; i++)
+            value[i] = i;
+        int batchSize = RECORDS_PER_BATCH * (serializer.serializedSize(TOPIC, headers, value) + 64);
+        metrics = new Metrics();
+        accumulator = new RecordAccumulator(new LogContext(), batchSize, 4L * batchSize, CompressionType.NONE,
+                Long.MAX_VALUE, 100L, metrics, Time.SYSTEM, new ApiVersions(), null);
+    }
+
+    @TearDown
+    public void close() {
+        accumulator.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_BATCH)
+    public void appendBatch() throws InterruptedException {
+        for (int i = 0; i < RECORDS_PER_BATCH; i++) {
+            if (streaming) {
+                ByteBuffer serializedValue = accumulator.writeValue(new StreamingValueWriter<>(serializer, TOPIC,
+                        headers, value));
+                accumulator.append(tp, 0L, null, serializedValue, Record.EMPTY_HEADERS, null, 0L, false);
+            } else {
+                accumulator.append(tp, 0L, null, serializer.serialize(TOPIC, headers, value), Record.EMPTY_HEADERS,
+                        null, 0L, false);
+            }
+        }
+        // release the batch, so that every invocation fills a batch of its own
+        accumulator.abortIncompleteBatches();
+    }
+
+    private static class LongArraySerializer implements StreamingSerializer<long[]> {
+
+        @Override
+        public void configure(Map<String, ?> configs, boolean isKey) {
+        }
+
+        @Override
+        public byte[] serialize(String topic, long[] data) {
+            ByteBuffer buffer = ByteBuffer.allocate(data.length * 8);
+            for (long field : data)
+                buffer.putLong(field);
+            return buffer.array();
+        }
+
+        @Override
+        public byte[] serialize(String topic, Headers headers, long[] data) {
+            return serialize(topic, data);
+        }
+
+        @Override
+        public int serializedSize(String topic, Headers headers, long[] data) {
+            return data.length * 8;
+        }
+
+        @Override
+        public void serialize(String topic, Headers headers, long[] data, DataOutput out) throws IOException {
+            for (long field : data)
+                out.writeLong(field);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of appends to a single hot partition of a shared {@link RecordAccumulator} while one
+ * thread drains batches like the sender does. Uncompressed batches copy records outside of the partition lock,
+ * while compressed batches append under it, so comparing the two shows how appends scale with the number of
+ * threads. Change the number of appending threads with {@code -tg <appenders>,1}.
+ */
+@State(Scope.Group)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordAccumulatorAppendBenchmark {
+
+    private static final String TOPIC = "topic";
+    private static final int BATCH_SIZE = 16 * 1024;
+
+    @Param(value = {"NONE", "LZ4"})
+    private CompressionType compressionType = CompressionType.NONE;
+
+    @Param(value = {"100", "1000"})
+    private int messageSize = 100;
+
+    private final Node node = new Node(0, "localhost", 9092);
+    private final TopicPartition tp = new TopicPartition(TOPIC, 0);
+    private final Cluster cluster = new Cluster(null, Collections.singletonList(node),
+            Collections.singletonList(new PartitionInfo(TOPIC, 0, node, null, null)),
+            Collections.<String>emptySet(), Collections.<String>emptySet());
+    private Metrics metrics;
+    private RecordAccumulator accumulator;
+    private byte[] value;
+
+    @Setup
+    public void init() {
+        metrics = new Metrics();
+        accumulator = new RecordAccumulator(new LogContext(), BATCH_SIZE, 64L * 1024 * 1024, compressionType, 0L, 0L,
+                metrics, Time.SYSTEM, new ApiVersions(), null);
+        value = new byte[messageSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        accumulator.abortIncompleteBatches();
+        metrics.close();
+    }
+
+    @Benchmark
+    @Group("accumulator")
+    @GroupThreads(4)
+    public RecordAccumulator.RecordAppendResult append() throws InterruptedException {
+        return accumulator.append(tp, 0L, null, value, Record.EMPTY_HEADERS, null, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    @Group("accumulator")
+    @GroupThreads(1)
+    public int drain() {
+        Map<Integer, List<ProducerBatch>> drained = accumulator.drain(cluster, Collections.singleton(node),
+                Integer.MAX_VALUE, System.currentTimeMillis());
+        int batches = 0;
+        for (List<ProducerBatch> nodeBatches : drained.values()) {
+            for (ProducerBatch batch : nodeBatches) {
+                accumulator.deallocate(batch);
+                batches++;
+            }
+        }
+        return batches;
+    }
+}
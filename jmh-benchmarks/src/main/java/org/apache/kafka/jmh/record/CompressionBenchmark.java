@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import org.apache.kafka.common.record.AbstractRecords;
+import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compares the cost of compressing and decompressing a v2 record batch with each of the supported codecs.
+ * Values are built from a small vocabulary of words so that the payload compresses roughly like typical
+ * JSON or log line traffic, rather than the extremes of random or constant bytes.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+public class CompressionBenchmark {
+
+    private static final String[] WORDS = {"kafka", "broker", "topic", "partition", "offset", "consumer",
+        "producer", "replica", "leader", "\"timestamp\":", "\"id\":", "\"status\":\"ok\"", "{", "}", ",", "-", "0",
+        "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+
+    private final Random random = new Random(0);
+
+    @Param(value = {"NONE", "GZIP", "SNAPPY", "LZ4", "ZSTD"})
+    private CompressionType compressionType = CompressionType.NONE;
+
+    @Param(value = {"10", "100", "1000"})
+    private int recordsPerBatch = 100;
+
+    @Param(value = {"100", "1000"})
+    private int messageSize = 100;
+
+    private byte[][] values;
+    private ByteBuffer compressedBatch;
+    private int batchBufferSize;
+    private BufferSupplier bufferSupplier;
+
+    @Setup
+    public void init() {
+        bufferSupplier = BufferSupplier.create();
+        values = new byte[recordsPerBatch][];
+        for (int i = 0; i < recordsPerBatch; ++i)
+            values[i] = createValue();
+
+        batchBufferSize = AbstractRecords.estimateSizeInBytesUpperBound(RecordBatch.CURRENT_MAGIC_VALUE,
+                compressionType, new byte[0], values[0], Record.EMPTY_HEADERS) * recordsPerBatch;
+        compressedBatch = buildBatch().buffer();
+    }
+
+    private byte[] createValue() {
+        StringBuilder builder = new StringBuilder(messageSize + 16);
+        while (builder.length() < messageSize)
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        builder.setLength(messageSize);
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private MemoryRecords buildBatch() {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(batchBufferSize),
+                RecordBatch.CURRENT_MAGIC_VALUE, compressionType, TimestampType.CREATE_TIME, 0L);
+        for (byte[] value : values)
+            builder.append(0L, null, value);
+        return builder.build();
+    }
+
+    @Benchmark
+    public MemoryRecords measureCompression() {
+        return buildBatch();
+    }
+
+    @Benchmark
+    public void measureDecompression(Blackhole bh) throws IOException {
+        for (RecordBatch batch : MemoryRecords.readableRecords(compressedBatch.duplicate()).batches()) {
+            try (CloseableIterator<Record> iterator = batch.streamingIterator(bufferSupplier)) {
+                while (iterator.hasNext())
+                    bh.consume(iterator.next());
+            }
+        }
+    }
+
+}
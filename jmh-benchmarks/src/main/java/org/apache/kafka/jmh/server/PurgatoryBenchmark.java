@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.server;
+
+import kafka.server.DelayedOperation;
+import kafka.server.DelayedOperationPurgatory;
+import kafka.utils.timer.SystemTimer;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.Option;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Measures the throughput of the delayed operation purgatory when request handler threads concurrently
+ * park fetch-like operations and complete them from produce-like appends on the same set of partitions.
+ * Varying the number of watcher stripes shows how much of the cost is contention on the watcher map.
+ */
+@State(Scope.Group)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PurgatoryBenchmark {
+
+    @Param(value = {"1", "16", "512"})
+    private int watcherStripes = 512;
+
+    @Param(value = {"1000"})
+    private int partitionCount = 1000;
+
+    private DelayedOperationPurgatory<WaitForAppendOperation> purgatory;
+
+    private TopicPartition[] partitions;
+
+    private Seq<Object>[] watchKeys;
+
+    /* the number of appends made to each partition, which delayed operations wait on */
+    private AtomicLongArray appends;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        purgatory = new DelayedOperationPurgatory<>("benchmark", new SystemTimer("benchmark", 1, 20, System.currentTimeMillis()),
+            0, 1000, false, false, watcherStripes);
+        partitions = new TopicPartition[partitionCount];
+        watchKeys = new Seq[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new TopicPartition("topic", i);
+            watchKeys[i] = JavaConverters.asScalaBufferConverter(
+                Collections.<Object>singletonList(partitions[i])).asScala();
+        }
+        appends = new AtomicLongArray(partitionCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        purgatory.shutdown();
+    }
+
+    @Benchmark
+    @Group("produceFetch")
+    @GroupThreads(4)
+    public boolean fetch() {
+        int partition = ThreadLocalRandom.current().nextInt(partitionCount);
+        WaitForAppendOperation operation = new WaitForAppendOperation(partition, appends.get(partition) + 1);
+        return purgatory.tryCompleteElseWatch(operation, watchKeys[partition]);
+    }
+
+    @Benchmark
+    @Group("produceFetch")
+    @GroupThreads(4)
+    public int produce() {
+        int partition = ThreadLocalRandom.current().nextInt(partitionCount);
+        appends.incrementAndGet(partition);
+        return purgatory.checkAndComplete(partitions[partition]);
+    }
+
+    /**
+     * A delayed operation which completes once its partition has seen at least the given number of appends,
+     * similar to a fetch waiting for new data.
+     */
+    private class WaitForAppendOperation extends DelayedOperation {
+        private final int partition;
+        private final long requiredAppends;
+
+        WaitForAppendOperation(int partition, long requiredAppends) {
+            super(Long.MAX_VALUE, Option.<Lock>empty());
+            this.partition = partition;
+            this.requiredAppends = requiredAppends;
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return appends.get(partition) >= requiredAppends && forceComplete();
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.server;
+
+import kafka.network.RequestChannel;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.network.ListenerName;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.requests.ApiVersionsRequest;
+import org.apache.kafka.common.requests.RequestContext;
+import org.apache.kafka.common.requests.RequestHeader;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.apache.kafka.common.security.auth.SecurityProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of the request channel under many small requests, comparing a single request queue
+ * shared by all processors with a queue per processor from which the request handlers steal. Every thread acts as
+ * a processor queueing a request and as a handler taking the next one, which keeps the queues from filling up.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(16)
+public class RequestChannelBenchmark {
+
+    @Param(value = {"false", "true"})
+    private boolean perProcessorQueues = false;
+
+    @Param(value = {"8"})
+    private int numProcessors = 8;
+
+    private RequestChannel requestChannel;
+
+    private RequestChannel.Request[] requests;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int id = -1;
+
+        private int id(RequestChannelBenchmark benchmark) {
+            if (id < 0)
+                id = benchmark.threadIds.getAndIncrement();
+            return id;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        requestChannel = new RequestChannel(numProcessors, 500, perProcessorQueues, false);
+        requests = new RequestChannel.Request[numProcessors];
+        for (int i = 0; i < numProcessors; i++) {
+            ApiVersionsRequest request = new ApiVersionsRequest.Builder().build();
+            ByteBuffer buffer = request.serialize(new RequestHeader(ApiKeys.API_VERSIONS, request.version(), "", 0));
+            // the header is read first so that the body can be read by the request
+            RequestHeader header = RequestHeader.parse(buffer);
+            RequestContext context = new RequestContext(header, String.valueOf(i), InetAddress.getLocalHost(),
+                KafkaPrincipal.ANONYMOUS, new ListenerName(""), SecurityProtocol.PLAINTEXT);
+            requests[i] = new RequestChannel.Request(i, context, 0L, MemoryPool.NONE, buffer, requestChannel.metrics());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestChannel.shutdown();
+    }
+
+    @Benchmark
+    public RequestChannel.BaseRequest sendAndReceive(ThreadState state) {
+        int id = state.id(this);
+        requestChannel.sendRequest(requests[id % numProcessors]);
+        return requestChannel.receiveRequest(300, id);
+    }
+}